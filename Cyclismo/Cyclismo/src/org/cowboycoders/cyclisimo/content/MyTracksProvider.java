@@ -36,13 +36,16 @@
 package org.cowboycoders.cyclisimo.content;
 
 import org.cowboycoders.cyclisimo.content.MyTracksProviderUtils;
+import org.cowboycoders.cyclisimo.content.TrackPointChunksColumns;
 import org.cowboycoders.cyclisimo.content.TrackPointsColumns;
 import org.cowboycoders.cyclisimo.content.TracksColumns;
 import org.cowboycoders.cyclisimo.content.WaypointsColumns;
+import org.cowboycoders.cyclisimo.Manifest;
 import org.cowboycoders.cyclisimo.R;
 import com.google.common.annotations.VisibleForTesting;
 
 import android.content.ContentProvider;
+import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
@@ -53,8 +56,10 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Bundle;
 import android.os.Process;
 import android.text.TextUtils;
 import android.util.Log;
@@ -72,13 +77,16 @@ public class MyTracksProvider extends ContentProvider {
   private static final String TAG = MyTracksProvider.class.getSimpleName();
   @VisibleForTesting
   static final String DATABASE_NAME = "mytracks_turbo.db";
-  private static final int DATABASE_VERSION = 20;
+  private static final int DATABASE_VERSION = 23;
 
   /**
    * Database helper for creating and upgrading the database.
    */
   @VisibleForTesting
   static class DatabaseHelper extends SQLiteOpenHelper {
+
+    // Set by onCreate and onUpgrade for onOpen, which runs outside their transaction
+    private boolean convertToIncremental = false;
   
     public DatabaseHelper(Context context) {
       this(context, DATABASE_NAME);
@@ -91,9 +99,30 @@ public class MyTracksProvider extends ContentProvider {
   
     @Override
     public void onCreate(SQLiteDatabase db) {
+      // Must come before the tables, see onOpen
+      db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
       db.execSQL(TrackPointsColumns.CREATE_TABLE);
       db.execSQL(TracksColumns.CREATE_TABLE);
       db.execSQL(WaypointsColumns.CREATE_TABLE);
+      db.execSQL(TrackPointsColumns.CREATE_TRACKID_INDEX);
+      db.execSQL(WaypointsColumns.CREATE_TRACKID_INDEX);
+      db.execSQL(TrackPointChunksColumns.CREATE_TABLE);
+      db.execSQL(TrackPointChunksColumns.CREATE_TRACKID_INDEX);
+      convertToIncremental = true;
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+      if (convertToIncremental) {
+        convertToIncremental = false;
+        /*
+         * Opening the database adds the android_metadata table before onCreate,
+         * so the pragma only takes with a VACUUM. That is quick while the
+         * tables are still empty. An upgraded database is rewritten once, here;
+         * if that fails SpaceReclaimer falls back to full vacuums.
+         */
+        SpaceReclaimer.convertToIncremental(db);
+      }
     }
   
     @Override
@@ -104,6 +133,7 @@ public class MyTracksProvider extends ContentProvider {
         db.execSQL("DROP TABLE IF EXISTS " + TrackPointsColumns.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + TracksColumns.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + WaypointsColumns.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + TrackPointChunksColumns.TABLE_NAME);
         onCreate(db);
       } else {
         // Incremental upgrades. One if statement per DB version.
@@ -126,6 +156,23 @@ public class MyTracksProvider extends ContentProvider {
           db.execSQL(
               "ALTER TABLE " + TracksColumns.TABLE_NAME + " ADD " + TracksColumns.ICON + " STRING");
         }
+        // Add track points and waypoints TRACKID, _ID indexes
+        if (oldVersion <= 20) {
+          Log.w(TAG, "Upgrade DB: Adding trackid indexes.");
+          db.execSQL(TrackPointsColumns.CREATE_TRACKID_INDEX);
+          db.execSQL(WaypointsColumns.CREATE_TRACKID_INDEX);
+        }
+        // Add track point chunks table
+        if (oldVersion <= 21) {
+          Log.w(TAG, "Upgrade DB: Adding track point chunks table.");
+          db.execSQL(TrackPointChunksColumns.CREATE_TABLE);
+          db.execSQL(TrackPointChunksColumns.CREATE_TRACKID_INDEX);
+        }
+        // Switch to incremental vacuum
+        if (oldVersion <= 22) {
+          Log.w(TAG, "Upgrade DB: Switching to incremental vacuum.");
+          convertToIncremental = true;
+        }
       }
     }
   }
@@ -137,11 +184,26 @@ public class MyTracksProvider extends ContentProvider {
    */
   @VisibleForTesting
   enum UrlType {
-    TRACKPOINTS, TRACKPOINTS_ID, TRACKS, TRACKS_ID, WAYPOINTS, WAYPOINTS_ID
+    TRACKPOINTS, TRACKPOINTS_ID, TRACKS, TRACKS_ID, WAYPOINTS, WAYPOINTS_ID, TRACKPOINT_CHUNKS,
+    TRACKPOINT_CHUNKS_ID
   }
 
+  private static final String INSERT_TRACK_POINT = "INSERT INTO " + TrackPointsColumns.TABLE_NAME
+      + " (" + TrackPointsColumns._ID + ", "
+      + TrackPointsColumns.TRACKID + ", "
+      + TrackPointsColumns.LONGITUDE + ", "
+      + TrackPointsColumns.LATITUDE + ", "
+      + TrackPointsColumns.TIME + ", "
+      + TrackPointsColumns.ALTITUDE + ", "
+      + TrackPointsColumns.ACCURACY + ", "
+      + TrackPointsColumns.SPEED + ", "
+      + TrackPointsColumns.BEARING + ", "
+      + TrackPointsColumns.SENSOR
+      + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
   private final UriMatcher uriMatcher;
   private SQLiteDatabase db;
+  private SpaceReclaimer spaceReclaimer;
 
   public MyTracksProvider() {
     uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -157,6 +219,10 @@ public class MyTracksProvider extends ContentProvider {
         MyTracksProviderUtils.AUTHORITY, WaypointsColumns.TABLE_NAME, UrlType.WAYPOINTS.ordinal());
     uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, WaypointsColumns.TABLE_NAME + "/#",
         UrlType.WAYPOINTS_ID.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackPointChunksColumns.TABLE_NAME,
+        UrlType.TRACKPOINT_CHUNKS.ordinal());
+    uriMatcher.addURI(MyTracksProviderUtils.AUTHORITY, TrackPointChunksColumns.TABLE_NAME + "/#",
+        UrlType.TRACKPOINT_CHUNKS_ID.ordinal());
   }
 
   @Override
@@ -180,7 +246,23 @@ public class MyTracksProvider extends ContentProvider {
     } catch (SQLiteException e) {
       Log.e(TAG, "Unable to open database for writing.", e);
     }
-    return db != null;
+    if (db == null) {
+      return false;
+    }
+    if (spaceReclaimer != null) {
+      spaceReclaimer.shutdown();
+    }
+    // Picks up anything left from before
+    spaceReclaimer = new SpaceReclaimer(db);
+    spaceReclaimer.requestReclaim();
+    return true;
+  }
+
+  @Override
+  public void shutdown() {
+    if (spaceReclaimer != null) {
+      spaceReclaimer.shutdown();
+    }
   }
 
   @Override
@@ -188,19 +270,21 @@ public class MyTracksProvider extends ContentProvider {
     if (!canAccess()) {
       return 0;
     }
+    spaceReclaimer.onActivity();
     String table;
-    boolean shouldVacuum = false;
     switch (getUrlType(url)) {
       case TRACKPOINTS:
         table = TrackPointsColumns.TABLE_NAME;
         break;
       case TRACKS:
         table = TracksColumns.TABLE_NAME;
-        shouldVacuum = true;
         break;
       case WAYPOINTS:
         table = WaypointsColumns.TABLE_NAME;
         break;
+      case TRACKPOINT_CHUNKS:
+        table = TrackPointChunksColumns.TABLE_NAME;
+        break;
       default:
         throw new IllegalArgumentException("Unknown URL " + url);
     }
@@ -215,11 +299,9 @@ public class MyTracksProvider extends ContentProvider {
       db.endTransaction();
     }
     getContext().getContentResolver().notifyChange(url, null, true);
-  
-    if (shouldVacuum) {
-      // If a potentially large amount of data was deleted, reclaim its space.
-      Log.i(TAG, "Vacuuming the database.");
-      db.execSQL("VACUUM");
+
+    if (count > 0) {
+      spaceReclaimer.requestReclaim();
     }
     return count;
   }
@@ -242,6 +324,10 @@ public class MyTracksProvider extends ContentProvider {
         return WaypointsColumns.CONTENT_TYPE;
       case WAYPOINTS_ID:
         return WaypointsColumns.CONTENT_ITEMTYPE;
+      case TRACKPOINT_CHUNKS:
+        return TrackPointChunksColumns.CONTENT_TYPE;
+      case TRACKPOINT_CHUNKS_ID:
+        return TrackPointChunksColumns.CONTENT_ITEMTYPE;
       default:
         throw new IllegalArgumentException("Unknown URL " + url);
     }
@@ -252,6 +338,7 @@ public class MyTracksProvider extends ContentProvider {
     if (!canAccess()) {
       return null;
     }
+    spaceReclaimer.onActivity();
     if (initialValues == null) {
       initialValues = new ContentValues();
     }
@@ -271,6 +358,7 @@ public class MyTracksProvider extends ContentProvider {
     if (!canAccess()) {
       return 0;
     }
+    spaceReclaimer.onActivity();
     int numInserted = 0;
     try {
       // Use a transaction in order to make the insertions run as a single batch
@@ -291,12 +379,166 @@ public class MyTracksProvider extends ContentProvider {
     return numInserted;
   }
 
+  @Override
+  public Bundle call(String method, String arg, Bundle extras) {
+    if (!canAccess()) {
+      return null;
+    }
+    spaceReclaimer.onActivity();
+    if (TrackPointBatch.INSERT_METHOD.equals(method) && extras != null) {
+      enforcePermission(Manifest.permission.WRITE_TRACK_DATA, method);
+      Bundle result = new Bundle();
+      result.putLong(TrackPointBatch.LAST_ID_KEY,
+          insertTrackPoints(TrackPointBatch.fromBundle(extras)));
+      return result;
+    }
+    if (MyTracksProviderUtils.DELETE_TRACKS_METHOD.equals(method) && extras != null) {
+      enforcePermission(Manifest.permission.WRITE_TRACK_DATA, method);
+      long[] trackIds = extras.getLongArray(MyTracksProviderUtils.TRACK_IDS_KEY);
+      if (trackIds != null) {
+        deleteTracks(trackIds);
+      }
+      return null;
+    }
+    if (MyTracksProviderUtils.COMPACT_TRACK_POINTS_METHOD.equals(method) && extras != null) {
+      enforcePermission(Manifest.permission.WRITE_TRACK_DATA, method);
+      long[] trackIds = extras.getLongArray(MyTracksProviderUtils.TRACK_IDS_KEY);
+      int numPoints = 0;
+      if (trackIds != null) {
+        for (long trackId : trackIds) {
+          numPoints += compactTrackPoints(trackId);
+        }
+      }
+      Bundle result = new Bundle();
+      result.putInt(MyTracksProviderUtils.NUM_POINTS_KEY, numPoints);
+      return result;
+    }
+    if (SpaceReclaimer.STATS_METHOD.equals(method)) {
+      enforcePermission(Manifest.permission.READ_TRACK_DATA, method);
+      return spaceReclaimer.getStats();
+    }
+    return null;
+  }
+
+  /**
+   * Deletes tracks with their track points and waypoints in one transaction.
+   * The space is reclaimed later, when the database is idle.
+   * 
+   * @param trackIds the track ids
+   */
+  @VisibleForTesting
+  void deleteTracks(long[] trackIds) {
+    String pointsWhere = TrackPointsColumns.TRACKID + "=?";
+    String chunksWhere = TrackPointChunksColumns.TRACKID + "=?";
+    String waypointsWhere = WaypointsColumns.TRACKID + "=?";
+    String tracksWhere = TracksColumns._ID + "=?";
+    int count = 0;
+    try {
+      db.beginTransaction();
+      for (long trackId : trackIds) {
+        String[] selectionArgs = new String[] { Long.toString(trackId) };
+        db.delete(TrackPointsColumns.TABLE_NAME, pointsWhere, selectionArgs);
+        db.delete(TrackPointChunksColumns.TABLE_NAME, chunksWhere, selectionArgs);
+        db.delete(WaypointsColumns.TABLE_NAME, waypointsWhere, selectionArgs);
+        count += db.delete(TracksColumns.TABLE_NAME, tracksWhere, selectionArgs);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    ContentResolver contentResolver = getContext().getContentResolver();
+    contentResolver.notifyChange(TrackPointsColumns.CONTENT_URI, null, true);
+    contentResolver.notifyChange(TrackPointChunksColumns.CONTENT_URI, null, true);
+    contentResolver.notifyChange(WaypointsColumns.CONTENT_URI, null, true);
+    contentResolver.notifyChange(TracksColumns.CONTENT_URI, null, true);
+    if (count > 0) {
+      spaceReclaimer.requestReclaim();
+    }
+  }
+
+  /**
+   * Packs the track points of a track into {@link TrackPointChunksColumns}
+   * rows of {@link TrackPointChunk#DEFAULT_SIZE} points, replacing the rows,
+   * in one transaction. Points already packed are left alone, so the track
+   * should not be recording.
+   * 
+   * @param trackId the track id
+   * @return the number of points packed
+   */
+  @VisibleForTesting
+  int compactTrackPoints(long trackId) {
+    String[] selectionArgs = new String[] { Long.toString(trackId) };
+    TrackPointBatch batch = new TrackPointBatch(TrackPointChunk.DEFAULT_SIZE);
+    ContentValues values = new ContentValues();
+    int count = 0;
+    long lastId = -1L;
+    try {
+      db.beginTransaction();
+      Cursor cursor = db.query(TrackPointsColumns.TABLE_NAME, TrackPointsColumns.COLUMNS,
+          TrackPointsColumns.TRACKID + "=?", selectionArgs, null, null, TrackPointsColumns._ID);
+      try {
+        while (cursor.moveToNext()) {
+          // In the order of TrackPointsColumns.COLUMNS
+          batch.add(cursor.getLong(0), trackId, cursor.getInt(2), cursor.getInt(3),
+              cursor.getLong(4),
+              cursor.isNull(5) ? Double.NaN : cursor.getDouble(5),
+              cursor.isNull(6) ? Float.NaN : cursor.getFloat(6),
+              cursor.isNull(7) ? Float.NaN : cursor.getFloat(7),
+              cursor.isNull(8) ? Float.NaN : cursor.getFloat(8),
+              cursor.isNull(9) ? null : cursor.getBlob(9));
+          if (batch.size() == TrackPointChunk.DEFAULT_SIZE || cursor.isLast()) {
+            int size = batch.size();
+            lastId = batch.getId(size - 1);
+            values.clear();
+            values.put(TrackPointChunksColumns.TRACKID, trackId);
+            values.put(TrackPointChunksColumns.FIRSTID, batch.getId(0));
+            values.put(TrackPointChunksColumns.LASTID, lastId);
+            values.put(TrackPointChunksColumns.NUMPOINTS, size);
+            values.put(TrackPointChunksColumns.DATA, TrackPointChunk.encode(batch, 0, size));
+            if (db.insert(TrackPointChunksColumns.TABLE_NAME, TrackPointChunksColumns._ID,
+                values) < 0) {
+              throw new SQLiteException("Failed to insert a track point chunk");
+            }
+            count += size;
+            batch.clear();
+          }
+        }
+      } finally {
+        cursor.close();
+      }
+      if (count > 0) {
+        db.delete(TrackPointsColumns.TABLE_NAME,
+            TrackPointsColumns.TRACKID + "=? AND " + TrackPointsColumns._ID + "<=?",
+            new String[] { Long.toString(trackId), Long.toString(lastId) });
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    if (count > 0) {
+      ContentResolver contentResolver = getContext().getContentResolver();
+      contentResolver.notifyChange(TrackPointsColumns.CONTENT_URI, null, true);
+      contentResolver.notifyChange(TrackPointChunksColumns.CONTENT_URI, null, true);
+      spaceReclaimer.requestReclaim();
+    }
+    return count;
+  }
+
+  /**
+   * Gets the {@link SpaceReclaimer} for the database.
+   */
+  @VisibleForTesting
+  SpaceReclaimer getSpaceReclaimer() {
+    return spaceReclaimer;
+  }
+
   @Override
   public Cursor query(
       Uri url, String[] projection, String selection, String[] selectionArgs, String sort) {
     if (!canAccess()) {
       return null;
     }
+    spaceReclaimer.onActivity();
     SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
     String sortOrder = null;
     switch (getUrlType(url)) {
@@ -324,6 +566,14 @@ public class MyTracksProvider extends ContentProvider {
         queryBuilder.setTables(WaypointsColumns.TABLE_NAME);
         queryBuilder.appendWhere("_id=" + url.getPathSegments().get(1));
         break;
+      case TRACKPOINT_CHUNKS:
+        queryBuilder.setTables(TrackPointChunksColumns.TABLE_NAME);
+        sortOrder = sort != null ? sort : TrackPointChunksColumns.DEFAULT_SORT_ORDER;
+        break;
+      case TRACKPOINT_CHUNKS_ID:
+        queryBuilder.setTables(TrackPointChunksColumns.TABLE_NAME);
+        queryBuilder.appendWhere("_id=" + url.getPathSegments().get(1));
+        break;
       default:
         throw new IllegalArgumentException("Unknown url " + url);
     }
@@ -338,6 +588,7 @@ public class MyTracksProvider extends ContentProvider {
     if (!canAccess()) {
       return 0;
     }
+    spaceReclaimer.onActivity();
     String table;
     String whereClause;
     switch (getUrlType(url)) {
@@ -401,6 +652,19 @@ public class MyTracksProvider extends ContentProvider {
     }
   }
 
+  /**
+   * Throws a {@link SecurityException} if the caller does not hold a
+   * permission. The provider's read and write permissions cover queries and
+   * updates but not {@link #call(String, String, Bundle)}.
+   * 
+   * @param permission the permission
+   * @param method the method called
+   */
+  private void enforcePermission(String permission, String method) {
+    getContext().enforceCallingOrSelfPermission(
+        permission, "Calling " + method + " requires " + permission);
+  }
+
   /**
    * Gets the {@link UrlType} for a url.
    * 
@@ -452,6 +716,62 @@ public class MyTracksProvider extends ContentProvider {
     throw new SQLiteException("Failed to insert a track point " + url);
   }
 
+  /**
+   * Inserts a batch of track points through one compiled statement, in one
+   * transaction.
+   * 
+   * @param batch the track points
+   * @return the id of the last point inserted, -1L if there were none
+   */
+  @VisibleForTesting
+  long insertTrackPoints(TrackPointBatch batch) {
+    int size = batch.size();
+    if (size == 0) {
+      return -1L;
+    }
+    long rowId = -1L;
+    SQLiteStatement statement = db.compileStatement(INSERT_TRACK_POINT);
+    try {
+      db.beginTransaction();
+      for (int i = 0; i < size; i++) {
+        statement.clearBindings();
+        long id = batch.getId(i);
+        if (id != -1L) {
+          statement.bindLong(1, id);
+        }
+        statement.bindLong(2, batch.getTrackId(i));
+        statement.bindLong(3, batch.getLongitude(i));
+        statement.bindLong(4, batch.getLatitude(i));
+        statement.bindLong(5, batch.getTime(i));
+        // parameters left unbound are null
+        bindOptional(statement, 6, batch.getAltitude(i));
+        bindOptional(statement, 7, batch.getAccuracy(i));
+        bindOptional(statement, 8, batch.getSpeed(i));
+        bindOptional(statement, 9, batch.getBearing(i));
+        byte[] sensor = batch.getSensor(i);
+        if (sensor != null) {
+          statement.bindBlob(10, sensor);
+        }
+        rowId = statement.executeInsert();
+        if (rowId < 0) {
+          throw new SQLiteException("Failed to insert a track point");
+        }
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      statement.close();
+    }
+    getContext().getContentResolver().notifyChange(TrackPointsColumns.CONTENT_URI, null, true);
+    return rowId;
+  }
+
+  private static void bindOptional(SQLiteStatement statement, int index, double value) {
+    if (!Double.isNaN(value)) {
+      statement.bindDouble(index, value);
+    }
+  }
+
   /**
    * Inserts a track.
    * 
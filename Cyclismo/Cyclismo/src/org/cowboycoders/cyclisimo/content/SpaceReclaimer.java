@@ -0,0 +1,273 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.cyclisimo.content;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gives the space freed by deletes back to the file system, a few pages at a
+ * time, once the database has been left alone for a while.
+ *
+ * Databases in auto_vacuum=INCREMENTAL mode are reclaimed step by step.
+ * {@link MyTracksProvider.DatabaseHelper} creates new databases in that mode
+ * and switches older ones over once, when they are upgraded. A database that
+ * hasn't been switched yet gets a full VACUUM instead, as before.
+ */
+public class SpaceReclaimer {
+
+  private static final String TAG = SpaceReclaimer.class.getSimpleName();
+
+  /**
+   * Provider method returning the statistics below
+   */
+  public static final String STATS_METHOD = "spaceStats";
+
+  /** Long: pages on the free list */
+  public static final String FREE_PAGES_KEY = "freePages";
+  /** Long: pages in the database file */
+  public static final String PAGE_COUNT_KEY = "pageCount";
+  /** Long: bytes per page */
+  public static final String PAGE_SIZE_KEY = "pageSize";
+  /** Long: pages given back since the provider started */
+  public static final String RECLAIMED_PAGES_KEY = "reclaimedPages";
+  /** Long: time spent vacuuming since the provider started, in ms */
+  public static final String VACUUM_MILLIS_KEY = "vacuumMillis";
+
+  /**
+   * Time without reads or writes before reclaiming starts
+   */
+  public static final long DEFAULT_IDLE_MILLIS = 30000;
+
+  /**
+   * Pages freed per step, 1MB with the default page size. Each step holds the
+   * write lock.
+   */
+  public static final int DEFAULT_STEP_PAGES = 256;
+
+  // values of PRAGMA auto_vacuum
+  private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+  private final SQLiteDatabase db;
+  private final long idleNanos;
+  private final int stepPages;
+  private final ScheduledExecutorService executor;
+
+  private volatile long lastActivity = System.nanoTime();
+
+  // Guarded by this
+  private ScheduledFuture<?> pending;
+  private long reclaimedPages = 0;
+  private long vacuumNanos = 0;
+
+  private final Runnable reclaimTask = new Runnable() {
+    @Override
+    public void run() {
+      synchronized (SpaceReclaimer.this) {
+        pending = null;
+      }
+      long idleFor = System.nanoTime() - lastActivity;
+      if (idleFor < idleNanos) {
+        schedule(idleNanos - idleFor);
+        return;
+      }
+      try {
+        if (!reclaim(true)) {
+          schedule(idleNanos);
+        }
+      } catch (SQLiteException e) {
+        Log.w(TAG, "Unable to reclaim free pages.", e);
+      }
+    }
+  };
+
+  public SpaceReclaimer(SQLiteDatabase db) {
+    this(db, DEFAULT_IDLE_MILLIS, DEFAULT_STEP_PAGES);
+  }
+
+  @VisibleForTesting
+  SpaceReclaimer(SQLiteDatabase db, long idleMillis, int stepPages) {
+    this.db = db;
+    this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+    this.stepPages = stepPages;
+    this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, TAG);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Notes a read or write, putting off any reclaiming
+   */
+  public void onActivity() {
+    lastActivity = System.nanoTime();
+  }
+
+  /**
+   * Reclaims space once the database is idle
+   */
+  public void requestReclaim() {
+    onActivity();
+    schedule(idleNanos);
+  }
+
+  private synchronized void schedule(long delayNanos) {
+    if (pending != null || executor.isShutdown()) {
+      return;
+    }
+    pending = executor.schedule(reclaimTask, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Empties the free list in steps of stepPages. A database that isn't in
+   * incremental mode is vacuumed in one go.
+   *
+   * @param yieldToActivity stop between steps if the database has been used meanwhile
+   * @return true if there is nothing left to reclaim
+   */
+  @VisibleForTesting
+  boolean reclaim(boolean yieldToActivity) {
+    long start = System.nanoTime();
+    if (!isIncremental(db)) {
+      long freePages = getFreePages();
+      if (freePages > 0) {
+        Log.i(TAG, "Not in incremental vacuum mode, vacuuming the database.");
+        db.execSQL("VACUUM");
+        addVacuumTime(System.nanoTime() - start, freePages - getFreePages());
+      }
+      return true;
+    }
+
+    long freePages = getFreePages();
+    while (freePages > 0) {
+      long stepStart = System.nanoTime();
+      vacuumStep();
+      long remaining = getFreePages();
+      addVacuumTime(System.nanoTime() - stepStart, freePages - remaining);
+      freePages = remaining;
+      if (yieldToActivity && lastActivity - start > 0) {
+        break;
+      }
+    }
+    if (freePages == 0) {
+      Log.d(TAG, "Free list empty after "
+          + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms.");
+    }
+    return freePages == 0;
+  }
+
+  /**
+   * Switches the database to incremental vacuum with a full VACUUM. Blocks
+   * until the whole file has been rewritten, holding the write lock, so it
+   * should only be run once, while opening the database. Can't be called in
+   * a transaction.
+   *
+   * @param db the database
+   * @return true if the database is in incremental mode
+   */
+  public static boolean convertToIncremental(SQLiteDatabase db) {
+    if (isIncremental(db)) {
+      return true;
+    }
+    Log.i(TAG, "Switching the database to incremental vacuum.");
+    try {
+      db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+      db.execSQL("VACUUM");
+    } catch (SQLiteException e) {
+      Log.w(TAG, "Unable to switch the database to incremental vacuum.", e);
+    }
+    return isIncremental(db);
+  }
+
+  public static boolean isIncremental(SQLiteDatabase db) {
+    return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) == AUTO_VACUUM_INCREMENTAL;
+  }
+
+  private void vacuumStep() {
+    // Frees one page per row stepped through, so the whole result is read
+    Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum(" + stepPages + ")", null);
+    try {
+      while (cursor.moveToNext()) {
+        // nothing to read
+      }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private synchronized void addVacuumTime(long nanos, long pages) {
+    vacuumNanos += nanos;
+    reclaimedPages += pages;
+  }
+
+  public long getFreePages() {
+    return DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+  }
+
+  public long getPageCount() {
+    return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+  }
+
+  public long getPageSize() {
+    return DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+  }
+
+  public synchronized long getReclaimedPages() {
+    return reclaimedPages;
+  }
+
+  public synchronized long getVacuumMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(vacuumNanos);
+  }
+
+  /**
+   * Statistics under the keys above
+   */
+  public Bundle getStats() {
+    Bundle stats = new Bundle();
+    stats.putLong(FREE_PAGES_KEY, getFreePages());
+    stats.putLong(PAGE_COUNT_KEY, getPageCount());
+    stats.putLong(PAGE_SIZE_KEY, getPageSize());
+    stats.putLong(RECLAIMED_PAGES_KEY, getReclaimedPages());
+    stats.putLong(VACUUM_MILLIS_KEY, getVacuumMillis());
+    return stats;
+  }
+
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+}
@@ -41,6 +41,7 @@ import static org.cowboycoders.cyclisimo.Constants.MAX_NETWORK_AGE_MS;
 import static org.cowboycoders.cyclisimo.Constants.TARGET_DISPLAYED_TRACK_POINTS;
 
 import org.cowboycoders.cyclisimo.content.MyTracksCourseProviderUtils;
+import org.cowboycoders.cyclisimo.content.MyTracksLocation;
 import org.cowboycoders.cyclisimo.content.MyTracksProviderUtils;
 import org.cowboycoders.cyclisimo.content.Track;
 import org.cowboycoders.cyclisimo.content.Waypoint;
@@ -116,6 +117,9 @@ public class TrackDataHub implements DataSourceListener {
   private long firstSeenLocationId;
   private long lastSeenLocationId;
 
+  // Track point filled in for each point read, only used in the handler thread
+  private final MyTracksLocation trackPoint = new MyTracksLocation(LocationManager.GPS_PROVIDER);
+
   /**
    * Creates a new instance.
    */
@@ -659,7 +663,7 @@ public class TrackDataHub implements DataSourceListener {
     int samplingFrequency = -1;
     Log.d(TAG,"selectedTrackID: " + selectedTrackId);
     LocationIterator iterator = myTracksProviderUtils.getTrackPointLocationIterator(selectedTrackId,
-        localLastSeenLocationId + 1, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+        localLastSeenLocationId + 1, false, trackPoint);
     boolean includeNextPoint = false;
     while (iterator.hasNext()) {
       Location location = iterator.next();
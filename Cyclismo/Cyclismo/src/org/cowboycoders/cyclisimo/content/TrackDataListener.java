@@ -102,14 +102,16 @@ public interface TrackDataListener {
   public void clearTrackPoints();
 
   /**
-   * Called when a sampled in track point is read.
+   * Called when a sampled in track point is read. The location is reused for
+   * the next point, copy it to keep it.
    * 
    * @param location the location
    */
   public void onSampledInTrackPoint(Location location);
 
   /**
-   * Called when a sampled out track point is read.
+   * Called when a sampled out track point is read. The location is reused for
+   * the next point, copy it to keep it.
    * 
    * @param location the location
    */
@@ -117,6 +119,7 @@ public interface TrackDataListener {
 
   /**
    * Called when an invalid track point representing a segment split is read.
+   * The location is reused for the next point, copy it to keep it.
    */
   public void onSegmentSplit(Location location);
 
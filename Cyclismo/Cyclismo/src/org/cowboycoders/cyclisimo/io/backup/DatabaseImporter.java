@@ -35,6 +35,10 @@
 package org.cowboycoders.cyclisimo.io.backup;
 
 import org.cowboycoders.cyclisimo.content.ContentTypeIds;
+import org.cowboycoders.cyclisimo.content.MyTracksProviderUtils;
+import org.cowboycoders.cyclisimo.content.MyTracksProviderUtilsImpl;
+import org.cowboycoders.cyclisimo.content.TrackPointBatch;
+import org.cowboycoders.cyclisimo.content.TrackPointsColumns;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
@@ -59,6 +63,10 @@ public class DatabaseImporter {
   private final boolean readNullFields;
   private final int bulkSize;
 
+  // Track points go through the batch insert, null for other tables
+  private final TrackPointBatch trackPoints;
+  private final MyTracksProviderUtils myTracksProviderUtils;
+
   // Metadata read from the reader
   private String[] columnNames;
   private byte[] columnTypes;
@@ -74,6 +82,13 @@ public class DatabaseImporter {
     this.resolver = resolver;
     this.readNullFields = readNullFields;
     this.bulkSize = bulkSize;
+    if (TrackPointsColumns.CONTENT_URI.equals(destinationUri)) {
+      trackPoints = new TrackPointBatch(bulkSize);
+      myTracksProviderUtils = new MyTracksProviderUtilsImpl(resolver);
+    } else {
+      trackPoints = null;
+      myTracksProviderUtils = null;
+    }
   }
 
   /**
@@ -148,7 +163,15 @@ public class DatabaseImporter {
   }
 
   protected void doBulkInsert(ContentValues[] values) {
-    resolver.bulkInsert(destinationUri, values);
+    if (trackPoints == null) {
+      resolver.bulkInsert(destinationUri, values);
+      return;
+    }
+    trackPoints.clear();
+    for (ContentValues contentValues : values) {
+      trackPoints.add(contentValues);
+    }
+    myTracksProviderUtils.bulkInsertTrackPoints(trackPoints);
   }
 
   /**
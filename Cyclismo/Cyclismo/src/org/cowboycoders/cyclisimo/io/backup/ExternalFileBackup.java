@@ -36,6 +36,9 @@ package org.cowboycoders.cyclisimo.io.backup;
 
 import static org.cowboycoders.cyclisimo.Constants.TAG;
 
+import org.cowboycoders.cyclisimo.content.TrackPointBatch;
+import org.cowboycoders.cyclisimo.content.TrackPointChunk;
+import org.cowboycoders.cyclisimo.content.TrackPointChunksColumns;
 import org.cowboycoders.cyclisimo.content.TrackPointsColumns;
 import org.cowboycoders.cyclisimo.content.TracksColumns;
 import org.cowboycoders.cyclisimo.content.WaypointsColumns;
@@ -44,6 +47,7 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.util.Log;
 
 import java.io.DataInputStream;
@@ -210,13 +214,7 @@ class ExternalFileBackup {
         waypointsCursor.close();
       }
 
-      Cursor pointsCursor = contentResolver.query(
-          TrackPointsColumns.CONTENT_URI, null, null, null, null);
-      try {
-        pointDumper.writeAllRows(pointsCursor, outWriter);
-      } finally {
-        pointsCursor.close();
-      }
+      writeTrackPoints(contentResolver, pointDumper, outWriter);
 
       // Dump preferences
       SharedPreferences preferences = context.getSharedPreferences(
@@ -236,6 +234,54 @@ class ExternalFileBackup {
     }
   }
 
+  /**
+   * Writes the track point rows followed by the packed track points, unpacked
+   * into rows, as one table.
+   */
+  private void writeTrackPoints(ContentResolver contentResolver, DatabaseDumper pointDumper,
+      DataOutputStream outWriter) throws IOException {
+    Cursor pointsCursor = contentResolver.query(
+        TrackPointsColumns.CONTENT_URI, TrackPointsColumns.COLUMNS, null, null, null);
+    Cursor chunksCursor = null;
+    try {
+      chunksCursor = contentResolver.query(TrackPointChunksColumns.CONTENT_URI,
+          new String[] { TrackPointChunksColumns.TRACKID, TrackPointChunksColumns.NUMPOINTS,
+              TrackPointChunksColumns.DATA }, null, null, null);
+      int numRows = pointsCursor.getCount();
+      while (chunksCursor.moveToNext()) {
+        numRows += chunksCursor.getInt(1);
+      }
+      pointDumper.writeHeaders(pointsCursor, numRows, outWriter);
+      while (pointsCursor.moveToNext()) {
+        pointDumper.writeOneRow(pointsCursor, outWriter);
+      }
+
+      TrackPointBatch batch = new TrackPointBatch(TrackPointChunk.DEFAULT_SIZE);
+      chunksCursor.moveToPosition(-1);
+      while (chunksCursor.moveToNext()) {
+        batch.clear();
+        try {
+          TrackPointChunk.decode(chunksCursor.getBlob(2), chunksCursor.getLong(0), batch);
+        } catch (IllegalArgumentException e) {
+          throw new IOException("Unreadable track point chunk: " + e.getMessage());
+        }
+        MatrixCursor rows = new MatrixCursor(TrackPointsColumns.COLUMNS, batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+          rows.addRow(batch.toRow(i));
+        }
+        while (rows.moveToNext()) {
+          pointDumper.writeOneRow(rows, outWriter);
+        }
+        rows.close();
+      }
+    } finally {
+      pointsCursor.close();
+      if (chunksCursor != null) {
+        chunksCursor.close();
+      }
+    }
+  }
+
   /**
    * Synchronously restores the backup from the given file.
    */
@@ -265,6 +311,7 @@ class ExternalFileBackup {
       // Delete all previous contents of the tables and preferences.
       resolver.delete(TracksColumns.CONTENT_URI, null, null);
       resolver.delete(TrackPointsColumns.CONTENT_URI, null, null);
+      resolver.delete(TrackPointChunksColumns.CONTENT_URI, null, null);
       resolver.delete(WaypointsColumns.CONTENT_URI, null, null);
 
       // Import the new contents of each table
@@ -36,6 +36,7 @@ package org.cowboycoders.cyclisimo.io.file;
 
 import org.cowboycoders.cyclisimo.content.MyTracksProviderUtils;
 import org.cowboycoders.cyclisimo.content.Track;
+import org.cowboycoders.cyclisimo.content.TrackPointBatch;
 
 import android.location.Location;
 import android.location.LocationManager;
@@ -132,10 +133,7 @@ public class GpxImporter extends DefaultHandler {
   private Location lastLocationInSegment;
 
   // The buffered locations
-  private Location[] bufferedLocations = new Location[MAX_BUFFERED_LOCATIONS];
-
-  // The number of buffered locations
-  private int numBufferedLocations = 0;
+  private final TrackPointBatch bufferedLocations = new TrackPointBatch(MAX_BUFFERED_LOCATIONS);
 
   /**
    * Reads GPS tracks from a GPX file and writes tracks and their coordinates to
@@ -482,11 +480,10 @@ public class GpxImporter extends DefaultHandler {
     }
     tripStatisticsUpdater.addLocation(newLocation, minRecordingDistance);
     
-    bufferedLocations[numBufferedLocations] = newLocation;
-    numBufferedLocations++;
+    bufferedLocations.add(newLocation, track.getId());
     numberOfLocations++;
 
-    if (numBufferedLocations >= MAX_BUFFERED_LOCATIONS) {
+    if (bufferedLocations.size() >= MAX_BUFFERED_LOCATIONS) {
       flushPoints();
     }
   }
@@ -495,12 +492,11 @@ public class GpxImporter extends DefaultHandler {
    * Flushes the points to the database.
    */
   private void flushPoints() {
-    if (numBufferedLocations <= 0) {
+    if (bufferedLocations.isEmpty()) {
       return;
     }
-    myTracksProviderUtils.bulkInsertTrackPoint(
-        bufferedLocations, numBufferedLocations, track.getId());
-    numBufferedLocations = 0;
+    myTracksProviderUtils.bulkInsertTrackPoints(bufferedLocations);
+    bufferedLocations.clear();
   }
 
   /**
@@ -46,7 +46,6 @@ import org.cowboycoders.cyclisimo.R;
 import android.app.Activity;
 import android.content.Context;
 import android.database.Cursor;
-import android.location.Location;
 import android.util.Log;
 
 import java.io.File;
@@ -308,35 +307,15 @@ class TrackWriterImpl implements TrackWriter {
     boolean segmentOpen = false;
     boolean isLastValid = false;
 
-    class TrackWriterLocationFactory implements MyTracksProviderUtils.LocationFactory {
-      Location currentLocation;
-      Location lastLocation;
-
-      @Override
-      public Location createLocation() {
-        if (currentLocation == null) {
-          currentLocation = new MyTracksLocation("");
-        }
-        return currentLocation;
-      }
-
-      public void swapLocations() {
-        Location tmpLoc = lastLocation;
-        lastLocation = currentLocation;
-        currentLocation = tmpLoc;
-        if (currentLocation != null) {
-          currentLocation.reset();
-        }
-      }
-    };
-
-    TrackWriterLocationFactory locationFactory = new TrackWriterLocationFactory();
+    // Filled in by the iterator, and a copy of the previous point
+    MyTracksLocation location = new MyTracksLocation("");
+    MyTracksLocation lastLocation = new MyTracksLocation("");
     LocationIterator it = providerUtils.getTrackPointLocationIterator(track.getId(), 0, false,
-        locationFactory);
+        location);
     try {
       int pointNumber = 0;
       while (it.hasNext()) {
-        Location location = it.next();
+        it.next();
         if (Thread.interrupted()) {
           throw new InterruptedException();
         }
@@ -347,7 +326,7 @@ class TrackWriterImpl implements TrackWriter {
         boolean validSegment = isValid && isLastValid;
         if (!wroteFirst && validSegment) {
           // Found the first two consecutive points which are valid
-          writer.writeBeginTrack(locationFactory.lastLocation);
+          writer.writeBeginTrack(lastLocation);
           wroteFirst = true;
         }
 
@@ -358,7 +337,7 @@ class TrackWriterImpl implements TrackWriter {
             segmentOpen = true;
 
             // Write the previous point, which we had previously skipped
-            writer.writeLocation(locationFactory.lastLocation);
+            writer.writeLocation(lastLocation);
           }
 
           // Write the current point
@@ -373,7 +352,7 @@ class TrackWriterImpl implements TrackWriter {
           }
         }
 
-        locationFactory.swapLocations();
+        lastLocation.set(location);
         isLastValid = isValid;
       }
       if (segmentOpen) {
@@ -381,7 +360,7 @@ class TrackWriterImpl implements TrackWriter {
         segmentOpen = false;
       }
       if (wroteFirst) {
-        writer.writeEndTrack(locationFactory.lastLocation);
+        writer.writeEndTrack(lastLocation);
       } else {
         // Writes an empty track
         writer.writeBeginTrack(null);
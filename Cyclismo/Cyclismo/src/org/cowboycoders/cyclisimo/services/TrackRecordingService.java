@@ -723,11 +723,42 @@ public class TrackRecordingService extends Service {
       insertLocation(track, lastLocation, getLastValidTrackPointInCurrentSegment(trackId));
       updateRecordingTrack(track, myTracksProviderUtils.getLastTrackPointId(trackId), false);
     }
+    boolean compact = track != null && PreferencesUtils.getBoolean(this,
+        R.string.compact_track_points_key, PreferencesUtils.COMPACT_TRACK_POINTS_DEFAULT);
 
     endRecording(true, trackId);
+    if (compact) {
+      compactTrackPoints(trackId);
+    }
     stopSelf();
   }
 
+  /**
+   * Compacts a finished track's points on the executor service, after any
+   * locations still queued. Compacting a long track on the UI thread could
+   * cause an ANR.
+   * 
+   * @param trackId the track id
+   */
+  private void compactTrackPoints(final long trackId) {
+    if (executorService.isShutdown()) {
+      return;
+    }
+    // Cleared when the service is destroyed, before the executor is done
+    final MyTracksProviderUtils providerUtils = myTracksProviderUtils;
+    executorService.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          providerUtils.compactTrackPoints(trackId);
+        } catch (SQLiteException e) {
+          // The points are left as they were
+          Log.w(TAG, "Unable to compact track points of track " + trackId, e);
+        }
+      }
+    });
+  }
+
   /**
    * Gets the last valid track point in the current segment. Returns null if not available.
    * 
@@ -42,6 +42,7 @@ import com.google.common.annotations.VisibleForTesting;
 import android.location.Location;
 import android.util.Log;
 
+import org.cowboycoders.analytics.RollingWindow;
 import org.cowboycoders.cyclisimo.Constants;
 import org.cowboycoders.cyclisimo.services.TrackRecordingService;
 import org.cowboycoders.cyclisimo.util.LocationUtils;
@@ -62,14 +63,21 @@ public class TripStatisticsUpdater {
   // The current segment's trip statistics
   private TripStatistics currentSegment;
 
-  // Current segment's last location.
-  private Location lastLocation;
+  // Current segment's last location. Copied, callers may reuse theirs.
+  private final Location lastLocation = new Location("");
 
   // Current segment's last moving location
-  private Location lastMovingLocation;
+  private final Location lastMovingLocation = new Location("");
 
-  // A buffer of the recent speed readings (m/s) for calculating max speed
-  private final DoubleBuffer speedBuffer = new DoubleBuffer(Constants.SPEED_SMOOTHING_FACTOR);
+  // Whether the current segment has a last location
+  private boolean hasLastLocation = false;
+
+  // Whether the last location was also the last moving location
+  private boolean lastLocationMoving = false;
+
+  // A window of the recent speed readings (m/s) for calculating max speed
+  private final RollingWindow speedBuffer = new RollingWindow(
+      RollingWindow.UNBOUNDED, Constants.SPEED_SMOOTHING_FACTOR);
 
   // A buffer of the recent elevation readings (m)
   private final DoubleBuffer elevationBuffer = new DoubleBuffer(
@@ -116,16 +124,14 @@ public class TripStatisticsUpdater {
     if (!LocationUtils.isValidLocation(location)) {
       updateTime(location.getTime());
       if (location.getLatitude() == TrackRecordingService.PAUSE_LATITUDE) {
-        if (lastLocation != null && lastMovingLocation != null
-            && lastLocation != lastMovingLocation) {
+        if (hasLastLocation && !lastLocationMoving) {
           currentSegment.addTotalDistance(lastMovingLocation.distanceTo(lastLocation));
         }
         tripStatistics.merge(currentSegment);
       }
       currentSegment = init(location.getTime());
-      lastLocation = null;
-      lastMovingLocation = null;
-      speedBuffer.reset();
+      hasLastLocation = false;
+      speedBuffer.clear();
       elevationBuffer.reset();
       distanceBuffer.reset();
       gradeBuffer.reset();
@@ -135,23 +141,22 @@ public class TripStatisticsUpdater {
     currentSegment.updateLatitudeExtremities(location.getLatitude());
     currentSegment.updateLongitudeExtremities(location.getLongitude());
 
-    if (lastLocation == null || lastMovingLocation == null) {
+    if (!hasLastLocation) {
       updateTime(location.getTime());
-      lastLocation = location;
-      lastMovingLocation = location;
+      setLastMovingLocation(location);
       return;
     }
     double movingDistance = lastMovingLocation.distanceTo(location);
     if (movingDistance < minRecordingDistance - Constants.RECORDING_DISTANCE_ACCURACY 
         && location.getSpeed() < Constants.MAX_NO_MOVEMENT_SPEED) { //TODO: Make this into a preference
       updateTime(location.getTime());
-      lastLocation = location;
+      setLastLocation(location);
       return;
     }
     long movingTime = location.getTime() - lastLocation.getTime();
     if (movingTime < 0) {
       updateTime(location.getTime());
-      lastLocation = location;
+      setLastLocation(location);
       return;
     }
     currentSegment.addTotalDistance(movingDistance);
@@ -160,8 +165,26 @@ public class TripStatisticsUpdater {
         location.getTime(), location.getSpeed(), lastLocation.getTime(), lastLocation.getSpeed());
     updateGrade(lastLocation.distanceTo(location), elevationDifference);
     updateTime(location.getTime());
-    lastLocation = location;
-    lastMovingLocation = location;
+    setLastMovingLocation(location);
+  }
+
+  /**
+   * Copies a location which is not moving into the last location.
+   */
+  private void setLastLocation(Location location) {
+    lastLocation.set(location);
+    hasLastLocation = true;
+    lastLocationMoving = false;
+  }
+
+  /**
+   * Copies a moving location into both the last and the last moving location.
+   */
+  private void setLastMovingLocation(Location location) {
+    lastLocation.set(location);
+    lastMovingLocation.set(location);
+    hasLastLocation = true;
+    lastLocationMoving = true;
   }
 
   /**
@@ -178,7 +201,7 @@ public class TripStatisticsUpdater {
   }
   
   public double getSpeed() {
-    if (lastLocation == null) return 0.;
+    if (!hasLastLocation) return 0.;
     return lastLocation.getSpeed();
   }
 
@@ -196,7 +219,7 @@ public class TripStatisticsUpdater {
       Log.d(TAG, "Invalid speed. speed: " + speed + " lastLocationSpeed: " + lastLocationSpeed);
       return;
     }
-    speedBuffer.setNext(speed);
+    speedBuffer.add(time, speed);
     if (speed > currentSegment.getMaxSpeed()) {
       currentSegment.setMaxSpeed(speed);
     }
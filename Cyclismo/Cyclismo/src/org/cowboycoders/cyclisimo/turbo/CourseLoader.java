@@ -102,13 +102,10 @@ public class CourseLoader{
     @Override
     public synchronized void onSampledInTrackPoint(Location location) {
       if (!finished) {
-      Log.i(TAG,"new track point");
+      // Copied, the location is reused for the next point
       double lat = location.getLatitude();
       double lng = location.getLongitude();
       double alt = location.getAltitude();
-      Log.d(TAG,"alt: " + alt);
-      Log.d(TAG,"lat: " + lat);
-      Log.d(TAG,"long: " + lng);
       LatLongAlt latLngAlt = new LatLongAlt(lat,lng,alt);
       latLongAlts.add(latLngAlt);
       }
@@ -41,9 +41,8 @@ import android.util.Log;
 import android.widget.Toast;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.cowboycoders.ant.Node;
 import org.cowboycoders.ant.interfaces.AndroidAntTransceiver;
@@ -58,10 +57,13 @@ import org.cowboycoders.cyclisimo.util.PreferencesUtils;
 import org.cowboycoders.cyclisimo.util.TrackRecordingServiceConnectionUtils;
 import org.cowboycoders.cyclisimo.util.UnitConversions;
 import org.cowboycoders.location.LatLongAlt;
+import org.cowboycoders.location.LocationUtils;
 import org.cowboycoders.turbotrainers.CourseTracker;
+import org.cowboycoders.turbotrainers.ResistanceController;
 import org.cowboycoders.turbotrainers.TooFewAntChannelsAvailableException;
 import org.cowboycoders.turbotrainers.TurboCommunicationException;
-import org.cowboycoders.turbotrainers.TurboTrainerDataListener;
+import org.cowboycoders.turbotrainers.TrainerSample;
+import org.cowboycoders.turbotrainers.TrainerSampleListener;
 import org.cowboycoders.turbotrainers.TurboTrainerInterface;
 import org.cowboycoders.turbotrainers.bushido.headunit.BushidoHeadunit;
 
@@ -115,106 +117,54 @@ public class TurboService extends Service {
 
   private TurboTrainerInterface turboTrainer;
 
-  TurboTrainerDataListener dataListener = new TurboTrainerDataListener() {
+  /**
+   * Intents and mock locations are slow to send, so these are rate limited
+   */
+  private static final long SAMPLE_INTERVAL_MS = 250;
 
-    boolean updating = false;
-    Lock updatingLock = new ReentrantLock();
+  /**
+   * Runs on the trainer's delivery thread, not the ANT thread, with the latest
+   * sample. Samples arriving while it is busy are coalesced.
+   */
+  TrainerSampleListener sampleListener = new TrainerSampleListener() {
 
     @Override
-    public void onSpeedChange(double speed) { // synchronized to keep speed in
-      
-      // alignment with distance    
-      
-      Intent intent = new Intent(getString(R.string.sensor_data_speed_kmh));
-      intent.putExtra(getString(R.string.sensor_data_double_value), speed);
-      sendBroadcast(intent);
-
-      try {
-        updatingLock.lock();
-        if (updating)
-          return;
-        updating = true;
-      } finally {
-        updatingLock.unlock();
+    public void onSample(TrainerSample sample) {
+      broadcast(R.string.sensor_data_speed_kmh, sample.getSpeed());
+      broadcast(R.string.sensor_data_power, sample.getPower());
+      Log.d(TAG, "cadence: " + sample.getCadence());
+      broadcast(R.string.sensor_data_cadence, sample.getCadence());
+      if (sample.getHeartRate() > 0.) {
+        broadcast(R.string.sensor_data_heart_rate, sample.getHeartRate());
       }
 
-      lastRecordedSpeed = speed;
-      Log.v(TAG, "new speed: " + speed);
-
-      try {
-        updatingLock.lock();
-        updating = false;
-      } finally {
-        updatingLock.unlock();
-      }
-
-    }
-
-    @Override
-    public void onPowerChange(double power) {
-      Intent intent = new Intent(getString(R.string.sensor_data_power));
-      intent.putExtra(getString(R.string.sensor_data_double_value), power);
-      sendBroadcast(intent);
-    }
-
-    @Override
-    public void onCadenceChange(double cadence) {
-      Log.d(TAG, "cadence: " + cadence);
-      Intent intent = new Intent(getString(R.string.sensor_data_cadence));
-      intent.putExtra(getString(R.string.sensor_data_double_value), cadence);
-      sendBroadcast(intent);
-    }
-
-    @Override
-    public void onDistanceChange(double distance) {
-      // synchronized to keep speed in alignment with distance : may need
-      // changing if threads are queueing and order becomes
-      // unpredictable
-      try {
-        updatingLock.lock();
-        if (updating)
-          return;
-        updating = true;
-      } finally {
-        updatingLock.unlock();
-      }
+      lastRecordedSpeed = sample.getSpeed();
+      Log.v(TAG, "new speed: " + sample.getSpeed());
 
+      double distance = sample.getDistance();
       Log.d(TAG, "distance:" + distance);
-      LatLongAlt currentLocation = courseTracker.getNearestLocation(distance);
+      LatLongAlt currentLocation = courseTracker.getLocation(distance);
       updateLocation(currentLocation);
-      double gradient = courseTracker.getCurrentGradient(); // returns 0.0 if
-                                                            // finished for warm
-                                                            // down
-      turboTrainer.setSlope(gradient);
-      Log.d(TAG, "New Gradient: " + gradient);
+      // slope is set by resistanceController
       if (courseTracker.hasFinished()) {
         doFinish();
       }
-
-      try {
-        updatingLock.lock();
-        updating = false;
-      } finally {
-        updatingLock.unlock();
-      }
-
-    }
-
-    @Override
-    public void onHeartRateChange(double heartRate) {
-      if (heartRate > 0.) {
-        Intent intent = new Intent(getString(R.string.sensor_data_heart_rate));
-        intent.putExtra(getString(R.string.sensor_data_double_value), heartRate);
-        sendBroadcast(intent);
-      }
     }
 
   };
 
+  private void broadcast(int action, double value) {
+    Intent intent = new Intent(getString(action));
+    intent.putExtra(getString(R.string.sensor_data_double_value), value);
+    sendBroadcast(intent);
+  }
+
   private WakeLock wakeLock;
 
   private CourseTracker courseTracker;
 
+  private ResistanceController resistanceController;
+
   private long recordingTrackId;
 
   public void doFinish() {
@@ -270,12 +220,16 @@ public class TurboService extends Service {
       handleException(e, "Error loading course",true,NOTIFCATION_ID_STARTUP);
     }
 
-    latLongAlts = org.cowboycoders.location.LocationUtils.interpolatePoints(latLongAlts,
-        TARGET_TRACKPOINT_DISTANCE_METRES);
+    // densify straight into the tracker's coordinates, no intermediate objects
+    int points = LocationUtils.countInterpolatedPoints(latLongAlts,
+        TARGET_TRACKPOINT_DISTANCE_METRES, false);
+    double [] coordinates = new double[points * 3];
+    LocationUtils.interpolatePoints(latLongAlts, TARGET_TRACKPOINT_DISTANCE_METRES, false,
+        coordinates, 0);
 
-    this.courseTracker = new CourseTracker(latLongAlts);
+    this.courseTracker = new CourseTracker(coordinates, points);
 
-    Log.d(TAG, "latlong length: " + latLongAlts.size());
+    Log.d(TAG, "latlong length: " + points);
 
     enableMockLocations();
 
@@ -349,7 +303,11 @@ public class TurboService extends Service {
           try {
             // slight hack to get around timeout errors on my tablet 
             retryErrorProneCall(startTurbo,10);
-            turboTrainer.registerDataListener(dataListener);
+            turboTrainer.registerSampleListener(sampleListener, SAMPLE_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+            resistanceController = new ResistanceController(turboTrainer, courseTracker);
+            turboTrainer.registerDataListener(resistanceController);
+            resistanceController.start();
             //turboTrainer.start();
             //turboTrainer.registerDataListener(dataListener);
             // if
@@ -498,7 +456,11 @@ public class TurboService extends Service {
     boolean shutDownSuccess = true;
     if (turboTrainer != null) {
       try {
-        turboTrainer.unregisterDataListener(dataListener);
+        turboTrainer.unregisterSampleListener(sampleListener);
+        if (resistanceController != null) {
+          turboTrainer.unregisterDataListener(resistanceController);
+          resistanceController.stop();
+        }
         turboTrainer.stop();
       } catch (Exception e) {
         handleException(e,"Error shutting down turbo",false,NOTIFCATION_ID_SHUTDOWN);
@@ -43,6 +43,7 @@ import java.util.ArrayList;
 import java.util.Stack;
 
 import org.cowboycoders.cyclisimo.Constants;
+import org.cowboycoders.location.GeoKernel;
 
 /**
  * Utility class for decimating tracks at a given level of precision.
@@ -55,42 +56,39 @@ public class LocationUtils {
 
   /**
    * Computes the distance on the two sphere between the point c0 and the line
-   * segment c1 to c2.
+   * segment c1 to c2, given as indices into parallel arrays of coordinates.
    * 
    * @param c0 the first coordinate
    * @param c1 the beginning of the line segment
    * @param c2 the end of the lone segment
+   * @param cosLats cosines of the latitudes
    * @return the distance in m (assuming spherical earth)
    */
-  private static double distance(final Location c0, final Location c1, final Location c2) {
-    if (c1.equals(c2)) {
-      return c2.distanceTo(c0);
+  private static double distance(final int c0, final int c1, final int c2,
+      final double[] lats, final double[] lngs, final double[] cosLats) {
+    double s2s1lat = lats[c2] - lats[c1];
+    double s2s1lng = lngs[c2] - lngs[c1];
+    if (s2s1lat == 0 && s2s1lng == 0) {
+      return GeoKernel.fastDistance(
+          lats[c0], lngs[c0], cosLats[c0], lats[c2], lngs[c2], cosLats[c2]);
     }
 
-    final double s0lat = c0.getLatitude() * UnitConversions.DEG_TO_RAD;
-    final double s0lng = c0.getLongitude() * UnitConversions.DEG_TO_RAD;
-    final double s1lat = c1.getLatitude() * UnitConversions.DEG_TO_RAD;
-    final double s1lng = c1.getLongitude() * UnitConversions.DEG_TO_RAD;
-    final double s2lat = c2.getLatitude() * UnitConversions.DEG_TO_RAD;
-    final double s2lng = c2.getLongitude() * UnitConversions.DEG_TO_RAD;
-
-    double s2s1lat = s2lat - s1lat;
-    double s2s1lng = s2lng - s1lng;
-    final double u = ((s0lat - s1lat) * s2s1lat + (s0lng - s1lng) * s2s1lng)
+    // the projection is the same in degrees as in radians
+    final double u = ((lats[c0] - lats[c1]) * s2s1lat + (lngs[c0] - lngs[c1]) * s2s1lng)
         / (s2s1lat * s2s1lat + s2s1lng * s2s1lng);
     if (u <= 0) {
-      return c0.distanceTo(c1);
+      return GeoKernel.fastDistance(
+          lats[c0], lngs[c0], cosLats[c0], lats[c1], lngs[c1], cosLats[c1]);
     }
     if (u >= 1) {
-      return c0.distanceTo(c2);
+      return GeoKernel.fastDistance(
+          lats[c0], lngs[c0], cosLats[c0], lats[c2], lngs[c2], cosLats[c2]);
     }
-    Location sa = new Location("");
-    sa.setLatitude(c0.getLatitude() - c1.getLatitude());
-    sa.setLongitude(c0.getLongitude() - c1.getLongitude());
-    Location sb = new Location("");
-    sb.setLatitude(u * (c2.getLatitude() - c1.getLatitude()));
-    sb.setLongitude(u * (c2.getLongitude() - c1.getLongitude()));
-    return sa.distanceTo(sb);
+    // closest point on the segment, the cosine is close enough to linear along it
+    double lat = lats[c1] + u * s2s1lat;
+    double lng = lngs[c1] + u * s2s1lng;
+    double cosLat = cosLats[c1] + u * (cosLats[c2] - cosLats[c1]);
+    return GeoKernel.fastDistance(lats[c0], lngs[c0], cosLats[c0], lat, lng, cosLat);
   }
 
   /**
@@ -117,6 +115,17 @@ public class LocationUtils {
     double dist = 0.0;
     int[] current;
 
+    // unpack once, the inner loop is run O(n log n) times
+    double[] lats = new double[n];
+    double[] lngs = new double[n];
+    double[] cosLats = new double[n];
+    for (idx = 0; idx < n; ++idx) {
+      Location location = locations.get(idx);
+      lats[idx] = location.getLatitude();
+      lngs[idx] = location.getLongitude();
+    }
+    GeoKernel.cosLatitudes(lats, n, cosLats);
+
     if (n > 2) {
       int[] stackVal = new int[] { 0, (n - 1) };
       stack.push(stackVal);
@@ -124,8 +133,7 @@ public class LocationUtils {
         current = stack.pop();
         maxDist = 0;
         for (idx = current[0] + 1; idx < current[1]; ++idx) {
-          dist = LocationUtils.distance(
-              locations.get(idx), locations.get(current[0]), locations.get(current[1]));
+          dist = LocationUtils.distance(idx, current[0], current[1], lats, lngs, cosLats);
           if (dist > maxDist) {
             maxDist = dist;
             maxIdx = idx;
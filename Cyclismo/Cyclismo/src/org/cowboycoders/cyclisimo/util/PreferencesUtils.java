@@ -69,6 +69,8 @@ public class PreferencesUtils {
   public static final boolean CHART_SHOW_POWER_DEFAULT = true;
   public static final boolean CHART_SHOW_SPEED_DEFAULT = true;
 
+  public static final boolean COMPACT_TRACK_POINTS_DEFAULT = false;
+
   public static final String DEFAULT_ACTIVITY_DEFAULT = "";
   public static final boolean DEFAULT_MAP_PUBLIC_DEFAULT = false;
   public static final int FREQUENCY_OFF = 0;
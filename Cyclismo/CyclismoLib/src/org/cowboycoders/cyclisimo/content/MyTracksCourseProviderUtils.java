@@ -210,6 +210,13 @@ public class MyTracksCourseProviderUtils implements MyTracksProviderUtils {
         new String[] { Long.toString(trackId) });
   }
 
+  @Override
+  public void deleteTracks(long[] trackIds) {
+    for (long trackId : trackIds) {
+      deleteTrack(trackId);
+    }
+  }
+
   @Override
   public List<Track> getAllTracks() {
     Cursor cursor = getTrackCursor(null, null, null, CourseTracksColumns._ID);
@@ -724,6 +731,28 @@ public class MyTracksCourseProviderUtils implements MyTracksProviderUtils {
     return contentResolver.bulkInsert(CourseTrackPointsColumns.CONTENT_URI, values);
   }
 
+  @Override
+  public long bulkInsertTrackPoints(TrackPointBatch batch) {
+    int size = batch.size();
+    if (size == 0) {
+      return -1L;
+    }
+    // The course provider has no batch method, same columns as the track points table
+    ContentValues[] values = new ContentValues[size];
+    for (int i = 0; i < size; i++) {
+      values[i] = batch.toContentValues(i);
+    }
+    contentResolver.bulkInsert(CourseTrackPointsColumns.CONTENT_URI, values);
+    long lastId = batch.getId(size - 1);
+    return lastId != -1L ? lastId : getLastTrackPointId(batch.getTrackId(size - 1));
+  }
+
+  @Override
+  public int compactTrackPoints(long trackId) {
+    // Courses are kept as rows
+    return 0;
+  }
+
   @Override
   public Location createTrackPoint(Cursor cursor) {
     Location location = new MyTracksLocation("");
@@ -916,6 +945,16 @@ public class MyTracksCourseProviderUtils implements MyTracksProviderUtils {
     };
   }
 
+  @Override
+  public LocationIterator getTrackPointLocationIterator(long trackId, long startTrackPointId,
+      boolean descending, MyTracksLocation location) {
+    if (location == null) {
+      throw new IllegalArgumentException("location is null");
+    }
+    return new PrefetchingLocationIterator(
+        this, trackId, startTrackPointId, descending, defaultCursorBatchSize, location);
+  }
+
   @Override
   public Uri insertTrackPoint(Location location, long trackId) {
     return contentResolver.insert(
@@ -36,6 +36,9 @@ package org.cowboycoders.cyclisimo.content;
 
 
 import android.location.Location;
+import android.util.Log;
+
+import com.google.protobuf.InvalidProtocolBufferException;
 
 import org.cowboycoders.cyclisimo.content.Sensor.SensorDataSet;
 
@@ -46,8 +49,16 @@ import org.cowboycoders.cyclisimo.content.Sensor.SensorDataSet;
  */
 public class MyTracksLocation extends Location {
 
+  private static final String TAG = MyTracksLocation.class.getSimpleName();
+
   private SensorDataSet sensorDataSet = null;
 
+  /**
+   * Serialized sensor data set, parsed on the first call to
+   * {@link #getSensorDataSet()}.
+   */
+  private byte[] sensorData = null;
+
   /**
    * The id of this location from the provider.
    */
@@ -63,11 +74,30 @@ public class MyTracksLocation extends Location {
   }
 
   public SensorDataSet getSensorDataSet() {
+    if (sensorData != null) {
+      try {
+        sensorDataSet = SensorDataSet.parseFrom(sensorData);
+      } catch (InvalidProtocolBufferException e) {
+        Log.w(TAG, "Failed to parse sensor data.", e);
+      }
+      sensorData = null;
+    }
     return sensorDataSet;
   }
 
   public void setSensorDataSet(SensorDataSet sensorDataSet) {
     this.sensorDataSet = sensorDataSet;
+    sensorData = null;
+  }
+
+  /**
+   * Sets the serialized sensor data set without parsing it.
+   *
+   * @param sensorData the serialized sensor data set or null
+   */
+  public void setSensorData(byte[] sensorData) {
+    this.sensorData = sensorData;
+    sensorDataSet = null;
   }
 
   public int getId() {
@@ -81,6 +111,22 @@ public class MyTracksLocation extends Location {
   public void reset() {
     super.reset();
     sensorDataSet = null;
+    sensorData = null;
     id = -1;
   }
+
+  @Override
+  public void set(Location location) {
+    super.set(location);
+    if (location instanceof MyTracksLocation) {
+      MyTracksLocation myTracksLocation = (MyTracksLocation) location;
+      sensorDataSet = myTracksLocation.sensorDataSet;
+      sensorData = myTracksLocation.sensorData;
+      id = myTracksLocation.id;
+    } else {
+      sensorDataSet = null;
+      sensorData = null;
+      id = -1;
+    }
+  }
 }
@@ -67,6 +67,24 @@ public interface MyTracksProviderUtils {
    */
   public static final String AUTHORITY = "org.cowboycoders.cyclisimo";
 
+  /**
+   * Provider method deleting the tracks whose ids are in the long array
+   * {@link #TRACK_IDS_KEY}, with their track points and waypoints, in one
+   * transaction.
+   */
+  public static final String DELETE_TRACKS_METHOD = "deleteTracks";
+
+  public static final String TRACK_IDS_KEY = "trackIds";
+
+  /**
+   * Provider method packing the track points of the tracks whose ids are in
+   * {@link #TRACK_IDS_KEY} into {@link TrackPointChunksColumns} rows. The
+   * result holds the number of points packed in {@link #NUM_POINTS_KEY}.
+   */
+  public static final String COMPACT_TRACK_POINTS_METHOD = "compactTrackPoints";
+
+  public static final String NUM_POINTS_KEY = "numPoints";
+
   /**
    * Creates a {@link Track} from a cursor.
    * 
@@ -86,6 +104,13 @@ public interface MyTracksProviderUtils {
    */
   public void deleteTrack(long trackId);
 
+  /**
+   * Deletes several tracks (including waypoints and track points).
+   * 
+   * @param trackIds the track ids
+   */
+  public void deleteTracks(long[] trackIds);
+
   /**
    * Gets all the tracks. If no track exists, an empty list is returned.
    * <p>
@@ -233,6 +258,28 @@ public interface MyTracksProviderUtils {
    */
   public int bulkInsertTrackPoint(Location[] locations, int length, long trackId);
 
+  /**
+   * Inserts multiple track points in one transaction. Each point goes to the
+   * track given in the batch.
+   *
+   * @param batch the track points
+   * @return the id of the last point inserted, or -1L if the batch is empty
+   */
+  public long bulkInsertTrackPoints(TrackPointBatch batch);
+
+  /**
+   * Packs the points of a finished track into chunks, several times smaller
+   * than their rows. The points are still returned by
+   * {@link #getTrackPointCursor(long, long, int, boolean)} and
+   * {@link #getTrackPointLocationIterator(long, long, boolean, LocationFactory)},
+   * with altitude, accuracy, speed and bearing rounded to hundredths. Does
+   * nothing before API level 11.
+   * 
+   * @param trackId the track id
+   * @return the number of points packed
+   */
+  public int compactTrackPoints(long trackId);
+
   /**
    * Creates a location object from a cursor.
    * 
@@ -300,6 +347,25 @@ public interface MyTracksProviderUtils {
   public LocationIterator getTrackPointLocationIterator(
       long trackId, long startTrackPointId, boolean descending, LocationFactory locationFactory);
 
+  /**
+   * Creates a new read-only iterator over a given track's points, like
+   * {@link #getTrackPointLocationIterator(long, long, boolean, LocationFactory)},
+   * but reading the next page of points in the background while the current
+   * one is consumed. Each call to {@link LocationIterator#next()} fills in and
+   * returns the given location, so a point must be copied to be kept beyond
+   * the next call. Its sensor data set is only parsed when asked for. When
+   * done with iteration, {@link LocationIterator#close()} must be called.
+   *
+   * @param trackId the track id
+   * @param startTrackPointId the start track point id or -1L to start from the
+   *          first point
+   * @param descending true to sort the result in descending order (latest
+   *          location first)
+   * @param location the location to fill in
+   */
+  public LocationIterator getTrackPointLocationIterator(
+      long trackId, long startTrackPointId, boolean descending, MyTracksLocation location);
+
   /**
    * Inserts a track point.
    * 
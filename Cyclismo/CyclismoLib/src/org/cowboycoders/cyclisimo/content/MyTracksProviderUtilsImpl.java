@@ -38,10 +38,15 @@ package org.cowboycoders.cyclisimo.content;
 import com.google.protobuf.InvalidProtocolBufferException;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
 import android.location.Location;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
 import android.util.Log;
 
 import java.util.ArrayList;
@@ -176,13 +181,36 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
   @Override
   public void deleteAllTracks() {
     contentResolver.delete(TrackPointsColumns.CONTENT_URI, null, null);
+    contentResolver.delete(TrackPointChunksColumns.CONTENT_URI, null, null);
     contentResolver.delete(WaypointsColumns.CONTENT_URI, null, null);
-    // Delete tracks last since it triggers a database vaccum call
     contentResolver.delete(TracksColumns.CONTENT_URI, null, null);
   }
 
   @Override
   public void deleteTrack(long trackId) {
+    deleteTracks(new long[] { trackId });
+  }
+
+  @Override
+  public void deleteTracks(long[] trackIds) {
+    if (Build.VERSION.SDK_INT >= 11) {
+      Bundle extras = new Bundle();
+      extras.putLongArray(MyTracksProviderUtils.TRACK_IDS_KEY, trackIds);
+      contentResolver.call(
+          TracksColumns.CONTENT_URI, MyTracksProviderUtils.DELETE_TRACKS_METHOD, null, extras);
+      return;
+    }
+    for (long trackId : trackIds) {
+      deleteTrackRows(trackId);
+    }
+  }
+
+  /**
+   * Deletes a track, its track points and waypoints one table at a time.
+   * 
+   * @param trackId the track id
+   */
+  private void deleteTrackRows(long trackId) {
     Track track = getTrack(trackId);
     if (track != null) {
       String where = TrackPointsColumns._ID + ">=? AND " + TrackPointsColumns._ID + "<=?";
@@ -192,7 +220,6 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     }
     contentResolver.delete(WaypointsColumns.CONTENT_URI, WaypointsColumns.TRACKID + "=?",
         new String[] { Long.toString(trackId) });
-    // Delete tracks last since it triggers a database vaccum call
     contentResolver.delete(TracksColumns.CONTENT_URI, TracksColumns._ID + "=?",
         new String[] { Long.toString(trackId) });
   }
@@ -704,11 +731,49 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (length == -1) {
       length = locations.length;
     }
-    ContentValues[] values = new ContentValues[length];
+    TrackPointBatch batch = new TrackPointBatch(length);
     for (int i = 0; i < length; i++) {
-      values[i] = createContentValues(locations[i], trackId);
+      batch.add(locations[i], trackId);
+    }
+    bulkInsertTrackPoints(batch);
+    return batch.size();
+  }
+
+  @Override
+  public long bulkInsertTrackPoints(TrackPointBatch batch) {
+    int size = batch.size();
+    if (size == 0) {
+      return -1L;
+    }
+    if (Build.VERSION.SDK_INT >= 11) {
+      // Bound straight into a compiled statement by the provider
+      Bundle result = contentResolver.call(
+          TrackPointsColumns.CONTENT_URI, TrackPointBatch.INSERT_METHOD, null, batch.toBundle());
+      return result == null ? -1L : result.getLong(TrackPointBatch.LAST_ID_KEY, -1L);
     }
-    return contentResolver.bulkInsert(TrackPointsColumns.CONTENT_URI, values);
+    if (size == 1) {
+      Uri uri = contentResolver.insert(TrackPointsColumns.CONTENT_URI, batch.toContentValues(0));
+      return uri == null ? -1L : ContentUris.parseId(uri);
+    }
+    ContentValues[] values = new ContentValues[size];
+    for (int i = 0; i < size; i++) {
+      values[i] = batch.toContentValues(i);
+    }
+    contentResolver.bulkInsert(TrackPointsColumns.CONTENT_URI, values);
+    long lastId = batch.getId(size - 1);
+    return lastId != -1L ? lastId : getLastTrackPointId(batch.getTrackId(size - 1));
+  }
+
+  @Override
+  public int compactTrackPoints(long trackId) {
+    if (trackId < 0 || Build.VERSION.SDK_INT < 11) {
+      return 0;
+    }
+    Bundle extras = new Bundle();
+    extras.putLongArray(MyTracksProviderUtils.TRACK_IDS_KEY, new long[] { trackId });
+    Bundle result = contentResolver.call(TrackPointChunksColumns.CONTENT_URI,
+        MyTracksProviderUtils.COMPACT_TRACK_POINTS_METHOD, null, extras);
+    return result == null ? 0 : result.getInt(MyTracksProviderUtils.NUM_POINTS_KEY);
   }
 
   @Override
@@ -723,6 +788,11 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (trackId < 0) {
       return -1L;
     }
+    // Packed points come before the rows
+    long firstChunkId = getTrackPointChunkId(trackId, "min", TrackPointChunksColumns.FIRSTID);
+    if (firstChunkId != -1L) {
+      return firstChunkId;
+    }
     Cursor cursor = null;
     try {
       String selection = TrackPointsColumns._ID + "=(select min(" + TrackPointsColumns._ID
@@ -763,7 +833,7 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         cursor.close();
       }
     }
-    return -1L;
+    return getTrackPointChunkId(trackId, "max", TrackPointChunksColumns.LASTID);
   }
 
   @Override
@@ -775,7 +845,11 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
         + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.TRACKID + "=? AND "
         + TrackPointsColumns.LATITUDE + "<=" + MAX_LATITUDE + ")";
     String[] selectionArgs = new String[] { Long.toString(trackId) };
-    return findTrackPointBy(selection, selectionArgs);
+    Location location = findTrackPointBy(selection, selectionArgs);
+    if (location != null) {
+      return location;
+    }
+    return findLastValidChunkPoint(TrackPointChunksColumns.TRACKID + "=?", selectionArgs, -1L);
   }
 
   @Override
@@ -783,7 +857,22 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     String selection = TrackPointsColumns._ID + "=(select max(" + TrackPointsColumns._ID + ") from "
         + TrackPointsColumns.TABLE_NAME + " WHERE " + TrackPointsColumns.LATITUDE + "<="
         + MAX_LATITUDE + ")";
-    return findTrackPointBy(selection, null);
+    Cursor cursor = null;
+    try {
+      cursor = getTrackPointCursor(null, selection, null, TrackPointsColumns._ID);
+      if (cursor == null || !cursor.moveToNext()) {
+        return findLastValidChunkPoint(null, null, -1L);
+      }
+      // A later track may have been packed
+      long id = cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID));
+      Location location = findLastValidChunkPoint(
+          TrackPointChunksColumns.LASTID + ">?", new String[] { Long.toString(id) }, id);
+      return location != null ? location : createTrackPoint(cursor);
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
   }
 
   @Override
@@ -809,10 +898,88 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     if (descending) {
       sortOrder += " DESC";
     }
+
+    // Packed points all come before the rows of a track
+    if (descending) {
+      Cursor rows = getTrackPointCursor(
+          TrackPointsColumns.COLUMNS, selection, selectionArgs, limit(sortOrder, maxLocations));
+      int remaining = maxLocations;
+      if (maxLocations > 0 && rows != null) {
+        remaining -= rows.getCount();
+        if (remaining <= 0) {
+          return rows;
+        }
+      }
+      return merge(rows, getChunkPointCursor(trackId, startTrackPointId, remaining, true));
+    }
+    Cursor rows = null;
+    if (startTrackPointId >= 0) {
+      /*
+       * Packed points have lower ids than any row of their track, so there
+       * are none to look for when the rows start at the start id, as they do
+       * on every page after the first of a track that was never compacted.
+       */
+      rows = getTrackPointCursor(
+          TrackPointsColumns.COLUMNS, selection, selectionArgs, limit(sortOrder, maxLocations));
+      if (rows != null && startsAt(rows, startTrackPointId)) {
+        return rows;
+      }
+    }
+    MatrixCursor chunkPoints = getChunkPointCursor(
+        trackId, startTrackPointId, maxLocations, false);
+    if (rows != null) {
+      if (chunkPoints.getCount() == 0) {
+        chunkPoints.close();
+        return rows;
+      }
+      rows.close();
+    }
+    int remaining = maxLocations;
     if (maxLocations > 0) {
-      sortOrder += " LIMIT " + maxLocations;
+      remaining -= chunkPoints.getCount();
+      if (remaining <= 0) {
+        return chunkPoints;
+      }
     }
-    return getTrackPointCursor(null, selection, selectionArgs, sortOrder);
+    return merge(chunkPoints, getTrackPointCursor(
+        TrackPointsColumns.COLUMNS, selection, selectionArgs, limit(sortOrder, remaining)));
+  }
+
+  /**
+   * Returns true if the first row of a track points cursor has the given id.
+   * Leaves the cursor before its first row.
+   */
+  private static boolean startsAt(Cursor cursor, long trackPointId) {
+    boolean startsAt = cursor.moveToFirst()
+        && cursor.getLong(cursor.getColumnIndexOrThrow(TrackPointsColumns._ID)) == trackPointId;
+    cursor.moveToPosition(-1);
+    return startsAt;
+  }
+
+  private static String limit(String sortOrder, int maxLocations) {
+    return maxLocations > 0 ? sortOrder + " LIMIT " + maxLocations : sortOrder;
+  }
+
+  /**
+   * Merges the rows cursor and the packed points cursor, either of which can
+   * be empty, in the given order.
+   */
+  private static Cursor merge(Cursor first, Cursor second) {
+    if (first == null) {
+      return second;
+    }
+    if (second == null) {
+      return first;
+    }
+    if (second.getCount() == 0) {
+      second.close();
+      return first;
+    }
+    if (first.getCount() == 0) {
+      first.close();
+      return second;
+    }
+    return new MergeCursor(new Cursor[] { first, second });
   }
 
   @Override
@@ -903,6 +1070,16 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     };
   }
 
+  @Override
+  public LocationIterator getTrackPointLocationIterator(long trackId, long startTrackPointId,
+      boolean descending, MyTracksLocation location) {
+    if (location == null) {
+      throw new IllegalArgumentException("location is null");
+    }
+    return new PrefetchingLocationIterator(
+        this, trackId, startTrackPointId, descending, defaultCursorBatchSize, location);
+  }
+
   @Override
   public Uri insertTrackPoint(Location location, long trackId) {
     return contentResolver.insert(
@@ -916,37 +1093,9 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
    * @param trackId the track id
    */
   private ContentValues createContentValues(Location location, long trackId) {
-    ContentValues values = new ContentValues();
-    values.put(TrackPointsColumns.TRACKID, trackId);
-    values.put(TrackPointsColumns.LONGITUDE, (int) (location.getLongitude() * 1E6));
-    values.put(TrackPointsColumns.LATITUDE, (int) (location.getLatitude() * 1E6));
-
-    // Hack for Samsung phones that don't properly populate the time field
-    long time = location.getTime();
-    if (time == 0) {
-      time = System.currentTimeMillis();
-    }
-    values.put(TrackPointsColumns.TIME, time);
-    if (location.hasAltitude()) {
-      values.put(TrackPointsColumns.ALTITUDE, location.getAltitude());
-    }
-    if (location.hasAccuracy()) {
-      values.put(TrackPointsColumns.ACCURACY, location.getAccuracy());
-    }
-    if (location.hasSpeed()) {
-      values.put(TrackPointsColumns.SPEED, location.getSpeed());
-    }
-    if (location.hasBearing()) {
-      values.put(TrackPointsColumns.BEARING, location.getBearing());
-    }
-
-    if (location instanceof MyTracksLocation) {
-      MyTracksLocation myTracksLocation = (MyTracksLocation) location;
-      if (myTracksLocation.getSensorDataSet() != null) {
-        values.put(TrackPointsColumns.SENSOR, myTracksLocation.getSensorDataSet().toByteArray());
-      }
-    }
-    return values;
+    TrackPointBatch batch = new TrackPointBatch(1);
+    batch.add(location, trackId);
+    return batch.toContentValues(0);
   }
 
   /**
@@ -991,6 +1140,132 @@ public class MyTracksProviderUtilsImpl implements MyTracksProviderUtils {
     }
   }
 
+  /**
+   * Gets the packed points of a track as rows of
+   * {@link TrackPointsColumns#COLUMNS}, unpacking chunks only until there are
+   * enough.
+   * 
+   * @param trackId the track id
+   * @param startTrackPointId the starting track point id, -1L for all
+   * @param maxLocations the maximum number of points, 0 or less for all
+   * @param descending true to get the points in descending id order
+   */
+  private MatrixCursor getChunkPointCursor(
+      long trackId, long startTrackPointId, int maxLocations, boolean descending) {
+    MatrixCursor points = new MatrixCursor(TrackPointsColumns.COLUMNS);
+    String selection = TrackPointChunksColumns.TRACKID + "=?";
+    String[] selectionArgs;
+    if (startTrackPointId >= 0) {
+      selection += " AND " + (descending ? TrackPointChunksColumns.FIRSTID + "<=?"
+          : TrackPointChunksColumns.LASTID + ">=?");
+      selectionArgs = new String[] { Long.toString(trackId), Long.toString(startTrackPointId) };
+    } else {
+      selectionArgs = new String[] { Long.toString(trackId) };
+    }
+    String sortOrder = TrackPointChunksColumns.FIRSTID + (descending ? " DESC" : "");
+    Cursor cursor = contentResolver.query(TrackPointChunksColumns.CONTENT_URI,
+        new String[] { TrackPointChunksColumns.DATA }, selection, selectionArgs, sortOrder);
+    if (cursor == null) {
+      return points;
+    }
+    TrackPointBatch batch = new TrackPointBatch(TrackPointChunk.DEFAULT_SIZE);
+    try {
+      while ((maxLocations <= 0 || points.getCount() < maxLocations) && cursor.moveToNext()) {
+        batch.clear();
+        if (!decodeChunk(cursor.getBlob(0), trackId, batch)) {
+          continue;
+        }
+        int size = batch.size();
+        for (int j = 0; j < size && (maxLocations <= 0 || points.getCount() < maxLocations);
+            j++) {
+          int i = descending ? size - 1 - j : j;
+          long id = batch.getId(i);
+          if (startTrackPointId >= 0
+              && (descending ? id > startTrackPointId : id < startTrackPointId)) {
+            continue;
+          }
+          points.addRow(batch.toRow(i));
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+    return points;
+  }
+
+  /**
+   * Finds the last valid packed point of the chunks matching a selection.
+   * 
+   * @param selection the chunk selection
+   * @param selectionArgs the selection arguments
+   * @param minTrackPointId only points after this id are returned
+   */
+  private Location findLastValidChunkPoint(
+      String selection, String[] selectionArgs, long minTrackPointId) {
+    Cursor cursor = contentResolver.query(TrackPointChunksColumns.CONTENT_URI,
+        new String[] { TrackPointChunksColumns.TRACKID, TrackPointChunksColumns.DATA },
+        selection, selectionArgs, TrackPointChunksColumns.LASTID + " DESC");
+    if (cursor == null) {
+      return null;
+    }
+    TrackPointBatch batch = new TrackPointBatch(TrackPointChunk.DEFAULT_SIZE);
+    try {
+      while (cursor.moveToNext()) {
+        batch.clear();
+        if (!decodeChunk(cursor.getBlob(1), cursor.getLong(0), batch)) {
+          continue;
+        }
+        for (int i = batch.size() - 1; i >= 0 && batch.getId(i) > minTrackPointId; i--) {
+          if (batch.getLatitude(i) <= MAX_LATITUDE) {
+            MatrixCursor point = new MatrixCursor(TrackPointsColumns.COLUMNS, 1);
+            point.addRow(batch.toRow(i));
+            point.moveToFirst();
+            return createTrackPoint(point);
+          }
+        }
+      }
+    } finally {
+      cursor.close();
+    }
+    return null;
+  }
+
+  /**
+   * Unpacks a chunk into a batch. Returns false if it could not be read.
+   */
+  private static boolean decodeChunk(byte[] data, long trackId, TrackPointBatch batch) {
+    try {
+      TrackPointChunk.decode(data, trackId, batch);
+      return true;
+    } catch (IllegalArgumentException e) {
+      Log.w(TAG, "Failed to unpack track points.", e);
+      batch.clear();
+      return false;
+    }
+  }
+
+  /**
+   * Gets an aggregate of a chunk id column for a track.
+   * 
+   * @param trackId the track id
+   * @param function min or max
+   * @param column the column
+   * @return the id or -1L if the track has no chunks
+   */
+  private long getTrackPointChunkId(long trackId, String function, String column) {
+    Cursor cursor = contentResolver.query(TrackPointChunksColumns.CONTENT_URI,
+        new String[] { function + "(" + column + ")" }, TrackPointChunksColumns.TRACKID + "=?",
+        new String[] { Long.toString(trackId) }, null);
+    if (cursor == null) {
+      return -1L;
+    }
+    try {
+      return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1L;
+    } finally {
+      cursor.close();
+    }
+  }
+
   private Location findTrackPointBy(String selection, String[] selectionArgs) {
     Cursor cursor = null;
     try {
@@ -0,0 +1,251 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.cyclisimo.content;
+
+import org.cowboycoders.cyclisimo.content.MyTracksProviderUtils.LocationIterator;
+
+import android.database.Cursor;
+import android.location.Location;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Iterates over a track's points a page at a time, each page starting after
+ * the last id of the one before. The next page is read into a
+ * {@link TrackPointBatch} on a background thread while the current one is
+ * consumed, and every point is filled into the same caller owned
+ * {@link MyTracksLocation}, its sensor data left to be parsed on demand.
+ * Works with any {@link MyTracksProviderUtils} whose track point cursors have
+ * the {@link TrackPointsColumns} column names.
+ *
+ * Not thread safe.
+ */
+class PrefetchingLocationIterator implements LocationIterator {
+
+  private static final String TAG = PrefetchingLocationIterator.class.getSimpleName();
+
+  // Shared by all iterators, threads are kept for a minute after use
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, TAG);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+
+  private final MyTracksProviderUtils providerUtils;
+  private final long trackId;
+  private final boolean descending;
+  private final int pageSize;
+  private final MyTracksLocation location;
+
+  // Page being consumed, and the spare one to read the next into
+  private TrackPointBatch page = new TrackPointBatch();
+  private TrackPointBatch spare = null;
+  private int position = 0;
+  // Next page, null if there is none
+  private Future<TrackPointBatch> nextPage;
+  private long locationId = -1L;
+
+  /**
+   * @param providerUtils the provider utils to read pages with
+   * @param trackId the track id
+   * @param startTrackPointId the start track point id or -1L for the first
+   * @param descending true to iterate from the latest point
+   * @param pageSize the number of points per page
+   * @param location the location filled in by {@link #next()}
+   */
+  PrefetchingLocationIterator(MyTracksProviderUtils providerUtils, long trackId,
+      long startTrackPointId, boolean descending, int pageSize, MyTracksLocation location) {
+    this.providerUtils = providerUtils;
+    this.trackId = trackId;
+    this.descending = descending;
+    this.pageSize = Math.max(pageSize, 1);
+    this.location = location;
+    nextPage = readPage(startTrackPointId, new TrackPointBatch());
+  }
+
+  /**
+   * Reads a page into a batch on the background thread.
+   *
+   * @param startTrackPointId the first track point id
+   * @param batch the batch to read into
+   */
+  private Future<TrackPointBatch> readPage(
+      final long startTrackPointId, final TrackPointBatch batch) {
+    return EXECUTOR.submit(new Callable<TrackPointBatch>() {
+      @Override
+      public TrackPointBatch call() {
+        batch.clear();
+        Cursor cursor = providerUtils.getTrackPointCursor(
+            trackId, startTrackPointId, pageSize, descending);
+        if (cursor == null) {
+          return batch;
+        }
+        try {
+          int idIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns._ID);
+          int longitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LONGITUDE);
+          int latitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.LATITUDE);
+          int timeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.TIME);
+          int altitudeIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.ALTITUDE);
+          int accuracyIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.ACCURACY);
+          int speedIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.SPEED);
+          int bearingIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.BEARING);
+          int sensorIndex = cursor.getColumnIndexOrThrow(TrackPointsColumns.SENSOR);
+          while (cursor.moveToNext()) {
+            batch.add(cursor.getLong(idIndex), trackId, cursor.getInt(longitudeIndex),
+                cursor.getInt(latitudeIndex), cursor.getLong(timeIndex),
+                cursor.isNull(altitudeIndex) ? Double.NaN : cursor.getDouble(altitudeIndex),
+                cursor.isNull(accuracyIndex) ? Float.NaN : cursor.getFloat(accuracyIndex),
+                cursor.isNull(speedIndex) ? Float.NaN : cursor.getFloat(speedIndex),
+                cursor.isNull(bearingIndex) ? Float.NaN : cursor.getFloat(bearingIndex),
+                cursor.isNull(sensorIndex) ? null : cursor.getBlob(sensorIndex));
+          }
+        } finally {
+          cursor.close();
+        }
+        return batch;
+      }
+    });
+  }
+
+  /**
+   * Waits for the next page. An interrupt is kept for the caller to see
+   * rather than ending the iteration early.
+   */
+  private TrackPointBatch awaitNextPage() {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return nextPage.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          if (cause instanceof Error) {
+            throw (Error) cause;
+          }
+          throw new RuntimeException(cause);
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public long getLocationId() {
+    return locationId;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (position < page.size()) {
+      return true;
+    }
+    if (nextPage == null) {
+      return false;
+    }
+    TrackPointBatch batch = awaitNextPage();
+    spare = page;
+    page = batch;
+    position = 0;
+    nextPage = null;
+    int size = page.size();
+    // A short page is the last
+    if (size == pageSize) {
+      long lastId = page.getId(size - 1);
+      nextPage = readPage(descending ? lastId - 1 : lastId + 1, spare);
+      spare = null;
+    }
+    return size > 0;
+  }
+
+  @Override
+  public Location next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    int i = position++;
+    locationId = page.getId(i);
+
+    // Not reset, which would also clear the provider
+    location.setLongitude(page.getLongitude(i) / 1E6);
+    location.setLatitude(page.getLatitude(i) / 1E6);
+    location.setTime(page.getTime(i));
+    double altitude = page.getAltitude(i);
+    if (Double.isNaN(altitude)) {
+      location.removeAltitude();
+    } else {
+      location.setAltitude(altitude);
+    }
+    float accuracy = page.getAccuracy(i);
+    if (Float.isNaN(accuracy)) {
+      location.removeAccuracy();
+    } else {
+      location.setAccuracy(accuracy);
+    }
+    float speed = page.getSpeed(i);
+    if (Float.isNaN(speed)) {
+      location.removeSpeed();
+    } else {
+      location.setSpeed(speed);
+    }
+    float bearing = page.getBearing(i);
+    if (Float.isNaN(bearing)) {
+      location.removeBearing();
+    } else {
+      location.setBearing(bearing);
+    }
+    location.setSensorData(page.getSensor(i));
+    return location;
+  }
+
+  @Override
+  public void close() {
+    if (nextPage != null) {
+      // Left to finish, it closes its own cursor
+      nextPage.cancel(false);
+      nextPage = null;
+    }
+    page = new TrackPointBatch(1);
+    spare = null;
+    position = 0;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
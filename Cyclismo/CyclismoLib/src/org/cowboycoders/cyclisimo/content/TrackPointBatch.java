@@ -0,0 +1,425 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.cyclisimo.content;
+
+import android.content.ContentValues;
+import android.location.Location;
+import android.os.Bundle;
+
+/**
+ * Track points held column by column, for inserting in bulk without building
+ * a {@link ContentValues} per point. Absent altitudes, accuracies, speeds and
+ * bearings are stored as NaN and written as null. Ids of -1L are assigned by
+ * the database.
+ *
+ * Not thread safe. Can be cleared and reused.
+ */
+public class TrackPointBatch {
+
+  /**
+   * Provider method inserting a batch passed with {@link #toBundle()}
+   */
+  public static final String INSERT_METHOD = "insertTrackPoints";
+
+  /**
+   * Long in the result of {@link #INSERT_METHOD}: id of the last point inserted
+   */
+  public static final String LAST_ID_KEY = "lastId";
+
+  private static final int DEFAULT_CAPACITY = 64;
+
+  private static final String SIZE_KEY = "size";
+  private static final String IDS_KEY = "ids";
+  private static final String TRACK_IDS_KEY = "trackIds";
+  private static final String LONGITUDES_KEY = "longitudes";
+  private static final String LATITUDES_KEY = "latitudes";
+  private static final String TIMES_KEY = "times";
+  private static final String ALTITUDES_KEY = "altitudes";
+  private static final String ACCURACIES_KEY = "accuracies";
+  private static final String SPEEDS_KEY = "speeds";
+  private static final String BEARINGS_KEY = "bearings";
+  private static final String SENSOR_LENGTHS_KEY = "sensorLengths";
+  private static final String SENSORS_KEY = "sensors";
+
+  private int size = 0;
+  private long[] ids;
+  private long[] trackIds;
+  // as stored, degrees * 1E6
+  private int[] longitudes;
+  private int[] latitudes;
+  private long[] times;
+  private double[] altitudes;
+  private float[] accuracies;
+  private float[] speeds;
+  private float[] bearings;
+  private byte[][] sensors;
+
+  public TrackPointBatch() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public TrackPointBatch(int capacity) {
+    allocate(Math.max(capacity, 1));
+  }
+
+  private void allocate(int capacity) {
+    ids = new long[capacity];
+    trackIds = new long[capacity];
+    longitudes = new int[capacity];
+    latitudes = new int[capacity];
+    times = new long[capacity];
+    altitudes = new double[capacity];
+    accuracies = new float[capacity];
+    speeds = new float[capacity];
+    bearings = new float[capacity];
+    sensors = new byte[capacity][];
+  }
+
+  /**
+   * Adds a location, as stored by
+   * {@link MyTracksProviderUtils#insertTrackPoint(Location, long)}
+   */
+  public void add(Location location, long trackId) {
+    int i = next();
+    ids[i] = -1L;
+    trackIds[i] = trackId;
+    longitudes[i] = (int) (location.getLongitude() * 1E6);
+    latitudes[i] = (int) (location.getLatitude() * 1E6);
+
+    // Hack for Samsung phones that don't properly populate the time field
+    long time = location.getTime();
+    if (time == 0) {
+      time = System.currentTimeMillis();
+    }
+    times[i] = time;
+    altitudes[i] = location.hasAltitude() ? location.getAltitude() : Double.NaN;
+    accuracies[i] = location.hasAccuracy() ? location.getAccuracy() : Float.NaN;
+    speeds[i] = location.hasSpeed() ? location.getSpeed() : Float.NaN;
+    bearings[i] = location.hasBearing() ? location.getBearing() : Float.NaN;
+
+    sensors[i] = null;
+    if (location instanceof MyTracksLocation) {
+      MyTracksLocation myTracksLocation = (MyTracksLocation) location;
+      if (myTracksLocation.getSensorDataSet() != null) {
+        sensors[i] = myTracksLocation.getSensorDataSet().toByteArray();
+      }
+    }
+  }
+
+  /**
+   * Adds a row of the track points table, keeping its id if it has one.
+   *
+   * @throws IllegalArgumentException if latitude, longitude or time is missing
+   */
+  public void add(ContentValues values) {
+    Integer longitude = values.getAsInteger(TrackPointsColumns.LONGITUDE);
+    Integer latitude = values.getAsInteger(TrackPointsColumns.LATITUDE);
+    Long time = values.getAsLong(TrackPointsColumns.TIME);
+    if (longitude == null || latitude == null || time == null) {
+      throw new IllegalArgumentException("Latitude, longitude, and time values are required.");
+    }
+    int i = next();
+    Long id = values.getAsLong(TrackPointsColumns._ID);
+    ids[i] = id == null ? -1L : id;
+    Long trackId = values.getAsLong(TrackPointsColumns.TRACKID);
+    trackIds[i] = trackId == null ? -1L : trackId;
+    longitudes[i] = longitude;
+    latitudes[i] = latitude;
+    times[i] = time;
+    Double altitude = values.getAsDouble(TrackPointsColumns.ALTITUDE);
+    altitudes[i] = altitude == null ? Double.NaN : altitude;
+    accuracies[i] = getFloat(values, TrackPointsColumns.ACCURACY);
+    speeds[i] = getFloat(values, TrackPointsColumns.SPEED);
+    bearings[i] = getFloat(values, TrackPointsColumns.BEARING);
+    sensors[i] = values.getAsByteArray(TrackPointsColumns.SENSOR);
+  }
+
+  /**
+   * Adds a point as stored, degrees * 1E6 for longitude and latitude, NaN
+   * for absent values
+   */
+  public void add(long id, long trackId, int longitude, int latitude, long time,
+      double altitude, float accuracy, float speed, float bearing, byte[] sensor) {
+    int i = next();
+    ids[i] = id;
+    trackIds[i] = trackId;
+    longitudes[i] = longitude;
+    latitudes[i] = latitude;
+    times[i] = time;
+    altitudes[i] = altitude;
+    accuracies[i] = accuracy;
+    speeds[i] = speed;
+    bearings[i] = bearing;
+    sensors[i] = sensor;
+  }
+
+  private static float getFloat(ContentValues values, String key) {
+    Float value = values.getAsFloat(key);
+    return value == null ? Float.NaN : value;
+  }
+
+  /**
+   * Index of a new point, growing the arrays if they are full
+   */
+  private int next() {
+    if (size == ids.length) {
+      grow(size * 2);
+    }
+    return size++;
+  }
+
+  private void grow(int capacity) {
+    long[] oldIds = ids;
+    long[] oldTrackIds = trackIds;
+    int[] oldLongitudes = longitudes;
+    int[] oldLatitudes = latitudes;
+    long[] oldTimes = times;
+    double[] oldAltitudes = altitudes;
+    float[] oldAccuracies = accuracies;
+    float[] oldSpeeds = speeds;
+    float[] oldBearings = bearings;
+    byte[][] oldSensors = sensors;
+    allocate(capacity);
+    System.arraycopy(oldIds, 0, ids, 0, size);
+    System.arraycopy(oldTrackIds, 0, trackIds, 0, size);
+    System.arraycopy(oldLongitudes, 0, longitudes, 0, size);
+    System.arraycopy(oldLatitudes, 0, latitudes, 0, size);
+    System.arraycopy(oldTimes, 0, times, 0, size);
+    System.arraycopy(oldAltitudes, 0, altitudes, 0, size);
+    System.arraycopy(oldAccuracies, 0, accuracies, 0, size);
+    System.arraycopy(oldSpeeds, 0, speeds, 0, size);
+    System.arraycopy(oldBearings, 0, bearings, 0, size);
+    System.arraycopy(oldSensors, 0, sensors, 0, size);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    for (int i = 0; i < size; i++) {
+      sensors[i] = null;
+    }
+    size = 0;
+  }
+
+  /**
+   * @return the id of point i, or -1L if the database assigns it
+   */
+  public long getId(int i) {
+    return ids[i];
+  }
+
+  public long getTrackId(int i) {
+    return trackIds[i];
+  }
+
+  /**
+   * @return longitude in degrees * 1E6
+   */
+  public int getLongitude(int i) {
+    return longitudes[i];
+  }
+
+  /**
+   * @return latitude in degrees * 1E6
+   */
+  public int getLatitude(int i) {
+    return latitudes[i];
+  }
+
+  public long getTime(int i) {
+    return times[i];
+  }
+
+  /**
+   * @return altitude, NaN if absent
+   */
+  public double getAltitude(int i) {
+    return altitudes[i];
+  }
+
+  /**
+   * @return accuracy, NaN if absent
+   */
+  public float getAccuracy(int i) {
+    return accuracies[i];
+  }
+
+  /**
+   * @return speed, NaN if absent
+   */
+  public float getSpeed(int i) {
+    return speeds[i];
+  }
+
+  /**
+   * @return bearing, NaN if absent
+   */
+  public float getBearing(int i) {
+    return bearings[i];
+  }
+
+  /**
+   * @return serialized sensor data set, null if absent
+   */
+  public byte[] getSensor(int i) {
+    return sensors[i];
+  }
+
+  /**
+   * Point i as a row of the track points table, leaving out absent columns
+   */
+  public ContentValues toContentValues(int i) {
+    ContentValues values = new ContentValues();
+    if (ids[i] != -1L) {
+      values.put(TrackPointsColumns._ID, ids[i]);
+    }
+    values.put(TrackPointsColumns.TRACKID, trackIds[i]);
+    values.put(TrackPointsColumns.LONGITUDE, longitudes[i]);
+    values.put(TrackPointsColumns.LATITUDE, latitudes[i]);
+    values.put(TrackPointsColumns.TIME, times[i]);
+    if (!Double.isNaN(altitudes[i])) {
+      values.put(TrackPointsColumns.ALTITUDE, altitudes[i]);
+    }
+    if (!Float.isNaN(accuracies[i])) {
+      values.put(TrackPointsColumns.ACCURACY, accuracies[i]);
+    }
+    if (!Float.isNaN(speeds[i])) {
+      values.put(TrackPointsColumns.SPEED, speeds[i]);
+    }
+    if (!Float.isNaN(bearings[i])) {
+      values.put(TrackPointsColumns.BEARING, bearings[i]);
+    }
+    if (sensors[i] != null) {
+      values.put(TrackPointsColumns.SENSOR, sensors[i]);
+    }
+    return values;
+  }
+
+  /**
+   * Point i as a row of {@link TrackPointsColumns#COLUMNS}, with nulls for
+   * absent columns
+   */
+  public Object[] toRow(int i) {
+    return new Object[] {
+        ids[i],
+        trackIds[i],
+        longitudes[i],
+        latitudes[i],
+        times[i],
+        Double.isNaN(altitudes[i]) ? null : altitudes[i],
+        Float.isNaN(accuracies[i]) ? null : accuracies[i],
+        Float.isNaN(speeds[i]) ? null : speeds[i],
+        Float.isNaN(bearings[i]) ? null : bearings[i],
+        sensors[i] };
+  }
+
+  /**
+   * Packs the batch for {@link #INSERT_METHOD}. Within a process the arrays
+   * are shared rather than copied, so the batch should not be changed until
+   * the call returns.
+   */
+  public Bundle toBundle() {
+    int sensorBytes = 0;
+    int[] sensorLengths = new int[size];
+    for (int i = 0; i < size; i++) {
+      sensorLengths[i] = sensors[i] == null ? -1 : sensors[i].length;
+      sensorBytes += sensors[i] == null ? 0 : sensors[i].length;
+    }
+    byte[] packedSensors = new byte[sensorBytes];
+    int offset = 0;
+    for (int i = 0; i < size; i++) {
+      if (sensors[i] != null) {
+        System.arraycopy(sensors[i], 0, packedSensors, offset, sensors[i].length);
+        offset += sensors[i].length;
+      }
+    }
+
+    Bundle bundle = new Bundle();
+    bundle.putInt(SIZE_KEY, size);
+    bundle.putLongArray(IDS_KEY, ids);
+    bundle.putLongArray(TRACK_IDS_KEY, trackIds);
+    bundle.putIntArray(LONGITUDES_KEY, longitudes);
+    bundle.putIntArray(LATITUDES_KEY, latitudes);
+    bundle.putLongArray(TIMES_KEY, times);
+    bundle.putDoubleArray(ALTITUDES_KEY, altitudes);
+    bundle.putFloatArray(ACCURACIES_KEY, accuracies);
+    bundle.putFloatArray(SPEEDS_KEY, speeds);
+    bundle.putFloatArray(BEARINGS_KEY, bearings);
+    bundle.putIntArray(SENSOR_LENGTHS_KEY, sensorLengths);
+    bundle.putByteArray(SENSORS_KEY, packedSensors);
+    return bundle;
+  }
+
+  /**
+   * Unpacks a batch written by {@link #toBundle()}
+   *
+   * @throws IllegalArgumentException if the bundle is not a batch
+   */
+  public static TrackPointBatch fromBundle(Bundle bundle) {
+    TrackPointBatch batch = new TrackPointBatch(0);
+    batch.size = bundle.getInt(SIZE_KEY, -1);
+    batch.ids = bundle.getLongArray(IDS_KEY);
+    batch.trackIds = bundle.getLongArray(TRACK_IDS_KEY);
+    batch.longitudes = bundle.getIntArray(LONGITUDES_KEY);
+    batch.latitudes = bundle.getIntArray(LATITUDES_KEY);
+    batch.times = bundle.getLongArray(TIMES_KEY);
+    batch.altitudes = bundle.getDoubleArray(ALTITUDES_KEY);
+    batch.accuracies = bundle.getFloatArray(ACCURACIES_KEY);
+    batch.speeds = bundle.getFloatArray(SPEEDS_KEY);
+    batch.bearings = bundle.getFloatArray(BEARINGS_KEY);
+    int[] sensorLengths = bundle.getIntArray(SENSOR_LENGTHS_KEY);
+    byte[] packedSensors = bundle.getByteArray(SENSORS_KEY);
+    if (batch.size < 0 || batch.ids == null || batch.trackIds == null
+        || batch.longitudes == null || batch.latitudes == null || batch.times == null
+        || batch.altitudes == null || batch.accuracies == null || batch.speeds == null
+        || batch.bearings == null || sensorLengths == null || packedSensors == null) {
+      throw new IllegalArgumentException("Not a track point batch");
+    }
+    int n = batch.size;
+    if (batch.ids.length < n || batch.trackIds.length < n || batch.longitudes.length < n
+        || batch.latitudes.length < n || batch.times.length < n || batch.altitudes.length < n
+        || batch.accuracies.length < n || batch.speeds.length < n || batch.bearings.length < n
+        || sensorLengths.length < n) {
+      throw new IllegalArgumentException("Truncated track point batch");
+    }
+
+    batch.sensors = new byte[batch.ids.length][];
+    int offset = 0;
+    for (int i = 0; i < n; i++) {
+      int length = sensorLengths[i];
+      if (length < 0) {
+        continue;
+      }
+      if (offset + length > packedSensors.length) {
+        throw new IllegalArgumentException("Truncated track point batch");
+      }
+      batch.sensors[i] = new byte[length];
+      System.arraycopy(packedSensors, offset, batch.sensors[i], 0, length);
+      offset += length;
+    }
+    return batch;
+  }
+}
@@ -0,0 +1,515 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.cyclisimo.content;
+
+import org.cowboycoders.cyclisimo.content.Sensor.SensorData;
+import org.cowboycoders.cyclisimo.content.Sensor.SensorDataSet;
+import org.cowboycoders.cyclisimo.content.Sensor.SensorState;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Packs a run of track points into one blob, column by column. Each column is
+ * written as zigzag varints of the differences between successive values, so
+ * the slowly changing values of a ride take a byte or two per point:
+ * <ul>
+ * <li>ids, longitudes and latitudes as deltas</li>
+ * <li>times as deltas of the deltas, which are nearly constant</li>
+ * <li>altitude, accuracy, speed and bearing in hundredths of their units,
+ * as a bitmap of the points having them then deltas of the values</li>
+ * <li>sensor data split into creation time, relative to the point time, and
+ * the state and value of each channel. States are run length encoded. Sensor
+ * data which would not come back byte for byte is kept as it is.</li>
+ * </ul>
+ * Everything apart from altitude, accuracy, speed and bearing comes back
+ * exactly as it was stored.
+ */
+public class TrackPointChunk {
+
+  /**
+   * Number of points in a full chunk
+   */
+  public static final int DEFAULT_SIZE = 256;
+
+  private static final int VERSION = 1;
+
+  // altitude and accuracy in cm, speed in cm/s, bearing in 1/100 degree
+  private static final double SCALE = 100.0;
+
+  private static final int SENSOR_NONE = 0;
+  private static final int SENSOR_RAW = 1;
+  private static final int SENSOR_PACKED = 2;
+
+  private static final int CHANNELS = 4;
+
+  private TrackPointChunk() {}
+
+  /**
+   * Packs points start (inclusive) to end (exclusive) of a batch. The track
+   * ids are not stored.
+   */
+  public static byte[] encode(TrackPointBatch batch, int start, int end) {
+    int n = end - start;
+    Writer writer = new Writer(n * 16);
+    writer.writeByte(VERSION);
+    writer.writeVarint(n);
+
+    long[] values = new long[n];
+    for (int i = 0; i < n; i++) {
+      values[i] = batch.getId(start + i);
+    }
+    writer.writeDeltas(values, n);
+
+    for (int i = 0; i < n; i++) {
+      values[i] = batch.getTime(start + i);
+    }
+    writer.writeDeltasOfDeltas(values, n);
+
+    for (int i = 0; i < n; i++) {
+      values[i] = batch.getLongitude(start + i);
+    }
+    writer.writeDeltas(values, n);
+
+    for (int i = 0; i < n; i++) {
+      values[i] = batch.getLatitude(start + i);
+    }
+    writer.writeDeltas(values, n);
+
+    boolean[] present = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      double altitude = batch.getAltitude(start + i);
+      present[i] = !Double.isNaN(altitude);
+      values[i] = present[i] ? Math.round(altitude * SCALE) : 0L;
+    }
+    writer.writeOptional(values, present, n);
+
+    for (int i = 0; i < n; i++) {
+      float accuracy = batch.getAccuracy(start + i);
+      present[i] = !Float.isNaN(accuracy);
+      values[i] = present[i] ? Math.round(accuracy * SCALE) : 0L;
+    }
+    writer.writeOptional(values, present, n);
+
+    for (int i = 0; i < n; i++) {
+      float speed = batch.getSpeed(start + i);
+      present[i] = !Float.isNaN(speed);
+      values[i] = present[i] ? Math.round(speed * SCALE) : 0L;
+    }
+    writer.writeOptional(values, present, n);
+
+    for (int i = 0; i < n; i++) {
+      float bearing = batch.getBearing(start + i);
+      present[i] = !Float.isNaN(bearing);
+      values[i] = present[i] ? Math.round(bearing * SCALE) : 0L;
+    }
+    writer.writeOptional(values, present, n);
+
+    encodeSensors(batch, start, n, writer);
+    return writer.toByteArray();
+  }
+
+  private static void encodeSensors(TrackPointBatch batch, int start, int n, Writer writer) {
+    int[] kinds = new int[n];
+    SensorDataSet[] sets = new SensorDataSet[n];
+    int packed = 0;
+    for (int i = 0; i < n; i++) {
+      byte[] sensor = batch.getSensor(start + i);
+      if (sensor == null) {
+        kinds[i] = SENSOR_NONE;
+        continue;
+      }
+      kinds[i] = SENSOR_RAW;
+      try {
+        SensorDataSet set = SensorDataSet.parseFrom(sensor);
+        // Only packed if nothing, e.g. an unknown field, would be lost
+        if (Arrays.equals(set.toByteArray(), sensor)) {
+          kinds[i] = SENSOR_PACKED;
+          sets[i] = set;
+          packed++;
+        }
+      } catch (InvalidProtocolBufferException e) {
+        // Kept as it is
+      }
+    }
+    writer.writeRuns(kinds, n);
+
+    for (int i = 0; i < n; i++) {
+      if (kinds[i] == SENSOR_RAW) {
+        byte[] sensor = batch.getSensor(start + i);
+        writer.writeVarint(sensor.length);
+        writer.writeBlob(sensor);
+      }
+    }
+
+    long[] values = new long[packed];
+    boolean[] present = new boolean[packed];
+    int j = 0;
+    for (int i = 0; i < n; i++) {
+      if (sets[i] != null) {
+        present[j] = sets[i].hasCreationTime();
+        values[j] = present[j] ? sets[i].getCreationTime() - batch.getTime(start + i) : 0L;
+        j++;
+      }
+    }
+    writer.writeOptional(values, present, packed);
+
+    int[] codes = new int[packed];
+    for (int channel = 0; channel < CHANNELS; channel++) {
+      j = 0;
+      for (int i = 0; i < n; i++) {
+        if (sets[i] != null) {
+          SensorData data = getChannel(sets[i], channel);
+          codes[j] = data == null ? 0 : data.getState().getNumber() << 1 | (data.hasValue() ? 1 : 0);
+          present[j] = data != null && data.hasValue();
+          values[j] = present[j] ? data.getValue() : 0L;
+          j++;
+        }
+      }
+      writer.writeRuns(codes, packed);
+      writer.writeDeltas(values, present, packed);
+    }
+  }
+
+  /**
+   * Unpacks a chunk, adding its points to a batch.
+   *
+   * @param trackId the track id of the points
+   * @return the number of points added
+   * @throws IllegalArgumentException if the data is not a chunk
+   */
+  public static int decode(byte[] data, long trackId, TrackPointBatch batch) {
+    Reader reader = new Reader(data);
+    if (reader.readByte() != VERSION) {
+      throw new IllegalArgumentException("Unknown track point chunk version");
+    }
+    int n = (int) reader.readVarint();
+    if (n < 0 || n > data.length) {
+      throw new IllegalArgumentException("Bad track point chunk size");
+    }
+
+    long[] ids = reader.readDeltas(n);
+    long[] times = reader.readDeltasOfDeltas(n);
+    long[] longitudes = reader.readDeltas(n);
+    long[] latitudes = reader.readDeltas(n);
+    boolean[] hasAltitude = new boolean[n];
+    long[] altitudes = reader.readOptional(hasAltitude, n);
+    boolean[] hasAccuracy = new boolean[n];
+    long[] accuracies = reader.readOptional(hasAccuracy, n);
+    boolean[] hasSpeed = new boolean[n];
+    long[] speeds = reader.readOptional(hasSpeed, n);
+    boolean[] hasBearing = new boolean[n];
+    long[] bearings = reader.readOptional(hasBearing, n);
+    byte[][] sensors = decodeSensors(reader, times, n);
+
+    for (int i = 0; i < n; i++) {
+      batch.add(ids[i], trackId, (int) longitudes[i], (int) latitudes[i], times[i],
+          hasAltitude[i] ? altitudes[i] / SCALE : Double.NaN,
+          hasAccuracy[i] ? (float) (accuracies[i] / SCALE) : Float.NaN,
+          hasSpeed[i] ? (float) (speeds[i] / SCALE) : Float.NaN,
+          hasBearing[i] ? (float) (bearings[i] / SCALE) : Float.NaN,
+          sensors[i]);
+    }
+    return n;
+  }
+
+  private static byte[][] decodeSensors(Reader reader, long[] times, int n) {
+    int[] kinds = reader.readRuns(n);
+    byte[][] sensors = new byte[n][];
+    int packed = 0;
+    for (int i = 0; i < n; i++) {
+      if (kinds[i] == SENSOR_RAW) {
+        sensors[i] = reader.readBlob((int) reader.readVarint());
+      } else if (kinds[i] == SENSOR_PACKED) {
+        packed++;
+      } else if (kinds[i] != SENSOR_NONE) {
+        throw new IllegalArgumentException("Bad track point chunk sensor");
+      }
+    }
+    SensorDataSet.Builder[] builders = new SensorDataSet.Builder[packed];
+    boolean[] present = new boolean[packed];
+    long[] creationTimes = reader.readOptional(present, packed);
+    int j = 0;
+    for (int i = 0; i < n; i++) {
+      if (kinds[i] == SENSOR_PACKED) {
+        builders[j] = SensorDataSet.newBuilder();
+        if (present[j]) {
+          builders[j].setCreationTime(times[i] + creationTimes[j]);
+        }
+        j++;
+      }
+    }
+
+    for (int channel = 0; channel < CHANNELS; channel++) {
+      int[] codes = reader.readRuns(packed);
+      for (j = 0; j < packed; j++) {
+        present[j] = (codes[j] & 1) != 0;
+      }
+      long[] values = reader.readDeltas(present, packed);
+      for (j = 0; j < packed; j++) {
+        if (codes[j] == 0) {
+          continue;
+        }
+        SensorState state = SensorState.valueOf(codes[j] >> 1);
+        if (state == null) {
+          throw new IllegalArgumentException("Bad track point chunk sensor state");
+        }
+        SensorData.Builder data = SensorData.newBuilder().setState(state);
+        if (present[j]) {
+          data.setValue((int) values[j]);
+        }
+        setChannel(builders[j], channel, data);
+      }
+    }
+
+    j = 0;
+    for (int i = 0; i < n; i++) {
+      if (kinds[i] == SENSOR_PACKED) {
+        sensors[i] = builders[j++].build().toByteArray();
+      }
+    }
+    return sensors;
+  }
+
+  private static SensorData getChannel(SensorDataSet set, int channel) {
+    switch (channel) {
+      case 0:
+        return set.hasHeartRate() ? set.getHeartRate() : null;
+      case 1:
+        return set.hasCadence() ? set.getCadence() : null;
+      case 2:
+        return set.hasPower() ? set.getPower() : null;
+      default:
+        return set.hasBatteryLevel() ? set.getBatteryLevel() : null;
+    }
+  }
+
+  private static void setChannel(SensorDataSet.Builder set, int channel, SensorData.Builder data) {
+    switch (channel) {
+      case 0:
+        set.setHeartRate(data);
+        break;
+      case 1:
+        set.setCadence(data);
+        break;
+      case 2:
+        set.setPower(data);
+        break;
+      default:
+        set.setBatteryLevel(data);
+    }
+  }
+
+  private static class Writer extends ByteArrayOutputStream {
+
+    Writer(int size) {
+      super(size);
+    }
+
+    void writeByte(int value) {
+      write(value);
+    }
+
+    void writeBlob(byte[] bytes) {
+      write(bytes, 0, bytes.length);
+    }
+
+    void writeVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        write((int) (value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      write((int) value);
+    }
+
+    void writeSigned(long value) {
+      writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    void writeDeltas(long[] values, int n) {
+      long previous = 0;
+      for (int i = 0; i < n; i++) {
+        writeSigned(values[i] - previous);
+        previous = values[i];
+      }
+    }
+
+    /**
+     * Deltas of the values which are present
+     */
+    void writeDeltas(long[] values, boolean[] present, int n) {
+      long previous = 0;
+      for (int i = 0; i < n; i++) {
+        if (present[i]) {
+          writeSigned(values[i] - previous);
+          previous = values[i];
+        }
+      }
+    }
+
+    void writeDeltasOfDeltas(long[] values, int n) {
+      long previous = 0;
+      long previousDelta = 0;
+      for (int i = 0; i < n; i++) {
+        long delta = values[i] - previous;
+        writeSigned(delta - previousDelta);
+        previous = values[i];
+        previousDelta = delta;
+      }
+    }
+
+    /**
+     * A bitmap of the values present, then their deltas
+     */
+    void writeOptional(long[] values, boolean[] present, int n) {
+      for (int i = 0; i < n; i += 8) {
+        int bits = 0;
+        for (int bit = 0; bit < 8 && i + bit < n; bit++) {
+          if (present[i + bit]) {
+            bits |= 1 << bit;
+          }
+        }
+        write(bits);
+      }
+      writeDeltas(values, present, n);
+    }
+
+    /**
+     * Pairs of value and run length
+     */
+    void writeRuns(int[] values, int n) {
+      int i = 0;
+      while (i < n) {
+        int run = 1;
+        while (i + run < n && values[i + run] == values[i]) {
+          run++;
+        }
+        writeVarint(values[i]);
+        writeVarint(run);
+        i += run;
+      }
+    }
+  }
+
+  private static class Reader {
+
+    private final byte[] data;
+    private int position = 0;
+
+    Reader(byte[] data) {
+      this.data = data;
+    }
+
+    int readByte() {
+      if (position >= data.length) {
+        throw new IllegalArgumentException("Truncated track point chunk");
+      }
+      return data[position++] & 0xFF;
+    }
+
+    byte[] readBlob(int length) {
+      if (length < 0 || length > data.length - position) {
+        throw new IllegalArgumentException("Truncated track point chunk");
+      }
+      byte[] bytes = new byte[length];
+      System.arraycopy(data, position, bytes, 0, length);
+      position += length;
+      return bytes;
+    }
+
+    long readVarint() {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IllegalArgumentException("Bad varint in track point chunk");
+    }
+
+    long readSigned() {
+      long value = readVarint();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    long[] readDeltas(int n) {
+      long[] values = new long[n];
+      long previous = 0;
+      for (int i = 0; i < n; i++) {
+        previous += readSigned();
+        values[i] = previous;
+      }
+      return values;
+    }
+
+    long[] readDeltas(boolean[] present, int n) {
+      long[] values = new long[n];
+      long previous = 0;
+      for (int i = 0; i < n; i++) {
+        if (present[i]) {
+          previous += readSigned();
+          values[i] = previous;
+        }
+      }
+      return values;
+    }
+
+    long[] readDeltasOfDeltas(int n) {
+      long[] values = new long[n];
+      long previous = 0;
+      long previousDelta = 0;
+      for (int i = 0; i < n; i++) {
+        previousDelta += readSigned();
+        previous += previousDelta;
+        values[i] = previous;
+      }
+      return values;
+    }
+
+    long[] readOptional(boolean[] present, int n) {
+      for (int i = 0; i < n; i += 8) {
+        int bits = readByte();
+        for (int bit = 0; bit < 8 && i + bit < n; bit++) {
+          present[i + bit] = (bits & 1 << bit) != 0;
+        }
+      }
+      return readDeltas(present, n);
+    }
+
+    int[] readRuns(int n) {
+      int[] values = new int[n];
+      int i = 0;
+      while (i < n) {
+        int value = (int) readVarint();
+        long run = readVarint();
+        if (run < 1 || run > n - i) {
+          throw new IllegalArgumentException("Bad run in track point chunk");
+        }
+        Arrays.fill(values, i, i + (int) run, value);
+        i += run;
+      }
+      return values;
+    }
+  }
+}
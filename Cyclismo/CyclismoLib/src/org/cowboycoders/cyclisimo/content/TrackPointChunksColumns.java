@@ -0,0 +1,84 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.cyclisimo.content;
+
+import static org.cowboycoders.cyclisimo.content.ContentTypeIds.BLOB_TYPE_ID;
+import static org.cowboycoders.cyclisimo.content.ContentTypeIds.INT_TYPE_ID;
+import static org.cowboycoders.cyclisimo.content.ContentTypeIds.LONG_TYPE_ID;
+
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Constants for the track point chunks table. Each row holds a run of
+ * consecutive points of a track, packed by {@link TrackPointChunk}, in place
+ * of their rows in {@link TrackPointsColumns#TABLE_NAME}. The points of a
+ * chunk keep their ids and all come before the track's remaining rows.
+ */
+public interface TrackPointChunksColumns extends BaseColumns {
+
+  public static final String TABLE_NAME = "trackpointchunks";
+  public static final Uri CONTENT_URI = Uri.parse(
+      "content://org.cowboycoders.cyclisimo/trackpointchunks");
+  public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.google.trackpointchunk";
+  public static final String CONTENT_ITEMTYPE =
+      "vnd.android.cursor.item/vnd.google.trackpointchunk";
+  public static final String DEFAULT_SORT_ORDER = "firstid";
+
+  // Columns
+  public static final String TRACKID = "trackid"; // track id
+  public static final String FIRSTID = "firstid"; // id of the first point
+  public static final String LASTID = "lastid"; // id of the last point
+  public static final String NUMPOINTS = "numpoints"; // number of points
+  public static final String DATA = "data"; // packed points
+
+  public static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " ("
+      + _ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+      + TRACKID + " INTEGER, "
+      + FIRSTID + " INTEGER, "
+      + LASTID + " INTEGER, "
+      + NUMPOINTS + " INTEGER, "
+      + DATA + " BLOB"
+      + ");";
+
+  // Chunks are fetched per track in point id order
+  public static final String TRACKID_INDEX = "trackpointchunks_trackid_firstid_index";
+
+  public static final String CREATE_TRACKID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_INDEX + " ON " + TABLE_NAME + " (" + TRACKID + ", " + FIRSTID + ");";
+
+  public static final String[] COLUMNS = {
+      _ID,
+      TRACKID,
+      FIRSTID,
+      LASTID,
+      NUMPOINTS,
+      DATA
+  };
+
+  public static final byte[] COLUMN_TYPES = {
+      LONG_TYPE_ID, // id
+      LONG_TYPE_ID, // track id
+      LONG_TYPE_ID, // first id
+      LONG_TYPE_ID, // last id
+      INT_TYPE_ID, // number of points
+      BLOB_TYPE_ID // data
+  };
+}
@@ -81,6 +81,12 @@ public interface TrackPointsColumns extends BaseColumns {
       + SENSOR + " BLOB" 
       + ");";
 
+  // Rows are fetched per track in _id order
+  public static final String TRACKID_INDEX = "trackpoints_trackid_id_index";
+
+  public static final String CREATE_TRACKID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_INDEX + " ON " + TABLE_NAME + " (" + TRACKID + ", " + _ID + ");";
+
   public static final String[] COLUMNS = {
       _ID,
       TRACKID,
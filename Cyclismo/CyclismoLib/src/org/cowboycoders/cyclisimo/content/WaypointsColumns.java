@@ -122,6 +122,12 @@ public interface WaypointsColumns extends BaseColumns {
       + MINGRADE + " FLOAT, "
       + MAXGRADE + " FLOAT" 
       + ");";
+
+  // Rows are fetched per track in _id order
+  public static final String TRACKID_INDEX = "waypoints_trackid_id_index";
+
+  public static final String CREATE_TRACKID_INDEX = "CREATE INDEX IF NOT EXISTS "
+      + TRACKID_INDEX + " ON " + TABLE_NAME + " (" + TRACKID + ", " + _ID + ");";
   
   public static final String[] COLUMNS = {
       _ID,
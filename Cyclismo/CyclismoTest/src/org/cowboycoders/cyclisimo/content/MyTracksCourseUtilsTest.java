@@ -39,6 +39,7 @@ import org.cowboycoders.cyclisimo.content.CourseTracksColumns;
 import org.cowboycoders.cyclisimo.content.CourseWaypointsColumns;
 import org.cowboycoders.cyclisimo.content.DescriptionGenerator;
 import org.cowboycoders.cyclisimo.content.MyTracksCourseProviderUtils;
+import org.cowboycoders.cyclisimo.content.MyTracksLocation;
 import org.cowboycoders.cyclisimo.content.MyTracksProviderUtils;
 import org.cowboycoders.cyclisimo.content.MyTracksProviderUtilsImpl;
 import org.cowboycoders.cyclisimo.content.Track;
@@ -891,6 +892,33 @@ public class MyTracksCourseUtilsTest extends AndroidTestCase {
     assertFalse(locationIterator.hasNext());
   }
 
+  /**
+   * Tests the method
+   * {@link MyTracksCourseProviderUtils#getTrackPointLocationIterator(long, long, boolean, MyTracksLocation)}
+   * across several batches.
+   */
+  public void testGetTrackPointLocationIterator_reusedLocation() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    insertTrackWithLocations(track);
+    ((MyTracksCourseProviderUtils) providerUtils).setDefaultCursorBatchSize(3);
+
+    MyTracksLocation location = new MyTracksLocation("test");
+    LocationIterator locationIterator = providerUtils.getTrackPointLocationIterator(trackId,
+        2L, false, location);
+    try {
+      for (int i = 1; i < 10; i++) {
+        assertTrue(locationIterator.hasNext());
+        assertSame(location, locationIterator.next());
+        assertEquals(2 + (i - 1), locationIterator.getLocationId());
+        checkLocation(i, location);
+      }
+      assertFalse(locationIterator.hasNext());
+    } finally {
+      locationIterator.close();
+    }
+  }
+
   /**
    * Simulates a track which is used for testing.
    * 
@@ -35,12 +35,20 @@
 package org.cowboycoders.cyclisimo.content;
 
 
+import org.cowboycoders.cyclisimo.content.TrackPointChunksColumns;
 import org.cowboycoders.cyclisimo.content.TrackPointsColumns;
 import org.cowboycoders.cyclisimo.content.TracksColumns;
 import org.cowboycoders.cyclisimo.content.WaypointsColumns;
 
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.location.Location;
 import android.net.Uri;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
 
 import org.cowboycoders.cyclisimo.content.MyTracksProvider;
@@ -56,6 +64,8 @@ public class MyTracksProviderTest extends AndroidTestCase {
   private SQLiteDatabase db;
   private MyTracksProvider myTracksProvider;
   private String DATABASE_NAME = "mytrackstest.db";
+  // Unlikely to clash with a recorded track in the provider's database
+  private static final long TRACK_ID = -42L;
 
   @Override
   protected void setUp() throws Exception {
@@ -73,6 +83,10 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(checkTable(TrackPointsColumns.TABLE_NAME));
     assertTrue(checkTable(TracksColumns.TABLE_NAME));
     assertTrue(checkTable(WaypointsColumns.TABLE_NAME));
+    assertTrue(checkIndex(TrackPointsColumns.TRACKID_INDEX));
+    assertTrue(checkIndex(WaypointsColumns.TRACKID_INDEX));
+    assertTrue(checkTable(TrackPointChunksColumns.TABLE_NAME));
+    assertTrue(checkIndex(TrackPointChunksColumns.TRACKID_INDEX));
   }
 
   /**
@@ -85,7 +99,7 @@ public class MyTracksProviderTest extends AndroidTestCase {
     dropTable(TrackPointsColumns.TABLE_NAME);
     dropTable(TracksColumns.TABLE_NAME);
     dropTable(WaypointsColumns.TABLE_NAME);
-    databaseHelper.onUpgrade(db, 16, 20);
+    databaseHelper.onUpgrade(db, 16, 21);
     assertTrue(checkTable(TrackPointsColumns.TABLE_NAME));
     assertTrue(checkTable(TracksColumns.TABLE_NAME));
     assertTrue(checkTable(WaypointsColumns.TABLE_NAME));
@@ -104,7 +118,7 @@ public class MyTracksProviderTest extends AndroidTestCase {
     dropTable(TracksColumns.TABLE_NAME);
     createEmptyTable(TrackPointsColumns.TABLE_NAME);
     createEmptyTable(TracksColumns.TABLE_NAME);
-    databaseHelper.onUpgrade(db, 17, 20);
+    databaseHelper.onUpgrade(db, 17, 21);
     assertTrue(isColumnExisted(TrackPointsColumns.TABLE_NAME, TrackPointsColumns.SENSOR));
     assertTrue(isColumnExisted(TracksColumns.TABLE_NAME, TracksColumns.TABLEID));
     assertTrue(isColumnExisted(TracksColumns.TABLE_NAME, TracksColumns.ICON));
@@ -123,7 +137,7 @@ public class MyTracksProviderTest extends AndroidTestCase {
     dropTable(TracksColumns.TABLE_NAME);
     createEmptyTable(TrackPointsColumns.TABLE_NAME);
     createEmptyTable(TracksColumns.TABLE_NAME);
-    databaseHelper.onUpgrade(db, 18, 20);
+    databaseHelper.onUpgrade(db, 18, 21);
     assertFalse(isColumnExisted(TrackPointsColumns.TABLE_NAME, TrackPointsColumns.SENSOR));
     assertTrue(isColumnExisted(TracksColumns.TABLE_NAME, TracksColumns.TABLEID));
     assertTrue(isColumnExisted(TracksColumns.TABLE_NAME, TracksColumns.ICON));
@@ -142,12 +156,114 @@ public class MyTracksProviderTest extends AndroidTestCase {
     dropTable(TracksColumns.TABLE_NAME);
     createEmptyTable(TrackPointsColumns.TABLE_NAME);
     createEmptyTable(TracksColumns.TABLE_NAME);
-    databaseHelper.onUpgrade(db, 19, 20);
+    databaseHelper.onUpgrade(db, 19, 21);
     assertFalse(isColumnExisted(TrackPointsColumns.TABLE_NAME, TrackPointsColumns.SENSOR));
     assertFalse(isColumnExisted(TracksColumns.TABLE_NAME, TracksColumns.TABLEID));
     assertTrue(isColumnExisted(TracksColumns.TABLE_NAME, TracksColumns.ICON));
   }
 
+  /**
+   * Tests the method
+   * {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int, int)}
+   * when version is 20.
+   */
+  public void testDatabaseHelper_onUpgrade_Version20() {
+    DatabaseHelper databaseHelper = new DatabaseHelper(getContext());
+    db.execSQL("DROP INDEX " + TrackPointsColumns.TRACKID_INDEX);
+    db.execSQL("DROP INDEX " + WaypointsColumns.TRACKID_INDEX);
+    assertFalse(checkIndex(TrackPointsColumns.TRACKID_INDEX));
+    assertFalse(checkIndex(WaypointsColumns.TRACKID_INDEX));
+    databaseHelper.onUpgrade(db, 20, 21);
+    assertTrue(checkIndex(TrackPointsColumns.TRACKID_INDEX));
+    assertTrue(checkIndex(WaypointsColumns.TRACKID_INDEX));
+
+    // upgrading an upgraded database is harmless
+    databaseHelper.onUpgrade(db, 20, 21);
+    assertTrue(checkIndex(TrackPointsColumns.TRACKID_INDEX));
+  }
+
+  /**
+   * Tests the method
+   * {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int, int)}
+   * when version is 21.
+   */
+  public void testDatabaseHelper_onUpgrade_Version21() {
+    DatabaseHelper databaseHelper = new DatabaseHelper(getContext());
+    dropTable(TrackPointChunksColumns.TABLE_NAME);
+    assertFalse(checkTable(TrackPointChunksColumns.TABLE_NAME));
+    databaseHelper.onUpgrade(db, 21, 22);
+    assertTrue(checkTable(TrackPointChunksColumns.TABLE_NAME));
+    assertTrue(checkIndex(TrackPointChunksColumns.TRACKID_INDEX));
+  }
+
+  /**
+   * Tests the method
+   * {@link MyTracksProvider.DatabaseHelper#onUpgrade(SQLiteDatabase, int, int)}
+   * when version is 22, which switches the database to incremental vacuum
+   * when it opens.
+   */
+  public void testDatabaseHelper_onUpgrade_Version22() {
+    String databaseName = "mytrackstest_upgrade.db";
+    getContext().deleteDatabase(databaseName);
+    SQLiteDatabase oldDb = getContext().openOrCreateDatabase(
+        databaseName, Context.MODE_PRIVATE, null);
+    createEmptyTable(oldDb, TrackPointsColumns.TABLE_NAME);
+    ContentValues values = new ContentValues();
+    values.put(TrackPointsColumns.TRACKID, 1);
+    oldDb.insert(TrackPointsColumns.TABLE_NAME, null, values);
+    oldDb.setVersion(22);
+    assertFalse(SpaceReclaimer.isIncremental(oldDb));
+    oldDb.close();
+
+    SQLiteDatabase upgradedDb = new DatabaseHelper(getContext(), databaseName)
+        .getWritableDatabase();
+    try {
+      assertTrue(SpaceReclaimer.isIncremental(upgradedDb));
+      assertEquals(1, DatabaseUtils.longForQuery(upgradedDb,
+          "SELECT count(*) FROM " + TrackPointsColumns.TABLE_NAME, null));
+    } finally {
+      upgradedDb.close();
+      getContext().deleteDatabase(databaseName);
+    }
+  }
+
+  /**
+   * Tests that the queries made by {@link MyTracksProviderUtilsImpl} for a
+   * track's points and waypoints look them up through the trackid indexes
+   * rather than scanning the whole table.
+   */
+  public void testQueryPlans_UseTrackIdIndexes() {
+    String trackPoints = TrackPointsColumns.TABLE_NAME;
+    String trackId = TrackPointsColumns.TRACKID;
+    String id = TrackPointsColumns._ID;
+    String[] oneArg = new String[] { "1" };
+    String[] twoArgs = new String[] { "1", "100" };
+
+    // getTrackPointCursor
+    assertUsesIndex(TrackPointsColumns.TRACKID_INDEX, "SELECT * FROM " + trackPoints + " WHERE "
+        + trackId + "=? ORDER BY " + id + " LIMIT 100", oneArg);
+    assertUsesIndex(TrackPointsColumns.TRACKID_INDEX, "SELECT * FROM " + trackPoints + " WHERE "
+        + trackId + "=? AND " + id + ">=? ORDER BY " + id + " LIMIT 100", twoArgs);
+    assertUsesIndex(TrackPointsColumns.TRACKID_INDEX, "SELECT * FROM " + trackPoints + " WHERE "
+        + trackId + "=? AND " + id + "<=? ORDER BY " + id + " DESC LIMIT 100", twoArgs);
+    // getFirstTrackPointId, getLastTrackPointId
+    assertUsesIndex(TrackPointsColumns.TRACKID_INDEX, "SELECT " + id + " FROM " + trackPoints
+        + " WHERE " + id + "=(select min(" + id + ") from " + trackPoints + " WHERE " + trackId
+        + "=?) ORDER BY " + id, oneArg);
+    assertUsesIndex(TrackPointsColumns.TRACKID_INDEX, "SELECT " + id + " FROM " + trackPoints
+        + " WHERE " + id + "=(select max(" + id + ") from " + trackPoints + " WHERE " + trackId
+        + "=?) ORDER BY " + id, oneArg);
+    // getLastValidTrackPoint
+    assertUsesIndex(TrackPointsColumns.TRACKID_INDEX, "SELECT * FROM " + trackPoints + " WHERE "
+        + id + "=(select max(" + id + ") from " + trackPoints + " WHERE " + trackId + "=? AND "
+        + TrackPointsColumns.LATITUDE + "<=90000000) ORDER BY " + id, oneArg);
+
+    // getWaypointCursor
+    assertUsesIndex(WaypointsColumns.TRACKID_INDEX, "SELECT * FROM "
+        + WaypointsColumns.TABLE_NAME + " WHERE " + WaypointsColumns.TRACKID + "=? AND "
+        + WaypointsColumns._ID + ">=? ORDER BY " + WaypointsColumns._ID + " LIMIT 100", twoArgs);
+  }
+
   /**
    * Tests the method {@link MyTracksProvider#onCreate()}.
    */
@@ -155,6 +271,69 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertTrue(myTracksProvider.onCreate(getContext()));
   }
 
+  /**
+   * Tests that new databases are created in incremental vacuum mode and that
+   * {@link SpaceReclaimer} empties their free list.
+   */
+  public void testSpaceReclaimer() {
+    assertEquals(2, DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+    SpaceReclaimer spaceReclaimer = new SpaceReclaimer(db, 0, 16);
+    try {
+
+      ContentValues values = new ContentValues();
+      values.put(TrackPointsColumns.TRACKID, 1);
+      values.put(TrackPointsColumns.SENSOR, new byte[1024]);
+      for (int i = 0; i < 500; i++) {
+        db.insert(TrackPointsColumns.TABLE_NAME, null, values);
+      }
+      long pageCount = spaceReclaimer.getPageCount();
+      db.delete(TrackPointsColumns.TABLE_NAME, null, null);
+      long freePages = spaceReclaimer.getFreePages();
+      assertTrue(freePages > 16);
+
+      assertTrue(spaceReclaimer.reclaim(false));
+      assertEquals(0, spaceReclaimer.getFreePages());
+      assertEquals(freePages, spaceReclaimer.getReclaimedPages());
+      // pointer map pages may go too
+      assertTrue(spaceReclaimer.getPageCount() <= pageCount - freePages);
+    } finally {
+      spaceReclaimer.shutdown();
+    }
+  }
+
+  /**
+   * Tests that {@link SpaceReclaimer} falls back to a full VACUUM for a
+   * database that isn't in incremental vacuum mode.
+   */
+  public void testSpaceReclaimer_notIncremental() {
+    String databaseName = "mytrackstest_vacuum.db";
+    getContext().deleteDatabase(databaseName);
+    SQLiteDatabase oldDb = getContext().openOrCreateDatabase(
+        databaseName, Context.MODE_PRIVATE, null);
+    SpaceReclaimer spaceReclaimer = new SpaceReclaimer(oldDb, 0, 16);
+    try {
+      createEmptyTable(oldDb, TrackPointsColumns.TABLE_NAME);
+      assertFalse(SpaceReclaimer.isIncremental(oldDb));
+      ContentValues values = new ContentValues();
+      values.put(TrackPointsColumns.TRACKID, 1);
+      for (int i = 0; i < 5000; i++) {
+        oldDb.insert(TrackPointsColumns.TABLE_NAME, null, values);
+      }
+      oldDb.delete(TrackPointsColumns.TABLE_NAME, null, null);
+      long freePages = spaceReclaimer.getFreePages();
+      assertTrue(freePages > 0);
+
+      assertTrue(spaceReclaimer.reclaim(false));
+      assertEquals(0, spaceReclaimer.getFreePages());
+      assertEquals(freePages, spaceReclaimer.getReclaimedPages());
+      assertFalse(SpaceReclaimer.isIncremental(oldDb));
+    } finally {
+      spaceReclaimer.shutdown();
+      oldDb.close();
+      getContext().deleteDatabase(databaseName);
+    }
+  }
+
   /**
    * Tests the method {@link MyTracksProvider#getType(Uri)}.
    */
@@ -164,15 +343,189 @@ public class MyTracksProviderTest extends AndroidTestCase {
     assertEquals(TracksColumns.CONTENT_TYPE, myTracksProvider.getType(TracksColumns.CONTENT_URI));
     assertEquals(WaypointsColumns.CONTENT_TYPE,
         myTracksProvider.getType(WaypointsColumns.CONTENT_URI));
+    assertEquals(TrackPointChunksColumns.CONTENT_TYPE,
+        myTracksProvider.getType(TrackPointChunksColumns.CONTENT_URI));
+  }
+
+  /**
+   * Tests that {@link MyTracksProvider#call(String, String, Bundle)} refuses to
+   * insert track points for a caller without the write permission.
+   */
+  public void testCall_insertTrackPointsWithoutPermission() {
+    myTracksProvider.attachInfo(new DeniedContext(getContext()), null);
+    try {
+      Location location = new Location("gps");
+      location.setLatitude(37.0);
+      location.setLongitude(-122.0);
+      location.setTime(1000L);
+      TrackPointBatch batch = new TrackPointBatch();
+      batch.add(location, TRACK_ID);
+
+      int count = getTrackPointCount();
+      assertCallRefused(TrackPointBatch.INSERT_METHOD, batch.toBundle());
+      assertEquals(count, getTrackPointCount());
+    } finally {
+      myTracksProvider.shutdown();
+    }
+  }
+
+  /**
+   * Tests that {@link MyTracksProvider#call(String, String, Bundle)} refuses to
+   * delete tracks or report space statistics for a caller without the
+   * permissions.
+   */
+  public void testCall_deleteTracksWithoutPermission() {
+    myTracksProvider.attachInfo(new DeniedContext(getContext()), null);
+    try {
+      ContentValues values = new ContentValues();
+      values.put(TrackPointsColumns.TRACKID, TRACK_ID);
+      values.put(TrackPointsColumns.LATITUDE, 37000000);
+      values.put(TrackPointsColumns.LONGITUDE, -122000000);
+      values.put(TrackPointsColumns.TIME, 1000L);
+      myTracksProvider.insert(TrackPointsColumns.CONTENT_URI, values);
+
+      int count = getTrackPointCount();
+      assertTrue(count > 0);
+      Bundle extras = new Bundle();
+      extras.putLongArray(MyTracksProviderUtils.TRACK_IDS_KEY, new long[] { TRACK_ID });
+      assertCallRefused(MyTracksProviderUtils.DELETE_TRACKS_METHOD, extras);
+      assertEquals(count, getTrackPointCount());
+      assertCallRefused(SpaceReclaimer.STATS_METHOD, null);
+    } finally {
+      myTracksProvider.delete(TrackPointsColumns.CONTENT_URI, TrackPointsColumns.TRACKID + "=?",
+          new String[] { Long.toString(TRACK_ID) });
+      myTracksProvider.shutdown();
+    }
+  }
+
+  /**
+   * Tests that {@link MyTracksProvider#call(String, String, Bundle)} refuses to
+   * compact track points for a caller without the write permission.
+   */
+  public void testCall_compactTrackPointsWithoutPermission() {
+    myTracksProvider.attachInfo(new DeniedContext(getContext()), null);
+    try {
+      ContentValues values = new ContentValues();
+      values.put(TrackPointsColumns.TRACKID, TRACK_ID);
+      values.put(TrackPointsColumns.LATITUDE, 37000000);
+      values.put(TrackPointsColumns.LONGITUDE, -122000000);
+      values.put(TrackPointsColumns.TIME, 1000L);
+      myTracksProvider.insert(TrackPointsColumns.CONTENT_URI, values);
+
+      int count = getTrackPointCount();
+      assertTrue(count > 0);
+      Bundle extras = new Bundle();
+      extras.putLongArray(MyTracksProviderUtils.TRACK_IDS_KEY, new long[] { TRACK_ID });
+      assertCallRefused(MyTracksProviderUtils.COMPACT_TRACK_POINTS_METHOD, extras);
+      assertEquals(count, getTrackPointCount());
+    } finally {
+      myTracksProvider.delete(TrackPointsColumns.CONTENT_URI, TrackPointsColumns.TRACKID + "=?",
+          new String[] { Long.toString(TRACK_ID) });
+      myTracksProvider.shutdown();
+    }
+  }
+
+  /**
+   * A context that refuses every permission enforced through it.
+   */
+  private static class DeniedContext extends ContextWrapper {
+
+    public DeniedContext(Context base) {
+      super(base);
+    }
+
+    @Override
+    public void enforceCallingOrSelfPermission(String permission, String message) {
+      throw new SecurityException(message);
+    }
   }
 
   /**
-   * Creates an table only contains one column.
+   * Asserts that calling a provider method throws a {@link SecurityException}.
+   * 
+   * @param method the method
+   * @param extras the extras
+   */
+  private void assertCallRefused(String method, Bundle extras) {
+    try {
+      myTracksProvider.call(method, null, extras);
+      fail("Expected " + method + " to be refused");
+    } catch (SecurityException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Gets the number of track points of {@link #TRACK_ID} in the provider.
+   */
+  private int getTrackPointCount() {
+    Cursor cursor = myTracksProvider.query(TrackPointsColumns.CONTENT_URI, null,
+        TrackPointsColumns.TRACKID + "=?", new String[] { Long.toString(TRACK_ID) }, null);
+    try {
+      return cursor.getCount();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Creates an table only contains one column, besides the id and track id
+   * columns the indexes are built on.
    * 
    * @param table the name of table
    */
   private void createEmptyTable(String table) {
-    db.execSQL("CREATE TABLE " + table + " (test INTEGER)");
+    createEmptyTable(db, table);
+  }
+
+  /**
+   * Creates an table only contains one column in a database.
+   * 
+   * @param database the database
+   * @param table the name of table
+   */
+  private void createEmptyTable(SQLiteDatabase database, String table) {
+    database.execSQL("CREATE TABLE " + table + " (_id INTEGER PRIMARY KEY, trackid INTEGER, "
+        + "test INTEGER)");
+  }
+
+  /**
+   * Checks whether an index exists.
+   * 
+   * @param index the name of index
+   * @return true means the index has existed
+   */
+  private boolean checkIndex(String index) {
+    Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+        new String[] { index });
+    try {
+      return cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * Asserts that a query uses an index and never scans a whole table.
+   * 
+   * @param index the name of index
+   * @param sql the query
+   * @param selectionArgs the query arguments
+   */
+  private void assertUsesIndex(String index, String sql, String[] selectionArgs) {
+    Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+    boolean usesIndex = false;
+    try {
+      int detailIndex = cursor.getColumnIndexOrThrow("detail");
+      while (cursor.moveToNext()) {
+        String detail = cursor.getString(detailIndex);
+        assertFalse(sql + ": " + detail, detail.startsWith("SCAN") && !detail.contains("USING"));
+        usesIndex |= detail.contains(index);
+      }
+    } finally {
+      cursor.close();
+    }
+    assertTrue(sql, usesIndex);
   }
 
   /**
@@ -37,7 +37,10 @@ package org.cowboycoders.cyclisimo.content;
 import org.cowboycoders.cyclisimo.content.DescriptionGenerator;
 import org.cowboycoders.cyclisimo.content.MyTracksProviderUtils;
 import org.cowboycoders.cyclisimo.content.MyTracksProviderUtilsImpl;
+import org.cowboycoders.cyclisimo.content.MyTracksLocation;
+import org.cowboycoders.cyclisimo.content.Sensor;
 import org.cowboycoders.cyclisimo.content.Track;
+import org.cowboycoders.cyclisimo.content.TrackPointBatch;
 import org.cowboycoders.cyclisimo.content.TrackPointsColumns;
 import org.cowboycoders.cyclisimo.content.TracksColumns;
 import org.cowboycoders.cyclisimo.content.Waypoint;
@@ -151,6 +154,97 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     testIterator(1, 20000, 2000, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
   }
 
+  public void testPrefetchingLocationIterator_noPoints() {
+    testPrefetchingIterator(1, 0, 1, false);
+  }
+
+  public void testPrefetchingLocationIterator_noBatch() {
+    testPrefetchingIterator(1, 50, 100, false);
+    testPrefetchingIterator(2, 50, 50, true);
+  }
+
+  public void testPrefetchingLocationIterator_batch() {
+    testPrefetchingIterator(1, 50, 11, false);
+    testPrefetchingIterator(2, 50, 25, false);
+    testPrefetchingIterator(3, 50, 11, true);
+    testPrefetchingIterator(4, 50, 25, true);
+  }
+
+  public void testPrefetchingLocationIterator_largeTrack() {
+    testPrefetchingIterator(1, 20000, 2000, false);
+  }
+
+  public void testPrefetchingLocationIterator_nullLocation() {
+    try {
+      providerUtils.getTrackPointLocationIterator(1, -1, false, (MyTracksLocation) null);
+      fail("Expecting IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Tests that the sensor data set is parsed when asked for, and not carried
+   * over to the next point.
+   */
+  public void testPrefetchingLocationIterator_sensorData() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 0);
+    providerUtils.insertTrack(track);
+    providerUtils.insertTrackPoint(new MyTracksLocation(createLocation(0),
+        Sensor.SensorDataSet.newBuilder().setHeartRate(Sensor.SensorData.newBuilder()
+            .setValue(150).setState(Sensor.SensorState.SENDING)).build()), trackId);
+    providerUtils.insertTrackPoint(createLocation(1), trackId);
+
+    MyTracksLocation location = new MyTracksLocation("test");
+    LocationIterator it = providerUtils.getTrackPointLocationIterator(
+        trackId, -1L, false, location);
+    try {
+      assertTrue(it.hasNext());
+      it.next();
+      assertEquals(150, location.getSensorDataSet().getHeartRate().getValue());
+      assertTrue(it.hasNext());
+      it.next();
+      checkLocation(1, location);
+      assertNull(location.getSensorDataSet());
+      assertFalse(it.hasNext());
+    } finally {
+      it.close();
+    }
+  }
+
+  /**
+   * Iterates with a reused location and checks it against the points read
+   * with {@link MyTracksProviderUtils#DEFAULT_LOCATION_FACTORY}.
+   */
+  private void testPrefetchingIterator(long trackId, int numPoints, int batchSize,
+      boolean descending) {
+    List<Location> expected = testIterator(trackId, numPoints, batchSize, descending,
+        MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    MyTracksLocation location = new MyTracksLocation("test");
+    LocationIterator it = providerUtils.getTrackPointLocationIterator(
+        trackId, -1L, descending, location);
+    int count = 0;
+    try {
+      long lastId = -1L;
+      while (it.hasNext()) {
+        assertSame(location, it.next());
+        Location loc = expected.get(count++);
+        assertEquals(loc.getLatitude(), location.getLatitude());
+        assertEquals(loc.getLongitude(), location.getLongitude());
+        assertEquals(loc.getAccuracy(), location.getAccuracy());
+        assertEquals(loc.getAltitude(), location.getAltitude());
+        if (lastId != -1L) {
+          assertEquals(descending ? lastId - 1 : lastId + 1, it.getLocationId());
+        }
+        lastId = it.getLocationId();
+      }
+    } finally {
+      it.close();
+    }
+    assertEquals(numPoints, count);
+  }
+
   private List<Location> testIterator(long trackId, int numPoints, int batchSize,
       boolean descending, LocationFactory locationFactory) {
     long lastPointId = initializeTrack(trackId, numPoints);
@@ -321,6 +415,34 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     assertEquals(0, waypointCursor.getCount());
   }
 
+  /**
+   * Tests the method {@link MyTracksProviderUtilsImpl#deleteTracks(long[])}.
+   */
+  public void testDeleteTracks() {
+    long trackId = System.currentTimeMillis();
+    insertTrackWithLocations(getTrack(trackId, 10));
+    insertTrackWithLocations(getTrack(trackId + 1, 10));
+    insertTrackWithLocations(getTrack(trackId + 2, 10));
+    Waypoint waypoint = new Waypoint();
+    waypoint.setTrackId(trackId + 1);
+    providerUtils.insertWaypoint(waypoint);
+
+    providerUtils.deleteTracks(new long[] { trackId, trackId + 1 });
+
+    assertNull(providerUtils.getTrack(trackId));
+    assertNull(providerUtils.getTrack(trackId + 1));
+    assertNotNull(providerUtils.getTrack(trackId + 2));
+    ContentResolver contentResolver = context.getContentResolver();
+    Cursor cursor = contentResolver.query(TrackPointsColumns.CONTENT_URI, null, null, null,
+        TrackPointsColumns._ID);
+    assertEquals(10, cursor.getCount());
+    cursor.close();
+    cursor = contentResolver.query(WaypointsColumns.CONTENT_URI, null, null, null,
+        WaypointsColumns._ID);
+    assertEquals(0, cursor.getCount());
+    cursor.close();
+  }
+
   /**
    * Tests the method {@link MyTracksProviderUtilsImpl#getAllTracks()}
    */
@@ -679,6 +801,109 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     assertEquals(28, providerUtils.getTrackPointCursor(trackId, 0, 1000, false).getCount());
   }
 
+  /**
+   * Tests the method
+   * {@link MyTracksProviderUtilsImpl#bulkInsertTrackPoints(TrackPointBatch)}.
+   */
+  public void testBulkInsertTrackPoints() {
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, 10);
+    providerUtils.insertTrack(track);
+
+    TrackPointBatch batch = new TrackPointBatch(4);
+    for (Location location : track.getLocations()) {
+      batch.add(location, trackId);
+    }
+    Location noAccuracy = createLocation(10);
+    noAccuracy.removeAccuracy();
+    batch.add(noAccuracy, trackId);
+    MyTracksLocation withSensor = new MyTracksLocation(createLocation(11),
+        Sensor.SensorDataSet.newBuilder().setPower(Sensor.SensorData.newBuilder().setValue(250)
+            .setState(Sensor.SensorState.SENDING)).build());
+    batch.add(withSensor, trackId);
+    assertEquals(12, batch.size());
+
+    long lastId = providerUtils.bulkInsertTrackPoints(batch);
+    assertEquals(providerUtils.getLastTrackPointId(trackId), lastId);
+
+    LocationIterator locationIterator = providerUtils.getTrackPointLocationIterator(
+        trackId, -1L, false, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      for (int i = 0; i < 10; i++) {
+        checkLocation(i, locationIterator.next());
+      }
+      Location location = locationIterator.next();
+      assertFalse(location.hasAccuracy());
+      assertTrue(location.hasAltitude());
+      assertFalse(location.hasSpeed());
+      location = locationIterator.next();
+      assertEquals(lastId, locationIterator.getLocationId());
+      assertEquals(250, ((MyTracksLocation) location).getSensorDataSet().getPower().getValue());
+      assertFalse(locationIterator.hasNext());
+    } finally {
+      locationIterator.close();
+    }
+    assertEquals(-1L, providerUtils.bulkInsertTrackPoints(new TrackPointBatch()));
+  }
+
+  /**
+   * Tests that rows restored with their ids keep them.
+   */
+  public void testBulkInsertTrackPoints_ids() {
+    long trackId = System.currentTimeMillis();
+    providerUtils.insertTrack(getTrack(trackId, 0));
+
+    TrackPointBatch batch = new TrackPointBatch();
+    for (int i = 0; i < 3; i++) {
+      ContentValues values = new ContentValues();
+      values.put(TrackPointsColumns._ID, 100 + i);
+      values.put(TrackPointsColumns.TRACKID, trackId);
+      values.put(TrackPointsColumns.LATITUDE, (int) (INITIAL_LATITUDE * 1E6));
+      values.put(TrackPointsColumns.LONGITUDE, (int) (INITIAL_LONGITUDE * 1E6));
+      values.put(TrackPointsColumns.TIME, 1000L * i);
+      batch.add(values);
+    }
+    assertEquals(102, providerUtils.bulkInsertTrackPoints(batch));
+    assertEquals(100, providerUtils.getFirstTrackPointId(trackId));
+    assertEquals(102, providerUtils.getLastTrackPointId(trackId));
+  }
+
+  /**
+   * Tests that points inserted over many {@link TrackPointBatch}es, the last
+   * one partly filled, all come back in order.
+   */
+  public void testBulkInsertTrackPoints_manyBatches() {
+    int numPoints = 2000;
+    int batchSize = 512;
+    long trackId = System.currentTimeMillis();
+    providerUtils.insertTrack(getTrack(trackId, 0));
+
+    TrackPointBatch batch = new TrackPointBatch(batchSize);
+    long lastId = -1L;
+    for (int inserted = 0; inserted < numPoints; inserted += batchSize) {
+      int length = Math.min(batchSize, numPoints - inserted);
+      batch.clear();
+      for (int i = inserted; i < inserted + length; i++) {
+        Location location = createLocation(i);
+        location.setTime(i * 1000L + 1);
+        batch.add(location, trackId);
+      }
+      lastId = providerUtils.bulkInsertTrackPoints(batch);
+    }
+    assertEquals(providerUtils.getLastTrackPointId(trackId), lastId);
+
+    Cursor cursor = context.getContentResolver().query(TrackPointsColumns.CONTENT_URI, null,
+        TrackPointsColumns.TRACKID + "=?", new String[] { Long.toString(trackId) }, null);
+    assertEquals(numPoints, cursor.getCount());
+    cursor.close();
+    List<Location> locations = readTrackPoints(trackId, -1L, false);
+    assertEquals(numPoints, locations.size());
+    for (int i = 0; i < numPoints; i++) {
+      checkLocation(i, locations.get(i));
+      assertEquals(i * 1000L + 1, locations.get(i).getTime());
+    }
+  }
+
   /**
    * Tests the method {@link MyTracksProviderUtilsImpl#createTrackPoint(Cursor)}.
    */
@@ -876,6 +1101,105 @@ public class MyTracksProviderUtilsImplTest extends AndroidTestCase {
     assertFalse(locationIterator.hasNext());
   }
 
+  /**
+   * Tests that {@link MyTracksProviderUtilsImpl#compactTrackPoints(long)}
+   * keeps the points returned by the cursor and the iterator, in both orders
+   * and with points added after packing.
+   */
+  public void testCompactTrackPoints() {
+    int numPoints = 600;
+    long trackId = System.currentTimeMillis();
+    Track track = getTrack(trackId, numPoints);
+    insertTrackWithLocations(track);
+    Location withSensor = new MyTracksLocation(createLocation(numPoints),
+        Sensor.SensorDataSet.newBuilder().setHeartRate(Sensor.SensorData.newBuilder()
+            .setValue(150).setState(Sensor.SensorState.SENDING)).build());
+    providerUtils.insertTrackPoint(withSensor, trackId);
+    numPoints++;
+    long firstId = providerUtils.getFirstTrackPointId(trackId);
+    long lastId = providerUtils.getLastTrackPointId(trackId);
+    List<Location> rows = readTrackPoints(trackId, -1L, false);
+
+    assertEquals(numPoints, providerUtils.compactTrackPoints(trackId));
+    assertEquals(0, providerUtils.compactTrackPoints(trackId));
+    Cursor cursor = context.getContentResolver().query(TrackPointsColumns.CONTENT_URI, null,
+        TrackPointsColumns.TRACKID + "=?", new String[] { Long.toString(trackId) }, null);
+    assertEquals(0, cursor.getCount());
+    cursor.close();
+
+    assertEquals(firstId, providerUtils.getFirstTrackPointId(trackId));
+    assertEquals(lastId, providerUtils.getLastTrackPointId(trackId));
+    List<Location> packed = readTrackPoints(trackId, -1L, false);
+    assertEquals(numPoints, packed.size());
+    for (int i = 0; i < numPoints - 1; i++) {
+      checkLocation(i, rows.get(i));
+      checkLocation(i, packed.get(i));
+      assertEquals(rows.get(i).getTime(), packed.get(i).getTime());
+    }
+    assertEquals(150, ((MyTracksLocation) packed.get(numPoints - 1)).getSensorDataSet()
+        .getHeartRate().getValue());
+    MyTracksLocation location = new MyTracksLocation("test");
+    LocationIterator it = providerUtils.getTrackPointLocationIterator(
+        trackId, -1L, false, location);
+    try {
+      for (int i = 0; i < numPoints - 1; i++) {
+        assertTrue(it.hasNext());
+        it.next();
+        checkLocation(i, location);
+      }
+      assertTrue(it.hasNext());
+      it.next();
+      assertEquals(150, location.getSensorDataSet().getHeartRate().getValue());
+      assertFalse(it.hasNext());
+    } finally {
+      it.close();
+    }
+    assertEquals(numPoints - 1, providerUtils.getLastValidTrackPoint(trackId).getAltitude()
+        / ALTITUDE_INTERVAL, 0.01);
+
+    // Rows after the chunks
+    providerUtils.bulkInsertTrackPoint(new Location[] { createLocation(numPoints) }, 1, trackId);
+    numPoints++;
+    lastId = providerUtils.getLastTrackPointId(trackId);
+    List<Location> ascending = readTrackPoints(trackId, firstId + 10, false);
+    assertEquals(numPoints - 10, ascending.size());
+    checkLocation(10, ascending.get(0));
+    checkLocation(numPoints - 1, ascending.get(ascending.size() - 1));
+    List<Location> descending = readTrackPoints(trackId, lastId - 1, true);
+    assertEquals(numPoints - 1, descending.size());
+    checkLocation(numPoints - 2, descending.get(0));
+    checkLocation(0, descending.get(descending.size() - 1));
+    cursor = providerUtils.getTrackPointCursor(trackId, lastId - 2, 5, false);
+    assertEquals(3, cursor.getCount());
+    cursor.close();
+    cursor = providerUtils.getTrackPointCursor(trackId, lastId, 5, true);
+    assertEquals(5, cursor.getCount());
+    cursor.close();
+
+    providerUtils.deleteTrack(trackId);
+    assertEquals(-1L, providerUtils.getFirstTrackPointId(trackId));
+    assertNull(providerUtils.getLastValidTrackPoint(trackId));
+  }
+
+  /**
+   * Reads the points of a track with an iterator over small batches.
+   */
+  private List<Location> readTrackPoints(long trackId, long startTrackPointId,
+      boolean descending) {
+    ((MyTracksProviderUtilsImpl) providerUtils).setDefaultCursorBatchSize(100);
+    List<Location> locations = new ArrayList<Location>();
+    LocationIterator it = providerUtils.getTrackPointLocationIterator(
+        trackId, startTrackPointId, descending, MyTracksProviderUtils.DEFAULT_LOCATION_FACTORY);
+    try {
+      while (it.hasNext()) {
+        locations.add(it.next());
+      }
+    } finally {
+      it.close();
+    }
+    return locations;
+  }
+
   /**
    * Simulates a track which is used for testing.
    * 
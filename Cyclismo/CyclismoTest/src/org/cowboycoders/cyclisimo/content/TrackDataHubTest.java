@@ -45,7 +45,7 @@ import org.cowboycoders.cyclisimo.content.TrackPointsColumns;
 import org.cowboycoders.cyclisimo.content.TracksColumns;
 import org.cowboycoders.cyclisimo.content.Waypoint;
 import org.cowboycoders.cyclisimo.content.WaypointsColumns;
-import org.cowboycoders.cyclisimo.content.MyTracksProviderUtils.LocationFactory;
+import org.cowboycoders.cyclisimo.content.MyTracksLocation;
 import org.cowboycoders.cyclisimo.content.MyTracksProviderUtils.LocationIterator;
 import org.cowboycoders.cyclisimo.R;
 import com.google.android.testing.mocking.AndroidMock;
@@ -319,7 +319,7 @@ public class TrackDataHubTest extends AndroidTestCase {
 
     FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 10, 5);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+        eq(TRACK_ID), eq(0L), eq(false), isA(MyTracksLocation.class))).andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(10L);
     trackDataListener1.clearTrackPoints();
     locationIterator.expectLocationsDelivered(trackDataListener1);
@@ -334,7 +334,7 @@ public class TrackDataHubTest extends AndroidTestCase {
     // Register a second listener
     locationIterator = new FixedSizeLocationIterator(1, 10, 5);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+        eq(TRACK_ID), eq(0L), eq(false), isA(MyTracksLocation.class))).andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(10L);
     trackDataListener2.clearTrackPoints();
     locationIterator.expectLocationsDelivered(trackDataListener2);
@@ -349,7 +349,7 @@ public class TrackDataHubTest extends AndroidTestCase {
     ContentObserver contentObserver = contentObserverCapture.getValue();
     locationIterator = new FixedSizeLocationIterator(11, 10, 1);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(11L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+        eq(TRACK_ID), eq(11L), eq(false), isA(MyTracksLocation.class))).andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(20L);
     locationIterator.expectLocationsDelivered(trackDataListener1);
     locationIterator.expectLocationsDelivered(trackDataListener2);
@@ -363,7 +363,7 @@ public class TrackDataHubTest extends AndroidTestCase {
     // Unregister one listener and change track
     locationIterator = new FixedSizeLocationIterator(101, 10);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID + 1), eq(0L), eq(false), isA(LocationFactory.class)))
+        eq(TRACK_ID + 1), eq(0L), eq(false), isA(MyTracksLocation.class)))
         .andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID + 1)).andReturn(110L);
     trackDataListener2.clearTrackPoints();
@@ -389,7 +389,7 @@ public class TrackDataHubTest extends AndroidTestCase {
 
     FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 10, 5);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+        eq(TRACK_ID), eq(0L), eq(false), isA(MyTracksLocation.class))).andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(10L);
 
     trackDataListener1.clearTrackPoints();
@@ -415,7 +415,7 @@ public class TrackDataHubTest extends AndroidTestCase {
         eq(TrackPointsColumns.CONTENT_URI), capture(contentObserverCapture));
     locationIterator = new FixedSizeLocationIterator(1, 10, 5);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+        eq(TRACK_ID), eq(0L), eq(false), isA(MyTracksLocation.class))).andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(10L);
     trackDataListener1.clearTrackPoints();
     locationIterator.expectLocationsDelivered(trackDataListener1);
@@ -440,7 +440,7 @@ public class TrackDataHubTest extends AndroidTestCase {
 
     FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 10, 5);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+        eq(TRACK_ID), eq(0L), eq(false), isA(MyTracksLocation.class))).andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(10L);
     trackDataListener1.clearTrackPoints();
     locationIterator.expectLocationsDelivered(trackDataListener1);
@@ -465,7 +465,7 @@ public class TrackDataHubTest extends AndroidTestCase {
         eq(TrackPointsColumns.CONTENT_URI), capture(observerCapture));
     locationIterator = new FixedSizeLocationIterator(1, 10);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID + 1), eq(0L), eq(false), isA(LocationFactory.class)))
+        eq(TRACK_ID + 1), eq(0L), eq(false), isA(MyTracksLocation.class)))
         .andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID + 1)).andReturn(10L);
     trackDataListener1.clearTrackPoints();
@@ -493,11 +493,11 @@ public class TrackDataHubTest extends AndroidTestCase {
     FixedSizeLocationIterator locationIterator1 = new FixedSizeLocationIterator(
         1, 200, 4, 25, 71, 120);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator1);
+        eq(TRACK_ID), eq(0L), eq(false), isA(MyTracksLocation.class))).andReturn(locationIterator1);
     FixedSizeLocationIterator locationIterator2 = new FixedSizeLocationIterator(
         1, 200, 4, 25, 71, 120);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator2);
+        eq(TRACK_ID), eq(0L), eq(false), isA(MyTracksLocation.class))).andReturn(locationIterator2);
 
     trackDataListener1.clearTrackPoints();
     locationIterator1.expectSampledLocationsDelivered(trackDataListener1, 4, false);
@@ -527,7 +527,7 @@ public class TrackDataHubTest extends AndroidTestCase {
     // Deliver 30 points (no sampling happens)
     FixedSizeLocationIterator locationIterator = new FixedSizeLocationIterator(1, 30, 5);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+        eq(TRACK_ID), eq(0L), eq(false), isA(MyTracksLocation.class))).andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(30L);
 
     trackDataListener1.clearTrackPoints();
@@ -544,7 +544,7 @@ public class TrackDataHubTest extends AndroidTestCase {
     ContentObserver observer = observerCapture.getValue();
     locationIterator = new FixedSizeLocationIterator(31, 30);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(31L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+        eq(TRACK_ID), eq(31L), eq(false), isA(MyTracksLocation.class))).andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(60L);
     locationIterator.expectSampledLocationsDelivered(trackDataListener1, 2, false);
     trackDataListener1.onNewTrackPointsDone();
@@ -556,7 +556,7 @@ public class TrackDataHubTest extends AndroidTestCase {
     // Now another 30 (triggers resampling)
     locationIterator = new FixedSizeLocationIterator(1, 90);
     expect(myTracksProviderUtils.getTrackPointLocationIterator(
-        eq(TRACK_ID), eq(0L), eq(false), isA(LocationFactory.class))).andReturn(locationIterator);
+        eq(TRACK_ID), eq(0L), eq(false), isA(MyTracksLocation.class))).andReturn(locationIterator);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID)).andReturn(90L);
     trackDataListener1.clearTrackPoints();
     locationIterator.expectSampledLocationsDelivered(trackDataListener1, 2, false);
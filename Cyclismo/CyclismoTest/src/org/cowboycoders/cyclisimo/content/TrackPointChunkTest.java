@@ -0,0 +1,175 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.cyclisimo.content;
+
+import org.cowboycoders.cyclisimo.content.Sensor.SensorData;
+import org.cowboycoders.cyclisimo.content.Sensor.SensorDataSet;
+import org.cowboycoders.cyclisimo.content.Sensor.SensorState;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Tests for {@link TrackPointChunk}.
+ */
+public class TrackPointChunkTest extends AndroidTestCase {
+
+  private static final String TAG = TrackPointChunkTest.class.getSimpleName();
+
+  private static final long TRACK_ID = 7L;
+
+  /**
+   * Tests that a ride of one point a second comes back as it went in.
+   */
+  public void testRoundTrip() {
+    TrackPointBatch batch = createRide(TrackPointChunk.DEFAULT_SIZE);
+    TrackPointBatch decoded = new TrackPointBatch();
+    byte[] data = TrackPointChunk.encode(batch, 0, batch.size());
+    assertEquals(batch.size(), TrackPointChunk.decode(data, TRACK_ID, decoded));
+    assertEquals(batch.size(), decoded.size());
+    for (int i = 0; i < batch.size(); i++) {
+      checkPoint(batch, i, decoded, i);
+    }
+  }
+
+  /**
+   * Tests encoding part of a batch and decoding after existing points.
+   */
+  public void testRoundTrip_range() {
+    TrackPointBatch batch = createRide(20);
+    TrackPointBatch decoded = createRide(3);
+    byte[] data = TrackPointChunk.encode(batch, 5, 15);
+    assertEquals(10, TrackPointChunk.decode(data, TRACK_ID, decoded));
+    assertEquals(13, decoded.size());
+    for (int i = 0; i < 10; i++) {
+      checkPoint(batch, 5 + i, decoded, 3 + i);
+    }
+  }
+
+  /**
+   * Tests that absent values, pause points and sensor data which cannot be
+   * packed survive.
+   */
+  public void testRoundTrip_irregular() {
+    TrackPointBatch batch = new TrackPointBatch();
+    batch.add(10L, TRACK_ID, -57000000, 37000000, 1000L, Double.NaN, Float.NaN, Float.NaN,
+        Float.NaN, null);
+    // Pause point
+    batch.add(11L, TRACK_ID, 0, 100000000, 900000L, Double.NaN, Float.NaN, Float.NaN, Float.NaN,
+        null);
+    // Not a SensorDataSet
+    batch.add(15L, TRACK_ID, -57000100, 37000100, 901000L, -12.5, 3.0f, 0.0f, 359.99f,
+        new byte[] { (byte) 0xFF, 1, 2 });
+    // Creation time only
+    batch.add(16L, TRACK_ID, -57000200, 37000200, 902000L, -12.25, Float.NaN, 1.5f, Float.NaN,
+        SensorDataSet.newBuilder().setCreationTime(100L).build().toByteArray());
+    // Empty
+    batch.add(17L, TRACK_ID, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, 0.0, 0.0f,
+        0.0f, 0.0f, new byte[0]);
+
+    TrackPointBatch decoded = new TrackPointBatch();
+    TrackPointChunk.decode(TrackPointChunk.encode(batch, 0, batch.size()), TRACK_ID, decoded);
+    assertEquals(batch.size(), decoded.size());
+    for (int i = 0; i < batch.size(); i++) {
+      checkPoint(batch, i, decoded, i);
+    }
+  }
+
+  /**
+   * Tests that the chunk is several times smaller than the rows it replaces.
+   */
+  public void testSize() {
+    TrackPointBatch batch = createRide(TrackPointChunk.DEFAULT_SIZE);
+    int rowBytes = 0;
+    for (int i = 0; i < batch.size(); i++) {
+      // 5 integers, 4 reals and the sensor blob
+      rowBytes += 5 * 8 + 4 * 8 + batch.getSensor(i).length;
+    }
+    int chunkBytes = TrackPointChunk.encode(batch, 0, batch.size()).length;
+    Log.i(TAG, String.format("%d points: rows %d bytes, chunk %d bytes", batch.size(), rowBytes,
+        chunkBytes));
+    assertTrue(chunkBytes * 5 < rowBytes);
+  }
+
+  /**
+   * Tests that data which is not a chunk is rejected.
+   */
+  public void testDecode_invalid() {
+    byte[] data = TrackPointChunk.encode(createRide(10), 0, 10);
+    assertInvalid(new byte[0]);
+    assertInvalid(new byte[] { 99, 1 });
+    assertInvalid(Arrays.copyOf(data, data.length / 2));
+  }
+
+  private void assertInvalid(byte[] data) {
+    try {
+      TrackPointChunk.decode(data, TRACK_ID, new TrackPointBatch());
+      fail("Expecting IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Creates points a second apart with slowly changing values and heart
+   * rate, cadence and power.
+   */
+  private TrackPointBatch createRide(int numPoints) {
+    TrackPointBatch batch = new TrackPointBatch(numPoints);
+    long time = 1370000000000L;
+    for (int i = 0; i < numPoints; i++) {
+      SensorDataSet.Builder sensor = SensorDataSet.newBuilder()
+          .setCreationTime(time + 13)
+          .setHeartRate(SensorData.newBuilder().setState(SensorState.SENDING).setValue(140 + i % 7))
+          .setCadence(SensorData.newBuilder().setState(SensorState.SENDING).setValue(90 - i % 3))
+          .setPower(SensorData.newBuilder().setState(SensorState.SENDING).setValue(200 + i % 50));
+      batch.add(100L + i, TRACK_ID, -57000000 - i * 37, 37000000 + i * 41, time,
+          120.0 + i * 0.25, 4.0f, 8.5f + (i % 10) * 0.01f, (i * 3) % 360,
+          sensor.build().toByteArray());
+      time += 1000L + (i % 4 == 0 ? 1 : 0);
+    }
+    return batch;
+  }
+
+  private void checkPoint(TrackPointBatch expected, int i, TrackPointBatch actual, int j) {
+    assertEquals(expected.getId(i), actual.getId(j));
+    assertEquals(TRACK_ID, actual.getTrackId(j));
+    assertEquals(expected.getLongitude(i), actual.getLongitude(j));
+    assertEquals(expected.getLatitude(i), actual.getLatitude(j));
+    assertEquals(expected.getTime(i), actual.getTime(j));
+    assertRounded(expected.getAltitude(i), actual.getAltitude(j));
+    assertRounded(expected.getAccuracy(i), actual.getAccuracy(j));
+    assertRounded(expected.getSpeed(i), actual.getSpeed(j));
+    assertRounded(expected.getBearing(i), actual.getBearing(j));
+    assertTrue(Arrays.equals(expected.getSensor(i), actual.getSensor(j)));
+  }
+
+  /**
+   * Checks a value rounded to hundredths, or both absent.
+   */
+  private void assertRounded(double expected, double actual) {
+    assertEquals(Double.isNaN(expected), Double.isNaN(actual));
+    if (!Double.isNaN(expected)) {
+      assertEquals(expected, actual, 0.0051);
+    }
+  }
+}
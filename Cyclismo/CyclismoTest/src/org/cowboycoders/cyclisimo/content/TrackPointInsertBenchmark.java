@@ -0,0 +1,140 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.cyclisimo.content;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import org.cowboycoders.cyclisimo.services.TrackRecordingServiceTest.MockContext;
+
+/**
+ * Logs inserts per second for 50k track points inserted as
+ * {@link ContentValues} and as {@link TrackPointBatch}es of the size used by
+ * the GPX importer. Needs a device or emulator.
+ *
+ * Run with: adb shell am instrument -w -e class
+ * org.cowboycoders.cyclisimo.content.TrackPointInsertBenchmark
+ * org.cowboycoders.cyclisimo.test/android.test.InstrumentationTestRunner
+ */
+public class TrackPointInsertBenchmark extends AndroidTestCase {
+
+  private static final String TAG = TrackPointInsertBenchmark.class.getSimpleName();
+
+  private static final int NUM_POINTS = 50000;
+  private static final int BATCH_SIZE = 512;
+
+  private Context context;
+  private MyTracksProviderUtils providerUtils;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    MockContentResolver mockContentResolver = new MockContentResolver();
+    RenamingDelegatingContext targetContext = new RenamingDelegatingContext(
+        getContext(), getContext(), "test.");
+    context = new MockContext(mockContentResolver, targetContext);
+    MyTracksProvider provider = new MyTracksProvider();
+    provider.attachInfo(context, null);
+    mockContentResolver.addProvider(MyTracksProviderUtils.AUTHORITY, provider);
+    setContext(context);
+
+    providerUtils = MyTracksProviderUtils.Factory.get(context);
+    providerUtils.deleteAllTracks();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    providerUtils.deleteAllTracks();
+    super.tearDown();
+  }
+
+  @LargeTest
+  public void testInsertRate() {
+    Location[] locations = new Location[BATCH_SIZE];
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      locations[i] = new Location("test");
+      locations[i].setLatitude(37.0 + i / 10000.0);
+      locations[i].setLongitude(-57.0 - i / 10000.0);
+      locations[i].setAccuracy(i / 100.0f);
+      locations[i].setAltitude(i * 2.5);
+      locations[i].setTime(i * 1000L + 1);
+    }
+
+    long contentValuesNanos = insertContentValues(newTrack(), locations);
+    long batchNanos = insertBatches(newTrack(), locations);
+
+    Log.i(TAG, String.format("%d points: ContentValues %.0f inserts/s, batch %.0f inserts/s",
+        NUM_POINTS, NUM_POINTS * 1e9 / contentValuesNanos, NUM_POINTS * 1e9 / batchNanos));
+  }
+
+  private long newTrack() {
+    Track track = new Track();
+    track.setName("Benchmark");
+    return Long.parseLong(providerUtils.insertTrack(track).getLastPathSegment());
+  }
+
+  /**
+   * @return the time taken in ns
+   */
+  private long insertContentValues(long trackId, Location[] locations) {
+    ContentResolver contentResolver = context.getContentResolver();
+    long start = System.nanoTime();
+    for (int inserted = 0; inserted < NUM_POINTS; inserted += BATCH_SIZE) {
+      int length = Math.min(BATCH_SIZE, NUM_POINTS - inserted);
+      ContentValues[] values = new ContentValues[length];
+      for (int i = 0; i < length; i++) {
+        values[i] = new ContentValues();
+        values[i].put(TrackPointsColumns.TRACKID, trackId);
+        values[i].put(TrackPointsColumns.LONGITUDE, (int) (locations[i].getLongitude() * 1E6));
+        values[i].put(TrackPointsColumns.LATITUDE, (int) (locations[i].getLatitude() * 1E6));
+        values[i].put(TrackPointsColumns.TIME, locations[i].getTime());
+        values[i].put(TrackPointsColumns.ALTITUDE, locations[i].getAltitude());
+        values[i].put(TrackPointsColumns.ACCURACY, locations[i].getAccuracy());
+      }
+      contentResolver.bulkInsert(TrackPointsColumns.CONTENT_URI, values);
+    }
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * @return the time taken in ns
+   */
+  private long insertBatches(long trackId, Location[] locations) {
+    TrackPointBatch batch = new TrackPointBatch(BATCH_SIZE);
+    long start = System.nanoTime();
+    for (int inserted = 0; inserted < NUM_POINTS; inserted += BATCH_SIZE) {
+      int length = Math.min(BATCH_SIZE, NUM_POINTS - inserted);
+      batch.clear();
+      for (int i = 0; i < length; i++) {
+        batch.add(locations[i], trackId);
+      }
+      providerUtils.bulkInsertTrackPoints(batch);
+    }
+    return System.nanoTime() - start;
+  }
+}
@@ -34,12 +34,12 @@
  */
 package org.cowboycoders.cyclisimo.io.file;
 
-import static com.google.android.testing.mocking.AndroidMock.eq;
 import static com.google.android.testing.mocking.AndroidMock.expect;
 
 import org.cowboycoders.cyclisimo.content.MyTracksProviderUtils;
 import org.cowboycoders.cyclisimo.content.MyTracksProviderUtils.Factory;
 import org.cowboycoders.cyclisimo.content.Track;
+import org.cowboycoders.cyclisimo.content.TrackPointBatch;
 import org.cowboycoders.cyclisimo.content.TracksColumns;
 import com.google.android.testing.mocking.AndroidMock;
 import com.google.android.testing.mocking.UsesMocks;
@@ -193,13 +193,13 @@ public class GpxImporterTest extends AndroidTestCase {
         .andReturn(TRACK_ID_0_URI);
 
     // A flush happens before getting the start point ID
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        LocationsMatcher.eqLoc(location0), eq(1), eq(TRACK_ID_0))).andReturn(1);
+    expect(myTracksProviderUtils.bulkInsertTrackPoints(
+        PointsMatcher.eqPoints(location0, TRACK_ID_0))).andReturn(TRACK_POINT_ID_0);
     expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_0);
 
     // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        LocationsMatcher.eqLoc(location1), eq(1), eq(TRACK_ID_0))).andReturn(1);
+    expect(myTracksProviderUtils.bulkInsertTrackPoints(
+        PointsMatcher.eqPoints(location1, TRACK_ID_0))).andReturn(TRACK_POINT_ID_1);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_1);
 
     myTracksProviderUtils.updateTrack(AndroidMock.capture(track));
@@ -230,13 +230,13 @@ public class GpxImporterTest extends AndroidTestCase {
     expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
         .andReturn(TRACK_ID_0_URI);
     // A flush happens before getting the start point ID
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        LocationsMatcher.eqLoc(location0), eq(1), eq(TRACK_ID_0))).andReturn(1);
+    expect(myTracksProviderUtils.bulkInsertTrackPoints(
+        PointsMatcher.eqPoints(location0, TRACK_ID_0))).andReturn(TRACK_POINT_ID_0);
     expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_0);
 
     // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        (Location[]) AndroidMock.anyObject(), eq(5), eq(TRACK_ID_0))).andStubReturn(5);
+    expect(myTracksProviderUtils.bulkInsertTrackPoints(
+        PointsMatcher.eqSize(5, TRACK_ID_0))).andStubReturn(TRACK_POINT_ID_3);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_3);
 
     myTracksProviderUtils.updateTrack(AndroidMock.capture(track));
@@ -270,13 +270,13 @@ public class GpxImporterTest extends AndroidTestCase {
     expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
         .andReturn(TRACK_ID_0_URI);
     // A flush happens before getting the start point ID
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-      (Location[]) AndroidMock.anyObject(), eq(1), eq(TRACK_ID_0))).andReturn(1);
+    expect(myTracksProviderUtils.bulkInsertTrackPoints(
+      PointsMatcher.eqSize(1, TRACK_ID_0))).andReturn(TRACK_POINT_ID_0);
     expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_0);
 
     // A flush happens at the end
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        (Location[]) AndroidMock.anyObject(), eq(5), eq(TRACK_ID_0))).andStubReturn(5);
+    expect(myTracksProviderUtils.bulkInsertTrackPoints(
+        PointsMatcher.eqSize(5, TRACK_ID_0))).andStubReturn(TRACK_POINT_ID_3);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_3);
 
     myTracksProviderUtils.updateTrack(AndroidMock.capture(capturedTrack));
@@ -309,8 +309,8 @@ public class GpxImporterTest extends AndroidTestCase {
     expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
         .andReturn(TRACK_ID_0_URI);
     // A flush happens before getting the start point ID
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        LocationsMatcher.eqLoc(location0), eq(1), eq(TRACK_ID_0))).andReturn(1);
+    expect(myTracksProviderUtils.bulkInsertTrackPoints(
+        PointsMatcher.eqPoints(location0, TRACK_ID_0))).andReturn(TRACK_POINT_ID_0);
     expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_0);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_0)).andReturn(TRACK_POINT_ID_0);
     myTracksProviderUtils.updateTrack(AndroidMock.capture(track0));
@@ -318,8 +318,8 @@ public class GpxImporterTest extends AndroidTestCase {
     expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
         .andReturn(TRACK_ID_1_URI);
     // A flush happens before getting the start point ID
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        LocationsMatcher.eqLoc(location1), eq(1), eq(TRACK_ID_1))).andReturn(1);
+    expect(myTracksProviderUtils.bulkInsertTrackPoints(
+        PointsMatcher.eqPoints(location1, TRACK_ID_1))).andReturn(TRACK_POINT_ID_1);
     expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_1)).andReturn(TRACK_POINT_ID_1);
     expect(myTracksProviderUtils.getLastTrackPointId(TRACK_ID_1)).andReturn(TRACK_POINT_ID_1);
     myTracksProviderUtils.updateTrack(AndroidMock.capture(track1));
@@ -400,9 +400,8 @@ public class GpxImporterTest extends AndroidTestCase {
   private void testInvalidGpx(String xml) throws ParserConfigurationException, IOException {
     expect(myTracksProviderUtils.insertTrack((Track) AndroidMock.anyObject()))
         .andReturn(TRACK_ID_0_URI);
-    expect(myTracksProviderUtils.bulkInsertTrackPoint(
-        (Location[]) AndroidMock.anyObject(), AndroidMock.anyInt(), AndroidMock.anyLong()))
-        .andStubReturn(1);
+    expect(myTracksProviderUtils.bulkInsertTrackPoints(
+        (TrackPointBatch) AndroidMock.anyObject())).andStubReturn(TRACK_POINT_ID_0);
     expect(myTracksProviderUtils.getFirstTrackPointId(TRACK_ID_0)).andStubReturn(TRACK_POINT_ID_0);
     myTracksProviderUtils.deleteTrack(TRACK_ID_0);
     AndroidMock.replay(myTracksProviderUtils);
@@ -422,52 +421,60 @@ public class GpxImporterTest extends AndroidTestCase {
    * http://sourceforge.net
    * /tracker/?func=detail&aid=2617107&group_id=82958&atid=567837
    */
-  private static class LocationsMatcher implements IArgumentMatcher {
+  private static class PointsMatcher implements IArgumentMatcher {
     private final Location[] matchLocs;
+    private final int size;
+    private final long trackId;
 
-    private LocationsMatcher(Location[] expected) {
+    private PointsMatcher(Location[] expected, int size, long trackId) {
       this.matchLocs = expected;
+      this.size = size;
+      this.trackId = trackId;
     }
 
-    public static Location[] eqLoc(Location[] expected) {
-      IArgumentMatcher matcher = new LocationsMatcher(expected);
-      AndroidMock.reportMatcher(matcher);
+    public static TrackPointBatch eqPoints(Location expected, long trackId) {
+      AndroidMock.reportMatcher(new PointsMatcher(new Location[] { expected }, 1, trackId));
       return null;
     }
 
-    public static Location[] eqLoc(Location expected) {
-      return eqLoc(new Location[] { expected });
+    public static TrackPointBatch eqSize(int size, long trackId) {
+      AndroidMock.reportMatcher(new PointsMatcher(new Location[0], size, trackId));
+      return null;
     }
 
     @Override
     public void appendTo(StringBuffer buf) {
-      buf.append("eqLoc(").append(Arrays.toString(matchLocs)).append(")");
+      buf.append("eqPoints(").append(Arrays.toString(matchLocs)).append(", ").append(size)
+          .append(", ").append(trackId).append(")");
     }
 
     @Override
     public boolean matches(Object obj) {
-      if (!(obj instanceof Location[])) {
+      if (!(obj instanceof TrackPointBatch)) {
         return false;
       }
-      Location[] locs = (Location[]) obj;
-      if (locs.length < matchLocs.length) {
+      TrackPointBatch batch = (TrackPointBatch) obj;
+      if (batch.size() != size) {
         return false;
       }
-
-      // Only check the first elements (those that will be taken into account)
+      for (int i = 0; i < size; i++) {
+        if (batch.getTrackId(i) != trackId) {
+          return false;
+        }
+      }
       for (int i = 0; i < matchLocs.length; i++) {
-        if (!locationsMatch(locs[i], matchLocs[i])) {
+        if (!pointsMatch(batch, i, matchLocs[i])) {
           return false;
         }
       }
-
       return true;
     }
 
-    private boolean locationsMatch(Location loc1, Location loc2) {
-      return (loc1.getTime() == loc2.getTime()) && (loc1.getLatitude() == loc2.getLatitude())
-          && (loc1.getLongitude() == loc2.getLongitude())
-          && (loc1.getAltitude() == loc2.getAltitude());
+    private boolean pointsMatch(TrackPointBatch batch, int i, Location loc) {
+      return (batch.getTime(i) == loc.getTime())
+          && (batch.getLatitude(i) == (int) (loc.getLatitude() * 1E6))
+          && (batch.getLongitude(i) == (int) (loc.getLongitude() * 1E6))
+          && (batch.getAltitude(i) == loc.getAltitude());
     }
   }
 }
@@ -0,0 +1,70 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.analytics;
+
+/**
+ * Exponentially weighted moving average of irregularly spaced samples. A
+ * sample's weight decays by 1/e every time constant, however many samples
+ * arrive in that time.
+ *
+ * Times are in whatever unit the time constant is given in. Not thread safe.
+ */
+public class ExponentialAverage {
+
+  private final double timeConstant;
+
+  private boolean started;
+  private long lastTime;
+  private double average;
+
+  public ExponentialAverage(long timeConstant) {
+    if (timeConstant <= 0) {
+      throw new IllegalArgumentException("time constant must be positive");
+    }
+    this.timeConstant = timeConstant;
+  }
+
+  /**
+   * @param time no earlier than the last sample added
+   */
+  public void add(long time, double value) {
+    if (!started) {
+      started = true;
+      average = value;
+    } else {
+      double alpha = 1 - Math.exp(-(time - lastTime) / timeConstant);
+      average += alpha * (value - average);
+    }
+    lastTime = time;
+  }
+
+  /**
+   * @return the average, 0 before the first sample
+   */
+  public double getAverage() {
+    return average;
+  }
+
+  public void clear() {
+    started = false;
+    average = 0;
+  }
+
+}
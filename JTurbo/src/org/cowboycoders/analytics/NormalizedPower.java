@@ -0,0 +1,132 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.analytics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalized power: the fourth root of the mean fourth power of the 30s
+ * rolling average power.
+ *
+ * Power is held at each sample's value until the next, and averaged over
+ * each whole second to give the 1Hz series the rolling average is taken
+ * over, so samples can arrive at any rate. The work is O(1) per sample plus
+ * O(1) per second ridden, with nothing allocated after construction.
+ *
+ * Not thread safe.
+ */
+public class NormalizedPower {
+
+  public static final int ROLLING_SECONDS = 30;
+
+  private final long ticksPerSecond;
+
+  private boolean started;
+  private long lastTime;
+  private double lastPower;
+
+  private long secondStart;
+
+  /**
+   * power times ticks so far in the current second
+   */
+  private double secondEnergy;
+
+  private final double [] seconds = new double[ROLLING_SECONDS];
+  private int secondsIndex;
+  private int secondsCount;
+  private double secondsSum;
+
+  private double fourthPowerSum;
+  private long fourthPowerCount;
+
+  /**
+   * @param unit of the times passed to {@link #add(long, double)}
+   */
+  public NormalizedPower(TimeUnit unit) {
+    ticksPerSecond = unit.convert(1, TimeUnit.SECONDS);
+    if (ticksPerSecond < 1) {
+      throw new IllegalArgumentException("unit must be a second or shorter");
+    }
+  }
+
+  /**
+   * @param time no earlier than the last sample added
+   * @param power in watts
+   */
+  public void add(long time, double power) {
+    if (!started) {
+      started = true;
+      secondStart = time;
+    } else {
+      while (time - secondStart >= ticksPerSecond) {
+        long secondEnd = secondStart + ticksPerSecond;
+        secondEnergy += lastPower * (secondEnd - lastTime);
+        endSecond(secondEnergy / ticksPerSecond);
+        secondEnergy = 0;
+        lastTime = secondEnd;
+        secondStart = secondEnd;
+      }
+      secondEnergy += lastPower * (time - lastTime);
+    }
+    lastTime = time;
+    lastPower = power;
+  }
+
+  private void endSecond(double average) {
+    secondsSum += average - seconds[secondsIndex];
+    seconds[secondsIndex] = average;
+    secondsIndex = (secondsIndex + 1) % ROLLING_SECONDS;
+    if (secondsCount < ROLLING_SECONDS) {
+      secondsCount++;
+    }
+    if (secondsCount == ROLLING_SECONDS) {
+      double rolling = secondsSum / ROLLING_SECONDS;
+      double squared = rolling * rolling;
+      fourthPowerSum += squared * squared;
+      fourthPowerCount++;
+    }
+  }
+
+  /**
+   * @return normalized power in watts, 0 until 30s have been ridden
+   */
+  public double getNormalizedPower() {
+    if (fourthPowerCount == 0) {
+      return 0;
+    }
+    return Math.sqrt(Math.sqrt(fourthPowerSum / fourthPowerCount));
+  }
+
+  public void clear() {
+    started = false;
+    lastPower = 0;
+    secondEnergy = 0;
+    for (int i = 0 ; i < ROLLING_SECONDS ; i++) {
+      seconds[i] = 0;
+    }
+    secondsIndex = 0;
+    secondsCount = 0;
+    secondsSum = 0;
+    fourthPowerSum = 0;
+    fourthPowerCount = 0;
+  }
+
+}
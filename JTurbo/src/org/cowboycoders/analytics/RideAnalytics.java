@@ -0,0 +1,134 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.analytics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cowboycoders.turbotrainers.TrainerSample;
+import org.cowboycoders.turbotrainers.TrainerSampleListener;
+
+/**
+ * Running statistics for a ride, fed with trainer samples: rolling power
+ * averages and extremes, smoothed speed and cadence, normalized power and
+ * work done. Register it for samples on the trainer and read it from
+ * anywhere.
+ */
+public class RideAnalytics implements TrainerSampleListener {
+
+  /**
+   * more samples than any trainer sends in 30s
+   */
+  private static final int WINDOW_CAPACITY = 1024;
+
+  private static final long SHORT_WINDOW = TimeUnit.SECONDS.toNanos(3);
+
+  private static final long LONG_WINDOW = TimeUnit.SECONDS.toNanos(30);
+
+  private static final long SMOOTHING = TimeUnit.SECONDS.toNanos(5);
+
+  private final RollingWindow shortPower = new RollingWindow(SHORT_WINDOW, WINDOW_CAPACITY);
+
+  private final RollingWindow longPower = new RollingWindow(LONG_WINDOW, WINDOW_CAPACITY);
+
+  private final ExponentialAverage speed = new ExponentialAverage(SMOOTHING);
+
+  private final ExponentialAverage cadence = new ExponentialAverage(SMOOTHING);
+
+  private final NormalizedPower normalizedPower = new NormalizedPower(TimeUnit.NANOSECONDS);
+
+  private final WorkIntegral work = new WorkIntegral(TimeUnit.NANOSECONDS);
+
+  @Override
+  public synchronized void onSample(TrainerSample sample) {
+    long time = sample.getTimestamp();
+    shortPower.add(time, sample.getPower());
+    longPower.add(time, sample.getPower());
+    speed.add(time, sample.getSpeed());
+    cadence.add(time, sample.getCadence());
+    normalizedPower.add(time, sample.getPower());
+    work.addPower(time, sample.getPower());
+  }
+
+  /**
+   * @return mean power over the last 3s, in watts
+   */
+  public synchronized double getThreeSecondPower() {
+    return shortPower.getAverage();
+  }
+
+  /**
+   * @return mean power over the last 30s, in watts
+   */
+  public synchronized double getThirtySecondPower() {
+    return longPower.getAverage();
+  }
+
+  /**
+   * @return highest power in the last 30s, in watts
+   */
+  public synchronized double getThirtySecondMaxPower() {
+    return longPower.getMax();
+  }
+
+  /**
+   * @return lowest power in the last 30s, in watts
+   */
+  public synchronized double getThirtySecondMinPower() {
+    return longPower.getMin();
+  }
+
+  /**
+   * @return smoothed speed in km/h
+   */
+  public synchronized double getSmoothedSpeed() {
+    return speed.getAverage();
+  }
+
+  /**
+   * @return smoothed cadence in rpm
+   */
+  public synchronized double getSmoothedCadence() {
+    return cadence.getAverage();
+  }
+
+  /**
+   * @return in watts
+   */
+  public synchronized double getNormalizedPower() {
+    return normalizedPower.getNormalizedPower();
+  }
+
+  /**
+   * @return work done in kJ
+   */
+  public synchronized double getKilojoules() {
+    return work.getKilojoules();
+  }
+
+  public synchronized void clear() {
+    shortPower.clear();
+    longPower.clear();
+    speed.clear();
+    cadence.clear();
+    normalizedPower.clear();
+    work.reset();
+  }
+
+}
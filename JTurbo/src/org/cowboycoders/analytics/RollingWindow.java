@@ -0,0 +1,194 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.analytics;
+
+/**
+ * Mean, minimum and maximum of the samples in a sliding window. A sample
+ * drops out once it is window older than the newest, or when capacity newer
+ * samples have arrived, so with an unbounded window this is the last
+ * capacity samples.
+ *
+ * Samples are held in a ring; the minimum and maximum come from monotonic
+ * deques of the samples that could still become the extreme, so every
+ * operation is O(1) amortised and nothing is allocated after construction.
+ *
+ * Times are in whatever unit the window is given in. Not thread safe.
+ */
+public class RollingWindow {
+
+  /**
+   * keeps the last capacity samples whatever their times
+   */
+  public static final long UNBOUNDED = Long.MAX_VALUE;
+
+  private final long window;
+
+  private final int capacity;
+
+  private final long [] times;
+
+  private final double [] values;
+
+  /**
+   * sequence numbers of the oldest sample and the next to be added; sample
+   * s is held at s % capacity
+   */
+  private long first;
+  private long next;
+
+  private double sum;
+
+  /**
+   * sequence numbers of samples, with values increasing from head to tail
+   */
+  private final long [] minimums;
+  private int minimumsHead;
+  private int minimumsSize;
+
+  /**
+   * sequence numbers of samples, with values decreasing from head to tail
+   */
+  private final long [] maximums;
+  private int maximumsHead;
+  private int maximumsSize;
+
+  /**
+   * @param window span of time covered, or {@link #UNBOUNDED}
+   * @param capacity most samples held
+   */
+  public RollingWindow(long window, int capacity) {
+    if (window <= 0) {
+      throw new IllegalArgumentException("window must be positive");
+    }
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    this.window = window;
+    this.capacity = capacity;
+    times = new long[capacity];
+    values = new double[capacity];
+    minimums = new long[capacity];
+    maximums = new long[capacity];
+  }
+
+  /**
+   * @param time no earlier than the last sample added
+   */
+  public void add(long time, double value) {
+    if (next - first == capacity) {
+      evictOldest();
+    }
+    int slot = (int) (next % capacity);
+    times[slot] = time;
+    values[slot] = value;
+    sum += value;
+
+    while (minimumsSize > 0 && values[slot(minimums, minimumsHead, minimumsSize - 1)] >= value) {
+      minimumsSize--;
+    }
+    minimums[(minimumsHead + minimumsSize++) % capacity] = next;
+    while (maximumsSize > 0 && values[slot(maximums, maximumsHead, maximumsSize - 1)] <= value) {
+      maximumsSize--;
+    }
+    maximums[(maximumsHead + maximumsSize++) % capacity] = next;
+
+    next++;
+    expire(time);
+  }
+
+  /**
+   * Drops samples that have fallen out of the window by time, without adding
+   * one
+   */
+  public void expire(long time) {
+    if (window == UNBOUNDED) {
+      return;
+    }
+    while (first < next && time - times[(int) (first % capacity)] >= window) {
+      evictOldest();
+    }
+  }
+
+  private void evictOldest() {
+    int slot = (int) (first % capacity);
+    sum -= values[slot];
+    if (minimumsSize > 0 && minimums[minimumsHead] == first) {
+      minimumsHead = (minimumsHead + 1) % capacity;
+      minimumsSize--;
+    }
+    if (maximumsSize > 0 && maximums[maximumsHead] == first) {
+      maximumsHead = (maximumsHead + 1) % capacity;
+      maximumsSize--;
+    }
+    first++;
+    if (first == next) {
+      // don't let rounding errors outlive the samples
+      sum = 0;
+    }
+  }
+
+  /**
+   * @return where in values the i'th entry of a deque is held
+   */
+  private int slot(long [] deque, int head, int i) {
+    return (int) (deque[(head + i) % capacity] % capacity);
+  }
+
+  public int getCount() {
+    return (int) (next - first);
+  }
+
+  /**
+   * @return true if holding capacity samples
+   */
+  public boolean isFull() {
+    return next - first == capacity;
+  }
+
+  /**
+   * @return mean of the samples, 0 if there are none
+   */
+  public double getAverage() {
+    int count = getCount();
+    return count == 0 ? 0 : sum / count;
+  }
+
+  /**
+   * @return smallest sample, 0 if there are none
+   */
+  public double getMin() {
+    return minimumsSize == 0 ? 0 : values[slot(minimums, minimumsHead, 0)];
+  }
+
+  /**
+   * @return largest sample, 0 if there are none
+   */
+  public double getMax() {
+    return maximumsSize == 0 ? 0 : values[slot(maximums, maximumsHead, 0)];
+  }
+
+  public void clear() {
+    first = next;
+    sum = 0;
+    minimumsSize = 0;
+    maximumsSize = 0;
+  }
+
+}
@@ -0,0 +1,74 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.analytics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cowboycoders.utils.TrapezoidIntegral;
+
+/**
+ * Work done, from power sampled over time
+ */
+public class WorkIntegral extends TrapezoidIntegral {
+
+  private final double ticksPerSecond;
+
+  private boolean hasOrigin;
+  private long origin;
+
+  /**
+   * @param unit of the times passed to {@link #addPower(long, double)}
+   */
+  public WorkIntegral(TimeUnit unit) {
+    ticksPerSecond = TimeUnit.NANOSECONDS.convert(1, TimeUnit.SECONDS)
+        / (double) unit.toNanos(1);
+  }
+
+  /**
+   * @param power in watts
+   * @return work done so far in J
+   */
+  public double addPower(long time, double power) {
+    if (!hasOrigin) {
+      hasOrigin = true;
+      origin = time;
+    }
+    // relative to the first sample, so large clock values keep their precision
+    return add((time - origin) / ticksPerSecond, power);
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    hasOrigin = false;
+  }
+
+  /**
+   * @return work done in J
+   */
+  public double getJoules() {
+    return getIntegral();
+  }
+
+  public double getKilojoules() {
+    return getIntegral() / 1000;
+  }
+
+}
@@ -104,28 +104,28 @@ public class TestMessageType {
     //}
     //System.out.println();
     
-    for (Byte b : msg4.getStandardPayload()) {
+    for (byte b : msg4.getStandardPayloadBytes()) {
       System.out.printf("%x ",b);
     }
     
     System.out.println();
     System.out.println("msg5");
     
-    for (Byte b : msg5.getStandardPayload()) {
+    for (byte b : msg5.getStandardPayloadBytes()) {
       System.out.printf("%x ",b);
     }
     
     System.out.println();
     System.out.println("msg6");
     
-    for (Byte b : msg6.getStandardPayload()) {
+    for (byte b : msg6.getStandardPayloadBytes()) {
       System.out.printf("%x ",b);
     }
     
     System.out.println();
     System.out.println("msg7");
     
-    for (Byte b : msg7.getStandardPayload()) {
+    for (byte b : msg7.getStandardPayloadBytes()) {
       System.out.printf("%x ",b);
     }
     
@@ -159,7 +159,7 @@ public class TestMessageType {
     
     System.out.println();
     
-    //for (Byte b : msg.getStandardPayload()) {
+    //for (byte b : msg.getStandardPayloadBytes()) {
     //  System.out.printf("%x ",b);
     //}
     
@@ -27,6 +27,7 @@ import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.cowboycoders.turbotrainers.DataPacketProvider;
+import org.cowboycoders.turbotrainers.RidePhysics;
 import org.cowboycoders.turbotrainers.bushido.BushidoUtils;
 import org.cowboycoders.utils.LoopingListIterator;
 import org.cowboycoders.utils.TrapezoidIntegral;
@@ -138,6 +139,20 @@ public class BushidoBrakeModel {
   }
   
 
+  /**
+   * Moves the wheel as a rider putting out the current power would, instead
+   * of setting the wheel speed directly
+   * 
+   * @param physics rider, bike and road, carried between calls
+   * @param duration time since the last call
+   */
+  public void advance(RidePhysics physics, long duration, TimeUnit unit) {
+    physics.setPower(power);
+    physics.advance(duration, unit);
+    // km/h
+    wheelSpeed = physics.getSpeed() * 3.6;
+  }
+
   /**
    * @return the speed
    */
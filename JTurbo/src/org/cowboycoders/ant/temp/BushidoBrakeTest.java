@@ -44,6 +44,7 @@ import org.cowboycoders.ant.messages.commands.ResetMessage;
 import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
 import org.cowboycoders.ant.messages.responses.ResponseCode;
 import org.cowboycoders.ant.temp.BushidoBrakeModel.CalibrationState;
+import org.cowboycoders.turbotrainers.RidePhysics;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -344,6 +345,44 @@ public class BushidoBrakeTest {
     
     
     
+  }
+  
+  /**
+   * Moves the wheel as a rider at the model's power would, rather than
+   * stepping through set speeds
+   */
+  Thread rideAtPower = new Thread() {
+    public void run() {
+      RidePhysics physics = new RidePhysics();
+      while(true) {
+        model.advance(physics, 100, TimeUnit.MILLISECONDS);
+        try {
+          Thread.sleep(100);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    }
+  };
+  
+  //@Test
+  public void test_ride() throws InterruptedException, TimeoutException {
+    
+    model.setCalibrationValue(CALIBRATION_VALUE);
+    model.setPower(200);
+    model.setCadence(90);
+    model.setBalance((byte) 50);
+    
+    doStartUp();
+    
+    sendData.start();
+    
+    rideAtPower.start();
+    
+    sendData.join();
+    
+    rideAtPower.interrupt();
+    
   }
   
   //@Test
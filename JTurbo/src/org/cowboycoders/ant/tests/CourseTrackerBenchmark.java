@@ -0,0 +1,154 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.tests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.cowboycoders.location.LatLongAlt;
+import org.cowboycoders.location.LocationUtils;
+import org.cowboycoders.turbotrainers.CourseTracker;
+
+/**
+ * Compares {@link CourseTracker} against the previous map of boxed distances
+ * with a linear scan, on straight courses interpolated at 1m. Reports build
+ * time, the cost of a lookup when riding forwards in small steps and, for
+ * CourseTracker only, the cost of random seeks.
+ *
+ * Run with: java org.cowboycoders.ant.tests.CourseTrackerBenchmark [points...]
+ */
+public class CourseTrackerBenchmark {
+
+  private static final double METRES_PER_DEGREE = Math.PI * LocationUtils.EARTH_RADIUS / 180;
+
+  private static final double STEP = 5.0;
+
+  private static final int SEEKS = 1000000;
+
+  private static class LegacyTracker {
+
+    private Map<Double,LatLongAlt> distanceLocationMap = new HashMap<Double,LatLongAlt>();
+
+    private Double[] distanceMarkers;
+
+    private int lastKnownDistanceMarkerIndex = 0;
+
+    LegacyTracker(List<LatLongAlt> coursePoints) {
+      double totalDistance = 0.0;
+      distanceLocationMap.put(totalDistance,coursePoints.get(0));
+      for (int i=1 ; i< coursePoints.size() ; i++) {
+        double distanceBetweenPoints = LocationUtils.distance(coursePoints.get(i-1), coursePoints.get(i));
+        if (distanceBetweenPoints < 0.001) {
+          continue;
+        }
+        totalDistance += distanceBetweenPoints;
+        distanceLocationMap.put(totalDistance, coursePoints.get(i));
+      }
+      distanceMarkers = distanceLocationMap.keySet().toArray(new Double[0]);
+      Arrays.sort(distanceMarkers);
+    }
+
+    LatLongAlt getNearestLocation(final double distance) {
+      Double key = null;
+      for (int i = lastKnownDistanceMarkerIndex ; i < distanceMarkers.length ; i++) {
+        key = distanceMarkers[i];
+        lastKnownDistanceMarkerIndex = i;
+        if ((distance - key) < 0.001) {
+          break;
+        }
+      }
+      return distanceLocationMap.get(key);
+    }
+  }
+
+  private static List<LatLongAlt> course(int points) {
+    List<LatLongAlt> rtn = new ArrayList<LatLongAlt>(points);
+    for (int i = 0 ; i < points ; i++) {
+      rtn.add(new LatLongAlt(50.0 + i / METRES_PER_DEGREE, 5.0, 100 + 20 * Math.sin(i / 500.0)));
+    }
+    return rtn;
+  }
+
+  private static void run(int points, boolean report) {
+    List<LatLongAlt> course = course(points);
+
+    long start = System.nanoTime();
+    LegacyTracker legacy = new LegacyTracker(course);
+    long legacyBuild = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    CourseTracker tracker = new CourseTracker(course);
+    long build = System.nanoTime() - start;
+
+    double total = tracker.getTotalDistance();
+    int lookups = (int) (total / STEP);
+    double sink = 0;
+
+    start = System.nanoTime();
+    for (int i = 0 ; i < lookups ; i++) {
+      sink += legacy.getNearestLocation(i * STEP).getAltitude();
+    }
+    long legacyRide = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0 ; i < lookups ; i++) {
+      sink += tracker.getLocation(i * STEP).getAltitude();
+      sink += tracker.getCurrentGradient();
+    }
+    long ride = System.nanoTime() - start;
+
+    Random random = new Random(points);
+    start = System.nanoTime();
+    for (int i = 0 ; i < SEEKS ; i++) {
+      sink += tracker.getLocation(random.nextDouble() * total).getAltitude();
+    }
+    long seek = System.nanoTime() - start;
+
+    if (report) {
+      System.out.printf("%d points (%.0f): build %d ms (legacy %d ms), ride %.1f ns/lookup " +
+          "(legacy %.1f ns), random seek %.1f ns/lookup%n", points, sink,
+          build / 1000000, legacyBuild / 1000000, ride / (double) lookups,
+          legacyRide / (double) lookups, seek / (double) SEEKS);
+    }
+  }
+
+  public static void main(String[] args) {
+    int [] sizes = {10000, 100000, 1000000};
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0 ; i < args.length ; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    // warm up
+    run(sizes[0], false);
+    run(sizes[0], false);
+
+    for (int points : sizes) {
+      run(points, true);
+    }
+  }
+
+}
@@ -0,0 +1,139 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.cowboycoders.location.GeoKernel;
+import org.cowboycoders.location.LatLong;
+import org.cowboycoders.location.LocationUtils;
+
+/**
+ * Compares the batch {@link GeoKernel} against calling
+ * {@link LocationUtils#distance(LatLong, LatLong)} per pair of objects, for
+ * the segment lengths of a track with points a few metres apart.
+ *
+ * Run with: java org.cowboycoders.ant.tests.GeoKernelBenchmark [points...]
+ */
+public class GeoKernelBenchmark {
+
+  private static final int ROUNDS = 5;
+
+  private static double perObject(List<LatLong> points) {
+    double total = 0;
+    for (int i = 1 ; i < points.size() ; i++) {
+      total += LocationUtils.distance(points.get(i - 1), points.get(i));
+    }
+    return total;
+  }
+
+  private static long time(Runnable task, int points, String name, boolean report) {
+    long best = Long.MAX_VALUE;
+    for (int i = 0 ; i < ROUNDS ; i++) {
+      long start = System.nanoTime();
+      task.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    if (report) {
+      System.out.printf("  %-22s %6.1f ns/segment%n", name, best / (double) (points - 1));
+    }
+    return best;
+  }
+
+  private static void run(final int points, boolean report) {
+    Random random = new Random(points);
+    final double [] lats = new double[points];
+    final double [] lons = new double[points];
+    final List<LatLong> objects = new ArrayList<LatLong>(points);
+    double lat = 51.0;
+    double lon = -1.0;
+    for (int i = 0 ; i < points ; i++) {
+      lats[i] = lat;
+      lons[i] = lon;
+      objects.add(new LatLong(lat, lon));
+      lat += (random.nextDouble() - 0.5) * 0.0001;
+      lon += (random.nextDouble() - 0.5) * 0.0001;
+    }
+    final double [] out = new double[points];
+    final double [] sink = new double[1];
+
+    if (report) {
+      System.out.println(points + " points");
+    }
+    time(new Runnable() {
+      @Override
+      public void run() {
+        sink[0] += perObject(objects);
+      }
+    }, points, "per object", report);
+    time(new Runnable() {
+      @Override
+      public void run() {
+        GeoKernel.distances(lats, lons, points, out);
+        sink[0] += out[0];
+      }
+    }, points, "distances", report);
+    time(new Runnable() {
+      @Override
+      public void run() {
+        GeoKernel.distances(lats, lons, points, out, true);
+        sink[0] += out[0];
+      }
+    }, points, "distances (fast)", report);
+    time(new Runnable() {
+      @Override
+      public void run() {
+        sink[0] += GeoKernel.cumulativeDistance(lats, lons, points, out, true);
+      }
+    }, points, "cumulative (fast)", report);
+    time(new Runnable() {
+      @Override
+      public void run() {
+        GeoKernel.bearings(lats, lons, points, out);
+        sink[0] += out[0];
+      }
+    }, points, "bearings", report);
+    if (report) {
+      System.out.println("  (" + sink[0] + ")");
+    }
+  }
+
+  public static void main(String[] args) {
+    int [] sizes = {10000, 100000, 1000000};
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0 ; i < args.length ; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    // warm up
+    for (int i = 0 ; i < 3 ; i++) {
+      run(sizes[0], false);
+    }
+
+    for (int points : sizes) {
+      run(points, true);
+    }
+  }
+
+}
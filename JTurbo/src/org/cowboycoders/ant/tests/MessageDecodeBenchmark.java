@@ -0,0 +1,88 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.tests;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.cowboycoders.ant.messages.AntMessageFactory;
+import org.cowboycoders.ant.messages.MessageException;
+import org.cowboycoders.ant.messages.StandardMessage;
+import org.cowboycoders.ant.messages.data.DataMessage;
+
+/**
+ * Reports bytes allocated per decoded broadcast page: the factory decode
+ * followed by reading every data byte, as a profile's listener would.
+ * Needs a HotSpot JVM for per thread allocation counting.
+ *
+ * Run with: java org.cowboycoders.ant.tests.MessageDecodeBenchmark [messages] [flyweight]
+ */
+public class MessageDecodeBenchmark {
+
+  private static final byte [] BROADCAST_PAGE = {
+    0x09, 0x4e, 0x00, 0x04, 0x20, 0x1f, 0x5a, 0x11, 0x0b, 0x6e, 0x48
+  };
+
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    return ((com.sun.management.ThreadMXBean) bean)
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static long run(int messages, boolean flyweight) throws MessageException {
+    long sink = 0;
+    for (int i = 0 ; i < messages ; i++) {
+      StandardMessage msg = flyweight ? AntMessageFactory.createFlyweightMessage(BROADCAST_PAGE)
+          : AntMessageFactory.createMessage(BROADCAST_PAGE);
+      DataMessage data = (DataMessage) msg;
+      for (int j = 1 ; j < data.getStandardPayloadLength() ; j++) {
+        sink += data.getUnsignedByte(j);
+      }
+    }
+    return sink;
+  }
+
+  public static void main(String[] args) throws MessageException {
+    int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    boolean flyweight = args.length > 1 && "flyweight".equals(args[1]);
+
+    // warm up
+    run(messages / 10, flyweight);
+
+    long before = allocatedBytes();
+    long start = System.nanoTime();
+    long sink = run(messages, flyweight);
+    long elapsed = System.nanoTime() - start;
+    long after = allocatedBytes();
+
+    System.out.printf("decoded %d messages in %d ms (%d)%n", messages,
+        elapsed / 1000000, sink);
+    if (before < 0) {
+      System.out.println("allocation counting not supported by this JVM");
+    } else {
+      System.out.printf("allocated %.1f bytes per message%n",
+          (after - before) / (double) messages);
+    }
+  }
+
+}
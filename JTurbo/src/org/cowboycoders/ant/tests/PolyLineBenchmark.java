@@ -0,0 +1,159 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.tests;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.cowboycoders.location.DecodeException;
+import org.cowboycoders.location.LatLong;
+import org.cowboycoders.location.PolyLineUtils;
+import org.cowboycoders.location.TrackedCharSequence;
+
+/**
+ * Compares decoding a route polyline into a list of {@link LatLong}, as
+ * {@link PolyLineUtils#getValue(TrackedCharSequence)} used to, against
+ * decoding it into primitive arrays, and the matching encoders.
+ *
+ * Run with: java org.cowboycoders.ant.tests.PolyLineBenchmark [points...]
+ */
+public class PolyLineBenchmark {
+
+  private static final int ROUNDS = 5;
+
+  private interface Task {
+    void run() throws DecodeException;
+  }
+
+  private static List<LatLong> legacyDecode(CharSequence polyLine) {
+    List<LatLong> latLongs = new ArrayList<LatLong>();
+    TrackedCharSequence polyLineChars = new TrackedCharSequence(polyLine);
+    double latitude = 0;
+    double longitude = 0;
+    while (polyLineChars.hasNext()) {
+      latitude += PolyLineUtils.getValue(polyLineChars);
+      longitude += PolyLineUtils.getValue(polyLineChars);
+      latLongs.add(new LatLong(latitude, longitude));
+    }
+    return latLongs;
+  }
+
+  private static long time(Task task, int points, String name, boolean report)
+      throws DecodeException {
+    long best = Long.MAX_VALUE;
+    for (int i = 0 ; i < ROUNDS ; i++) {
+      long start = System.nanoTime();
+      task.run();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    if (report) {
+      System.out.printf("  %-22s %6.1f ns/point%n", name, best / (double) points);
+    }
+    return best;
+  }
+
+  private static void run(final int points, boolean report) throws DecodeException {
+    Random random = new Random(points);
+    final double [] lats = new double[points];
+    final double [] lons = new double[points];
+    double lat = 51.0;
+    double lon = -1.0;
+    for (int i = 0 ; i < points ; i++) {
+      lats[i] = lat;
+      lons[i] = lon;
+      lat += (random.nextDouble() - 0.5) * 0.001;
+      lon += (random.nextDouble() - 0.5) * 0.001;
+    }
+    final String polyLine = PolyLineUtils.encode(lats, lons, points, PolyLineUtils.PRECISION_1E5,
+        new StringBuilder()).toString();
+    final List<LatLong> latLongs = PolyLineUtils.decode(polyLine);
+    final StringBuilder buffer = new StringBuilder();
+    final byte [] bytes = new byte[PolyLineUtils.maxEncodedLength(points)];
+    final double [] outLats = new double[points];
+    final double [] outLons = new double[points];
+    final double [] sink = new double[1];
+
+    if (report) {
+      System.out.println(points + " points, " + polyLine.length() + " chars");
+    }
+    time(new Task() {
+      @Override
+      public void run() {
+        sink[0] += legacyDecode(polyLine).size();
+      }
+    }, points, "legacy decode", report);
+    time(new Task() {
+      @Override
+      public void run() throws DecodeException {
+        sink[0] += PolyLineUtils.decode(polyLine).size();
+      }
+    }, points, "decode to list", report);
+    time(new Task() {
+      @Override
+      public void run() throws DecodeException {
+        sink[0] += PolyLineUtils.decode(polyLine, PolyLineUtils.PRECISION_1E5, outLats, outLons);
+      }
+    }, points, "decode to arrays", report);
+    time(new Task() {
+      @Override
+      public void run() {
+        sink[0] += PolyLineUtils.encode(latLongs).length();
+      }
+    }, points, "encode list", report);
+    time(new Task() {
+      @Override
+      public void run() {
+        buffer.setLength(0);
+        sink[0] += PolyLineUtils.encode(lats, lons, points, PolyLineUtils.PRECISION_1E5, buffer)
+            .length();
+      }
+    }, points, "encode to builder", report);
+    time(new Task() {
+      @Override
+      public void run() {
+        sink[0] += PolyLineUtils.encode(lats, lons, points, PolyLineUtils.PRECISION_1E5, bytes, 0);
+      }
+    }, points, "encode to bytes", report);
+    if (report) {
+      System.out.println("  (" + sink[0] + ")");
+    }
+  }
+
+  public static void main(String[] args) throws DecodeException {
+    int [] sizes = {10000, 100000, 1000000};
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0 ; i < args.length ; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    // warm up
+    for (int i = 0 ; i < 3 ; i++) {
+      run(sizes[0], false);
+    }
+
+    for (int points : sizes) {
+      run(points, true);
+    }
+  }
+
+}
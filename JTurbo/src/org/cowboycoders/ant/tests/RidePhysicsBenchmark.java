@@ -0,0 +1,79 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.tests;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.cowboycoders.turbotrainers.RidePhysics;
+
+/**
+ * Times {@link RidePhysics} riding a long course of random power and
+ * gradient, changing once a second, at the default 100Hz timestep.
+ *
+ * Run with: java org.cowboycoders.ant.tests.RidePhysicsBenchmark [hours...]
+ */
+public class RidePhysicsBenchmark {
+
+  private static final int ROUNDS = 5;
+
+  private static void run(int hours, boolean report) {
+    int count = hours * 3600;
+    Random random = new Random(hours);
+    double [] powers = new double[count];
+    double [] gradients = new double[count];
+    double [] speeds = new double[count];
+    double [] distances = new double[count];
+    for (int i = 0 ; i < count ; i++) {
+      powers[i] = 100 + random.nextInt(300);
+      gradients[i] = random.nextDouble() * 16 - 8;
+    }
+
+    RidePhysics physics = new RidePhysics();
+    long best = Long.MAX_VALUE;
+    for (int i = 0 ; i < ROUNDS ; i++) {
+      physics.reset();
+      long start = System.nanoTime();
+      physics.simulate(powers, gradients, count, 1, TimeUnit.SECONDS, speeds, distances);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    if (report) {
+      System.out.printf("%3d h ridden, %9d steps: %7.1f ms, %5.1f ns/step, %.1f km%n", hours,
+          physics.getSteps(), best / 1e6, best / (double) physics.getSteps(),
+          distances[count - 1] / 1000);
+    }
+  }
+
+  public static void main(String [] args) {
+    int [] hours = {1, 10, 100};
+    if (args.length > 0) {
+      hours = new int[args.length];
+      for (int i = 0 ; i < args.length ; i++) {
+        hours[i] = Integer.parseInt(args[i]);
+      }
+    }
+    // warm up
+    run(1, false);
+    for (int h : hours) {
+      run(h, true);
+    }
+  }
+
+}
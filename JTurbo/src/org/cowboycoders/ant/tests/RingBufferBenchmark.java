@@ -0,0 +1,217 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.tests;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.cowboycoders.ant.events.FixedSizeBuffer;
+import org.cowboycoders.ant.events.RingBuffer;
+
+/**
+ * Compares the {@link RingBuffer} used by the EventMachine against the previous
+ * lock + {@link FixedSizeBuffer} + {@link Condition} scheme. Reports publish
+ * throughput with parked consumers and the latency between a publish and a
+ * blocked consumer waking.
+ * 
+ * Run with: java org.cowboycoders.ant.tests.RingBufferBenchmark [messages] [consumers]
+ */
+public class RingBufferBenchmark {
+  
+  private static final int BUFFER_LENGTH = 20;
+  
+  private interface Harness {
+    void publish(long value);
+    
+    /**
+     * Blocks until a value >= target is visible
+     */
+    void await(long target) throws InterruptedException, TimeoutException;
+  }
+  
+  private static class LegacyHarness implements Harness {
+    
+    private final Lock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final FixedSizeBuffer<Long> buffer = new FixedSizeBuffer<Long>(BUFFER_LENGTH);
+
+    @Override
+    public void publish(long value) {
+      try {
+        lock.lock();
+        buffer.offer(value);
+        changed.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @Override
+    public void await(long target) throws InterruptedException, TimeoutException {
+      try {
+        lock.lock();
+        while (true) {
+          for (Long l : buffer) {
+            if (l >= target) {
+              return;
+            }
+          }
+          if (!changed.await(5, TimeUnit.SECONDS)) {
+            throw new TimeoutException();
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+    
+  }
+  
+  private static class RingHarness implements Harness {
+    
+    private final RingBuffer<Long> buffer = new RingBuffer<Long>(BUFFER_LENGTH);
+
+    @Override
+    public void publish(long value) {
+      buffer.publish(value);
+    }
+
+    @Override
+    public void await(long target) throws InterruptedException, TimeoutException {
+      long next = buffer.getOldestSequence();
+      while (true) {
+        next = Math.max(next, buffer.getOldestSequence());
+        long cursor = buffer.getCursor();
+        for (; next <= cursor ; next++) {
+          Long l = buffer.get(next);
+          if (l != null && l >= target) {
+            return;
+          }
+        }
+        buffer.waitFor(next, 5L, TimeUnit.SECONDS);
+      }
+    }
+    
+  }
+  
+  /**
+   * Rethrows the first failure recorded by a consumer once it has been joined
+   */
+  private static void rethrow(AtomicReference<Exception> failure) 
+      throws InterruptedException, TimeoutException {
+    Exception e = failure.get();
+    if (e instanceof InterruptedException) {
+      throw (InterruptedException) e;
+    }
+    if (e instanceof TimeoutException) {
+      throw (TimeoutException) e;
+    }
+  }
+  
+  private static long throughput(final Harness harness, final int messages, int consumers) 
+      throws InterruptedException, TimeoutException {
+    final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    Thread [] threads = new Thread[consumers];
+    for (int i = 0 ; i < consumers ; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            harness.await(messages - 1);
+          } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+          } catch (TimeoutException e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    // let the consumers park
+    Thread.sleep(100);
+    long start = System.nanoTime();
+    for (int i = 0 ; i < messages ; i++) {
+      harness.publish(i);
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    long elapsed = System.nanoTime() - start;
+    rethrow(failure);
+    return elapsed;
+  }
+  
+  private static long wakeLatency(final Harness harness, long base, int rounds) 
+      throws InterruptedException, TimeoutException {
+    final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    final long [] publishedAt = new long[1];
+    long total = 0;
+    for (int i = 0 ; i < rounds ; i++) {
+      final long target = base + i;
+      final long [] wokenAt = new long[1];
+      Thread consumer = new Thread() {
+        public void run() {
+          try {
+            harness.await(target);
+            wokenAt[0] = System.nanoTime();
+          } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+          } catch (TimeoutException e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+      consumer.start();
+      Thread.sleep(1);
+      publishedAt[0] = System.nanoTime();
+      harness.publish(target);
+      consumer.join();
+      rethrow(failure);
+      total += wokenAt[0] - publishedAt[0];
+    }
+    return total / rounds;
+  }
+  
+  private static void run(String name, Harness harness, int messages, int consumers) 
+      throws InterruptedException, TimeoutException {
+    long elapsed = throughput(harness, messages, consumers);
+    double perSecond = messages / (elapsed / 1e9);
+    long latency = wakeLatency(harness, messages, 200);
+    System.out.printf("%-8s %12.0f msgs/s  wake-up %8d ns%n", name, perSecond, latency);
+  }
+
+  public static void main(String[] args) throws InterruptedException, TimeoutException {
+    int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int consumers = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+    
+    // warm up
+    for (int i = 0 ; i < 3 ; i++) {
+      throughput(new LegacyHarness(), messages / 10, consumers);
+      throughput(new RingHarness(), messages / 10, consumers);
+    }
+    
+    run("legacy", new LegacyHarness(), messages, consumers);
+    run("ring", new RingHarness(), messages, consumers);
+  }
+
+}
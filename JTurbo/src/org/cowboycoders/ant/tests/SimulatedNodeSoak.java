@@ -0,0 +1,182 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.tests;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cowboycoders.ant.Channel;
+import org.cowboycoders.ant.NetworkKey;
+import org.cowboycoders.ant.Node;
+import org.cowboycoders.ant.events.BroadcastListener;
+import org.cowboycoders.ant.events.OverflowPolicy;
+import org.cowboycoders.ant.events.RecordingPipelineMetrics;
+import org.cowboycoders.ant.interfaces.simulated.SimulatedAntTransceiver;
+import org.cowboycoders.ant.interfaces.simulated.SimulatedDevice;
+import org.cowboycoders.ant.messages.SlaveChannelType;
+import org.cowboycoders.ant.messages.config.ChannelAssignMessage;
+import org.cowboycoders.ant.messages.config.ChannelIdMessage;
+import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
+
+/**
+ * Soak test of the whole receive path against a simulated chip. Each channel is paired
+ * with a device whose pages carry the time they were scheduled, so the listener can
+ * measure latency from chip to listener. Reports pages per second, latency percentiles
+ * and thread counts, plus the pipeline metrics if asked for.
+ *
+ * Run with: java org.cowboycoders.ant.tests.SimulatedNodeSoak [channels] [hz per channel]
+ *     [seconds] [unordered|ordered|flyweight] [loss] [jitter ms] [burst length]
+ *     [metrics]
+ */
+public class SimulatedNodeSoak {
+
+  private static final int PROBE_DEVICE_TYPE = 0x7f;
+
+  private static final int MAX_SAMPLES = 1 << 20;
+
+  /**
+   * Sends the time each page was due, big endian
+   */
+  private static class ProbeDevice extends SimulatedDevice {
+
+    ProbeDevice(int deviceNumber) {
+      super(deviceNumber, PROBE_DEVICE_TYPE, 1, 8192);
+    }
+
+    @Override
+    protected void nextPage(byte[] page, long nanos) {
+      for (int i = 7 ; i >= 0 ; i--) {
+        page[i] = (byte) nanos;
+        nanos >>= 8;
+      }
+    }
+
+  }
+
+  private static final long [] samples = new long[MAX_SAMPLES];
+  private static final AtomicInteger sampleCount = new AtomicInteger();
+  private static final AtomicLong received = new AtomicLong();
+
+  private static class LatencyListener implements BroadcastListener<BroadcastDataMessage> {
+
+    @Override
+    public void receiveMessage(BroadcastDataMessage message) {
+      long now = System.nanoTime();
+      long sent = 0;
+      for (int i = 1 ; i <= 8 ; i++) {
+        sent = (sent << 8) | message.getUnsignedByte(i);
+      }
+      received.incrementAndGet();
+      int index = sampleCount.getAndIncrement();
+      if (index < MAX_SAMPLES) {
+        samples[index] = now - sent;
+      }
+    }
+
+  }
+
+  private static double percentileMillis(long [] sorted, double percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.min(sorted.length - 1, Math.round(percentile * (sorted.length - 1)));
+    return sorted[index] / 1e6;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int channels = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    double rate = args.length > 1 ? Double.parseDouble(args[1]) : 1000;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+    String mode = args.length > 3 ? args[3] : "unordered";
+    double loss = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+    long jitter = args.length > 5 ? Long.parseLong(args[5]) : 0;
+    int burstLength = args.length > 6 ? Integer.parseInt(args[6]) : 1;
+    boolean recordMetrics = args.length > 7 && "metrics".equals(args[7]);
+
+    SimulatedAntTransceiver chip = new SimulatedAntTransceiver(channels, 8, new Random(0));
+    chip.setLossProbability(loss);
+    chip.setJitter(jitter, TimeUnit.MILLISECONDS);
+    if (burstLength > 1) {
+      chip.setBursts(0.05, burstLength);
+    }
+    for (int i = 0 ; i < channels ; i++) {
+      ProbeDevice device = new ProbeDevice(i + 1);
+      device.setRate(rate);
+      chip.addDevice(device);
+    }
+
+    Node node;
+    if ("ordered".equals(mode) || "flyweight".equals(mode)) {
+      node = new Node(chip, 256, OverflowPolicy.DROP_OLDEST);
+    } else {
+      node = new Node(chip);
+    }
+    node.setFlyweightDecoding("flyweight".equals(mode));
+    RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+    if (recordMetrics) {
+      node.setMetrics(metrics);
+    }
+    node.start();
+    NetworkKey key = new NetworkKey(0, 0, 0, 0, 0, 0, 0, 0);
+    key.setName("N:PUBLIC");
+    node.setNetworkKey(0, key);
+
+    int threadsBefore = Thread.activeCount();
+    ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+    long openStart = System.nanoTime();
+    LatencyListener listener = new LatencyListener();
+    for (int i = 0 ; i < channels ; i++) {
+      Channel channel = node.getFreeChannel();
+      channel.setName("C:PROBE" + i);
+      channel.registerRxListener(listener, BroadcastDataMessage.class);
+      channel.assignAndOpen("N:PUBLIC", new ChannelAssignMessage(new SlaveChannelType()),
+          new ChannelIdMessage(0, i + 1, PROBE_DEVICE_TYPE, 0, false));
+    }
+    long openNanos = System.nanoTime() - openStart;
+
+    long start = System.nanoTime();
+    Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+    long elapsed = System.nanoTime() - start;
+    long count = received.get();
+    int peakThreads = ManagementFactory.getThreadMXBean().getPeakThreadCount();
+    node.stop();
+
+    long [] sorted = Arrays.copyOf(samples, Math.min(sampleCount.get(), MAX_SAMPLES));
+    Arrays.sort(sorted);
+    System.out.printf("mode %s, %d channels at %.0f Hz for %d s%n", mode, channels, rate, seconds);
+    System.out.printf("opened %d channels in %.1f ms%n", channels, openNanos / 1e6);
+    System.out.printf("received %d pages, %.0f pages/s (chip sent %d, lost %d)%n", count,
+        count * 1e9 / elapsed, chip.getPagesSent(), chip.getPagesLost());
+    System.out.printf("latency ms: p50 %.3f, p99 %.3f, p99.9 %.3f, max %.3f%n",
+        percentileMillis(sorted, 0.5), percentileMillis(sorted, 0.99),
+        percentileMillis(sorted, 0.999), percentileMillis(sorted, 1));
+    System.out.printf("threads: %d before opening, peak %d%n", threadsBefore, peakThreads);
+    if (recordMetrics) {
+      System.out.print(metrics.snapshot());
+    }
+    // the dispatch pool's threads would otherwise keep us alive for a minute
+    System.exit(0);
+  }
+
+}
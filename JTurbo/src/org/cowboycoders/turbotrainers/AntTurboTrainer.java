@@ -19,6 +19,7 @@
 */
 package org.cowboycoders.turbotrainers;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.cowboycoders.ant.Node;
@@ -27,6 +28,8 @@ public abstract class AntTurboTrainer implements TurboTrainerInterface {
   
   private Node node;
 
+  private final TrainerSamplePublisher samplePublisher = new TrainerSamplePublisher();
+
   public AntTurboTrainer(Node node){
     this.node = node;
   }
@@ -38,6 +41,33 @@ public abstract class AntTurboTrainer implements TurboTrainerInterface {
     return node;
   }
   
+  @Override
+  public void registerSampleListener(TrainerSampleListener listener) {
+    samplePublisher.addListener(listener);
+  }
+
+  @Override
+  public void registerSampleListener(TrainerSampleListener listener, long minInterval,
+      TimeUnit unit) {
+    samplePublisher.addListener(listener, minInterval, unit);
+  }
+
+  @Override
+  public void unregisterSampleListener(TrainerSampleListener listener) {
+    samplePublisher.removeListener(listener);
+  }
+
+  /**
+   * @return false if no one is listening for samples
+   */
+  protected boolean hasSampleListeners() {
+    return samplePublisher.hasListeners();
+  }
+
+  protected void publishSample(TrainerSample sample) {
+    samplePublisher.publish(sample);
+  }
+  
   public abstract void start() throws TooFewAntChannelsAvailableException, TurboCommunicationException, InterruptedException, TimeoutException;
   
 }
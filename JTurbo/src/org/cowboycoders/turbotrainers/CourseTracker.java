@@ -20,91 +20,242 @@
 package org.cowboycoders.turbotrainers;
 
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+import org.cowboycoders.location.GeoKernel;
 import org.cowboycoders.location.LatLongAlt;
 import org.cowboycoders.location.LocationUtils;
 
+/**
+ * Maps distance travelled onto a course. The course is held as packed arrays
+ * indexed by vertex, with the cumulative distance to each vertex in
+ * {@link #distances}. Lookups gallop from the last segment used, so the
+ * usual case of small steps forward is O(1) and any seek, in either
+ * direction, is O(log n).
+ *
+ * Not thread safe.
+ */
 public class CourseTracker {
-  
+
   private static final double ACCURACY = 0.001;
-  
-  private Map<Double,LatLongAlt> distanceLocationMap = new HashMap<Double,LatLongAlt>();
-  
-  private Double[] distanceMarkers;
-  
-  private int lastKnownDistanceMarkerIndex = 0; 
-  
+
+  private final double [] latitudes;
+
+  private final double [] longitudes;
+
+  private final double [] altitudes;
+
+  /**
+   * cumulative distance in m to each vertex, strictly increasing
+   */
+  private final double [] distances;
+
+  /**
+   * index of the vertex starting the segment containing the last distance
+   * looked up
+   */
+  private int segment = 0;
+
+  private double lastDistance = 0;
+
   public CourseTracker(List<LatLongAlt> coursePoints) {
+    this(pack(coursePoints), coursePoints.size());
+  }
+
+  /**
+   * @param coordinates latitude, longitude, altitude triples, as written by
+   *          {@link LocationUtils#interpolatePoints(List, double, boolean, double[], int)}
+   * @param points number of triples, at least one
+   */
+  public CourseTracker(double [] coordinates, int points) {
+    if (points < 1) {
+      throw new IllegalArgumentException("course has no points");
+    }
+    double [] lats = new double[points];
+    double [] lons = new double[points];
+    double [] alts = new double[points];
+    for (int i = 0 ; i < points ; i++) {
+      lats[i] = coordinates[i * 3];
+      lons[i] = coordinates[i * 3 + 1];
+      alts[i] = coordinates[i * 3 + 2];
+    }
+
+    double [] cosines = new double[points];
+    GeoKernel.cosLatitudes(lats, points, cosines);
+
+    double [] dists = new double[points];
+    int count = 1;
     double totalDistance = 0.0;
-    distanceLocationMap.put(totalDistance,coursePoints.get(0));
-    for (int i=1 ; i< coursePoints.size() ; i++) {
-      double distanceBetweenPoints = org.cowboycoders.location.LocationUtils.distance(coursePoints.get(i-1), coursePoints.get(i));
+    for (int i = 1 ; i < points ; i++) {
+      // from the last vertex kept, so a run of short steps still adds up
+      int last = count - 1;
+      double distanceBetweenPoints = GeoKernel.fastDistance(lats[last], lons[last],
+          cosines[last], lats[i], lons[i], cosines[i]);
       if (distanceBetweenPoints < ACCURACY) {
         // assume the same location
         continue;
       }
-      assert distanceBetweenPoints > 0;
       totalDistance += distanceBetweenPoints;
-      distanceLocationMap.put(totalDistance, coursePoints.get(i));
+      lats[count] = lats[i];
+      lons[count] = lons[i];
+      alts[count] = alts[i];
+      cosines[count] = cosines[i];
+      dists[count] = totalDistance;
+      count++;
     }
-    distanceMarkers = distanceLocationMap.keySet().toArray(new Double[0]);
-    Arrays.sort(distanceMarkers);
+
+    latitudes = Arrays.copyOf(lats, count);
+    longitudes = Arrays.copyOf(lons, count);
+    altitudes = Arrays.copyOf(alts, count);
+    distances = Arrays.copyOf(dists, count);
   }
-  
+
+  /**
+   * A tracker over the same course with its own position, so the two can be
+   * used from different threads. The course itself is never modified.
+   */
+  public CourseTracker(CourseTracker other) {
+    latitudes = other.latitudes;
+    longitudes = other.longitudes;
+    altitudes = other.altitudes;
+    distances = other.distances;
+  }
+
+  private static double [] pack(List<LatLongAlt> coursePoints) {
+    double [] coordinates = new double[coursePoints.size() * 3];
+    int i = 0;
+    for (LatLongAlt point : coursePoints) {
+      coordinates[i++] = point.getLatitude();
+      coordinates[i++] = point.getLongitude();
+      coordinates[i++] = point.getAltitude();
+    }
+    return coordinates;
+  }
+
+  /**
+   * @return the first vertex at or beyond distance
+   */
   public LatLongAlt getNearestLocation(final double distance) {
-    Double key = null;
-    for (int i = lastKnownDistanceMarkerIndex ; i < distanceMarkers.length ; i++) {
-      key = distanceMarkers[i];
-      lastKnownDistanceMarkerIndex = i;
-      if ((distance - key) < ACCURACY) {
-        break;
-      }
+    int i = seek(distance);
+    if (i < distances.length - 1 && distance - distances[i] >= ACCURACY) {
+      i++;
+    }
+    return new LatLongAlt(latitudes[i], longitudes[i], altitudes[i]);
   }
-    if (key == null) { // must have reached end
-      key = distanceMarkers[distanceMarkers.length -1];
-      return distanceLocationMap.get(key);
+
+  /**
+   * Position at distance, interpolated linearly between the vertices either
+   * side of it. Clamped to the start and end of the course.
+   */
+  public LatLongAlt getLocation(final double distance) {
+    int i = seek(distance);
+    if (i == distances.length - 1) {
+      return new LatLongAlt(latitudes[i], longitudes[i], altitudes[i]);
     }
-    
-    return distanceLocationMap.get(key);
-}
-  
-  public boolean hasFinished() {
-    if (lastKnownDistanceMarkerIndex < distanceMarkers.length -1){
-      return false;
+    double fraction = (distance - distances[i]) / (distances[i + 1] - distances[i]);
+    fraction = Math.max(0.0, Math.min(1.0, fraction));
+    return new LatLongAlt(
+        latitudes[i] + fraction * (latitudes[i + 1] - latitudes[i]),
+        longitudes[i] + fraction * (longitudes[i + 1] - longitudes[i]),
+        altitudes[i] + fraction * (altitudes[i + 1] - altitudes[i]));
+  }
+
+  /**
+   * As {@link #getLocation(double)}, for the altitude only
+   */
+  public double getAltitude(final double distance) {
+    int i = seek(distance);
+    if (i == distances.length - 1) {
+      return altitudes[i];
     }
-    return true;
+    double fraction = (distance - distances[i]) / (distances[i + 1] - distances[i]);
+    fraction = Math.max(0.0, Math.min(1.0, fraction));
+    return altitudes[i] + fraction * (altitudes[i + 1] - altitudes[i]);
   }
-  
-  public double getCurrentGradient() {
+
+  /**
+   * @return gradient in percent of the segment containing distance, 0.0 if
+   *          beyond the end of the course
+   */
+  public double getGradient(final double distance) {
+    int i = seek(distance);
     if (hasFinished()) {
       return 0.0;
     }
-    final Double currentLocationKey = distanceMarkers[lastKnownDistanceMarkerIndex];
-    final Double nextLocationKey = distanceMarkers[lastKnownDistanceMarkerIndex +1];
-    double gradient = LocationUtils
-        .getLocalisedGradient(distanceLocationMap.get(currentLocationKey), distanceLocationMap.get(nextLocationKey));
-    return gradient;
+    return (altitudes[i + 1] - altitudes[i]) / (distances[i + 1] - distances[i]) * 100;
+  }
+
+  /**
+   * @return gradient at the distance last looked up
+   */
+  public double getCurrentGradient() {
+    return getGradient(lastDistance);
   }
-  
-  public static void main(String [] args) {
-    LatLongAlt l1 = new LatLongAlt(50.066389,5.715, 1000);
-    LatLongAlt l2 = new LatLongAlt(58.643889,3.07, 4000);
-    List<LatLongAlt> locations = LocationUtils.interpolateBetweenPoints(l1,l2,1000);
-    locations.addAll(LocationUtils.interpolateBetweenPoints(l2,l1,1000));
-    CourseTracker ct = new CourseTracker(locations);
-    
-    for (Double marker : ct.distanceMarkers) {
-      System.out.println(marker);
+
+  public boolean hasFinished() {
+    return distances.length == 1 || lastDistance > getTotalDistance() - ACCURACY;
+  }
+
+  /**
+   * @return length of the course in m
+   */
+  public double getTotalDistance() {
+    return distances[distances.length - 1];
+  }
+
+  /**
+   * Finds the segment containing distance, starting from the last one used.
+   * Distances past either end of the course map to the first or last vertex.
+   *
+   * @return i such that distances[i] <= distance < distances[i + 1]
+   */
+  private int seek(final double distance) {
+    lastDistance = distance;
+    final int last = distances.length - 1;
+    int i = segment;
+    if (distance >= distances[last]) {
+      i = last;
+    } else if (distance <= distances[0]) {
+      i = 0;
+    } else if (distance >= distances[i]) {
+      // gallop forwards until we overshoot, then search the last step
+      int low = i;
+      int step = 1;
+      int high = i + step;
+      while (high < last && distances[high] <= distance) {
+        low = high;
+        step <<= 1;
+        high = i + step;
+      }
+      i = search(distance, low, Math.min(high, last));
+    } else {
+      int high = i;
+      int step = 1;
+      int low = i - step;
+      while (low > 0 && distances[low] > distance) {
+        high = low;
+        step <<= 1;
+        low = i - step;
+      }
+      i = search(distance, Math.max(low, 0), high);
     }
-    double distance = 0;
-    while (!ct.hasFinished()) {
-      ct.getNearestLocation(distance += 1000);
-      System.out.println("lastKnownDistanceMarkerIndex " + ct.lastKnownDistanceMarkerIndex);
+    segment = i;
+    return i;
+  }
+
+  /**
+   * Requires distances[low] <= distance < distances[high]
+   */
+  private int search(final double distance, int low, int high) {
+    while (high - low > 1) {
+      int mid = (low + high) >>> 1;
+      if (distances[mid] <= distance) {
+        low = mid;
+      } else {
+        high = mid;
+      }
     }
-    System.out.println("finished");
+    return low;
   }
-  
-}
\ No newline at end of file
+
+}
@@ -0,0 +1,255 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drives a trainer's slope from the course at a fixed tick rate, rather than
+ * on every distance update.
+ *
+ * Each tick looks ahead to where the rider will be when the trainer has acted
+ * on a command: the last distance reported, projected forward at the last
+ * speed reported for the time since the report plus the trainer's command
+ * latency. The slope sent is the mean gradient over a window of course
+ * centred there, so a change in gradient is felt as a short ramp on time
+ * rather than a step that arrives late. It is only sent when it differs from
+ * the last slope sent by at least a deadband. Beyond the end of the course
+ * the gradient is 0, for a warm down.
+ *
+ * Register as a data listener on the trainer and {@link #start()} once it is
+ * running.
+ */
+public class ResistanceController implements TurboTrainerDataListener {
+
+  public final static Logger LOGGER = Logger.getLogger(ResistanceController.class.getName());
+
+  public static final long DEFAULT_TICK_PERIOD_MS = 250;
+
+  public static final double DEFAULT_WINDOW = 20.0; // m
+
+  public static final double DEFAULT_DEADBAND = 0.2; // %
+
+  public static final double DEFAULT_COMMAND_LATENCY = 0.5; // s
+
+  /**
+   * a distance this old is not extrapolated any further, in case the trainer
+   * stops reporting
+   */
+  private static final long MAX_EXTRAPOLATION_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+  private static final double KMH_TO_MS = 1 / 3.6;
+
+  private final TurboTrainerInterface trainer;
+
+  /**
+   * own cursor over the course, only used by tick()
+   */
+  private final CourseTracker courseTracker;
+
+  private final long tickPeriodNanos;
+
+  private volatile double window = DEFAULT_WINDOW;
+
+  private volatile double deadband = DEFAULT_DEADBAND;
+
+  private volatile double commandLatency = DEFAULT_COMMAND_LATENCY;
+
+  // guarded by this
+  private double distance = 0.0;
+
+  private long distanceNanos = 0;
+
+  private boolean distanceKnown = false;
+
+  private double speed = 0.0; // m/s
+
+  // only used by tick()
+  private double lastSlopeSent = Double.NaN;
+
+  private volatile int commandsSent = 0;
+
+  private ScheduledExecutorService executor;
+
+  public ResistanceController(TurboTrainerInterface trainer, CourseTracker courseTracker) {
+    this(trainer, courseTracker, DEFAULT_TICK_PERIOD_MS, TimeUnit.MILLISECONDS);
+  }
+
+  public ResistanceController(TurboTrainerInterface trainer, CourseTracker courseTracker,
+      long tickPeriod, TimeUnit unit) {
+    if (tickPeriod <= 0) {
+      throw new IllegalArgumentException("tickPeriod must be positive: " + tickPeriod);
+    }
+    this.trainer = trainer;
+    this.courseTracker = new CourseTracker(courseTracker);
+    this.tickPeriodNanos = unit.toNanos(tickPeriod);
+  }
+
+  /**
+   * @param window length in m of the stretch of course the gradient is
+   *          averaged over. 0 uses the gradient at the predicted position.
+   */
+  public void setWindow(double window) {
+    if (window < 0) {
+      throw new IllegalArgumentException("window must not be negative: " + window);
+    }
+    this.window = window;
+  }
+
+  /**
+   * @param deadband smallest change in gradient, in percent, worth sending
+   */
+  public void setDeadband(double deadband) {
+    if (deadband < 0) {
+      throw new IllegalArgumentException("deadband must not be negative: " + deadband);
+    }
+    this.deadband = deadband;
+  }
+
+  /**
+   * @param commandLatency time in s between sending a slope and the rider
+   *          feeling it
+   */
+  public void setCommandLatency(double commandLatency) {
+    if (commandLatency < 0) {
+      throw new IllegalArgumentException("commandLatency must not be negative: " + commandLatency);
+    }
+    this.commandLatency = commandLatency;
+  }
+
+  public synchronized void start() {
+    if (executor != null) {
+      return;
+    }
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "ResistanceController");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        // an exception would cancel every later tick
+        try {
+          tick(nanoTime());
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.WARNING, "tick failed", e);
+        }
+      }
+    }, 0, tickPeriodNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public synchronized void stop() {
+    if (executor == null) {
+      return;
+    }
+    executor.shutdownNow();
+    executor = null;
+  }
+
+  /**
+   * @return number of slopes sent to the trainer
+   */
+  public int getCommandsSent() {
+    return commandsSent;
+  }
+
+  long nanoTime() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Sends the slope for the rider's predicted position, if it has moved out of
+   * the deadband. Called by the tick thread, or directly in tests.
+   *
+   * @return the smoothed gradient, NaN if no distance has been reported yet
+   */
+  double tick(long now) {
+    double predicted;
+    synchronized (this) {
+      if (!distanceKnown) {
+        return Double.NaN;
+      }
+      long elapsed = Math.min(Math.max(now - distanceNanos, 0), MAX_EXTRAPOLATION_NANOS);
+      predicted = distance + speed * (elapsed / 1e9 + commandLatency);
+    }
+
+    double gradient = getSmoothedGradient(predicted);
+    if (Double.isNaN(lastSlopeSent) || Math.abs(gradient - lastSlopeSent) >= deadband
+        // always settle on the exact value once the gradient is steady
+        || (gradient == 0.0 && lastSlopeSent != 0.0)) {
+      trainer.setSlope(gradient);
+      lastSlopeSent = gradient;
+      commandsSent++;
+    }
+    return gradient;
+  }
+
+  /**
+   * Mean gradient in percent over the window centred on distance. The course
+   * is flat beyond either end.
+   */
+  double getSmoothedGradient(double distance) {
+    double window = this.window;
+    if (window <= 0.0) {
+      return courseTracker.getGradient(distance);
+    }
+    double start = Math.max(distance - window / 2, 0.0);
+    double end = Math.min(distance + window / 2, courseTracker.getTotalDistance());
+    if (end <= start) {
+      return 0.0;
+    }
+    double rise = courseTracker.getAltitude(end) - courseTracker.getAltitude(start);
+    return rise / window * 100;
+  }
+
+  @Override
+  public synchronized void onSpeedChange(double speed) {
+    this.speed = speed * KMH_TO_MS;
+  }
+
+  @Override
+  public synchronized void onDistanceChange(double distance) {
+    this.distance = distance;
+    this.distanceNanos = nanoTime();
+    this.distanceKnown = true;
+  }
+
+  @Override
+  public void onPowerChange(double power) {
+  }
+
+  @Override
+  public void onCadenceChange(double cadence) {
+  }
+
+  @Override
+  public void onHeartRateChange(double heartRate) {
+  }
+
+}
@@ -0,0 +1,288 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rider and bike on a road, driven by power. Integrates speed and distance
+ * at a fixed timestep from the balance of pedalling power against gravity,
+ * rolling resistance and aerodynamic drag, so it can stand in for the speed
+ * of a trainer that only reports power, or play a brake in tests.
+ *
+ * The state is a handful of doubles and nothing is allocated once built.
+ * Time is accumulated in whole nanoseconds, so a run depends only on the
+ * inputs and when they change, not on how the time between was chopped up:
+ * replaying the same inputs gives exactly the same speeds and distances.
+ *
+ * Each step adds the work done by the rider as kinetic energy, which copes
+ * with starting from rest where power / speed would not, then decelerates
+ * by the resisting forces. The bike never rolls backwards.
+ *
+ * Not thread safe.
+ */
+public class RidePhysics {
+
+  /**
+   * 100Hz
+   */
+  public static final long DEFAULT_TIMESTEP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  public static final double GRAVITY = 9.81;
+
+  /**
+   * kg/m^3 at sea level, 15C
+   */
+  public static final double DEFAULT_AIR_DENSITY = 1.226;
+
+  /**
+   * rider and bike, kg
+   */
+  public static final double DEFAULT_MASS = 85;
+
+  /**
+   * drag coefficient times frontal area, m^2, on the hoods
+   */
+  public static final double DEFAULT_CDA = 0.4;
+
+  /**
+   * coefficient of rolling resistance, road tyres on tarmac
+   */
+  public static final double DEFAULT_CRR = 0.004;
+
+  private final long timestepNanos;
+
+  private final double timestep;
+
+  private double mass = DEFAULT_MASS;
+  private double cda = DEFAULT_CDA;
+  private double crr = DEFAULT_CRR;
+  private double airDensity = DEFAULT_AIR_DENSITY;
+
+  /**
+   * m/s, positive into the rider's face
+   */
+  private double wind;
+
+  /**
+   * percent
+   */
+  private double gradient;
+  private double sinSlope;
+  private double cosSlope = 1;
+
+  /**
+   * watts
+   */
+  private double power;
+
+  /**
+   * m/s
+   */
+  private double speed;
+
+  /**
+   * m
+   */
+  private double distance;
+
+  private long steps;
+
+  /**
+   * time not yet used up by a whole step
+   */
+  private long remainderNanos;
+
+  public RidePhysics() {
+    this(DEFAULT_TIMESTEP_NANOS, TimeUnit.NANOSECONDS);
+  }
+
+  public RidePhysics(long timestep, TimeUnit unit) {
+    this.timestepNanos = unit.toNanos(timestep);
+    if (timestepNanos <= 0) {
+      throw new IllegalArgumentException("timestep must be positive");
+    }
+    this.timestep = timestepNanos / 1e9;
+  }
+
+  /**
+   * @param mass of rider and bike in kg
+   */
+  public void setMass(double mass) {
+    this.mass = mass;
+  }
+
+  /**
+   * @param cda drag coefficient times frontal area in m^2
+   */
+  public void setCdA(double cda) {
+    this.cda = cda;
+  }
+
+  /**
+   * @param crr coefficient of rolling resistance
+   */
+  public void setCrr(double crr) {
+    this.crr = crr;
+  }
+
+  /**
+   * @param airDensity in kg/m^3
+   */
+  public void setAirDensity(double airDensity) {
+    this.airDensity = airDensity;
+  }
+
+  /**
+   * @param wind in m/s, positive for a headwind
+   */
+  public void setWind(double wind) {
+    this.wind = wind;
+  }
+
+  /**
+   * @param gradient in percent
+   */
+  public void setGradient(double gradient) {
+    if (gradient == this.gradient) {
+      return;
+    }
+    this.gradient = gradient;
+    double angle = Math.atan(gradient / 100);
+    sinSlope = Math.sin(angle);
+    cosSlope = Math.cos(angle);
+  }
+
+  public double getGradient() {
+    return gradient;
+  }
+
+  /**
+   * @param power at the wheel in watts
+   */
+  public void setPower(double power) {
+    this.power = power;
+  }
+
+  public double getPower() {
+    return power;
+  }
+
+  /**
+   * @param speed in m/s
+   */
+  public void setSpeed(double speed) {
+    this.speed = Math.max(0, speed);
+  }
+
+  /**
+   * @return speed in m/s
+   */
+  public double getSpeed() {
+    return speed;
+  }
+
+  /**
+   * @return distance travelled in m
+   */
+  public double getDistance() {
+    return distance;
+  }
+
+  /**
+   * @return time simulated in whole steps, in ns
+   */
+  public long getElapsedNanos() {
+    return steps * timestepNanos;
+  }
+
+  public long getSteps() {
+    return steps;
+  }
+
+  /**
+   * Back to rest at the start, keeping the rider, bike and conditions
+   */
+  public void reset() {
+    speed = 0;
+    distance = 0;
+    steps = 0;
+    remainderNanos = 0;
+  }
+
+  /**
+   * Runs as many whole steps as fit in duration, carrying the rest over to
+   * the next call
+   */
+  public void advance(long duration, TimeUnit unit) {
+    long nanos = remainderNanos + unit.toNanos(duration);
+    long n = nanos / timestepNanos;
+    remainderNanos = nanos - n * timestepNanos;
+    for (long i = 0 ; i < n ; i++) {
+      step();
+    }
+  }
+
+  /**
+   * One timestep
+   */
+  public void step() {
+    double v = speed;
+    double air = v + wind;
+    double resistance = mass * GRAVITY * (sinSlope + crr * cosSlope)
+        + 0.5 * airDensity * cda * air * Math.abs(air);
+    double squared = v * v + 2 * power * timestep / mass;
+    double next = squared > 0 ? Math.sqrt(squared) : 0;
+    next = Math.max(0, next - resistance * timestep / mass);
+    // trapezoidal distance over the step
+    distance += 0.5 * (v + next) * timestep;
+    speed = next;
+    steps++;
+  }
+
+  /**
+   * Rides a course of piecewise constant power and gradient, from the
+   * current state. Entry i holds for interval before moving on to entry
+   * i + 1.
+   *
+   * @param powers in watts
+   * @param gradients in percent
+   * @param count number of entries
+   * @param speeds receives the speed in m/s at the end of each entry, may be
+   *          null
+   * @param distances receives the distance in m at the end of each entry,
+   *          may be null
+   */
+  public void simulate(double [] powers, double [] gradients, int count, long interval,
+      TimeUnit unit, double [] speeds, double [] distances) {
+    for (int i = 0 ; i < count ; i++) {
+      setPower(powers[i]);
+      setGradient(gradients[i]);
+      advance(interval, unit);
+      if (speeds != null) {
+        speeds[i] = speed;
+      }
+      if (distances != null) {
+        distances[i] = distance;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,106 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers;
+
+/**
+ * Everything a trainer reported as of one page. Immutable, so it can be
+ * handed to listeners on any thread.
+ */
+public final class TrainerSample {
+
+  private final double speed;
+
+  private final double power;
+
+  private final double cadence;
+
+  private final double distance;
+
+  private final double heartRate;
+
+  private final long timestamp;
+
+  /**
+   * @param speed in km/h
+   * @param power in W
+   * @param cadence in rpm
+   * @param distance in m
+   * @param heartRate in bpm, 0 if unknown
+   * @param timestamp from {@link System#nanoTime()}
+   */
+  public TrainerSample(double speed, double power, double cadence, double distance,
+      double heartRate, long timestamp) {
+    this.speed = speed;
+    this.power = power;
+    this.cadence = cadence;
+    this.distance = distance;
+    this.heartRate = heartRate;
+    this.timestamp = timestamp;
+  }
+
+  /**
+   * @return speed in km/h
+   */
+  public double getSpeed() {
+    return speed;
+  }
+
+  /**
+   * @return power in W
+   */
+  public double getPower() {
+    return power;
+  }
+
+  /**
+   * @return cadence in rpm
+   */
+  public double getCadence() {
+    return cadence;
+  }
+
+  /**
+   * @return distance in m
+   */
+  public double getDistance() {
+    return distance;
+  }
+
+  /**
+   * @return heart rate in bpm, 0 if unknown
+   */
+  public double getHeartRate() {
+    return heartRate;
+  }
+
+  /**
+   * @return when the sample was taken, from {@link System#nanoTime()}
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  @Override
+  public String toString() {
+    return "TrainerSample [speed=" + speed + ", power=" + power + ", cadence=" + cadence
+        + ", distance=" + distance + ", heartRate=" + heartRate + ", timestamp=" + timestamp + "]";
+  }
+
+}
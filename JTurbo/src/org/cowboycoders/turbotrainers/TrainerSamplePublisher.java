@@ -0,0 +1,190 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands {@link TrainerSample}s to listeners. The listeners are held in a
+ * copy-on-write array, so publishing takes no locks and allocates nothing.
+ *
+ * A listener is either called directly on the publishing thread, or is
+ * coalesced: it is called on a delivery thread with the latest sample, at
+ * most once per interval, and samples published while it is busy or waiting
+ * for its interval to pass replace one another. A slow coalesced listener
+ * never holds up the publisher.
+ */
+public class TrainerSamplePublisher {
+
+  private static final Target [] NO_TARGETS = new Target[0];
+
+  private static class Target {
+
+    final TrainerSampleListener listener;
+
+    Target(TrainerSampleListener listener) {
+      this.listener = listener;
+    }
+
+    void publish(TrainerSample sample) {
+      listener.onSample(sample);
+    }
+
+    void remove() {
+    }
+
+  }
+
+  private static class CoalescingTarget extends Target implements Runnable {
+
+    private final ScheduledExecutorService executor;
+
+    private final long intervalNanos;
+
+    private final AtomicReference<TrainerSample> pending = new AtomicReference<TrainerSample>();
+
+    private volatile long nextDelivery = System.nanoTime();
+
+    private volatile boolean removed = false;
+
+    CoalescingTarget(TrainerSampleListener listener, ScheduledExecutorService executor,
+        long intervalNanos) {
+      super(listener);
+      this.executor = executor;
+      this.intervalNanos = intervalNanos;
+    }
+
+    @Override
+    void publish(TrainerSample sample) {
+      // only the sample that finds nothing pending schedules a delivery
+      if (pending.getAndSet(sample) != null) {
+        return;
+      }
+      long delay = Math.max(nextDelivery - System.nanoTime(), 0);
+      try {
+        executor.schedule(this, delay, TimeUnit.NANOSECONDS);
+      } catch (RejectedExecutionException e) {
+        // removed while publishing
+      }
+    }
+
+    @Override
+    public void run() {
+      TrainerSample sample = pending.getAndSet(null);
+      if (sample == null || removed) {
+        return;
+      }
+      nextDelivery = System.nanoTime() + intervalNanos;
+      listener.onSample(sample);
+    }
+
+    @Override
+    void remove() {
+      removed = true;
+    }
+
+  }
+
+  private volatile Target [] targets = NO_TARGETS;
+
+  // guarded by this
+  private ScheduledExecutorService executor;
+
+  private int coalescingTargets = 0;
+
+  /**
+   * Calls listener on the publishing thread with every sample
+   */
+  public synchronized void addListener(TrainerSampleListener listener) {
+    add(new Target(listener));
+  }
+
+  /**
+   * Calls listener on a delivery thread with the latest sample, no more
+   * than once per minInterval
+   * @param minInterval 0 to deliver as soon as the listener is free
+   */
+  public synchronized void addListener(TrainerSampleListener listener, long minInterval,
+      TimeUnit unit) {
+    if (minInterval < 0) {
+      throw new IllegalArgumentException("minInterval must not be negative: " + minInterval);
+    }
+    if (executor == null) {
+      executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "TrainerSamplePublisher");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    coalescingTargets++;
+    add(new CoalescingTarget(listener, executor, unit.toNanos(minInterval)));
+  }
+
+  private void add(Target target) {
+    Target [] current = targets;
+    Target [] updated = new Target[current.length + 1];
+    System.arraycopy(current, 0, updated, 0, current.length);
+    updated[current.length] = target;
+    targets = updated;
+  }
+
+  public synchronized void removeListener(TrainerSampleListener listener) {
+    Target [] current = targets;
+    for (int i = 0 ; i < current.length ; i++) {
+      Target target = current[i];
+      if (target.listener != listener) {
+        continue;
+      }
+      Target [] updated = new Target[current.length - 1];
+      System.arraycopy(current, 0, updated, 0, i);
+      System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+      targets = updated;
+      target.remove();
+      if (target instanceof CoalescingTarget && --coalescingTargets == 0) {
+        // no delivery thread left running once nothing needs it
+        executor.shutdown();
+        executor = null;
+      }
+      return;
+    }
+  }
+
+  /**
+   * @return false if samples would go nowhere, so need not be made
+   */
+  public boolean hasListeners() {
+    return targets.length > 0;
+  }
+
+  public void publish(TrainerSample sample) {
+    for (Target target : targets) {
+      target.publish(sample);
+    }
+  }
+
+}
@@ -19,6 +19,7 @@
 */
 package org.cowboycoders.turbotrainers;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 public interface TurboTrainerInterface {
@@ -27,6 +28,20 @@ public interface TurboTrainerInterface {
 
   public abstract void unregisterDataListener(TurboTrainerDataListener listener);
 
+  /**
+   * Called on the thread that received the data, with a sample per page
+   */
+  public abstract void registerSampleListener(TrainerSampleListener listener);
+
+  /**
+   * Called on a separate thread with the latest sample, at most once per
+   * minInterval, so a slow listener can't hold up the trainer
+   */
+  public abstract void registerSampleListener(TrainerSampleListener listener, long minInterval,
+      TimeUnit unit);
+
+  public abstract void unregisterSampleListener(TrainerSampleListener listener);
+
   public abstract boolean supportsSpeed();
 
   public abstract boolean supportsPower();
@@ -21,24 +21,28 @@ package org.cowboycoders.turbotrainers.bushido.headunit;
 
 import org.cowboycoders.ant.events.BroadcastListener;
 import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
-import org.cowboycoders.ant.utils.ArrayUtils;
-
-import static org.cowboycoders.ant.utils.ArrayUtils.*;
 
+/**
+ * Decodes head unit pages straight out of the message payload. Pages are
+ * dispatched on their first two data bytes, and each data page is passed on
+ * as a single update.
+ */
 public class BushidoBroadcastDataListener implements BroadcastListener<BroadcastDataMessage> {
-    private Byte[] data;
-    private double speed;
-    private double power;
-    private double cadence;
-    private double distance;
-    private double heartRate;
-    // Packet identifiers
-    private static final Byte[] PARTIAL_PACKET_PAUSED = {(byte) 0xAD , 0x01 , 0x03};
-    private static final Byte[] PARTIAL_PACKET_REQUEST_DATA = {(byte) 0xAD, 0x01, 0x02};
-    private static final Byte[] PARTIAL_PACKET_DATA = {(byte) 0xDD};
-    private static final Byte[] PARTIAL_PACKET_SPEED_POWER_CADENCE = {(byte) 0xDD,(byte) 0x01};
-    private static final Byte[] PARTIAL_PACKET_DISTANCE_HEART_RATE = {(byte) 0xDD,(byte) 0x02};
-    private static Byte[] PARTIAL_PACKET_REQUEST_STATUS = {(byte) 0xAD};
+    // Page identifiers: first two data bytes
+    static final int PAGE_SPEED_POWER_CADENCE = 0xDD01;
+    static final int PAGE_DISTANCE_HEART_RATE = 0xDD02;
+    static final int PAGE_REQUEST = 0xAD01;
+    // Third data byte of PAGE_REQUEST
+    static final int REQUEST_DATA = 0x02;
+    static final int REQUEST_PAUSED = 0x03;
+    
+    /**
+     * Data bytes follow the channel number in the payload
+     */
+    private static final int DATA_OFFSET = 1;
+    
+    private static final int DATA_LENGTH = 8;
+    
     private BushidoInternalListener bushidoListener;
     
     public BushidoBroadcastDataListener(BushidoInternalListener bushidoListener) {
@@ -47,41 +51,47 @@ public class BushidoBroadcastDataListener implements BroadcastListener<Broadcast
     
     @Override
     public void receiveMessage(BroadcastDataMessage message) {
-        data = message.getData();
-        int [] unsignedData = ArrayUtils.unsignedBytesToInts(data);
-        if (arrayStartsWith(PARTIAL_PACKET_DATA, data)) {
-            data = message.getData();
-            if (arrayStartsWith(PARTIAL_PACKET_SPEED_POWER_CADENCE, data)) {
-                // speed in km/h
-                speed = ((unsignedData [2] << 8) + unsignedData [3]) / 10;
-                power = (unsignedData [4] << 8) + unsignedData [5];
-                cadence = unsignedData [6];
-                bushidoListener.onSpeedChange(speed);
-                bushidoListener.onPowerChange(power);
-                bushidoListener.onCadenceChange(cadence);
-                //System.out.println("Speed: " + speed);
-                //System.out.println("Power: " + power);
-                //System.out.println("Cadence: " + cadence);
+        if (message.getStandardPayloadLength() < DATA_OFFSET + DATA_LENGTH) {
+            return;
+        }
+        int page = (data(message, 0) << 8) | data(message, 1);
+        switch (page) {
+            case PAGE_SPEED_POWER_CADENCE: {
+                // speed in 0.1 km/h
+                double speed = ((data(message, 2) << 8) | data(message, 3)) / 10.0;
+                double power = (data(message, 4) << 8) | data(message, 5);
+                double cadence = data(message, 6);
+                bushidoListener.onSpeedPowerCadenceChange(speed, power, cadence);
+                break;
             }
-            if (arrayStartsWith(PARTIAL_PACKET_DISTANCE_HEART_RATE, data)) {
+            case PAGE_DISTANCE_HEART_RATE: {
                 // 3 byte (24 bit) shift will wrap an int
-                distance = ((long)unsignedData [2] << 24) + (unsignedData [3] << 16) + (unsignedData [4] << 8) + unsignedData [5];
-                heartRate = unsignedData [6];
-                bushidoListener.onDistanceChange(distance);
-                //System.out.println("Distance: " + distance);
-                bushidoListener.onHeartRateChange(heartRate);
-               // System.out.println("Heart rate: " + heartRate);
-            }
-        } else if (arrayStartsWith(PARTIAL_PACKET_REQUEST_STATUS, data)){
-            if (arrayStartsWith(PARTIAL_PACKET_PAUSED, data)){
-                //Send unpause command
-                bushidoListener.onRequestPauseStatus();
-            } else if (arrayStartsWith(PARTIAL_PACKET_REQUEST_DATA, data)){
-                bushidoListener.onRequestData();
-                //Send data
+                double distance = ((long) data(message, 2) << 24) | (data(message, 3) << 16)
+                        | (data(message, 4) << 8) | data(message, 5);
+                double heartRate = data(message, 6);
+                bushidoListener.onDistanceHeartRateChange(distance, heartRate);
+                break;
             }
+            case PAGE_REQUEST:
+                switch (data(message, 2)) {
+                    case REQUEST_PAUSED:
+                        //Send unpause command
+                        bushidoListener.onRequestPauseStatus();
+                        break;
+                    case REQUEST_DATA:
+                        //Send data
+                        bushidoListener.onRequestData();
+                        break;
+                }
+                break;
         }
     }
     
+    /**
+     * @return data byte at index, unsigned
+     */
+    private static int data(BroadcastDataMessage message, int index) {
+        return message.getUnsignedByte(DATA_OFFSET + index);
+    }
 
-}
\ No newline at end of file
+}
@@ -62,6 +62,16 @@ public class BushidoButtonPressDispatcherTest {
       
     }
 
+    @Override
+    public void onSpeedPowerCadenceChange(double speed, double power, double cadence) {
+      
+    }
+
+    @Override
+    public void onDistanceHeartRateChange(double distance, double heartRate) {
+      
+    }
+
     @Override
     public void onSpeedChange(double speed) {
       // TODO Auto-generated method stub
@@ -0,0 +1,197 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers.bushido.headunit;
+
+import static org.cowboycoders.ant.utils.ArrayUtils.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
+import org.cowboycoders.ant.utils.ArrayUtils;
+
+/**
+ * Compares {@link BushidoBroadcastDataListener} with the prefix matching
+ * decoder it replaced, over the mix of pages a head unit sends. Reports time
+ * and bytes allocated per page; allocation counting needs a HotSpot JVM.
+ *
+ * Run with: java org.cowboycoders.turbotrainers.bushido.headunit.BushidoDecodeBenchmark [pages]
+ */
+public class BushidoDecodeBenchmark {
+
+  private static final byte [][] PAGES = {
+    {(byte) 0xdd, 0x01, 0x00, (byte) 0xfd, 0x00, (byte) 0xd4, 0x5b, 0x00},
+    {(byte) 0xdd, 0x02, 0x00, 0x00, 0x30, 0x39, (byte) 0x8e, 0x00},
+    {(byte) 0xad, 0x01, 0x02, 0x0a, 0x00, 0x00, 0x0a, 0x02},
+    {(byte) 0xdd, 0x10, 0x02, 0x00, 0x00, 0x00, 0x00, 0x00},
+  };
+
+  private static final Byte[] PARTIAL_PACKET_PAUSED = {(byte) 0xAD , 0x01 , 0x03};
+  private static final Byte[] PARTIAL_PACKET_REQUEST_DATA = {(byte) 0xAD, 0x01, 0x02};
+  private static final Byte[] PARTIAL_PACKET_DATA = {(byte) 0xDD};
+  private static final Byte[] PARTIAL_PACKET_SPEED_POWER_CADENCE = {(byte) 0xDD,(byte) 0x01};
+  private static final Byte[] PARTIAL_PACKET_DISTANCE_HEART_RATE = {(byte) 0xDD,(byte) 0x02};
+  private static final Byte[] PARTIAL_PACKET_REQUEST_STATUS = {(byte) 0xAD};
+
+  /**
+   * Sums whatever it is given, so the work isn't optimised away
+   */
+  private static class Sink implements BushidoInternalListener {
+
+    double sum;
+
+    @Override
+    public void onSpeedPowerCadenceChange(double speed, double power, double cadence) {
+      sum += speed + power + cadence;
+    }
+
+    @Override
+    public void onDistanceHeartRateChange(double distance, double heartRate) {
+      sum += distance + heartRate;
+    }
+
+    @Override
+    public void onRequestPauseStatus() {
+      sum++;
+    }
+
+    @Override
+    public void onRequestData() {
+      sum++;
+    }
+
+    @Override
+    public void onRequestKeepAlive() {
+    }
+
+    @Override
+    public void onSpeedChange(double speed) {
+      sum += speed;
+    }
+
+    @Override
+    public void onPowerChange(double power) {
+      sum += power;
+    }
+
+    @Override
+    public void onCadenceChange(double cadence) {
+      sum += cadence;
+    }
+
+    @Override
+    public void onDistanceChange(double distance) {
+      sum += distance;
+    }
+
+    @Override
+    public void onHeartRateChange(double heartRate) {
+      sum += heartRate;
+    }
+
+    @Override
+    public void onButtonPressFinished(BushidoButtonPressDescriptor descriptor) {
+    }
+
+    @Override
+    public void onButtonPressActive(BushidoButtonPressDescriptor descriptor) {
+    }
+
+  }
+
+  private static void legacyDecode(BroadcastDataMessage message, BushidoInternalListener listener) {
+    Byte [] data = message.getData();
+    int [] unsignedData = ArrayUtils.unsignedBytesToInts(data);
+    if (arrayStartsWith(PARTIAL_PACKET_DATA, data)) {
+      data = message.getData();
+      if (arrayStartsWith(PARTIAL_PACKET_SPEED_POWER_CADENCE, data)) {
+        listener.onSpeedChange(((unsignedData [2] << 8) + unsignedData [3]) / 10);
+        listener.onPowerChange((unsignedData [4] << 8) + unsignedData [5]);
+        listener.onCadenceChange(unsignedData [6]);
+      }
+      if (arrayStartsWith(PARTIAL_PACKET_DISTANCE_HEART_RATE, data)) {
+        listener.onDistanceChange(((long)unsignedData [2] << 24) + (unsignedData [3] << 16)
+            + (unsignedData [4] << 8) + unsignedData [5]);
+        listener.onHeartRateChange(unsignedData [6]);
+      }
+    } else if (arrayStartsWith(PARTIAL_PACKET_REQUEST_STATUS, data)) {
+      if (arrayStartsWith(PARTIAL_PACKET_PAUSED, data)) {
+        listener.onRequestPauseStatus();
+      } else if (arrayStartsWith(PARTIAL_PACKET_REQUEST_DATA, data)) {
+        listener.onRequestData();
+      }
+    }
+  }
+
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    return ((com.sun.management.ThreadMXBean) bean)
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static void run(BroadcastDataMessage [] messages, int pages, boolean legacy,
+      boolean report) {
+    Sink sink = new Sink();
+    BushidoBroadcastDataListener listener = new BushidoBroadcastDataListener(sink);
+    long before = allocatedBytes();
+    long start = System.nanoTime();
+    for (int i = 0 ; i < pages ; i++) {
+      BroadcastDataMessage message = messages[i % messages.length];
+      if (legacy) {
+        legacyDecode(message, sink);
+      } else {
+        listener.receiveMessage(message);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    long after = allocatedBytes();
+    if (report) {
+      System.out.printf("  %-8s %6.1f ns/page", legacy ? "legacy" : "table", elapsed
+          / (double) pages);
+      if (before >= 0) {
+        System.out.printf(", %6.1f bytes/page", (after - before) / (double) pages);
+      }
+      System.out.println("  (" + sink.sum + ")");
+    }
+  }
+
+  public static void main(String[] args) {
+    int pages = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+    BroadcastDataMessage [] messages = new BroadcastDataMessage[PAGES.length];
+    for (int i = 0 ; i < messages.length ; i++) {
+      messages[i] = new BroadcastDataMessage();
+      messages[i].setData(PAGES[i]);
+    }
+
+    // warm up
+    for (int i = 0 ; i < 3 ; i++) {
+      run(messages, pages / 10, true, false);
+      run(messages, pages / 10, false, false);
+    }
+
+    System.out.println(pages + " pages");
+    run(messages, pages, true, true);
+    run(messages, pages, false, true);
+  }
+
+}
@@ -43,6 +43,11 @@ import org.cowboycoders.ant.messages.MessageId;
 import org.cowboycoders.ant.messages.MessageMetaWrapper;
 import org.cowboycoders.ant.messages.SlaveChannelType;
 import org.cowboycoders.ant.messages.StandardMessage;
+import org.cowboycoders.ant.messages.config.ChannelAssignMessage;
+import org.cowboycoders.ant.messages.config.ChannelFrequencyMessage;
+import org.cowboycoders.ant.messages.config.ChannelIdMessage;
+import org.cowboycoders.ant.messages.config.ChannelPeriodMessage;
+import org.cowboycoders.ant.messages.config.ChannelSearchTimeoutMessage;
 import org.cowboycoders.ant.messages.data.AcknowledgedDataMessage;
 import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
 import org.cowboycoders.ant.messages.data.DataMessage;
@@ -51,6 +56,7 @@ import org.cowboycoders.ant.utils.ArrayUtils;
 import org.cowboycoders.turbotrainers.AntTurboTrainer;
 import org.cowboycoders.turbotrainers.ChannelMessageSender;
 import org.cowboycoders.turbotrainers.TooFewAntChannelsAvailableException;
+import org.cowboycoders.turbotrainers.TrainerSample;
 import org.cowboycoders.turbotrainers.TurboTrainerDataListener;
 import org.cowboycoders.turbotrainers.bushido.headunit.BushidoButtonPressDescriptor.Button;
 import org.cowboycoders.utils.IterationOperator;
@@ -246,9 +252,8 @@ public class BushidoHeadunit extends AntTurboTrainer {
       synchronized(data) {
         data.setDistance(distance);
         distanceUpdated = true;
-        synchronized(this) {
-          this.notifyAll();
-        }
+        // resetOdometer() waits on the model
+        data.notifyAll();
       }
       synchronized (dataChangeListeners) {
         IterationUtils.operateOnAll(dataChangeListeners, new IterationOperator<TurboTrainerDataListener>() {
@@ -279,6 +284,72 @@ public class BushidoHeadunit extends AntTurboTrainer {
       }
     }
 
+    @Override
+    public void onSpeedPowerCadenceChange(final double speed, final double power,
+        final double cadence) {
+      TrainerSample sample = null;
+      synchronized(data) {
+        data.setSpeed(speed);
+        data.setPower(power);
+        data.setCadence(cadence);
+        if (hasSampleListeners()) {
+          sample = sample();
+        }
+      }
+      if (sample != null) {
+        publishSample(sample);
+      }
+      synchronized (dataChangeListeners) {
+        IterationUtils.operateOnAll(dataChangeListeners, new IterationOperator<TurboTrainerDataListener>() {
+          @Override
+          public void performOperation(TurboTrainerDataListener dcl) {
+            dcl.onSpeedChange(speed);
+            dcl.onPowerChange(power);
+            dcl.onCadenceChange(cadence);
+          }
+          
+        });
+      }
+    }
+
+    @Override
+    public void onDistanceHeartRateChange(final double distance, final double heartRate) {
+      final double compensatedDistance;
+      TrainerSample sample = null;
+      synchronized(data) {
+        data.setDistance(distance);
+        data.setHearRate(heartRate);
+        compensatedDistance = data.getCompensatedDistance();
+        if (hasSampleListeners()) {
+          sample = sample();
+        }
+        distanceUpdated = true;
+        // resetOdometer() waits on the model
+        data.notifyAll();
+      }
+      if (sample != null) {
+        publishSample(sample);
+      }
+      synchronized (dataChangeListeners) {
+        IterationUtils.operateOnAll(dataChangeListeners, new IterationOperator<TurboTrainerDataListener>() {
+          @Override
+          public void performOperation(TurboTrainerDataListener dcl) {
+            dcl.onDistanceChange(compensatedDistance);
+            dcl.onHeartRateChange(heartRate);
+          }
+          
+        });
+      }
+    }
+
+    /**
+     * Should hold lock on data
+     */
+    private TrainerSample sample() {
+      return new TrainerSample(data.getSpeed(), data.getPower(), data.getCadence(),
+          data.getCompensatedDistance(), data.getHeartRate(), System.nanoTime());
+    }
+
     @Override
     public void onRequestPauseStatus() {
       try {
@@ -436,17 +507,11 @@ public class BushidoHeadunit extends AntTurboTrainer {
     }
     channel.setName("C:BUSHIDO");
     SlaveChannelType channelType = new SlaveChannelType();
-    channel.assign("N:PUBLIC", channelType);
-    
-    channel.setId(0, 0x52, 0, false);
-    
-    channel.setFrequency(60);
-    
-    channel.setPeriod(4096);
-    
-    channel.setSearchTimeout(255);
-    
-    channel.open();
+    channel.assignAndOpen("N:PUBLIC", new ChannelAssignMessage(channelType),
+        new ChannelIdMessage(0, 0, 0x52, 0, false),
+        new ChannelFrequencyMessage(0, 60),
+        new ChannelPeriodMessage(0, 4096),
+        new ChannelSearchTimeoutMessage(0, 255));
     
     channelMessageSender = new ChannelMessageSender() {
 
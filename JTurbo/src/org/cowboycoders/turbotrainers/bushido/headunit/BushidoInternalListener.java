@@ -33,6 +33,19 @@ interface BushidoInternalListener extends TurboTrainerDataListener, BushidoButto
   void onRequestData();
   
   void onRequestKeepAlive();
+  
+  /**
+   * A speed, power and cadence page, instead of a call to each of
+   * {@link #onSpeedChange(double)}, {@link #onPowerChange(double)} and
+   * {@link #onCadenceChange(double)}
+   */
+  void onSpeedPowerCadenceChange(double speed, double power, double cadence);
+  
+  /**
+   * A distance and heart rate page, instead of a call to each of
+   * {@link #onDistanceChange(double)} and {@link #onHeartRateChange(double)}
+   */
+  void onDistanceHeartRateChange(double distance, double heartRate);
    
 
 }
@@ -0,0 +1,117 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers.fec;
+
+import org.cowboycoders.ant.events.BroadcastListener;
+import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
+
+/**
+ * Decodes the FE-C general fitness equipment (0x10) and specific trainer
+ * data (0x19) pages straight out of the message payload. Distance is
+ * accumulated across the one byte rollover of the page, or integrated from
+ * speed if the trainer doesn't report it.
+ *
+ * Not thread safe: pages are decoded on the node's receive thread.
+ */
+public class FecBroadcastDataListener implements BroadcastListener<BroadcastDataMessage> {
+
+  static final int PAGE_GENERAL = 0x10;
+  static final int PAGE_TRAINER = 0x19;
+
+  /**
+   * Capabilities nibble of the general page
+   */
+  static final int CAPABILITY_DISTANCE = 0x04;
+
+  static final int INVALID_BYTE = 0xff;
+  static final int INVALID_POWER = 0xfff;
+
+  /**
+   * Data bytes follow the channel number in the payload
+   */
+  private static final int DATA_OFFSET = 1;
+
+  private static final int DATA_LENGTH = 8;
+
+  /**
+   * elapsed time is in 0.25s units
+   */
+  private static final double ELAPSED_TIME_UNIT = 0.25;
+
+  private final FecInternalListener fecListener;
+
+  private boolean started;
+  private int lastElapsed;
+  private int lastDistance;
+
+  /**
+   * in m
+   */
+  private double distance;
+
+  public FecBroadcastDataListener(FecInternalListener fecListener) {
+    this.fecListener = fecListener;
+  }
+
+  @Override
+  public void receiveMessage(BroadcastDataMessage message) {
+    if (message.getStandardPayloadLength() < DATA_OFFSET + DATA_LENGTH) {
+      return;
+    }
+    switch (data(message, 0)) {
+      case PAGE_GENERAL: {
+        int elapsed = data(message, 2);
+        int metres = data(message, 3);
+        // speed in 0.001 m/s
+        double speed = (data(message, 4) | data(message, 5) << 8) * 3.6 / 1000;
+        int heartRate = data(message, 6);
+        if (started) {
+          if ((data(message, 7) & CAPABILITY_DISTANCE) != 0) {
+            distance += (metres - lastDistance) & 0xff;
+          } else {
+            distance += speed / 3.6 * ((elapsed - lastElapsed) & 0xff) * ELAPSED_TIME_UNIT;
+          }
+        }
+        started = true;
+        lastElapsed = elapsed;
+        lastDistance = metres;
+        fecListener.onGeneralData(speed, distance, heartRate == INVALID_BYTE ? 0 : heartRate);
+        break;
+      }
+      case PAGE_TRAINER: {
+        int cadence = data(message, 2);
+        int power = data(message, 5) | (data(message, 6) & 0x0f) << 8;
+        if (power == INVALID_POWER) {
+          power = 0;
+        }
+        fecListener.onTrainerData(power, cadence == INVALID_BYTE ? 0 : cadence);
+        break;
+      }
+    }
+  }
+
+  /**
+   * @return data byte at index, unsigned
+   */
+  private static int data(BroadcastDataMessage message, int index) {
+    return message.getUnsignedByte(DATA_OFFSET + index);
+  }
+
+}
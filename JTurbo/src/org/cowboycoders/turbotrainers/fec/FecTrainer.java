@@ -0,0 +1,476 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers.fec;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import org.cowboycoders.ant.Channel;
+import org.cowboycoders.ant.NetworkKey;
+import org.cowboycoders.ant.Node;
+import org.cowboycoders.ant.events.MessageCondition;
+import org.cowboycoders.ant.events.MessageConditionFactory;
+import org.cowboycoders.ant.messages.MessageId;
+import org.cowboycoders.ant.messages.SlaveChannelType;
+import org.cowboycoders.ant.messages.StandardMessage;
+import org.cowboycoders.ant.messages.config.ChannelAssignMessage;
+import org.cowboycoders.ant.messages.config.ChannelFrequencyMessage;
+import org.cowboycoders.ant.messages.config.ChannelIdMessage;
+import org.cowboycoders.ant.messages.config.ChannelPeriodMessage;
+import org.cowboycoders.ant.messages.config.ChannelSearchTimeoutMessage;
+import org.cowboycoders.ant.messages.data.AcknowledgedDataMessage;
+import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
+import org.cowboycoders.ant.messages.responses.ResponseCode;
+import org.cowboycoders.turbotrainers.AntTurboTrainer;
+import org.cowboycoders.turbotrainers.RidePhysics;
+import org.cowboycoders.turbotrainers.TooFewAntChannelsAvailableException;
+import org.cowboycoders.turbotrainers.TrainerSample;
+import org.cowboycoders.turbotrainers.TurboTrainerDataListener;
+
+/**
+ * Any trainer implementing the ANT+ fitness equipment control (FE-C) profile.
+ *
+ * Data and control share one slave channel. The trainer's general and
+ * specific trainer pages are decoded as they arrive. The slope is sent as a
+ * track resistance page in an acknowledged message, from a single control
+ * thread, and only when it changes: a slope set while a page is in flight
+ * replaces any waiting to go, so the trainer always ends up with the latest.
+ * A failed page is resent up to {@link #setMaxRetries(int)} times before
+ * backing off. With {@link #setVirtualSpeed(boolean)}, speed and distance are
+ * ridden out of the power pages by {@link RidePhysics}.
+ */
+public class FecTrainer extends AntTurboTrainer {
+
+  public final static Logger LOGGER = Logger.getLogger(FecTrainer.class.getName());
+
+  public static final int DEVICE_TYPE = 0x11;
+
+  public static final int CHANNEL_FREQUENCY = 57;
+
+  public static final int CHANNEL_PERIOD = 8192;
+
+  public static final int DEFAULT_MAX_RETRIES = 3;
+
+  static final int PAGE_TRACK_RESISTANCE = 0x33;
+
+  /**
+   * grade is sent in 0.01% units, offset by -200%
+   */
+  static final double GRADE_RESOLUTION = 0.01;
+
+  static final double GRADE_OFFSET = 200;
+
+  /**
+   * an acknowledged message goes out in the next channel period, so this is
+   * a couple of periods
+   */
+  private static final long ACK_TIMEOUT_MS = 1000;
+
+  /**
+   * wait after running out of retries, before trying the latest slope again
+   */
+  private static final long RETRY_BACKOFF_MS = 1000;
+
+  private static final int NO_GRADE = -1;
+
+  private static final MessageCondition CONDITION_TRANSFER_COMPLETED =
+      MessageConditionFactory.newResponseCondition(MessageId.EVENT, ResponseCode.EVENT_TRANSFER_TX_COMPLETED);
+
+  private static final MessageCondition CONDITION_TRANSFER_FAILED =
+      MessageConditionFactory.newResponseCondition(MessageId.EVENT, ResponseCode.EVENT_TRANSFER_TX_FAILED);
+
+  private static final MessageCondition CONDITION_TRANSFER_FINISHED = new MessageCondition() {
+
+    @Override
+    public boolean test(StandardMessage msg) {
+      return CONDITION_TRANSFER_COMPLETED.test(msg) || CONDITION_TRANSFER_FAILED.test(msg);
+    }
+
+  };
+
+  private final Node node;
+  private final NetworkKey key;
+  private Channel channel;
+  private FecBroadcastDataListener dataListener;
+
+  private final List<TurboTrainerDataListener> dataChangeListeners =
+      new CopyOnWriteArrayList<TurboTrainerDataListener>();
+
+  // only touched on the node's receive thread
+  private double speed;
+  private double power;
+  private double cadence;
+  private double distance;
+  private double heartRate;
+
+  /**
+   * rider and bike for the virtual speed, only touched on the node's receive
+   * thread
+   */
+  private final RidePhysics physics = new RidePhysics();
+  private long lastPowerNanos;
+  private boolean riding;
+
+  private volatile boolean virtualSpeed;
+  private volatile double mass = RidePhysics.DEFAULT_MASS;
+
+  private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+
+  // guarded by this
+  private ScheduledExecutorService controlExecutor;
+  private double slope;
+  private int targetGrade = NO_GRADE;
+  private int acknowledgedGrade = NO_GRADE;
+  private boolean sending;
+
+  // only written on the control thread
+  private volatile int commandsSent;
+  private volatile int commandRetries;
+  private volatile int commandFailures;
+
+  private final Runnable gradeSender = new Runnable() {
+
+    @Override
+    public void run() {
+      while (true) {
+        int grade;
+        synchronized (FecTrainer.this) {
+          grade = targetGrade;
+          if (grade == acknowledgedGrade || controlExecutor == null) {
+            sending = false;
+            return;
+          }
+        }
+        boolean acknowledged;
+        try {
+          acknowledged = sendAcknowledged(trackResistancePage(grade));
+        } catch (InterruptedException e) {
+          synchronized (FecTrainer.this) {
+            sending = false;
+          }
+          return;
+        }
+        synchronized (FecTrainer.this) {
+          if (!acknowledged) {
+            commandFailures++;
+            LOGGER.warning("track resistance page not acknowledged, backing off");
+            if (controlExecutor == null) {
+              sending = false;
+            } else {
+              controlExecutor.schedule(this, RETRY_BACKOFF_MS, TimeUnit.MILLISECONDS);
+            }
+            return;
+          }
+          acknowledgedGrade = grade;
+        }
+      }
+    }
+
+  };
+
+  private final FecInternalListener fecListener = new FecInternalListener() {
+
+    @Override
+    public void onGeneralData(double speed, double distance, double heartRate) {
+      FecTrainer.this.heartRate = heartRate;
+      if (virtualSpeed) {
+        // speed and distance come from the power pages
+        for (TurboTrainerDataListener listener : dataChangeListeners) {
+          listener.onHeartRateChange(heartRate);
+        }
+      } else {
+        FecTrainer.this.speed = speed;
+        FecTrainer.this.distance = distance;
+        for (TurboTrainerDataListener listener : dataChangeListeners) {
+          listener.onSpeedChange(speed);
+          listener.onDistanceChange(distance);
+          listener.onHeartRateChange(heartRate);
+        }
+      }
+      if (hasSampleListeners()) {
+        publishSample(sample());
+      }
+    }
+
+    @Override
+    public void onTrainerData(double power, double cadence) {
+      FecTrainer.this.power = power;
+      FecTrainer.this.cadence = cadence;
+      boolean virtual = virtualSpeed;
+      if (virtual) {
+        ride(power, System.nanoTime());
+      }
+      for (TurboTrainerDataListener listener : dataChangeListeners) {
+        listener.onPowerChange(power);
+        listener.onCadenceChange(cadence);
+        if (virtual) {
+          listener.onSpeedChange(speed);
+          listener.onDistanceChange(distance);
+        }
+      }
+      if (hasSampleListeners()) {
+        publishSample(sample());
+      }
+    }
+
+  };
+
+  public FecTrainer(Node node) {
+    super(node);
+    this.node = node;
+    this.key = new NetworkKey(0xB9, 0xA5, 0x21, 0xFB, 0xBD, 0x72, 0xC3, 0x45);
+    key.setName("N:ANT+");
+  }
+
+  /**
+   * Moves the virtual rider on by the time since the last power page, at the
+   * power and slope it was ridden at, then takes up the new power
+   */
+  private void ride(double power, long nanos) {
+    if (riding) {
+      physics.advance(nanos - lastPowerNanos, TimeUnit.NANOSECONDS);
+    }
+    riding = true;
+    lastPowerNanos = nanos;
+    physics.setMass(mass);
+    physics.setGradient(getSlope());
+    physics.setPower(power);
+    // km/h
+    speed = physics.getSpeed() * 3.6;
+    distance = physics.getDistance();
+  }
+
+  private TrainerSample sample() {
+    return new TrainerSample(speed, power, cadence, distance, heartRate, System.nanoTime());
+  }
+
+  /**
+   * @param maxRetries number of times a failed track resistance page is
+   *          resent before backing off, 0 for none
+   */
+  public void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+
+  /**
+   * Works out speed and distance from the power and slope, as a rider on the
+   * road would go, instead of taking them from the trainer. For trainers
+   * that only measure power, or whose own speed is just the flywheel's.
+   * Set before {@link #start()}.
+   */
+  public void setVirtualSpeed(boolean virtualSpeed) {
+    this.virtualSpeed = virtualSpeed;
+  }
+
+  /**
+   * @param mass of rider and bike in kg, for the virtual speed
+   */
+  public void setMass(double mass) {
+    this.mass = mass;
+  }
+
+  /**
+   * @return number of track resistance pages sent, including retries
+   */
+  public int getCommandsSent() {
+    return commandsSent;
+  }
+
+  /**
+   * @return number of track resistance pages resent after a failure
+   */
+  public int getCommandRetries() {
+    return commandRetries;
+  }
+
+  /**
+   * @return number of times the retries ran out
+   */
+  public int getCommandFailures() {
+    return commandFailures;
+  }
+
+  @Override
+  public void start() throws InterruptedException, TimeoutException {
+    node.start();
+    node.setNetworkKey(0, key);
+    channel = node.getFreeChannel();
+
+    if (channel == null) {
+      throw new TooFewAntChannelsAvailableException();
+    }
+    channel.setName("C:FEC");
+    SlaveChannelType channelType = new SlaveChannelType();
+    channel.assignAndOpen(key.getName(), new ChannelAssignMessage(channelType),
+        new ChannelIdMessage(0, 0, DEVICE_TYPE, 0, false),
+        new ChannelFrequencyMessage(0, CHANNEL_FREQUENCY),
+        new ChannelPeriodMessage(0, CHANNEL_PERIOD),
+        new ChannelSearchTimeoutMessage(0, 255));
+
+    physics.reset();
+    riding = false;
+    dataListener = new FecBroadcastDataListener(fecListener);
+    channel.registerRxListener(dataListener, BroadcastDataMessage.class);
+
+    synchronized (this) {
+      controlExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "FecTrainer");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      // slope may have been set before we started
+      if (targetGrade != NO_GRADE && !sending) {
+        sending = true;
+        controlExecutor.execute(gradeSender);
+      }
+    }
+  }
+
+  @Override
+  public void stop() throws InterruptedException, TimeoutException {
+    ScheduledExecutorService executor;
+    synchronized (this) {
+      executor = controlExecutor;
+      controlExecutor = null;
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+      executor.awaitTermination(ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+    synchronized (this) {
+      // shutdownNow() drops a resend waiting out its back off, which would
+      // otherwise have cleared this
+      if (controlExecutor == null) {
+        sending = false;
+      }
+    }
+    channel.removeRxListener(dataListener);
+    channel.close();
+    channel.unassign();
+    node.freeChannel(channel);
+    // let external controller stop node
+  }
+
+  /**
+   * @param gradient in percent
+   */
+  @Override
+  public void setSlope(double gradient) {
+    int grade = encodeGrade(gradient);
+    synchronized (this) {
+      slope = gradient;
+      targetGrade = grade;
+      if (sending || controlExecutor == null || grade == acknowledgedGrade) {
+        return;
+      }
+      sending = true;
+      controlExecutor.execute(gradeSender);
+    }
+  }
+
+  @Override
+  public synchronized double getSlope() {
+    return slope;
+  }
+
+  /**
+   * Sends page, resending it on a failed transfer up to maxRetries times
+   *
+   * @return true if the trainer acknowledged it
+   */
+  private boolean sendAcknowledged(byte [] page) throws InterruptedException {
+    AcknowledgedDataMessage msg = new AcknowledgedDataMessage();
+    msg.setData(page);
+    for (int attempt = 0 ; ; attempt++) {
+      commandsSent++;
+      try {
+        StandardMessage response = channel.sendAndWaitForAck(msg, CONDITION_TRANSFER_FINISHED,
+            ACK_TIMEOUT_MS, TimeUnit.MILLISECONDS, null, null);
+        if (CONDITION_TRANSFER_COMPLETED.test(response)) {
+          return true;
+        }
+      } catch (TimeoutException e) {
+        LOGGER.finer("sendAcknowledged : timeout");
+      }
+      if (attempt >= maxRetries) {
+        return false;
+      }
+      commandRetries++;
+    }
+  }
+
+  /**
+   * @param gradient in percent
+   * @return gradient in 0.01% units offset by 200%, clamped to the page's range
+   */
+  static int encodeGrade(double gradient) {
+    gradient = Math.max(-GRADE_OFFSET, Math.min(GRADE_OFFSET, gradient));
+    return (int) Math.round((gradient + GRADE_OFFSET) / GRADE_RESOLUTION);
+  }
+
+  /**
+   * Track resistance page, leaving the coefficient of rolling resistance to
+   * the trainer
+   */
+  static byte [] trackResistancePage(int grade) {
+    return new byte [] {(byte) PAGE_TRACK_RESISTANCE, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+        (byte) 0xff, (byte) grade, (byte) (grade >> 8), (byte) 0xff};
+  }
+
+  @Override
+  public void registerDataListener(TurboTrainerDataListener listener) {
+    dataChangeListeners.add(listener);
+  }
+
+  @Override
+  public void unregisterDataListener(TurboTrainerDataListener listener) {
+    dataChangeListeners.remove(listener);
+  }
+
+  @Override
+  public boolean supportsSpeed() {
+    return true;
+  }
+
+  @Override
+  public boolean supportsPower() {
+    return true;
+  }
+
+  @Override
+  public boolean supportsCadence() {
+    return true;
+  }
+
+  @Override
+  public boolean supportsHeartRate() {
+    return true;
+  }
+
+}
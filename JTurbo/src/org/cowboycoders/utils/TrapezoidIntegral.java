@@ -19,15 +19,21 @@
 */
 package org.cowboycoders.utils;
 
+/**
+ * Running integral of y over x by the trapezium rule, for samples added in
+ * order of x
+ */
 public class TrapezoidIntegral {
   
-  Double lastY;
-  Double lastX;
+  boolean started;
+  double lastY;
+  double lastX;
   
   double integral = 0;
   
   public double add(double x, double y) {
-    if (lastY == null) {
+    if (!started) {
+      started = true;
       lastY = y;
       lastX = x;
       return 0;
@@ -38,6 +44,14 @@ public class TrapezoidIntegral {
     return integral;
   }
   
+  /**
+   * Back to zero, waiting for a first sample
+   */
+  public void reset() {
+    started = false;
+    integral = 0;
+  }
+
 
   /**
    * @return the integral
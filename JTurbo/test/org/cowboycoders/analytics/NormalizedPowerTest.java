@@ -0,0 +1,100 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.analytics;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class NormalizedPowerTest {
+
+  /**
+   * Straight from the definition, for one sample a second
+   */
+  private static double reference(double [] powers) {
+    double sum = 0;
+    int count = 0;
+    for (int i = NormalizedPower.ROLLING_SECONDS - 1 ; i < powers.length ; i++) {
+      double rolling = 0;
+      for (int j = i - NormalizedPower.ROLLING_SECONDS + 1 ; j <= i ; j++) {
+        rolling += powers[j];
+      }
+      rolling /= NormalizedPower.ROLLING_SECONDS;
+      sum += Math.pow(rolling, 4);
+      count++;
+    }
+    return Math.pow(sum / count, 0.25);
+  }
+
+  @Test
+  public void testConstantPower() {
+    NormalizedPower np = new NormalizedPower(TimeUnit.MILLISECONDS);
+    for (int i = 0 ; i <= 600 ; i++) {
+      np.add(i * 250, 200);
+    }
+    assertEquals(200, np.getNormalizedPower(), 1e-9);
+  }
+
+  @Test
+  public void testNothingUntilThirtySeconds() {
+    NormalizedPower np = new NormalizedPower(TimeUnit.SECONDS);
+    for (int i = 0 ; i < NormalizedPower.ROLLING_SECONDS ; i++) {
+      np.add(i, 300);
+      assertEquals(0, np.getNormalizedPower(), 0.0);
+    }
+    np.add(NormalizedPower.ROLLING_SECONDS, 300);
+    assertEquals(300, np.getNormalizedPower(), 1e-9);
+  }
+
+  @Test
+  public void testMatchesDefinitionAtOneHertz() {
+    Random random = new Random(0);
+    double [] powers = new double[3600];
+    NormalizedPower np = new NormalizedPower(TimeUnit.NANOSECONDS);
+    long origin = System.nanoTime();
+    for (int i = 0 ; i < powers.length ; i++) {
+      powers[i] = random.nextInt(500);
+      np.add(origin + TimeUnit.SECONDS.toNanos(i), powers[i]);
+    }
+    // closes the last second
+    np.add(origin + TimeUnit.SECONDS.toNanos(powers.length), 0);
+    assertEquals(reference(powers), np.getNormalizedPower(), 1e-6);
+  }
+
+  @Test
+  public void testSurgesCountForMoreThanTheirAverage() {
+    NormalizedPower np = new NormalizedPower(TimeUnit.MILLISECONDS);
+    WorkIntegral work = new WorkIntegral(TimeUnit.MILLISECONDS);
+    // a minute at 400W then a minute resting, for an hour, at 4Hz
+    for (int i = 0 ; i <= 3600 * 4 ; i++) {
+      long time = i * 250L;
+      double power = (time / 60000) % 2 == 0 ? 400 : 0;
+      np.add(time, power);
+      work.addPower(time, power);
+    }
+    double average = work.getJoules() / 3600;
+    assertEquals(200, average, 1);
+    assertTrue(np.getNormalizedPower() > average * 1.3);
+  }
+
+}
@@ -0,0 +1,89 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.analytics;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.cowboycoders.turbotrainers.TrainerSample;
+import org.junit.Test;
+
+public class RideAnalyticsTest {
+
+  private static TrainerSample sample(long time, double speed, double power, double cadence) {
+    return new TrainerSample(speed, power, cadence, 0, 0, time);
+  }
+
+  @Test
+  public void testExponentialAverageDecaysWithTime() {
+    ExponentialAverage average = new ExponentialAverage(1000);
+    average.add(0, 10);
+    assertEquals(10, average.getAverage(), 0.0);
+    average.add(1000, 20);
+    assertEquals(10 + 10 * (1 - Math.exp(-1)), average.getAverage(), 1e-9);
+
+    // the same time in small steps gets to the same place
+    ExponentialAverage stepped = new ExponentialAverage(1000);
+    stepped.add(0, 10);
+    for (int t = 100 ; t <= 1000 ; t += 100) {
+      stepped.add(t, 20);
+    }
+    assertEquals(10 + 10 * (1 - Math.exp(-1)), stepped.getAverage(), 1e-9);
+  }
+
+  @Test
+  public void testWorkIntegral() {
+    WorkIntegral work = new WorkIntegral(TimeUnit.NANOSECONDS);
+    long origin = Long.MAX_VALUE / 2;
+    for (int i = 0 ; i <= 3600 ; i++) {
+      work.addPower(origin + TimeUnit.SECONDS.toNanos(i), 250);
+    }
+    assertEquals(900, work.getKilojoules(), 1e-6);
+    work.reset();
+    assertEquals(0, work.getJoules(), 0.0);
+    assertEquals(0, work.addPower(0, 100), 0.0);
+  }
+
+  @Test
+  public void testRideAnalytics() {
+    RideAnalytics analytics = new RideAnalytics();
+    long origin = System.nanoTime();
+    // 10 minutes at 4Hz: 200W with a 10s surge to 600W at the end
+    int samples = 10 * 60 * 4;
+    for (int i = 0 ; i <= samples ; i++) {
+      double power = i > samples - 40 ? 600 : 200;
+      analytics.onSample(sample(origin + TimeUnit.MILLISECONDS.toNanos(i * 250L), 30, power, 90));
+    }
+    assertEquals(600, analytics.getThreeSecondPower(), 1e-9);
+    assertEquals(600, analytics.getThirtySecondMaxPower(), 0.0);
+    assertEquals(200, analytics.getThirtySecondMinPower(), 0.0);
+    assertEquals((80 * 200 + 40 * 600) / 120.0, analytics.getThirtySecondPower(), 1e-9);
+    assertEquals(30, analytics.getSmoothedSpeed(), 1e-9);
+    assertEquals(90, analytics.getSmoothedCadence(), 1e-9);
+    assertTrue(analytics.getNormalizedPower() > 200);
+    assertEquals((590 * 200 + 10 * 600) / 1000.0, analytics.getKilojoules(), 0.5);
+
+    analytics.clear();
+    assertEquals(0, analytics.getKilojoules(), 0.0);
+    assertEquals(0, analytics.getThreeSecondPower(), 0.0);
+  }
+
+}
@@ -0,0 +1,114 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.analytics;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RollingWindowTest {
+
+  private static final double DELTA = 1e-9;
+
+  /**
+   * Compares against a scan of every sample still in the window
+   */
+  private static void check(RollingWindow window, long [] times, double [] values, int added,
+      long span, int capacity) {
+    long now = times[added - 1];
+    int count = 0;
+    double sum = 0;
+    double min = Double.MAX_VALUE;
+    double max = -Double.MAX_VALUE;
+    for (int i = Math.max(0, added - capacity) ; i < added ; i++) {
+      if (span != RollingWindow.UNBOUNDED && now - times[i] >= span) {
+        continue;
+      }
+      count++;
+      sum += values[i];
+      min = Math.min(min, values[i]);
+      max = Math.max(max, values[i]);
+    }
+    assertEquals(count, window.getCount());
+    assertEquals(sum / count, window.getAverage(), DELTA);
+    assertEquals(min, window.getMin(), 0.0);
+    assertEquals(max, window.getMax(), 0.0);
+  }
+
+  private static void compare(long span, int capacity, int samples, long seed) {
+    Random random = new Random(seed);
+    long [] times = new long[samples];
+    double [] values = new double[samples];
+    RollingWindow window = new RollingWindow(span, capacity);
+    long time = 0;
+    for (int i = 0 ; i < samples ; i++) {
+      time += random.nextInt(500);
+      times[i] = time;
+      // plenty of ties and runs for the deques
+      values[i] = random.nextInt(20);
+      window.add(time, values[i]);
+      check(window, times, values, i + 1, span, capacity);
+    }
+  }
+
+  @Test
+  public void testMatchesScanOverTimeWindow() {
+    compare(3000, 1000, 5000, 0);
+  }
+
+  @Test
+  public void testMatchesScanWhenCapacityLimits() {
+    compare(3000, 4, 5000, 1);
+  }
+
+  @Test
+  public void testUnboundedHoldsLastSamples() {
+    compare(RollingWindow.UNBOUNDED, 10, 1000, 2);
+    RollingWindow window = new RollingWindow(RollingWindow.UNBOUNDED, 3);
+    window.add(0, 1);
+    window.add(0, 2);
+    assertFalse(window.isFull());
+    window.add(0, 3);
+    assertTrue(window.isFull());
+    window.add(0, 7);
+    assertEquals(4, window.getAverage(), DELTA);
+    assertEquals(2, window.getMin(), 0.0);
+  }
+
+  @Test
+  public void testExpiresWithoutNewSamples() {
+    RollingWindow window = new RollingWindow(10, 100);
+    window.add(0, 5);
+    window.add(5, 1);
+    window.expire(12);
+    assertEquals(1, window.getCount());
+    assertEquals(1, window.getMax(), 0.0);
+    window.expire(15);
+    assertEquals(0, window.getCount());
+    assertEquals(0, window.getAverage(), 0.0);
+    window.add(20, 3);
+    assertEquals(3, window.getMin(), 0.0);
+    window.clear();
+    assertEquals(0, window.getCount());
+  }
+
+}
@@ -0,0 +1,199 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cowboycoders.ant.events.BroadcastMessenger;
+import org.cowboycoders.ant.events.BurstListener;
+import org.cowboycoders.ant.interfaces.AntChipInterface;
+import org.cowboycoders.ant.interfaces.AntStatusUpdate;
+import org.cowboycoders.ant.messages.AntMessageFactory;
+import org.cowboycoders.ant.messages.MessageException;
+import org.cowboycoders.ant.messages.data.BurstData;
+import org.cowboycoders.ant.utils.BurstMessageSequenceGenerator;
+import org.junit.Test;
+
+public class BurstEngineTest {
+
+  private static class RecordingChip implements AntChipInterface {
+
+    List<byte []> sent = new ArrayList<byte []>();
+
+    @Override
+    public boolean start() {
+      return true;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void registerRxMesenger(BroadcastMessenger<byte[]> rxMessenger) {
+    }
+
+    @Override
+    public void registerStatusMessenger(BroadcastMessenger<AntStatusUpdate> statusMessenger) {
+    }
+
+    @Override
+    public void send(byte[] message) {
+      sent.add(message.clone());
+    }
+
+    @Override
+    public AntStatusUpdate getStatus() {
+      return null;
+    }
+
+    @Override
+    public boolean isRunning() {
+      return true;
+    }
+
+  }
+
+  private static class RecordingListener implements BurstListener {
+
+    List<byte []> bursts = new ArrayList<byte []>();
+    int channelNumber = -1;
+
+    @Override
+    public void receiveBurst(int channelNumber, ByteBuffer data) {
+      this.channelNumber = channelNumber;
+      byte [] copy = new byte[data.remaining()];
+      data.get(copy);
+      bursts.add(copy);
+    }
+
+  }
+
+  private static byte [] data(int length) {
+    byte [] rtn = new byte[length];
+    for (int i = 0 ; i < length ; i++) {
+      rtn[i] = (byte) (i * 7 + 1);
+    }
+    return rtn;
+  }
+
+  private static List<byte []> packetise(int channelNumber, byte [] data) {
+    RecordingChip chip = new RecordingChip();
+    new BurstEngine().transmit(new Node(chip), channelNumber, ByteBuffer.wrap(data));
+    return chip.sent;
+  }
+
+  private static void feed(BurstEngine engine, byte [] frame) throws MessageException {
+    engine.receive((BurstData) AntMessageFactory.createMessage(frame));
+  }
+
+  @Test
+  public void test_sequenceMatchesGenerator() {
+    for (int packets = 1 ; packets < 12 ; packets++) {
+      BurstMessageSequenceGenerator generator = new BurstMessageSequenceGenerator();
+      for (int i = 0 ; i < packets - 1 ; i++) {
+        assertEquals(generator.next(), BurstEngine.sequenceOf(i, false));
+      }
+      assertEquals(generator.finish(), BurstEngine.sequenceOf(packets - 1, true));
+    }
+  }
+
+  @Test
+  public void test_packetisation() throws MessageException {
+    List<byte []> frames = packetise(3, data(20));
+    assertEquals(3, frames.size());
+    int [] channelBytes = {0x03, 0x23, 0xc3};
+    for (int i = 0 ; i < frames.size() ; i++) {
+      byte [] frame = frames.get(i);
+      assertEquals(11, frame.length);
+      assertEquals(0x50, frame[1]);
+      assertEquals(channelBytes[i], frame[2] & 0xff);
+      BurstData msg = (BurstData) AntMessageFactory.createMessage(frame);
+      assertEquals(3, msg.getChannelNumber());
+    }
+    // last packet is zero padded
+    byte [] last = frames.get(2);
+    assertEquals(data(20)[19], last[6]);
+    for (int i = 7 ; i < 11 ; i++) {
+      assertEquals(0, last[i]);
+    }
+    // an empty burst still sends a single, final packet
+    frames = packetise(0, new byte[0]);
+    assertEquals(1, frames.size());
+    assertEquals(0x80, frames.get(0)[2] & 0xff);
+  }
+
+  @Test
+  public void test_reassembly() throws MessageException {
+    BurstEngine engine = new BurstEngine();
+    RecordingListener listener = new RecordingListener();
+    engine.addListener(listener);
+    // larger than the initial buffer
+    byte [] sent = data(2000);
+    for (byte [] frame : packetise(5, sent)) {
+      feed(engine, frame);
+    }
+    assertEquals(1, listener.bursts.size());
+    assertEquals(5, listener.channelNumber);
+    assertArrayEquals(sent, listener.bursts.get(0));
+
+    for (byte [] frame : packetise(5, data(8))) {
+      feed(engine, frame);
+    }
+    assertEquals(2, listener.bursts.size());
+    assertArrayEquals(data(8), listener.bursts.get(1));
+
+    BurstStatistics stats = engine.getStatistics();
+    assertEquals(2, stats.getBurstsReceived());
+    assertEquals(2008, stats.getBytesReceived());
+    assertEquals(0, stats.getBurstsDropped());
+  }
+
+  @Test
+  public void test_missingPacketDropsBurst() throws MessageException {
+    BurstEngine engine = new BurstEngine();
+    RecordingListener listener = new RecordingListener();
+    engine.addListener(listener);
+
+    List<byte []> frames = packetise(1, data(40));
+    frames.remove(2);
+    for (byte [] frame : frames) {
+      feed(engine, frame);
+    }
+    assertEquals(0, listener.bursts.size());
+    assertEquals(1, engine.getStatistics().getBurstsDropped());
+
+    // a burst cut short by the start of the next one
+    frames = packetise(1, data(40));
+    feed(engine, frames.get(0));
+    feed(engine, frames.get(1));
+    for (byte [] frame : packetise(1, data(16))) {
+      feed(engine, frame);
+    }
+    assertEquals(1, listener.bursts.size());
+    assertArrayEquals(data(16), listener.bursts.get(0));
+    assertEquals(2, engine.getStatistics().getBurstsDropped());
+  }
+
+}
@@ -0,0 +1,174 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.cowboycoders.ant.events.BroadcastMessenger;
+import org.cowboycoders.ant.interfaces.AntChipInterface;
+import org.cowboycoders.ant.interfaces.AntStatusUpdate;
+import org.cowboycoders.ant.messages.ChannelMessage;
+import org.cowboycoders.ant.messages.MessageId;
+import org.cowboycoders.ant.messages.SlaveChannelType;
+import org.cowboycoders.ant.messages.config.ChannelAssignMessage;
+import org.cowboycoders.ant.messages.config.ChannelFrequencyMessage;
+import org.cowboycoders.ant.messages.config.ChannelIdMessage;
+import org.cowboycoders.ant.messages.config.ChannelPeriodMessage;
+import org.cowboycoders.ant.messages.config.ChannelSearchTimeoutMessage;
+import org.cowboycoders.ant.messages.responses.ResponseCode;
+import org.junit.Test;
+
+public class ChannelPipelineTest {
+
+  /**
+   * Answers commands with a channel response. Responses are held back until
+   * {@code batch} commands have arrived, so a setup only completes if the
+   * commands were sent without waiting for each other.
+   */
+  private static class ResponderChip implements AntChipInterface {
+
+    BroadcastMessenger<byte []> rxMessenger;
+    final List<byte []> held = new ArrayList<byte []>();
+    final List<Byte> commands = new ArrayList<Byte>();
+    int batch = 1;
+    byte reject = -1;
+    boolean silent;
+
+    @Override
+    public boolean start() {
+      return true;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void registerRxMesenger(BroadcastMessenger<byte[]> rxMessenger) {
+      this.rxMessenger = rxMessenger;
+    }
+
+    @Override
+    public void registerStatusMessenger(BroadcastMessenger<AntStatusUpdate> statusMessenger) {
+    }
+
+    @Override
+    public synchronized void send(byte[] message) {
+      commands.add(message[1]);
+      if (silent) {
+        return;
+      }
+      byte code = message[1] == reject ? ResponseCode.CHANNEL_IN_WRONG_STATE.getCode()
+          : ResponseCode.RESPONSE_NO_ERROR.getCode();
+      held.add(new byte [] {3, MessageId.RESPONSE_EVENT.getMessageID(), message[2], message[1], code});
+      if (held.size() >= batch) {
+        for (byte [] response : held) {
+          rxMessenger.sendMessage(response);
+        }
+        held.clear();
+      }
+    }
+
+    @Override
+    public AntStatusUpdate getStatus() {
+      return null;
+    }
+
+    @Override
+    public boolean isRunning() {
+      return true;
+    }
+
+  }
+
+  private static ChannelMessage [] config() {
+    return new ChannelMessage [] {
+        new ChannelIdMessage(0, 0, 0x52, 0, false),
+        new ChannelFrequencyMessage(0, 60),
+        new ChannelPeriodMessage(0, 4096),
+        new ChannelSearchTimeoutMessage(0, 255)
+    };
+  }
+
+  @Test
+  public void test_setupIsPipelined() {
+    ResponderChip chip = new ResponderChip();
+    Node node = new Node(chip);
+    Channel channel = new Channel(node, 2);
+    // assign, four config commands, open
+    chip.batch = 6;
+    channel.assignAndOpen("N:PUBLIC", new ChannelAssignMessage(new SlaveChannelType()),
+        config());
+    assertEquals(6, chip.commands.size());
+    assertEquals(MessageId.ASSIGN_CHANNEL.getMessageID(), chip.commands.get(0).byteValue());
+    assertEquals(MessageId.OPEN_CHANNEL.getMessageID(), chip.commands.get(5).byteValue());
+  }
+
+  @Test
+  public void test_singleCommands() {
+    ResponderChip chip = new ResponderChip();
+    Node node = new Node(chip);
+    Channel channel = new Channel(node, 1);
+    channel.setId(0, 0x52, 0, false);
+    channel.setPeriod(8070);
+    channel.open();
+    assertEquals(3, chip.commands.size());
+  }
+
+  @Test
+  public void test_rejectedCommand() {
+    ResponderChip chip = new ResponderChip();
+    chip.reject = MessageId.OPEN_CHANNEL.getMessageID();
+    Node node = new Node(chip);
+    Channel channel = new Channel(node, 0);
+    try {
+      channel.open();
+      fail("expected ChannelError");
+    } catch (ChannelError e) {
+      assertNull(e.getCause());
+    }
+  }
+
+  @Test
+  public void test_timeoutFreesSlot() {
+    ResponderChip chip = new ResponderChip();
+    chip.silent = true;
+    Node node = new Node(chip);
+    Channel channel = new Channel(node, 0);
+    long start = System.nanoTime();
+    try {
+      channel.sendPipelined(50L, TimeUnit.MILLISECONDS, config());
+      fail("expected ChannelError");
+    } catch (ChannelError e) {
+      assertTrue(e.getCause() instanceof TimeoutException);
+    }
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+    // the abandoned slots must not swallow the responses to later commands
+    chip.silent = false;
+    channel.setPeriod(4096);
+  }
+
+}
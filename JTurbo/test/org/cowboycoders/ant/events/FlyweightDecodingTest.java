@@ -0,0 +1,208 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.events;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.cowboycoders.ant.BufferedNodeComponent;
+import org.cowboycoders.ant.interfaces.AntChipInterface;
+import org.cowboycoders.ant.interfaces.AntStatusUpdate;
+import org.cowboycoders.ant.messages.AntMessageFactory;
+import org.cowboycoders.ant.messages.MessageMetaWrapper;
+import org.cowboycoders.ant.messages.StandardMessage;
+import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
+import org.cowboycoders.ant.messages.data.DataMessage;
+import org.junit.Test;
+
+public class FlyweightDecodingTest {
+
+  private static final int MESSAGES = 200;
+
+  private static class StubChip implements AntChipInterface {
+
+    BroadcastMessenger<byte []> rxMessenger;
+
+    @Override
+    public boolean start() {
+      return true;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void registerRxMesenger(BroadcastMessenger<byte[]> rxMessenger) {
+      this.rxMessenger = rxMessenger;
+    }
+
+    @Override
+    public void registerStatusMessenger(BroadcastMessenger<AntStatusUpdate> statusMessenger) {
+    }
+
+    @Override
+    public void send(byte[] message) {
+    }
+
+    @Override
+    public AntStatusUpdate getStatus() {
+      return null;
+    }
+
+    @Override
+    public boolean isRunning() {
+      return true;
+    }
+
+    void receive(int value) {
+      BroadcastDataMessage msg = new BroadcastDataMessage();
+      msg.setData(new byte [] {(byte) value, (byte) (value >> 8), 0, 0, 0, 0, 0, 0});
+      rxMessenger.sendMessage(msg.encode());
+    }
+
+  }
+
+  private static int valueOf(StandardMessage msg) {
+    return ((DataMessage) msg).getUint16LE(1);
+  }
+
+  @Test
+  public void testFactoryReusesInstancePerType() throws Exception {
+    StubChip chip = new StubChip();
+    new EventMachine(chip);
+    BroadcastDataMessage first = new BroadcastDataMessage();
+    first.setData(new byte [] {1, 0, 0, 0, 0, 0, 0, 0});
+    BroadcastDataMessage second = new BroadcastDataMessage();
+    second.setData(new byte [] {2, 0, 0, 0, 0, 0, 0, 0});
+
+    StandardMessage a = AntMessageFactory.createFlyweightMessage(first.encode());
+    assertTrue(a.isReadOnly());
+    StandardMessage kept = a.copy();
+    assertFalse(kept.isReadOnly());
+
+    StandardMessage b = AntMessageFactory.createFlyweightMessage(second.encode());
+    assertSame(a, b);
+    assertEquals(2, valueOf(b));
+    assertEquals(1, valueOf(kept));
+  }
+
+  @Test(expected=UnsupportedOperationException.class)
+  public void testReadOnly() throws Exception {
+    BroadcastDataMessage msg = new BroadcastDataMessage();
+    DataMessage flyweight = (DataMessage) AntMessageFactory.createFlyweightMessage(msg.encode());
+    flyweight.setData(new byte [8]);
+  }
+
+  @Test
+  public void testRetainedCopiesAreStable() throws InterruptedException {
+    StubChip chip = new StubChip();
+    EventMachine evm = new EventMachine(chip, MESSAGES, OverflowPolicy.BLOCK);
+    evm.setFlyweightDecoding(true);
+
+    final List<StandardMessage> copies = Collections.synchronizedList(new ArrayList<StandardMessage>());
+    final List<Integer> seen = Collections.synchronizedList(new ArrayList<Integer>());
+    final CountDownLatch done = new CountDownLatch(MESSAGES);
+    evm.registerRxListener(new BroadcastListener<StandardMessage>() {
+      @Override
+      public void receiveMessage(StandardMessage message) {
+        assertTrue(message.isReadOnly());
+        seen.add(valueOf(message));
+        copies.add(message.copy());
+        done.countDown();
+      }
+    });
+
+    for (int i = 0 ; i < MESSAGES ; i++) {
+      chip.receive(i);
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+
+    for (int i = 0 ; i < MESSAGES ; i++) {
+      assertEquals(i, seen.get(i).intValue());
+      assertEquals(i, valueOf(copies.get(i)));
+      assertFalse(copies.get(i).isReadOnly());
+    }
+  }
+
+  @Test
+  public void testWaitForMessageGetsStableCopy() throws Exception {
+    StubChip chip = new StubChip();
+    final EventMachine evm = new EventMachine(chip, MESSAGES, OverflowPolicy.BLOCK);
+    evm.setFlyweightDecoding(true);
+    final BufferedNodeComponent component = new BufferedNodeComponent() {};
+    evm.registerBufferedNodeComponent(component);
+    final CountDownLatch done = new CountDownLatch(MESSAGES);
+    evm.registerRxListener(new BroadcastListener<StandardMessage>() {
+      @Override
+      public void receiveMessage(StandardMessage message) {
+        done.countDown();
+      }
+    });
+
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    try {
+      Future<MessageMetaWrapper<StandardMessage>> result = pool.submit(
+          new Callable<MessageMetaWrapper<StandardMessage>>() {
+        @Override
+        public MessageMetaWrapper<StandardMessage> call() throws Exception {
+          return evm.waitForMessage(component, new MessageCondition() {
+            @Override
+            public boolean test(StandardMessage msg) {
+              return valueOf(msg) == 7;
+            }
+          }, 5L, TimeUnit.SECONDS, null, null);
+        }
+      });
+
+      while (!component.getMsgBuffer().hasReaders()) {
+        Thread.sleep(1);
+      }
+      // anything received before the wait takes its start time is ignored
+      int sent = 0;
+      while (!result.isDone() && sent < MESSAGES) {
+        chip.receive(7);
+        sent++;
+        Thread.sleep(1);
+      }
+      StandardMessage msg = result.get(5, TimeUnit.SECONDS).unwrap();
+      assertFalse(msg.isReadOnly());
+
+      // later messages must not overwrite it
+      for (int i = sent ; i < MESSAGES ; i++) {
+        chip.receive(1000 + i);
+      }
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+      assertEquals(7, valueOf(msg));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+}
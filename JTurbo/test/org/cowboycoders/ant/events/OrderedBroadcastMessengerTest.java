@@ -0,0 +1,238 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.events;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class OrderedBroadcastMessengerTest {
+  
+  private static class RecordingListener implements BroadcastListener<Integer> {
+    
+    final List<Integer> received = Collections.synchronizedList(new ArrayList<Integer>());
+    
+    final CountDownLatch done;
+    
+    final CountDownLatch release;
+    
+    RecordingListener(int expected, CountDownLatch release) {
+      this.done = new CountDownLatch(expected);
+      this.release = release;
+    }
+
+    @Override
+    public void receiveMessage(Integer message) {
+      try {
+        if (release != null) {
+          release.await();
+        }
+      } catch (InterruptedException e) {
+        return;
+      }
+      received.add(message);
+      done.countDown();
+    }
+    
+  }
+
+  @Test
+  public void testPerListenerFifo() throws InterruptedException {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    BroadcastMessenger<Integer> messenger = 
+        new BroadcastMessenger<Integer>(pool, 1000, OverflowPolicy.BLOCK);
+    List<RecordingListener> listeners = new ArrayList<RecordingListener>();
+    for (int i = 0 ; i < 5 ; i++) {
+      RecordingListener listener = new RecordingListener(500, null);
+      listeners.add(listener);
+      messenger.addBroadcastListener(listener);
+    }
+    for (int i = 0 ; i < 500 ; i++) {
+      messenger.sendMessage(i);
+    }
+    for (RecordingListener listener : listeners) {
+      assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+      for (int i = 0 ; i < 500 ; i++) {
+        assertEquals(Integer.valueOf(i), listener.received.get(i));
+      }
+    }
+    List<DispatchStatistics> stats = messenger.getDispatchStatistics();
+    assertEquals(5, stats.size());
+    for (DispatchStatistics stat : stats) {
+      assertEquals(500, stat.getDispatched());
+      assertEquals(0, stat.getDropped());
+      assertEquals(0, stat.getQueueDepth());
+    }
+    pool.shutdown();
+  }
+  
+  @Test
+  public void testDropOldest() throws InterruptedException {
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingListener listener = new RecordingListener(4, release);
+    BroadcastMessenger<Integer> messenger = 
+        new BroadcastMessenger<Integer>(pool, 3, OverflowPolicy.DROP_OLDEST);
+    messenger.addBroadcastListener(listener);
+    messenger.sendMessage(0);
+    // wait for 0 to be taken by the (blocked) listener
+    Thread.sleep(100);
+    for (int i = 1 ; i <= 5 ; i++) {
+      messenger.sendMessage(i);
+    }
+    assertEquals(3, messenger.getDispatchStatistics().get(0).getQueueDepth());
+    release.countDown();
+    assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+    assertEquals(4, listener.received.size());
+    assertEquals(Integer.valueOf(0), listener.received.get(0));
+    assertEquals(Integer.valueOf(3), listener.received.get(1));
+    assertEquals(Integer.valueOf(5), listener.received.get(3));
+    assertEquals(2, messenger.getDispatchStatistics().get(0).getDropped());
+    pool.shutdown();
+  }
+  
+  @Test
+  public void testCoalesce() throws InterruptedException {
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    CountDownLatch release = new CountDownLatch(1);
+    RecordingListener listener = new RecordingListener(3, release);
+    BroadcastMessenger<Integer> messenger = 
+        new BroadcastMessenger<Integer>(pool, 2, OverflowPolicy.COALESCE);
+    messenger.addBroadcastListener(listener);
+    messenger.sendMessage(0);
+    Thread.sleep(100);
+    for (int i = 1 ; i <= 5 ; i++) {
+      messenger.sendMessage(i);
+    }
+    release.countDown();
+    assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+    assertEquals(Integer.valueOf(0), listener.received.get(0));
+    assertEquals(Integer.valueOf(1), listener.received.get(1));
+    assertEquals(Integer.valueOf(5), listener.received.get(2));
+    assertEquals(3, messenger.getDispatchStatistics().get(0).getDropped());
+    pool.shutdown();
+  }
+  
+  @Test
+  public void testBlockWaitsForRoom() throws InterruptedException {
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    final CountDownLatch release = new CountDownLatch(1);
+    RecordingListener listener = new RecordingListener(4, release);
+    final BroadcastMessenger<Integer> messenger = 
+        new BroadcastMessenger<Integer>(pool, 2, OverflowPolicy.BLOCK);
+    messenger.addBroadcastListener(listener);
+    messenger.sendMessage(0);
+    Thread.sleep(100);
+    messenger.sendMessage(1);
+    messenger.sendMessage(2);
+    Thread sender = new Thread() {
+      public void run() {
+        messenger.sendMessage(3);
+      }
+    };
+    sender.start();
+    Thread.sleep(100);
+    assertTrue(sender.isAlive());
+    release.countDown();
+    sender.join(5000);
+    assertFalse(sender.isAlive());
+    assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+    for (int i = 0 ; i < 4 ; i++) {
+      assertEquals(Integer.valueOf(i), listener.received.get(i));
+    }
+    pool.shutdown();
+  }
+  
+  @Test
+  public void testBlockRejectsSendFromSamePool() throws InterruptedException {
+    // the one thread is held by the forwarding listener, so waiting for room would never end
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    final BroadcastMessenger<Integer> downstream = 
+        new BroadcastMessenger<Integer>(pool, 1, OverflowPolicy.BLOCK);
+    RecordingListener listener = new RecordingListener(1, null);
+    downstream.addBroadcastListener(listener);
+    final CountDownLatch forwarded = new CountDownLatch(1);
+    BroadcastMessenger<Integer> upstream = 
+        new BroadcastMessenger<Integer>(pool, 1, OverflowPolicy.BLOCK);
+    upstream.addBroadcastListener(new BroadcastListener<Integer>() {
+      @Override
+      public void receiveMessage(Integer message) {
+        for (int i = 0 ; i < 3 ; i++) {
+          downstream.sendMessage(i);
+        }
+        forwarded.countDown();
+      }
+    });
+    upstream.sendMessage(0);
+    assertTrue(forwarded.await(5, TimeUnit.SECONDS));
+    assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+    assertEquals(Integer.valueOf(0), listener.received.get(0));
+    assertEquals(2, downstream.getDispatchStatistics().get(0).getDropped());
+    pool.shutdown();
+  }
+  
+  @Test
+  public void testBatchLargerThanMailboxBlocks() throws InterruptedException {
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    RecordingListener first = new RecordingListener(50, null);
+    RecordingListener second = new RecordingListener(50, null);
+    BroadcastMessenger<Integer> messenger = 
+        new BroadcastMessenger<Integer>(pool, 4, OverflowPolicy.BLOCK);
+    messenger.addBroadcastListener(first);
+    messenger.addBroadcastListener(second);
+    List<Integer> batch = new ArrayList<Integer>();
+    for (int i = 0 ; i < 10 ; i++) {
+      batch.add(i);
+    }
+    for (int i = 0 ; i < 5 ; i++) {
+      messenger.sendMessages(batch);
+    }
+    for (RecordingListener listener : new RecordingListener [] {first, second}) {
+      assertTrue(listener.done.await(5, TimeUnit.SECONDS));
+      for (int i = 0 ; i < 50 ; i++) {
+        assertEquals(Integer.valueOf(i % 10), listener.received.get(i));
+      }
+    }
+    pool.shutdown();
+  }
+  
+  @Test
+  public void testRemovedListenerNotDelivered() throws InterruptedException {
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    RecordingListener listener = new RecordingListener(1, null);
+    BroadcastMessenger<Integer> messenger = 
+        new BroadcastMessenger<Integer>(pool, 10, OverflowPolicy.DROP_OLDEST);
+    messenger.addBroadcastListener(listener);
+    messenger.removeBroadcastListener(listener);
+    messenger.sendMessage(1);
+    assertFalse(listener.done.await(100, TimeUnit.MILLISECONDS));
+    assertTrue(messenger.getDispatchStatistics().isEmpty());
+    pool.shutdown();
+  }
+
+}
@@ -0,0 +1,180 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.events;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.cowboycoders.ant.interfaces.AntChipInterface;
+import org.cowboycoders.ant.interfaces.AntStatusUpdate;
+import org.cowboycoders.ant.messages.MessageId;
+import org.cowboycoders.ant.messages.StandardMessage;
+import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
+import org.junit.Test;
+
+public class PipelineMetricsTest {
+
+  private static final int MESSAGES = 100;
+
+  private static class StubChip implements AntChipInterface {
+
+    BroadcastMessenger<byte []> rxMessenger;
+
+    @Override
+    public boolean start() {
+      return true;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    @Override
+    public void registerRxMesenger(BroadcastMessenger<byte[]> rxMessenger) {
+      this.rxMessenger = rxMessenger;
+    }
+
+    @Override
+    public void registerStatusMessenger(BroadcastMessenger<AntStatusUpdate> statusMessenger) {
+    }
+
+    @Override
+    public void send(byte[] message) {
+    }
+
+    @Override
+    public AntStatusUpdate getStatus() {
+      return null;
+    }
+
+    @Override
+    public boolean isRunning() {
+      return true;
+    }
+
+    void receive(int channel) {
+      BroadcastDataMessage msg = new BroadcastDataMessage();
+      msg.setChannelNumber(channel);
+      rxMessenger.sendMessage(msg.encode());
+    }
+
+  }
+
+  private static void sendAndWait(EventMachine evm, StubChip chip, int channel) 
+      throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(MESSAGES);
+    BroadcastListener<StandardMessage> listener = new BroadcastListener<StandardMessage>() {
+      @Override
+      public void receiveMessage(StandardMessage message) {
+        done.countDown();
+      }
+    };
+    evm.registerRxListener(listener);
+    try {
+      for (int i = 0 ; i < MESSAGES ; i++) {
+        chip.receive(channel);
+      }
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+    } finally {
+      evm.removeRxListener(listener);
+    }
+  }
+
+  /**
+   * Listener times are recorded after the listener returns
+   */
+  private static void awaitListenerTimes(RecordingPipelineMetrics metrics, int channel, 
+      long count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (metrics.snapshot().getListenerTime(channel).getCount() < count 
+        && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void testHistogramBuckets() {
+    assertEquals(0, LatencyHistogram.bucketOf(0));
+    assertEquals(1, LatencyHistogram.bucketOf(1));
+    assertEquals(2, LatencyHistogram.bucketOf(3));
+    assertEquals(11, LatencyHistogram.bucketOf(1024));
+    assertEquals(63, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+
+    RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+    for (int i = 1 ; i <= 100 ; i++) {
+      metrics.queueWait(2, i * 1000);
+    }
+    LatencyHistogram histogram = metrics.snapshot().getQueueWait(2);
+    assertEquals(100, histogram.getCount());
+    assertEquals(100000, histogram.getMaxNanos());
+    assertEquals(50500, histogram.getMeanNanos());
+    // accurate to a factor of two
+    long p50 = histogram.getPercentileNanos(50);
+    assertTrue(p50 >= 50000 && p50 < 100000);
+    assertEquals(100000, histogram.getPercentileNanos(100));
+    assertEquals(0, metrics.snapshot().getQueueWait(3).getCount());
+  }
+
+  @Test
+  public void testOrderedPipelineRecorded() throws InterruptedException {
+    StubChip chip = new StubChip();
+    EventMachine evm = new EventMachine(chip, MESSAGES, OverflowPolicy.BLOCK);
+    RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+    evm.setMetrics(metrics);
+    // unknown id, ahead of the others so it is dropped before they arrive
+    chip.rxMessenger.sendMessage(new byte [] {1, (byte) 0xee, 0});
+    sendAndWait(evm, chip, 3);
+    awaitListenerTimes(metrics, 3, MESSAGES);
+
+    MetricsSnapshot snapshot = metrics.snapshot();
+    assertEquals(MESSAGES, snapshot.getReceived(MessageId.BROADCAST_DATA));
+    assertEquals(MESSAGES, snapshot.getDecoded(MessageId.BROADCAST_DATA));
+    assertEquals(0, snapshot.getDropped(MessageId.BROADCAST_DATA));
+    assertEquals(1, snapshot.getTotalDropped());
+    assertEquals(MESSAGES, snapshot.getDecodeTime(3).getCount());
+    assertTrue(snapshot.getQueueWait(3).getCount() >= MESSAGES);
+    assertTrue(snapshot.getListenerTime(3).getCount() >= MESSAGES);
+    assertTrue(snapshot.getChannels().contains(3));
+    assertTrue(snapshot.toString().contains("BROADCAST_DATA"));
+
+    evm.setMetrics(null);
+    sendAndWait(evm, chip, 3);
+    assertEquals(MESSAGES, metrics.snapshot().getReceived(MessageId.BROADCAST_DATA));
+  }
+
+  @Test
+  public void testFlyweightListenersTimed() throws InterruptedException {
+    StubChip chip = new StubChip();
+    EventMachine evm = new EventMachine(chip, MESSAGES, OverflowPolicy.BLOCK);
+    evm.setFlyweightDecoding(true);
+    RecordingPipelineMetrics metrics = new RecordingPipelineMetrics();
+    evm.setMetrics(metrics);
+    sendAndWait(evm, chip, 5);
+    awaitListenerTimes(metrics, 5, MESSAGES);
+
+    MetricsSnapshot snapshot = metrics.snapshot();
+    assertEquals(MESSAGES, snapshot.getDecoded(MessageId.BROADCAST_DATA));
+    assertEquals(MESSAGES, snapshot.getListenerTime(5).getCount());
+    assertEquals(0, snapshot.getQueueWait(5).getCount());
+  }
+
+}
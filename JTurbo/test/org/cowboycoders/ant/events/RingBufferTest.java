@@ -0,0 +1,133 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.events;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class RingBufferTest {
+
+  @Test
+  public void testCapacityRoundedUp() {
+    assertEquals(32, new RingBuffer<Integer>(20).getCapacity());
+    assertEquals(16, new RingBuffer<Integer>(16).getCapacity());
+    assertEquals(1, new RingBuffer<Integer>(1).getCapacity());
+  }
+  
+  @Test
+  public void testPublishAndGet() {
+    RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+    assertEquals(-1, buffer.getCursor());
+    assertEquals(0, buffer.publish(10));
+    assertEquals(1, buffer.publish(11));
+    assertEquals(1, buffer.getCursor());
+    assertEquals(Integer.valueOf(10), buffer.get(0));
+    assertEquals(Integer.valueOf(11), buffer.get(1));
+    assertNull(buffer.get(2));
+    assertEquals(2, buffer.size());
+  }
+  
+  @Test
+  public void testOverwritesOldest() {
+    RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+    for (int i = 0 ; i < 6 ; i++) {
+      buffer.publish(i);
+    }
+    assertEquals(2, buffer.getOldestSequence());
+    assertNull(buffer.get(1));
+    List<Integer> contents = new ArrayList<Integer>();
+    for (Integer i : buffer) {
+      contents.add(i);
+    }
+    assertEquals(4, contents.size());
+    assertEquals(Integer.valueOf(2), contents.get(0));
+    assertEquals(Integer.valueOf(5), contents.get(3));
+  }
+  
+  @Test
+  public void testClear() {
+    RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+    buffer.publish(1);
+    buffer.publish(2);
+    buffer.clear();
+    assertEquals(0, buffer.size());
+    assertNull(buffer.get(1));
+    assertFalse(buffer.iterator().hasNext());
+    assertEquals(2, buffer.publish(3));
+    assertEquals(Integer.valueOf(3), buffer.get(2));
+  }
+  
+  @Test(expected = TimeoutException.class)
+  public void testWaitForTimeout() throws InterruptedException, TimeoutException {
+    RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+    buffer.waitFor(0, 10L, TimeUnit.MILLISECONDS);
+  }
+  
+  @Test
+  public void testWaitForWakesConsumer() throws InterruptedException, TimeoutException {
+    final RingBuffer<Integer> buffer = new RingBuffer<Integer>(4);
+    buffer.publish(0);
+    Thread producer = new Thread() {
+      public void run() {
+        try {
+          Thread.sleep(50);
+        } catch (InterruptedException e) {
+          return;
+        }
+        buffer.publish(1);
+      }
+    };
+    producer.start();
+    assertTrue(buffer.waitFor(1, 5L, TimeUnit.SECONDS) >= 1);
+    assertEquals(Integer.valueOf(1), buffer.get(1));
+    producer.join();
+  }
+  
+  @Test
+  public void testConcurrentPublishersHaveNoGaps() throws InterruptedException {
+    final RingBuffer<Integer> buffer = new RingBuffer<Integer>(1024);
+    final int perThread = 200;
+    Thread [] producers = new Thread[4];
+    for (int i = 0 ; i < producers.length ; i++) {
+      producers[i] = new Thread() {
+        public void run() {
+          for (int j = 0 ; j < perThread ; j++) {
+            buffer.publish(j);
+          }
+        }
+      };
+      producers[i].start();
+    }
+    for (Thread t : producers) {
+      t.join();
+    }
+    assertEquals(producers.length * perThread - 1, buffer.getCursor());
+    for (long i = 0 ; i <= buffer.getCursor() ; i++) {
+      assertNotNull(buffer.get(i));
+    }
+  }
+
+}
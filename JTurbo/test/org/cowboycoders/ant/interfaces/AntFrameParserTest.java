@@ -0,0 +1,110 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.interfaces;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
+import org.cowboycoders.ant.messages.responses.ChannelResponse;
+import org.junit.Test;
+
+public class AntFrameParserTest {
+
+  /**
+   * @return the message as sent by the stick
+   */
+  private static byte [] frame(byte [] msg) {
+    byte [] rtn = new byte[msg.length + 2];
+    rtn[0] = AntFrameParser.SYNC;
+    System.arraycopy(msg, 0, rtn, 1, msg.length);
+    rtn[rtn.length - 1] = AntFrameParser.checksum(rtn, 0, rtn.length - 1);
+    return rtn;
+  }
+
+  private static byte [] concat(byte [] ... parts) {
+    int length = 0;
+    for (byte [] part : parts) {
+      length += part.length;
+    }
+    byte [] rtn = new byte[length];
+    int offset = 0;
+    for (byte [] part : parts) {
+      System.arraycopy(part, 0, rtn, offset, part.length);
+      offset += part.length;
+    }
+    return rtn;
+  }
+
+  private static byte [] broadcast(int value) {
+    BroadcastDataMessage msg = new BroadcastDataMessage();
+    msg.setData(new byte [] {(byte) value, 0, 0, 0, 0, 0, 0, 0});
+    return msg.encode();
+  }
+
+  @Test
+  public void testSeveralPerTransfer() {
+    byte [] response = new ChannelResponse().encode();
+    byte [] transfer = concat(frame(broadcast(1)), frame(response), frame(broadcast(2)), new byte [8]);
+    List<byte []> frames = new ArrayList<byte []>();
+    AntFrameParser parser = new AntFrameParser();
+    assertEquals(3, parser.parse(transfer, 0, transfer.length - 8, frames));
+    assertArrayEquals(broadcast(1), frames.get(0));
+    assertArrayEquals(response, frames.get(1));
+    assertArrayEquals(broadcast(2), frames.get(2));
+    assertEquals(0, parser.getDiscarded());
+  }
+
+  @Test
+  public void testSplitAcrossTransfers() {
+    byte [] stream = concat(frame(broadcast(1)), frame(broadcast(2)), frame(broadcast(3)));
+    // every split point, including mid sync and mid length
+    for (int split = 1 ; split < stream.length ; split++) {
+      byte [] first = new byte[64];
+      System.arraycopy(stream, 0, first, 5, split);
+      byte [] second = new byte[64];
+      System.arraycopy(stream, split, second, 0, stream.length - split);
+      List<byte []> frames = new ArrayList<byte []>();
+      AntFrameParser parser = new AntFrameParser();
+      parser.parse(first, 5, split, frames);
+      parser.parse(second, 0, stream.length - split, frames);
+      assertEquals("split at " + split, 3, frames.size());
+      for (int i = 0 ; i < 3 ; i++) {
+        assertArrayEquals(broadcast(i + 1), frames.get(i));
+      }
+    }
+  }
+
+  @Test
+  public void testResyncsAfterCorruption() {
+    byte [] bad = frame(broadcast(1));
+    bad[5] ^= 0x10;
+    byte [] transfer = concat(new byte [] {0x00, AntFrameParser.SYNC, (byte) 0xff}, bad, 
+        frame(broadcast(2)));
+    List<byte []> frames = new ArrayList<byte []>();
+    AntFrameParser parser = new AntFrameParser();
+    assertEquals(1, parser.parse(transfer, 0, transfer.length, frames));
+    assertArrayEquals(broadcast(2), frames.get(0));
+    assertEquals(2, parser.getDiscarded());
+  }
+
+}
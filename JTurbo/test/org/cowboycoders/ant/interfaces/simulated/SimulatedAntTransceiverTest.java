@@ -0,0 +1,114 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.interfaces.simulated;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cowboycoders.ant.Channel;
+import org.cowboycoders.ant.ChannelError;
+import org.cowboycoders.ant.Node;
+import org.cowboycoders.ant.events.BroadcastListener;
+import org.cowboycoders.ant.messages.SlaveChannelType;
+import org.cowboycoders.ant.messages.config.ChannelAssignMessage;
+import org.cowboycoders.ant.messages.config.ChannelIdMessage;
+import org.cowboycoders.ant.messages.config.ChannelPeriodMessage;
+import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
+import org.junit.Test;
+
+public class SimulatedAntTransceiverTest {
+
+  private static Channel openChannel(Node node, int deviceType) {
+    Channel channel = node.getFreeChannel();
+    channel.assignAndOpen("N:PUBLIC", new ChannelAssignMessage(new SlaveChannelType()),
+        new ChannelIdMessage(0, 0, deviceType, 0, false),
+        new ChannelPeriodMessage(0, 8070));
+    return channel;
+  }
+
+  @Test
+  public void test_heartRatePages() throws InterruptedException {
+    SimulatedAntTransceiver chip = new SimulatedAntTransceiver(8, 8, new Random(1));
+    HeartRateDevice hrm = new HeartRateDevice(1234);
+    hrm.setHeartRate(150);
+    hrm.setRate(200);
+    chip.addDevice(new PowerDevice(1));
+    chip.addDevice(hrm);
+    Node node = new Node(chip);
+    node.start();
+    try {
+      assertEquals(8, node.getMaxChannels());
+      Channel channel = openChannel(node, HeartRateDevice.DEVICE_TYPE);
+      final CountDownLatch pages = new CountDownLatch(10);
+      final AtomicInteger heartRate = new AtomicInteger();
+      channel.registerRxListener(new BroadcastListener<BroadcastDataMessage>() {
+        @Override
+        public void receiveMessage(BroadcastDataMessage message) {
+          heartRate.set(message.getUnsignedByte(8));
+          pages.countDown();
+        }
+      }, BroadcastDataMessage.class);
+      assertTrue(pages.await(5, TimeUnit.SECONDS));
+      assertEquals(150, heartRate.get());
+      channel.close();
+    } finally {
+      node.stop();
+    }
+  }
+
+  @Test(expected=ChannelError.class)
+  public void test_openUnassignedRejected() {
+    SimulatedAntTransceiver chip = new SimulatedAntTransceiver();
+    Node node = new Node(chip);
+    node.start();
+    try {
+      node.getFreeChannel().open();
+    } finally {
+      node.stop();
+    }
+  }
+
+  @Test
+  public void test_loss() throws InterruptedException {
+    SimulatedAntTransceiver chip = new SimulatedAntTransceiver(8, 8, new Random(1));
+    BushidoDevice brake = new BushidoDevice(1);
+    brake.setRate(500);
+    chip.addDevice(brake);
+    chip.setLossProbability(1.0);
+    Node node = new Node(chip);
+    node.start();
+    try {
+      openChannel(node, 0);
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (chip.getPagesLost() < 10 && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertTrue(chip.getPagesLost() >= 10);
+      assertEquals(0, chip.getPagesSent());
+    } finally {
+      node.stop();
+    }
+  }
+
+}
@@ -21,8 +21,6 @@ package org.cowboycoders.ant.messages;
 
 import static org.junit.Assert.*;
 
-import java.util.Arrays;
-
 import org.cowboycoders.ant.messages.config.ChannelSearchPriorityMessage;
 import org.junit.Test;
 
@@ -31,9 +29,9 @@ public class ChannelSearchPriorityMessageTest {
   @Test
   public void test() {
     StandardMessage msg = new ChannelSearchPriorityMessage(1,null);
-    assertEquals(msg.getPayloadToSend(),Arrays.asList(new Byte[] {1,0}));
+    assertArrayEquals(new byte[] {1,0},msg.getPayloadToSendBytes());
     msg = new ChannelSearchPriorityMessage(1,10);
-    assertEquals(msg.getPayloadToSend(),Arrays.asList(new Byte[] {1,10}));
+    assertArrayEquals(new byte[] {1,10},msg.getPayloadToSendBytes());
 
     for (Byte b : msg.encode()) {
       System.out.printf("%x ",b);
@@ -0,0 +1,98 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.ant.messages;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
+import org.cowboycoders.ant.messages.data.LegacyExtendedBroadcastDataMessage;
+import org.junit.Test;
+
+public class MessagePayloadTest {
+
+  private static final byte [] DATA = {
+    (byte) 0x10, (byte) 0x80, (byte) 0xff, (byte) 0x34,
+    (byte) 0x12, (byte) 0x00, (byte) 0x7f, (byte) 0xa5
+  };
+
+  @Test
+  public void test_offsetAccessors() {
+    BroadcastDataMessage msg = new BroadcastDataMessage();
+    msg.setData(DATA);
+    // offset 0 is the channel number
+    assertEquals(0x10, msg.getUnsignedByte(1));
+    assertEquals(0xff, msg.getUnsignedByte(3));
+    assertEquals(0x1234, msg.getUint16LE(4));
+    assertEquals(0xff80, msg.getUint16LE(2));
+    assertEquals(0x5, msg.getBits(8, 0x0f));
+    assertEquals(0xa, msg.getBits(8, 0xf0));
+    assertEquals(0x1, msg.getBits(8, 0x20));
+    assertArrayEquals(DATA, msg.getPrimitiveData());
+  }
+
+  @Test(expected=IndexOutOfBoundsException.class)
+  public void test_offsetBeyondPayload() {
+    new BroadcastDataMessage().getUnsignedByte(9);
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void test_deprecatedAdapterMatchesBytes() throws ValidationException {
+    BroadcastDataMessage msg = new BroadcastDataMessage();
+    msg.setData(DATA);
+    byte [] bytes = msg.getStandardPayloadBytes();
+    ArrayList<Byte> list = msg.getStandardPayload();
+    assertEquals(bytes.length, list.size());
+    for (int i = 0 ; i < bytes.length ; i++) {
+      assertEquals(bytes[i], list.get(i).byteValue());
+    }
+
+    BroadcastDataMessage other = new BroadcastDataMessage();
+    other.setStandardPayload(list);
+    assertArrayEquals(msg.encode(), other.encode());
+  }
+
+  @Test
+  public void test_legacyDataRoundTrip() throws ValidationException, MessageException {
+    LegacyExtendedBroadcastDataMessage msg = new LegacyExtendedBroadcastDataMessage();
+    msg.setChannelNumber(3);
+    msg.setDeviceNumber(0x1234);
+    msg.setData(DATA);
+    assertArrayEquals(DATA, msg.getPrimitiveData());
+    assertEquals(3, msg.getChannelNumber());
+
+    byte [] encoded = msg.toArray();
+    // channel, device number, device type, transmission type, then the data
+    assertEquals(3, encoded[2]);
+    assertEquals(0x34, encoded[3]);
+    assertEquals(0x12, encoded[4]);
+    for (int i = 0 ; i < DATA.length ; i++) {
+      assertEquals(DATA[i], encoded[7 + i]);
+    }
+
+    LegacyExtendedBroadcastDataMessage decoded = new LegacyExtendedBroadcastDataMessage();
+    decoded.decode(encoded);
+    assertArrayEquals(DATA, decoded.getPrimitiveData());
+    assertEquals(0x1234, decoded.getDeviceNumber().intValue());
+  }
+
+}
@@ -34,7 +34,7 @@ public class ProximitySearchMessageTest {
     }
     System.out.println();
     
-    assertEquals(new Byte((byte) 10),msg.getStandardPayload().get(1));
+    assertEquals(10,msg.getStandardPayloadBytes()[1]);
   }
   
   @Test(expected=FatalMessageException.class)
@@ -0,0 +1,161 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.cowboycoders.location.LatLongAlt;
+import org.cowboycoders.location.LocationUtils;
+import org.junit.Test;
+
+public class CourseTrackerTest {
+
+  private static final double METRES_PER_DEGREE = Math.PI * LocationUtils.EARTH_RADIUS / 180;
+
+  /**
+   * Due north from 50N, 100m climbing 5m then 100m descending 10m, with a
+   * duplicate point at the top
+   */
+  private static List<LatLongAlt> course() {
+    List<LatLongAlt> points = new ArrayList<LatLongAlt>();
+    points.add(new LatLongAlt(50.0, 5.0, 0));
+    points.add(new LatLongAlt(50.0 + 100 / METRES_PER_DEGREE, 5.0, 5));
+    points.add(new LatLongAlt(50.0 + 100 / METRES_PER_DEGREE, 5.0, 5));
+    points.add(new LatLongAlt(50.0 + 200 / METRES_PER_DEGREE, 5.0, -5));
+    return points;
+  }
+
+  @Test
+  public void testInterpolatesBetweenVertices() {
+    CourseTracker tracker = new CourseTracker(course());
+    assertEquals(200.0, tracker.getTotalDistance(), 0.01);
+
+    LatLongAlt location = tracker.getLocation(50.0);
+    assertEquals(2.5, location.getAltitude(), 0.01);
+    assertEquals(50.0 + 50 / METRES_PER_DEGREE, location.getLatitude(), 1e-7);
+    assertEquals(5.0, tracker.getCurrentGradient(), 0.01);
+
+    location = tracker.getLocation(150.0);
+    assertEquals(0.0, location.getAltitude(), 0.01);
+    assertEquals(-10.0, tracker.getCurrentGradient(), 0.01);
+    assertFalse(tracker.hasFinished());
+  }
+
+  @Test
+  public void testNearestLocationIsNextVertex() {
+    CourseTracker tracker = new CourseTracker(course());
+    assertEquals(0.0, tracker.getNearestLocation(0.0).getAltitude(), 0.0);
+    assertEquals(5.0, tracker.getNearestLocation(1.0).getAltitude(), 0.0);
+    assertEquals(5.0, tracker.getNearestLocation(100.0).getAltitude(), 0.0);
+    assertEquals(-5.0, tracker.getNearestLocation(100.1).getAltitude(), 0.0);
+  }
+
+  @Test
+  public void testSeeksBackwards() {
+    CourseTracker tracker = new CourseTracker(course());
+    tracker.getLocation(190.0);
+    assertEquals(-10.0, tracker.getCurrentGradient(), 0.01);
+
+    // distance counter reset
+    assertEquals(0.5, tracker.getLocation(10.0).getAltitude(), 0.01);
+    assertEquals(5.0, tracker.getCurrentGradient(), 0.01);
+  }
+
+  @Test
+  public void testFinished() {
+    CourseTracker tracker = new CourseTracker(course());
+    tracker.getLocation(199.0);
+    assertFalse(tracker.hasFinished());
+    assertEquals(-5.0, tracker.getLocation(250.0).getAltitude(), 0.0);
+    assertTrue(tracker.hasFinished());
+    assertEquals(0.0, tracker.getCurrentGradient(), 0.0);
+    assertEquals(0.0, tracker.getLocation(-10.0).getAltitude(), 0.0);
+    assertFalse(tracker.hasFinished());
+  }
+
+  @Test
+  public void testRandomSeeksMatchLinearScan() {
+    List<LatLongAlt> points = new ArrayList<LatLongAlt>();
+    for (int i = 0 ; i < 1000 ; i++) {
+      points.add(new LatLongAlt(50.0 + i / METRES_PER_DEGREE, 5.0, i));
+    }
+    CourseTracker tracker = new CourseTracker(points);
+
+    Random random = new Random(0);
+    for (int i = 0 ; i < 10000 ; i++) {
+      double distance = random.nextDouble() * 1100 - 50;
+      int expected = 0;
+      while (expected < points.size() - 1
+          && LocationUtils.distance(points.get(0), points.get(expected + 1)) <= distance) {
+        expected++;
+      }
+      double altitude = tracker.getLocation(distance).getAltitude();
+      assertTrue(distance + ": " + altitude, altitude >= expected && altitude < expected + 1);
+    }
+  }
+
+  @Test
+  public void testCopySharesCourseNotPosition() {
+    CourseTracker tracker = new CourseTracker(course());
+    tracker.getLocation(150.0);
+    CourseTracker copy = new CourseTracker(tracker);
+    assertEquals(200.0, copy.getTotalDistance(), 0.01);
+    assertEquals(2.5, copy.getAltitude(50.0), 0.01);
+    assertEquals(5.0, copy.getCurrentGradient(), 0.01);
+    assertEquals(-10.0, tracker.getCurrentGradient(), 0.01);
+    assertEquals(-5.0, copy.getAltitude(1000.0), 0.0);
+  }
+
+  /**
+   * Steps each shorter than the accuracy are measured from the last vertex
+   * kept, so their distance is not lost
+   */
+  @Test
+  public void testShortStepsAddUp() {
+    List<LatLongAlt> points = new ArrayList<LatLongAlt>();
+    for (int i = 0 ; i <= 1000 ; i++) {
+      points.add(new LatLongAlt(50.0 + i * 0.0004 / METRES_PER_DEGREE, 5.0, i * 0.001));
+    }
+    CourseTracker tracker = new CourseTracker(points);
+    assertEquals(0.4, tracker.getTotalDistance(), 0.001);
+    assertEquals(0.5, tracker.getAltitude(0.2), 0.003);
+    assertEquals(1.0, tracker.getAltitude(1.0), 0.002);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoPoints() {
+    new CourseTracker(new ArrayList<LatLongAlt>());
+  }
+
+  @Test
+  public void testOnePoint() {
+    List<LatLongAlt> points = new ArrayList<LatLongAlt>();
+    points.add(new LatLongAlt(50.0, 5.0, 10));
+    CourseTracker tracker = new CourseTracker(points);
+    assertEquals(0.0, tracker.getTotalDistance(), 0.0);
+    assertEquals(10.0, tracker.getLocation(5.0).getAltitude(), 0.0);
+    assertTrue(tracker.hasFinished());
+  }
+
+}
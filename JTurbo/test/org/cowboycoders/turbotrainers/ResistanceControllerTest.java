@@ -0,0 +1,342 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.cowboycoders.location.LatLongAlt;
+import org.cowboycoders.location.LocationUtils;
+import org.junit.Test;
+
+/**
+ * Rides a simulated trainer along a course in simulated time, comparing the
+ * controller with setting the slope on every distance update.
+ */
+public class ResistanceControllerTest {
+
+  private static final double METRES_PER_DEGREE = Math.PI * LocationUtils.EARTH_RADIUS / 180;
+
+  private static final double SPEED = 10.0; // m/s
+
+  private static final double LATENCY = ResistanceController.DEFAULT_COMMAND_LATENCY;
+
+  private static final int STEP_MS = 10;
+
+  private static final int TICK_MS = 250;
+
+  private interface Altitude {
+    double at(double distance);
+  }
+
+  /**
+   * Due north, a point every 10m
+   */
+  private static CourseTracker course(double length, Altitude altitude) {
+    List<LatLongAlt> points = new ArrayList<LatLongAlt>();
+    for (double d = 0 ; d <= length ; d += 10) {
+      points.add(new LatLongAlt(50.0 + d / METRES_PER_DEGREE, 5.0, altitude.at(d)));
+    }
+    return new CourseTracker(points);
+  }
+
+  /**
+   * Flat for 1000m then 5% for 1000m
+   */
+  private static CourseTracker step() {
+    return course(2000, new Altitude() {
+      @Override
+      public double at(double distance) {
+        return Math.max(distance - 1000, 0) * 0.05;
+      }
+    });
+  }
+
+  /**
+   * 2% with noisy altitudes, as recorded by a GPS
+   */
+  private static CourseTracker noisy() {
+    final Random random = new Random(0);
+    return course(3000, new Altitude() {
+      @Override
+      public double at(double distance) {
+        return distance * 0.02 + random.nextGaussian() * 0.05;
+      }
+    });
+  }
+
+  private static class SimulatedTrainer implements TurboTrainerInterface {
+
+    /**
+     * time in s and slope of each command
+     */
+    final List<double []> commands = new ArrayList<double []>();
+
+    double now;
+
+    private double slope;
+
+    @Override
+    public void setSlope(double gradient) {
+      commands.add(new double [] {now, gradient});
+      slope = gradient;
+    }
+
+    @Override
+    public double getSlope() {
+      return slope;
+    }
+
+    /**
+     * @return slope the rider feels at time t, given the trainer takes latency
+     *          s to act on a command
+     */
+    double feltSlope(double t, double latency) {
+      double felt = 0.0;
+      for (double [] command : commands) {
+        if (command[0] > t - latency) {
+          break;
+        }
+        felt = command[1];
+      }
+      return felt;
+    }
+
+    /**
+     * @return first time the rider feels at least slope
+     */
+    double timeFelt(double slope, double latency) {
+      for (double [] command : commands) {
+        if (command[1] >= slope) {
+          return command[0] + latency;
+        }
+      }
+      return Double.NaN;
+    }
+
+    @Override
+    public void registerDataListener(TurboTrainerDataListener listener) {
+    }
+
+    @Override
+    public void unregisterDataListener(TurboTrainerDataListener listener) {
+    }
+
+    @Override
+    public void registerSampleListener(TrainerSampleListener listener) {
+    }
+
+    @Override
+    public void registerSampleListener(TrainerSampleListener listener, long minInterval,
+        TimeUnit unit) {
+    }
+
+    @Override
+    public void unregisterSampleListener(TrainerSampleListener listener) {
+    }
+
+    @Override
+    public boolean supportsSpeed() {
+      return true;
+    }
+
+    @Override
+    public boolean supportsPower() {
+      return false;
+    }
+
+    @Override
+    public boolean supportsCadence() {
+      return false;
+    }
+
+    @Override
+    public boolean supportsHeartRate() {
+      return false;
+    }
+
+    @Override
+    public void start() throws TurboCommunicationException, InterruptedException,
+        TimeoutException {
+    }
+
+    @Override
+    public void stop() throws InterruptedException, TimeoutException {
+    }
+
+  }
+
+  private static class Ride {
+
+    final SimulatedTrainer trainer = new SimulatedTrainer();
+
+    final CourseTracker tracker;
+
+    final long [] nanos = new long[1];
+
+    final ResistanceController controller;
+
+    Ride(CourseTracker tracker, boolean useController) {
+      this.tracker = tracker;
+      if (useController) {
+        controller = new ResistanceController(trainer, tracker, TICK_MS, TimeUnit.MILLISECONDS) {
+          @Override
+          long nanoTime() {
+            return nanos[0];
+          }
+        };
+      } else {
+        controller = null;
+      }
+    }
+
+    /**
+     * Rides at constant speed, with the trainer reporting distance every
+     * updateMs starting at phaseMs
+     */
+    Ride ride(int durationMs, int updateMs, int phaseMs) {
+      for (int ms = 0 ; ms <= durationMs ; ms += STEP_MS) {
+        trainer.now = ms / 1000.0;
+        nanos[0] = ms * 1000000L;
+        double distance = SPEED * trainer.now;
+        if (ms % updateMs == phaseMs) {
+          if (controller != null) {
+            controller.onSpeedChange(SPEED * 3.6);
+            controller.onDistanceChange(distance);
+          } else {
+            // what TurboService did
+            tracker.getLocation(distance);
+            trainer.setSlope(tracker.getCurrentGradient());
+          }
+        }
+        if (controller != null && ms % TICK_MS == 0) {
+          controller.tick(nanos[0]);
+        }
+      }
+      return this;
+    }
+  }
+
+  @Test
+  public void testStepIsFeltOnTime() {
+    // rider reaches the climb at 100s
+    Ride legacy = new Ride(step(), false).ride(120000, 1000, 300);
+    Ride controlled = new Ride(step(), true).ride(120000, 1000, 300);
+
+    double legacyLag = legacy.trainer.timeFelt(2.5, LATENCY) - 100.0;
+    double controlledLag = controlled.trainer.timeFelt(2.5, LATENCY) - 100.0;
+
+    assertTrue("legacy lag " + legacyLag, legacyLag >= LATENCY);
+    assertTrue("controlled lag " + controlledLag + " not below legacy lag " + legacyLag,
+        controlledLag < legacyLag);
+    assertEquals(0.0, controlledLag, TICK_MS / 1000.0);
+
+    // settles on the climb
+    assertEquals(5.0, controlled.trainer.feltSlope(110.0, LATENCY), 0.01);
+  }
+
+  @Test
+  public void testDeadbandLimitsCommandRate() {
+    Ride legacy = new Ride(noisy(), false).ride(280000, 250, 0);
+    Ride controlled = new Ride(noisy(), true);
+    controlled.controller.setWindow(50);
+    controlled.ride(280000, 250, 0);
+
+    int legacyCommands = legacy.trainer.commands.size();
+    int controlledCommands = controlled.controller.getCommandsSent();
+    assertEquals(controlledCommands, controlled.trainer.commands.size());
+    assertTrue("commands: legacy " + legacyCommands + ", controlled " + controlledCommands,
+        controlledCommands * 10 < legacyCommands);
+
+    // still follows the course
+    double total = 0;
+    int samples = 0;
+    for (double t = 10 ; t < 280 ; t += 0.5) {
+      total += controlled.trainer.feltSlope(t, LATENCY);
+      samples++;
+    }
+    assertEquals(2.0, total / samples, 0.1);
+  }
+
+  @Test
+  public void testTickSurvivesTrainerFailure() throws InterruptedException {
+    final CountDownLatch sent = new CountDownLatch(1);
+    SimulatedTrainer trainer = new SimulatedTrainer() {
+      private boolean failed;
+
+      @Override
+      public void setSlope(double gradient) {
+        if (!failed) {
+          failed = true;
+          throw new IllegalStateException("USB hiccup");
+        }
+        super.setSlope(gradient);
+        sent.countDown();
+      }
+    };
+    ResistanceController controller = new ResistanceController(trainer, step(), 10,
+        TimeUnit.MILLISECONDS);
+    controller.onDistanceChange(1500);
+    controller.start();
+    try {
+      assertTrue(sent.await(5, TimeUnit.SECONDS));
+    } finally {
+      controller.stop();
+    }
+    assertEquals(5.0, trainer.getSlope(), 1e-9);
+  }
+
+  @Test
+  public void testSmoothedGradient() {
+    Ride ride = new Ride(step(), true);
+    ride.controller.setWindow(20);
+    assertEquals(0.0, ride.controller.getSmoothedGradient(500), 1e-9);
+    assertEquals(2.5, ride.controller.getSmoothedGradient(1000), 1e-9);
+    assertEquals(5.0, ride.controller.getSmoothedGradient(1500), 1e-9);
+    // flat beyond the end
+    assertEquals(2.5, ride.controller.getSmoothedGradient(2000), 1e-9);
+    assertEquals(0.0, ride.controller.getSmoothedGradient(2500), 1e-9);
+
+    ride.controller.setWindow(0);
+    assertEquals(0.0, ride.controller.getSmoothedGradient(995), 1e-9);
+    assertEquals(5.0, ride.controller.getSmoothedGradient(1005), 1e-9);
+  }
+
+  @Test
+  public void testNothingSentUntilDistanceKnown() {
+    Ride ride = new Ride(step(), true);
+    assertTrue(Double.isNaN(ride.controller.tick(0)));
+    assertTrue(ride.trainer.commands.isEmpty());
+  }
+
+  @Test
+  public void testWarmDownAfterFinish() {
+    Ride ride = new Ride(step(), true).ride(220000, 1000, 0);
+    double [] last = ride.trainer.commands.get(ride.trainer.commands.size() - 1);
+    assertEquals(0.0, last[1], 0.0);
+  }
+
+}
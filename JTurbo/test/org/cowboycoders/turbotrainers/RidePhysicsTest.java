@@ -0,0 +1,137 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class RidePhysicsTest {
+
+  /**
+   * Speed at which power balances the resistance, by bisection
+   */
+  private static double steadySpeed(double power, double gradient, double wind) {
+    double angle = Math.atan(gradient / 100);
+    double low = 0;
+    double high = 100;
+    for (int i = 0 ; i < 200 ; i++) {
+      double v = (low + high) / 2;
+      double air = v + wind;
+      double resistance = RidePhysics.DEFAULT_MASS * RidePhysics.GRAVITY
+          * (Math.sin(angle) + RidePhysics.DEFAULT_CRR * Math.cos(angle))
+          + 0.5 * RidePhysics.DEFAULT_AIR_DENSITY * RidePhysics.DEFAULT_CDA * air * Math.abs(air);
+      if (power - resistance * v > 0) {
+        low = v;
+      } else {
+        high = v;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * m/s: the fixed timestep shifts the balance slightly, most at low speed
+   */
+  private static final double TOLERANCE = 0.01;
+
+  @Test
+  public void testReachesSteadySpeedOnTheFlat() {
+    RidePhysics physics = new RidePhysics();
+    physics.setPower(200);
+    physics.advance(10, TimeUnit.MINUTES);
+    assertEquals(steadySpeed(200, 0, 0), physics.getSpeed(), TOLERANCE);
+    assertEquals(60000, physics.getSteps());
+    // mostly at steady speed
+    assertEquals(physics.getSpeed() * 600, physics.getDistance(), physics.getDistance() * 0.02);
+  }
+
+  @Test
+  public void testClimbingIntoAHeadwind() {
+    RidePhysics physics = new RidePhysics();
+    physics.setPower(250);
+    physics.setGradient(6);
+    physics.setWind(5);
+    physics.advance(10, TimeUnit.MINUTES);
+    assertEquals(steadySpeed(250, 6, 5), physics.getSpeed(), TOLERANCE);
+  }
+
+  @Test
+  public void testCoastsDownhillToTerminalSpeed() {
+    RidePhysics physics = new RidePhysics();
+    physics.setGradient(-5);
+    physics.advance(10, TimeUnit.MINUTES);
+    assertEquals(steadySpeed(0, -5, 0), physics.getSpeed(), TOLERANCE);
+  }
+
+  @Test
+  public void testStopsWithoutRollingBack() {
+    RidePhysics physics = new RidePhysics();
+    physics.setSpeed(5);
+    physics.setGradient(10);
+    physics.advance(1, TimeUnit.MINUTES);
+    double distance = physics.getDistance();
+    assertEquals(0, physics.getSpeed(), 0.0);
+    assertTrue(distance > 0);
+    physics.advance(1, TimeUnit.MINUTES);
+    assertEquals(distance, physics.getDistance(), 0.0);
+  }
+
+  @Test
+  public void testReplayIsIndependentOfHowTimeIsSplit() {
+    Random random = new Random(0);
+    int count = 600;
+    double [] powers = new double[count];
+    double [] gradients = new double[count];
+    for (int i = 0 ; i < count ; i++) {
+      powers[i] = 100 + random.nextInt(300);
+      gradients[i] = random.nextDouble() * 16 - 8;
+    }
+
+    RidePhysics whole = new RidePhysics();
+    double [] speeds = new double[count];
+    double [] distances = new double[count];
+    whole.simulate(powers, gradients, count, 1, TimeUnit.SECONDS, speeds, distances);
+
+    // same inputs, advanced in uneven slices
+    RidePhysics sliced = new RidePhysics();
+    for (int i = 0 ; i < count ; i++) {
+      sliced.setPower(powers[i]);
+      sliced.setGradient(gradients[i]);
+      long left = TimeUnit.SECONDS.toNanos(1);
+      while (left > 0) {
+        long slice = Math.min(left, 1 + random.nextInt(30000000));
+        sliced.advance(slice, TimeUnit.NANOSECONDS);
+        left -= slice;
+      }
+      assertEquals(speeds[i], sliced.getSpeed(), 0.0);
+      assertEquals(distances[i], sliced.getDistance(), 0.0);
+    }
+    assertEquals(whole.getSteps(), sliced.getSteps());
+
+    whole.reset();
+    whole.simulate(powers, gradients, count, 1, TimeUnit.SECONDS, null, null);
+    assertEquals(distances[count - 1], whole.getDistance(), 0.0);
+  }
+
+}
@@ -0,0 +1,198 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TrainerSamplePublisherTest {
+
+  private static TrainerSample sample(int i) {
+    return new TrainerSample(i, 0, 0, i, 0, System.nanoTime());
+  }
+
+  /**
+   * Records samples with the thread and time they arrived, taking delay ms
+   * over each one
+   */
+  private static class Recorder implements TrainerSampleListener {
+
+    final List<TrainerSample> samples = new CopyOnWriteArrayList<TrainerSample>();
+
+    final List<Long> times = new CopyOnWriteArrayList<Long>();
+
+    final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+    private final long delay;
+
+    private volatile CountDownLatch latch;
+
+    private volatile double awaitedDistance = -1;
+
+    Recorder(long delay) {
+      this.delay = delay;
+    }
+
+    @Override
+    public void onSample(TrainerSample sample) {
+      times.add(System.nanoTime());
+      threads.add(Thread.currentThread());
+      samples.add(sample);
+      if (delay > 0) {
+        try {
+          Thread.sleep(delay);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      CountDownLatch latch = this.latch;
+      if (latch != null && sample.getDistance() == awaitedDistance) {
+        latch.countDown();
+      }
+    }
+
+    /**
+     * Must be called before the sample is published
+     */
+    void expect(double distance) {
+      awaitedDistance = distance;
+      latch = new CountDownLatch(1);
+    }
+
+    boolean await() throws InterruptedException {
+      return latch.await(5, TimeUnit.SECONDS);
+    }
+
+  }
+
+  @Test
+  public void testDirectListenerGetsEverySampleOnPublishingThread() {
+    TrainerSamplePublisher publisher = new TrainerSamplePublisher();
+    assertFalse(publisher.hasListeners());
+    Recorder recorder = new Recorder(0);
+    publisher.addListener(recorder);
+    assertTrue(publisher.hasListeners());
+    for (int i = 0 ; i < 100 ; i++) {
+      publisher.publish(sample(i));
+    }
+    assertEquals(100, recorder.samples.size());
+    for (int i = 0 ; i < 100 ; i++) {
+      assertEquals(i, recorder.samples.get(i).getDistance(), 0.0);
+      assertSame(Thread.currentThread(), recorder.threads.get(i));
+    }
+
+    publisher.removeListener(recorder);
+    assertFalse(publisher.hasListeners());
+    publisher.publish(sample(100));
+    assertEquals(100, recorder.samples.size());
+  }
+
+  @Test
+  public void testSlowListenerDoesNotHoldUpPublisher() throws InterruptedException {
+    TrainerSamplePublisher publisher = new TrainerSamplePublisher();
+    Recorder slow = new Recorder(20);
+    Recorder fast = new Recorder(0);
+    publisher.addListener(slow, 0, TimeUnit.MILLISECONDS);
+    publisher.addListener(fast);
+
+    int count = 1000;
+    slow.expect(count - 1);
+    long start = System.nanoTime();
+    for (int i = 0 ; i < count ; i++) {
+      publisher.publish(sample(i));
+    }
+    long elapsed = System.nanoTime() - start;
+    assertEquals(count, fast.samples.size());
+    // at 20ms per sample the slow listener would take 20s
+    assertTrue("publishing took " + elapsed / 1000000 + "ms",
+        elapsed < TimeUnit.SECONDS.toNanos(1));
+
+    // coalesced down to a few, always in order and ending with the latest
+    assertTrue(slow.await());
+    assertTrue(slow.samples.size() < count / 10);
+    double last = -1;
+    for (TrainerSample sample : slow.samples) {
+      assertTrue(sample.getDistance() > last);
+      last = sample.getDistance();
+    }
+    assertNotSame(Thread.currentThread(), slow.threads.get(0));
+    publisher.removeListener(slow);
+  }
+
+  @Test
+  public void testMinimumInterval() throws InterruptedException {
+    TrainerSamplePublisher publisher = new TrainerSamplePublisher();
+    Recorder recorder = new Recorder(0);
+    long interval = 50;
+    publisher.addListener(recorder, interval, TimeUnit.MILLISECONDS);
+
+    // 500ms of samples at 1kHz
+    int count = 500;
+    recorder.expect(count - 1);
+    long start = System.nanoTime();
+    for (int i = 0 ; i < count ; i++) {
+      publisher.publish(sample(i));
+      Thread.sleep(1);
+    }
+    assertTrue(recorder.await());
+    long elapsed = recorder.times.get(recorder.times.size() - 1) - start;
+
+    int delivered = recorder.times.size();
+    long maximum = elapsed / TimeUnit.MILLISECONDS.toNanos(interval) + 1;
+    assertTrue("delivered " + delivered + " of " + count, delivered >= 3 && delivered <= maximum);
+    for (int i = 1 ; i < delivered ; i++) {
+      long gap = recorder.times.get(i) - recorder.times.get(i - 1);
+      // less the time between the delivery thread starting and the listener
+      // being called
+      assertTrue("gap of " + gap + "ns", gap >= TimeUnit.MILLISECONDS.toNanos(interval - 1));
+    }
+    publisher.removeListener(recorder);
+  }
+
+  @Test
+  public void testRemovedListenerGetsNoMoreSamples() throws InterruptedException {
+    TrainerSamplePublisher publisher = new TrainerSamplePublisher();
+    Recorder recorder = new Recorder(0);
+    publisher.addListener(recorder, 200, TimeUnit.MILLISECONDS);
+    recorder.expect(0);
+    publisher.publish(sample(0));
+    assertTrue(recorder.await());
+
+    // would be delivered after the interval
+    publisher.publish(sample(1));
+    publisher.removeListener(recorder);
+    Thread.sleep(400);
+    assertEquals(1, recorder.samples.size());
+
+    // and a new delivery thread is started when needed
+    publisher.addListener(recorder, 0, TimeUnit.MILLISECONDS);
+    recorder.expect(2);
+    publisher.publish(sample(2));
+    assertTrue(recorder.await());
+    publisher.removeListener(recorder);
+  }
+
+}
@@ -0,0 +1,206 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers.bushido.headunit;
+
+import static org.cowboycoders.ant.utils.ArrayUtils.*;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.cowboycoders.ant.messages.data.BroadcastDataMessage;
+import org.cowboycoders.ant.utils.ArrayUtils;
+import org.junit.Test;
+
+public class BushidoBroadcastDataListenerTest {
+
+  // as logged by AntTransceiverTest
+  private static final byte [] PAUSED = {(byte) 0xad, 0x01, 0x03, 0x0a, 0x00, 0x00, 0x0a, 0x02};
+  private static final byte [] REQUEST_DATA = {(byte) 0xad, 0x01, 0x02, 0x0a, 0x00, 0x00, 0x0a, 0x02};
+  // 25.3km/h, 212W, 91rpm
+  private static final byte [] SPEED_POWER_CADENCE = {(byte) 0xdd, 0x01, 0x00, (byte) 0xfd, 0x00, (byte) 0xd4, 0x5b, 0x00};
+  // 12345m, 142bpm
+  private static final byte [] DISTANCE_HEART_RATE = {(byte) 0xdd, 0x02, 0x00, 0x00, 0x30, 0x39, (byte) 0x8e, 0x00};
+  private static final byte [] BUTTON_PRESS = {(byte) 0xdd, 0x10, 0x02, 0x00, 0x00, 0x00, 0x00, 0x00};
+
+  /**
+   * Records each callback as a string
+   */
+  private static class RecordingListener implements BushidoInternalListener {
+
+    final List<String> events = new ArrayList<String>();
+
+    @Override
+    public void onSpeedPowerCadenceChange(double speed, double power, double cadence) {
+      events.add("spc " + speed + " " + power + " " + cadence);
+    }
+
+    @Override
+    public void onDistanceHeartRateChange(double distance, double heartRate) {
+      events.add("dhr " + distance + " " + heartRate);
+    }
+
+    @Override
+    public void onRequestPauseStatus() {
+      events.add("paused");
+    }
+
+    @Override
+    public void onRequestData() {
+      events.add("request data");
+    }
+
+    @Override
+    public void onRequestKeepAlive() {
+      events.add("keep alive");
+    }
+
+    @Override
+    public void onSpeedChange(double speed) {
+      events.add("speed " + speed);
+    }
+
+    @Override
+    public void onPowerChange(double power) {
+      events.add("power " + power);
+    }
+
+    @Override
+    public void onCadenceChange(double cadence) {
+      events.add("cadence " + cadence);
+    }
+
+    @Override
+    public void onDistanceChange(double distance) {
+      events.add("distance " + distance);
+    }
+
+    @Override
+    public void onHeartRateChange(double heartRate) {
+      events.add("heart rate " + heartRate);
+    }
+
+    @Override
+    public void onButtonPressFinished(BushidoButtonPressDescriptor descriptor) {
+    }
+
+    @Override
+    public void onButtonPressActive(BushidoButtonPressDescriptor descriptor) {
+    }
+
+  }
+
+  private static BroadcastDataMessage message(byte [] data) {
+    BroadcastDataMessage message = new BroadcastDataMessage();
+    message.setData(data);
+    return message;
+  }
+
+  private static List<String> decode(byte [] ... packets) {
+    RecordingListener recorder = new RecordingListener();
+    BushidoBroadcastDataListener listener = new BushidoBroadcastDataListener(recorder);
+    for (byte [] packet : packets) {
+      listener.receiveMessage(message(packet));
+    }
+    return recorder.events;
+  }
+
+  /**
+   * The decoder this replaced, apart from keeping the tenths of km/h
+   */
+  private static final Byte [] PARTIAL_PACKET_PAUSED = {(byte) 0xAD , 0x01 , 0x03};
+  private static final Byte [] PARTIAL_PACKET_REQUEST_DATA = {(byte) 0xAD, 0x01, 0x02};
+  private static final Byte [] PARTIAL_PACKET_SPEED_POWER_CADENCE = {(byte) 0xDD,(byte) 0x01};
+  private static final Byte [] PARTIAL_PACKET_DISTANCE_HEART_RATE = {(byte) 0xDD,(byte) 0x02};
+
+  private static void referenceDecode(BroadcastDataMessage message, BushidoInternalListener listener) {
+    Byte [] data = message.getData();
+    int [] unsignedData = ArrayUtils.unsignedBytesToInts(data);
+    if (arrayStartsWith(PARTIAL_PACKET_SPEED_POWER_CADENCE, data)) {
+      listener.onSpeedPowerCadenceChange(((unsignedData [2] << 8) + unsignedData [3]) / 10.0,
+          (unsignedData [4] << 8) + unsignedData [5], unsignedData [6]);
+    } else if (arrayStartsWith(PARTIAL_PACKET_DISTANCE_HEART_RATE, data)) {
+      listener.onDistanceHeartRateChange(((long)unsignedData [2] << 24) + (unsignedData [3] << 16)
+          + (unsignedData [4] << 8) + unsignedData [5], unsignedData [6]);
+    } else if (arrayStartsWith(PARTIAL_PACKET_PAUSED, data)) {
+      listener.onRequestPauseStatus();
+    } else if (arrayStartsWith(PARTIAL_PACKET_REQUEST_DATA, data)) {
+      listener.onRequestData();
+    }
+  }
+
+  @Test
+  public void testDataPagesGiveOneUpdateEach() {
+    List<String> events = decode(SPEED_POWER_CADENCE, DISTANCE_HEART_RATE);
+    assertEquals(2, events.size());
+    assertEquals("spc 25.3 212.0 91.0", events.get(0));
+    assertEquals("dhr 12345.0 142.0", events.get(1));
+  }
+
+  @Test
+  public void testRequests() {
+    List<String> events = decode(PAUSED, REQUEST_DATA);
+    assertEquals(2, events.size());
+    assertEquals("paused", events.get(0));
+    assertEquals("request data", events.get(1));
+  }
+
+  @Test
+  public void testLargeValuesAreUnsigned() {
+    byte [] spc = {(byte) 0xdd, 0x01, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x00};
+    byte [] dhr = {(byte) 0xdd, 0x02, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x00};
+    List<String> events = decode(spc, dhr);
+    assertEquals("spc 6553.5 65535.0 255.0", events.get(0));
+    assertEquals("dhr 4.294967295E9 255.0", events.get(1));
+  }
+
+  @Test
+  public void testOtherPagesIgnored() {
+    byte [] keepAlive = {(byte) 0xac, 0x03, 0x02, 0x00, 0x00, 0x00, 0x00, 0x00};
+    byte [] otherRequest = {(byte) 0xad, 0x01, 0x07, 0x00, 0x00, 0x00, 0x00, 0x00};
+    byte [] otherData = {(byte) 0xdd, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00};
+    assertTrue(decode(BUTTON_PRESS, keepAlive, otherRequest, otherData).isEmpty());
+  }
+
+  @Test
+  public void testMatchesReferenceDecoder() {
+    byte [][] prefixes = {
+        {(byte) 0xdd, 0x01}, {(byte) 0xdd, 0x02}, {(byte) 0xdd, 0x10}, {(byte) 0xad, 0x01, 0x02},
+        {(byte) 0xad, 0x01, 0x03}, {(byte) 0xad, 0x02}, {(byte) 0xdc, 0x01}, {}
+    };
+    Random random = new Random(0);
+    RecordingListener expected = new RecordingListener();
+    RecordingListener actual = new RecordingListener();
+    BushidoBroadcastDataListener listener = new BushidoBroadcastDataListener(actual);
+    for (int i = 0 ; i < 10000 ; i++) {
+      byte [] packet = new byte[8];
+      random.nextBytes(packet);
+      byte [] prefix = prefixes[random.nextInt(prefixes.length)];
+      System.arraycopy(prefix, 0, packet, 0, prefix.length);
+      BroadcastDataMessage message = message(packet);
+      referenceDecode(message, expected);
+      listener.receiveMessage(message);
+    }
+    assertFalse(expected.events.isEmpty());
+    assertEquals(expected.events, actual.events);
+  }
+
+}
@@ -0,0 +1,261 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.turbotrainers.fec;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cowboycoders.ant.Node;
+import org.cowboycoders.ant.interfaces.simulated.FitnessEquipmentDevice;
+import org.cowboycoders.ant.interfaces.simulated.SimulatedAntTransceiver;
+import org.cowboycoders.turbotrainers.TrainerSample;
+import org.cowboycoders.turbotrainers.TrainerSampleListener;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Runs the driver against a simulated FE-C trainer on an in-process chip
+ */
+public class FecTrainerTest {
+
+  private static final double PAGE_RATE = 40;
+
+  private SimulatedAntTransceiver chip;
+  private FitnessEquipmentDevice device;
+  private Node node;
+  private FecTrainer trainer;
+
+  private void start() throws Exception {
+    start(false);
+  }
+
+  private void start(boolean virtualSpeed) throws Exception {
+    chip = new SimulatedAntTransceiver(8, 8, new Random(0));
+    device = new FitnessEquipmentDevice(1234);
+    device.setRate(PAGE_RATE);
+    chip.addDevice(device);
+    node = new Node(chip);
+    trainer = new FecTrainer(node);
+    trainer.setVirtualSpeed(virtualSpeed);
+    trainer.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (trainer != null) {
+      trainer.stop();
+    }
+    if (node != null) {
+      node.stop();
+    }
+  }
+
+  private void waitForGrade(double grade) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (Math.abs(device.getGrade() - grade) > 0.001 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(grade, device.getGrade(), 0.001);
+  }
+
+  @Test
+  public void testDecodesTrainerPages() throws Exception {
+    start();
+    device.setSpeed(36);
+    device.setPower(250);
+    device.setCadence(85);
+    device.setHeartRate(140);
+
+    final CountDownLatch latch = new CountDownLatch(1);
+    final TrainerSample [] last = new TrainerSample[1];
+    trainer.registerSampleListener(new TrainerSampleListener() {
+      @Override
+      public void onSample(TrainerSample sample) {
+        if (sample.getPower() == 250 && sample.getHeartRate() == 140 
+            && sample.getDistance() > 5) {
+          last[0] = sample;
+          latch.countDown();
+        }
+      }
+    });
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+    assertEquals(36, last[0].getSpeed(), 0.01);
+    assertEquals(85, last[0].getCadence(), 0.0);
+  }
+
+  @Test
+  public void testSendsGradeOnlyOnChange() throws Exception {
+    start();
+    for (int i = 0 ; i < 50 ; i++) {
+      trainer.setSlope(5);
+    }
+    waitForGrade(5);
+    Thread.sleep(200);
+    assertEquals(1, device.getTrackResistancePages());
+
+    // below the resolution of the page
+    trainer.setSlope(5.004);
+    Thread.sleep(200);
+    assertEquals(1, device.getTrackResistancePages());
+
+    trainer.setSlope(-3);
+    waitForGrade(-3);
+    assertEquals(2, device.getTrackResistancePages());
+    assertEquals(2, trainer.getCommandsSent());
+    assertEquals(-3, trainer.getSlope(), 0.0);
+  }
+
+  @Test
+  public void testCommandLatencyAndPacketRate() throws Exception {
+    start();
+    final AtomicInteger pages = new AtomicInteger();
+    trainer.registerSampleListener(new TrainerSampleListener() {
+      @Override
+      public void onSample(TrainerSample sample) {
+        pages.incrementAndGet();
+      }
+    });
+
+    long began = System.nanoTime();
+    long totalLatency = 0;
+    long worstLatency = 0;
+    int changes = 20;
+    for (int i = 1 ; i <= changes ; i++) {
+      long sent = System.nanoTime();
+      trainer.setSlope(i * 0.5);
+      waitForGrade(i * 0.5);
+      long latency = device.getGradeNanos() - sent;
+      totalLatency += latency;
+      worstLatency = Math.max(worstLatency, latency);
+      // a controller changing the grade as fast as pages arrive
+      Thread.sleep((long) (1000 / PAGE_RATE));
+    }
+    double seconds = (System.nanoTime() - began) / 1e9;
+
+    assertTrue("mean latency " + totalLatency / changes + " ns",
+        totalLatency / changes < TimeUnit.MILLISECONDS.toNanos(100));
+    assertTrue("worst latency " + worstLatency + " ns",
+        worstLatency < TimeUnit.MILLISECONDS.toNanos(500));
+    assertEquals(changes, device.getTrackResistancePages());
+    // control traffic mustn't starve the data pages
+    assertTrue(pages.get() + " pages in " + seconds + " s", pages.get() > PAGE_RATE * seconds / 2);
+  }
+
+  @Test
+  public void testRetriesFailedTransfers() throws Exception {
+    start();
+    chip.setLossProbability(0.5);
+    trainer.setMaxRetries(20);
+    for (int i = 1 ; i <= 10 ; i++) {
+      trainer.setSlope(i);
+      waitForGrade(i);
+    }
+    // wait for the last acknowledgement
+    Thread.sleep(200);
+    assertTrue(trainer.getCommandRetries() > 0);
+    assertEquals(0, trainer.getCommandFailures());
+    assertEquals(trainer.getCommandsSent(), device.getTrackResistancePages());
+  }
+
+  @Test
+  public void testBacksOffWhenRetriesRunOut() throws Exception {
+    start();
+    chip.setLossProbability(1.0);
+    trainer.setMaxRetries(2);
+    trainer.setSlope(4);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (trainer.getCommandFailures() == 0 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(1, trainer.getCommandFailures());
+    assertEquals(3, trainer.getCommandsSent());
+    assertEquals(2, trainer.getCommandRetries());
+
+    // picked up again after backing off, without another slope being set
+    chip.setLossProbability(0);
+    deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (trainer.getCommandsSent() < 4 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    Thread.sleep(200);
+    assertEquals(4, trainer.getCommandsSent());
+    assertEquals(1, trainer.getCommandFailures());
+    assertEquals(4, device.getGrade(), 0.001);
+  }
+
+  @Test
+  public void testVirtualSpeedFromPower() throws Exception {
+    // a trainer that only measures power
+    start(true);
+    device.setSpeed(0);
+    device.setPower(400);
+    final AtomicReference<TrainerSample> latest = new AtomicReference<TrainerSample>();
+    trainer.registerSampleListener(new TrainerSampleListener() {
+      @Override
+      public void onSample(TrainerSample sample) {
+        latest.set(sample);
+      }
+    });
+
+    Thread.sleep(1000);
+    TrainerSample sample = latest.get();
+    assertEquals(400, sample.getPower(), 0.0);
+    assertTrue("speed " + sample.getSpeed(), sample.getSpeed() > 5);
+    assertTrue("distance " + sample.getDistance(), sample.getDistance() > 0);
+
+    // freewheeling up a wall stops the bike, and it doesn't roll back
+    device.setPower(0);
+    trainer.setSlope(20);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (latest.get().getSpeed() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(0, latest.get().getSpeed(), 0.0);
+    double distance = latest.get().getDistance();
+    Thread.sleep(200);
+    assertEquals(distance, latest.get().getDistance(), 0.0);
+  }
+
+  @Test
+  public void testSendsGradeAfterRestartDuringBackOff() throws Exception {
+    start();
+    chip.setLossProbability(1.0);
+    trainer.setMaxRetries(0);
+    trainer.setSlope(4);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (trainer.getCommandFailures() == 0 && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+    assertEquals(1, trainer.getCommandFailures());
+
+    // drops the resend scheduled for after the back off
+    trainer.stop();
+    chip.setLossProbability(0);
+    trainer.start();
+    trainer.setSlope(6);
+    waitForGrade(6);
+  }
+
+}
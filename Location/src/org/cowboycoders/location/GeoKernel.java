@@ -0,0 +1,187 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.location;
+
+/**
+ * Batch versions of the spherical formulae in {@link LocationUtils}, working
+ * on parallel arrays of latitudes and longitudes in degrees. The trig of each
+ * point is worked out once and shared by the segments either side of it.
+ *
+ * The fast variants use the equirectangular approximation for segments
+ * spanning less than {@link #FAST_PATH_MAX_ANGLE} of latitude and longitude,
+ * away from the poles, where it is within {@link #FAST_PATH_MAX_ERROR}
+ * (relative) of the haversine distance. It needs no trig beyond the cosines
+ * of the latitudes.
+ *
+ * see http://www.movable-type.co.uk/scripts/latlong.html
+ */
+public class GeoKernel {
+
+  /**
+   * largest difference in latitude or longitude, in radians, handled by the
+   * fast path: about 6km
+   */
+  public static final double FAST_PATH_MAX_ANGLE = 1e-3;
+
+  /**
+   * fast path is not used above this absolute latitude, in radians
+   */
+  public static final double FAST_PATH_MAX_LATITUDE = Math.toRadians(80);
+
+  /**
+   * bound on the relative error of the fast path
+   */
+  public static final double FAST_PATH_MAX_ERROR = 1e-6;
+
+  private GeoKernel() {
+
+  }
+
+  /**
+   * @param latitudes in degrees
+   * @param cosines receives the cosine of each latitude, may be latitudes
+   */
+  public static void cosLatitudes(double [] latitudes, int count, double [] cosines) {
+    for (int i = 0 ; i < count ; i++) {
+      cosines[i] = Math.cos(Math.toRadians(latitudes[i]));
+    }
+  }
+
+  /**
+   * Haversine distance, given the cosines of the latitudes
+   * @return distance in m
+   */
+  public static double distance(double lat1, double lon1, double cosLat1,
+      double lat2, double lon2, double cosLat2) {
+    double sinDLat = Math.sin(Math.toRadians(lat2 - lat1) / 2);
+    double sinDLon = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+    double a = sinDLat * sinDLat + sinDLon * sinDLon * cosLat1 * cosLat2;
+    double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    return LocationUtils.EARTH_RADIUS * c;
+  }
+
+  /**
+   * Equirectangular distance where it is accurate, otherwise haversine
+   * @return distance in m
+   */
+  public static double fastDistance(double lat1, double lon1, double cosLat1,
+      double lat2, double lon2, double cosLat2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLon = Math.toRadians(lon2 - lon1);
+    if (Math.abs(dLat) < FAST_PATH_MAX_ANGLE && Math.abs(dLon) < FAST_PATH_MAX_ANGLE
+        && Math.abs(Math.toRadians(lat1)) < FAST_PATH_MAX_LATITUDE) {
+      // mean of the cosines rather than the cosine of the mean latitude
+      double x = dLon * (cosLat1 + cosLat2) / 2;
+      return LocationUtils.EARTH_RADIUS * Math.sqrt(x * x + dLat * dLat);
+    }
+    return distance(lat1, lon1, cosLat1, lat2, lon2, cosLat2);
+  }
+
+  /**
+   * out[i] receives the distance from point i to point i + 1
+   * @param count number of points
+   */
+  public static void distances(double [] latitudes, double [] longitudes, int count, double [] out) {
+    distances(latitudes, longitudes, count, out, false);
+  }
+
+  /**
+   * As {@link #distances(double[], double[], int, double[])}
+   * @param fast use the equirectangular fast path where it is accurate
+   */
+  public static void distances(double [] latitudes, double [] longitudes, int count, double [] out,
+      boolean fast) {
+    if (count < 2) {
+      return;
+    }
+    double cosPrevious = Math.cos(Math.toRadians(latitudes[0]));
+    for (int i = 1 ; i < count ; i++) {
+      double cos = Math.cos(Math.toRadians(latitudes[i]));
+      out[i - 1] = fast ? fastDistance(latitudes[i - 1], longitudes[i - 1], cosPrevious,
+          latitudes[i], longitudes[i], cos) : distance(latitudes[i - 1], longitudes[i - 1], cosPrevious,
+          latitudes[i], longitudes[i], cos);
+      cosPrevious = cos;
+    }
+  }
+
+  /**
+   * out[i] receives the distance along the path from point 0 to point i
+   * @param out may be null if only the total is wanted
+   * @return length of the path in m
+   */
+  public static double cumulativeDistance(double [] latitudes, double [] longitudes, int count,
+      double [] out) {
+    return cumulativeDistance(latitudes, longitudes, count, out, false);
+  }
+
+  /**
+   * As {@link #cumulativeDistance(double[], double[], int, double[])}
+   * @param fast use the equirectangular fast path where it is accurate
+   */
+  public static double cumulativeDistance(double [] latitudes, double [] longitudes, int count,
+      double [] out, boolean fast) {
+    if (count < 1) {
+      return 0.0;
+    }
+    double total = 0.0;
+    if (out != null) {
+      out[0] = 0.0;
+    }
+    double cosPrevious = Math.cos(Math.toRadians(latitudes[0]));
+    for (int i = 1 ; i < count ; i++) {
+      double cos = Math.cos(Math.toRadians(latitudes[i]));
+      total += fast ? fastDistance(latitudes[i - 1], longitudes[i - 1], cosPrevious,
+          latitudes[i], longitudes[i], cos) : distance(latitudes[i - 1], longitudes[i - 1], cosPrevious,
+          latitudes[i], longitudes[i], cos);
+      if (out != null) {
+        out[i] = total;
+      }
+      cosPrevious = cos;
+    }
+    return total;
+  }
+
+  /**
+   * out[i] receives the initial bearing from point i to point i + 1, in
+   * degrees clockwise from north in the range [0, 360)
+   * @param count number of points
+   */
+  public static void bearings(double [] latitudes, double [] longitudes, int count, double [] out) {
+    if (count < 2) {
+      return;
+    }
+    double lat = Math.toRadians(latitudes[0]);
+    double sinPrevious = Math.sin(lat);
+    double cosPrevious = Math.cos(lat);
+    for (int i = 1 ; i < count ; i++) {
+      lat = Math.toRadians(latitudes[i]);
+      double sin = Math.sin(lat);
+      double cos = Math.cos(lat);
+      double dLon = Math.toRadians(longitudes[i] - longitudes[i - 1]);
+      double y = Math.sin(dLon) * cos;
+      double x = cosPrevious * sin - sinPrevious * cos * Math.cos(dLon);
+      double bearing = Math.toDegrees(Math.atan2(y, x));
+      out[i - 1] = bearing < 0 ? bearing + 360 : bearing;
+      sinPrevious = sin;
+      cosPrevious = cos;
+    }
+  }
+
+}
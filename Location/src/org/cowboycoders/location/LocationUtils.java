@@ -65,11 +65,15 @@ public class LocationUtils {
    * @return distance in m
    */
   public static double distance(LatLong point1, LatLong point2) {
-    double lat1 = point1.getLatitude();
-    double lon1 = point1.getLongitude();
-    double lat2 = point2.getLatitude();
-    double lon2 = point2.getLongitude();
-
+    return distance(point1.getLatitude(), point1.getLongitude(),
+        point2.getLatitude(), point2.getLongitude());
+  }
+  
+  /**
+   * As {@link #distance(LatLong, LatLong)}, for coordinates in degrees
+   * @return distance in m
+   */
+  public static double distance(double lat1, double lon1, double lat2, double lon2) {
     double dLat = Math.toRadians(lat2-lat1);
     double dLon = Math.toRadians(lon2-lon1);
     
@@ -84,16 +88,158 @@ public class LocationUtils {
     return d;
   }
   
+  /**
+   * Receives the points produced by
+   * {@link LocationUtils#interpolatePoints(List, double, boolean, PointSink)}
+   */
+  public interface PointSink {
+    void point(double latitude, double longitude, double altitude);
+  }
+  
+  /**
+   * Number of pieces a segment is split into: by repeated bisection, the
+   * smallest power of two leaving each piece shorter than maximumDistance,
+   * otherwise the smallest count of equal pieces that does.
+   */
+  private static int subdivisions(double distance, double maximumDistance, boolean equalDistance) {
+    double ratio = distance / maximumDistance;
+    if (ratio < 1) {
+      return 1;
+    }
+    if (equalDistance) {
+      return (int) Math.floor(ratio) + 1;
+    }
+    // 2^e <= ratio < 2^(e+1)
+    return 1 << (Math.getExponent(ratio) + 1);
+  }
+  
+  private static void checkMaximumDistance(double maximumDistance) {
+    if (!(maximumDistance > 0)) {
+      throw new IllegalArgumentException("maximumDistance must be positive: " + maximumDistance);
+    }
+  }
+  
+  /**
+   * Emits the points strictly between point1 and point2 that split it into
+   * the given number of pieces, along the great circle with the altitude
+   * linearly interpolated.
+   * see http://www.movable-type.co.uk/scripts/latlong.html (intermediate point)
+   */
+  private static void interpolateSegment(LatLongAlt point1, LatLongAlt point2, double distance,
+      int pieces, PointSink sink) {
+    if (pieces < 2) {
+      return;
+    }
+    double lat1 = Math.toRadians(point1.getLatitude());
+    double lon1 = Math.toRadians(point1.getLongitude());
+    double lat2 = Math.toRadians(point2.getLatitude());
+    double lon2 = Math.toRadians(point2.getLongitude());
+    double alt1 = point1.getAltitude();
+    double dAlt = point2.getAltitude() - alt1;
+    
+    double x1 = Math.cos(lat1) * Math.cos(lon1);
+    double y1 = Math.cos(lat1) * Math.sin(lon1);
+    double z1 = Math.sin(lat1);
+    double x2 = Math.cos(lat2) * Math.cos(lon2);
+    double y2 = Math.cos(lat2) * Math.sin(lon2);
+    double z2 = Math.sin(lat2);
+    
+    double angle = distance / EARTH_RADIUS;
+    double sinAngle = Math.sin(angle);
+    
+    for (int j = 1 ; j < pieces ; j++) {
+      double fraction = j / (double) pieces;
+      double a = Math.sin((1 - fraction) * angle) / sinAngle;
+      double b = Math.sin(fraction * angle) / sinAngle;
+      double x = a * x1 + b * x2;
+      double y = a * y1 + b * y2;
+      double z = a * z1 + b * z2;
+      sink.point(Math.toDegrees(Math.atan2(z, Math.sqrt(x * x + y * y))),
+          Math.toDegrees(Math.atan2(y, x)), alt1 + fraction * dAlt);
+    }
+  }
+  
+  /**
+   * Streams locations, with extra points inserted so that no two consecutive
+   * points are maximumDistance or more apart, without building intermediate
+   * lists.
+   * @param equalDistance if false, the same points as repeated midpoint
+   *          bisection, otherwise the fewest equally spaced points
+   */
+  public static void interpolatePoints(List<LatLongAlt> locations, double maximumDistance,
+      boolean equalDistance, PointSink sink) {
+    checkMaximumDistance(maximumDistance);
+    LatLongAlt previous = null;
+    for (LatLongAlt location : locations) {
+      if (previous != null) {
+        double distance = distance(previous, location);
+        interpolateSegment(previous, location, distance,
+            subdivisions(distance, maximumDistance, equalDistance), sink);
+      }
+      sink.point(location.getLatitude(), location.getLongitude(), location.getAltitude());
+      previous = location;
+    }
+  }
+  
+  /**
+   * @return number of points {@link #interpolatePoints(List, double, boolean, PointSink)}
+   *          will emit
+   */
+  public static int countInterpolatedPoints(List<LatLongAlt> locations, double maximumDistance,
+      boolean equalDistance) {
+    checkMaximumDistance(maximumDistance);
+    int count = 0;
+    LatLongAlt previous = null;
+    for (LatLongAlt location : locations) {
+      if (previous != null) {
+        count += subdivisions(distance(previous, location), maximumDistance, equalDistance) - 1;
+      }
+      count++;
+      previous = location;
+    }
+    return count;
+  }
+  
+  /**
+   * Writes the interpolated points into coordinates as latitude, longitude,
+   * altitude triples starting at offset. Size it with
+   * {@link #countInterpolatedPoints(List, double, boolean)}.
+   * @return number of points written
+   */
+  public static int interpolatePoints(List<LatLongAlt> locations, double maximumDistance,
+      boolean equalDistance, final double [] coordinates, final int offset) {
+    final int [] index = {offset};
+    interpolatePoints(locations, maximumDistance, equalDistance, new PointSink() {
+      @Override
+      public void point(double latitude, double longitude, double altitude) {
+        int i = index[0];
+        coordinates[i] = latitude;
+        coordinates[i + 1] = longitude;
+        coordinates[i + 2] = altitude;
+        index[0] = i + 3;
+      }
+    });
+    return (index[0] - offset) / 3;
+  }
+  
+  private static class ListSink implements PointSink {
+    
+    final List<LatLongAlt> points;
+    
+    ListSink(List<LatLongAlt> points) {
+      this.points = points;
+    }
+    
+    @Override
+    public void point(double latitude, double longitude, double altitude) {
+      points.add(new LatLongAlt(latitude, longitude, altitude));
+    }
+  }
 
   public static List<LatLongAlt> interpolatePoints(List<LatLongAlt> locations, double maximumDistance) {
-    List<LatLongAlt> rtn = new ArrayList<LatLongAlt>();
-    for (int i = 0 ; i< locations.size() -1 ; i++) {
-      // add points to the left
-      rtn.add(locations.get(i));
-      rtn.addAll(interpolateBetweenPoints(locations.get(i),locations.get(i + 1), maximumDistance));
-    }
-    // add right most
-    rtn.add(locations.get(locations.size() -1));
+    List<LatLongAlt> rtn = new ArrayList<LatLongAlt>(
+        countInterpolatedPoints(locations, maximumDistance, false));
+    interpolatePoints(locations, maximumDistance, false, new ListSink(rtn));
     return rtn;
   }
   
@@ -104,18 +250,14 @@ public class LocationUtils {
    * @param maximumDistance max distance between two points in m
    */
   public static List<LatLongAlt> interpolateBetweenPoints(LatLongAlt point1, LatLongAlt point2, final double maximumDistance ) {
-    if (distance(point1,point2) < maximumDistance) {
+    checkMaximumDistance(maximumDistance);
+    double distance = distance(point1,point2);
+    int pieces = subdivisions(distance, maximumDistance, false);
+    if (pieces < 2) {
       return Collections.<LatLongAlt>emptyList();
     }
-    List<LatLongAlt> left = new ArrayList<LatLongAlt>();
-    List<LatLongAlt> right = new ArrayList<LatLongAlt>();
-    LatLongAlt midpoint = midPoint(point1,point2);
-    left = interpolateBetweenPoints(point1,midpoint,maximumDistance);
-    right = interpolateBetweenPoints(midpoint,point2,maximumDistance);
-    List<LatLongAlt> rtn = new ArrayList<LatLongAlt>(left.size() + 1 + right.size());
-    rtn.addAll(left);
-    rtn.add(midpoint);
-    rtn.addAll(right);
+    List<LatLongAlt> rtn = new ArrayList<LatLongAlt>(pieces - 1);
+    interpolateSegment(point1, point2, distance, pieces, new ListSink(rtn));
     return rtn;
   }
   
@@ -48,27 +48,161 @@ public class PolyLineUtils {
 	public static int CHUNK_SIZE = 5;
 	public static int ASCII_OFFSET = 63;
 	
+	/**
+	 * Precision used by the Google polyline format
+	 */
+	public static final int PRECISION_1E5 = 100000;
+	
+	/**
+	 * Precision used by OSRM and Valhalla style polylines
+	 */
+	public static final int PRECISION_1E6 = 1000000;
+	
+	/**
+	 * An int takes at most this many chunks
+	 */
+	private static final int MAX_CHUNKS = 7;
+	
+	/**
+	 * Receives decoded points in order
+	 */
+	public interface PointSink {
+		void point(double latitude, double longitude);
+	}
+	
+	private static class ListSink implements PointSink {
+		
+		private final List<LatLong> latLongs;
+		
+		ListSink(List<LatLong> latLongs) {
+			this.latLongs = latLongs;
+		}
+
+		@Override
+		public void point(double latitude, double longitude) {
+			latLongs.add(new LatLong(latitude, longitude));
+		}
+	}
+	
+	private static class ArraySink implements PointSink {
+		
+		private final double [] latitudes;
+		private final double [] longitudes;
+		private int count = 0;
+		
+		ArraySink(double [] latitudes, double [] longitudes) {
+			this.latitudes = latitudes;
+			this.longitudes = longitudes;
+		}
+
+		@Override
+		public void point(double latitude, double longitude) {
+			latitudes[count] = latitude;
+			longitudes[count] = longitude;
+			count++;
+		}
+	}
+	
+	private static void checkPrecision(int precision) {
+		if (precision <= 0) {
+			throw new IllegalArgumentException("precision must be positive: " + precision);
+		}
+	}
+	
 	/**
 	 * @param polyLine
 	 * @return
 	 */
 	public static List<LatLong> decode(CharSequence polyLine) throws DecodeException {
-		try{
-			List<LatLong> latLongs = new ArrayList<LatLong>();
-			TrackedCharSequence polyLineChars = new TrackedCharSequence(polyLine);
-			double latitude = 0;
-			double longitude = 0;
-			while (polyLineChars.hasNext()) {
-				//getValue iterates through the TrackedCharSequence
-				latitude += getValue(polyLineChars);
-				longitude += getValue(polyLineChars);
-				latLongs.add(new LatLong(latitude,longitude));
-			}
+		List<LatLong> latLongs = new ArrayList<LatLong>();
+		decode(polyLine, PRECISION_1E5, new ListSink(latLongs));
+		return latLongs;
+	}
+	
+	/**
+	 * Decodes a polyline point by point, without creating an object per point.
+	 * A trailing latitude with no longitude is treated as no change in longitude.
+	 * 
+	 * @param precision the coordinates were multiplied by, e.g. {@link #PRECISION_1E5}
+	 * @return number of points passed to sink
+	 * @throws DecodeException if the polyline ends part way through a value. Points
+	 *          before it will already have been passed to sink.
+	 */
+	public static int decode(CharSequence polyLine, int precision, PointSink sink) throws DecodeException {
+		checkPrecision(precision);
+		final double factor = precision;
+		final int length = polyLine.length();
+		int index = 0;
+		int points = 0;
+		// accumulate in fixed point so long polylines don't drift
+		int latitude = 0;
+		int longitude = 0;
+		boolean haveLatitude = false;
+		while (index < length) {
+			int result = 0;
+			int shift = 0;
+			int currentByte;
+			do {
+				if (index == length) {
+					throw new DecodeException("polyline truncated at character " + index);
+				}
+				currentByte = polyLine.charAt(index++) - ASCII_OFFSET;
+				//ignore extra chunk bit (use 5 bits from chunk)
+				result |= (currentByte & 0x1f) << shift;
+				shift += CHUNK_SIZE;
+			} while (currentByte >= 0x20); //6th bit set when an extra chunk is needed
+			
+			// the zero that was introduced from the initial left shift will have been inverted to one if original was negative
+			int value = ((result & 1) != 0) ? ~(result >> 1) : (result >> 1);
 			
-			return latLongs;
-		} catch (RuntimeException e) {
+			if (!haveLatitude) {
+				latitude += value;
+				haveLatitude = true;
+			} else {
+				longitude += value;
+				sink.point(latitude / factor, longitude / factor);
+				points++;
+				haveLatitude = false;
+			}
+		}
+		if (haveLatitude) {
+			sink.point(latitude / factor, longitude / factor);
+			points++;
+		}
+		return points;
+	}
+	
+	/**
+	 * Decodes into parallel arrays, which should hold at least
+	 * {@link #countPoints(CharSequence)} elements
+	 * 
+	 * @return number of points decoded
+	 */
+	public static int decode(CharSequence polyLine, int precision, double [] latitudes, double [] longitudes)
+			throws DecodeException {
+		ArraySink sink = new ArraySink(latitudes, longitudes);
+		try {
+			decode(polyLine, precision, sink);
+		} catch (ArrayIndexOutOfBoundsException e) {
 			throw new DecodeException(e);
 		}
+		return sink.count;
+	}
+	
+	/**
+	 * @return the number of points {@link #decode(CharSequence, int, PointSink)} will
+	 *          produce, without decoding them
+	 */
+	public static int countPoints(CharSequence polyLine) {
+		int values = 0;
+		final int length = polyLine.length();
+		for (int i = 0 ; i < length ; i++) {
+			// last chunk of each value has the continuation bit clear
+			if (polyLine.charAt(i) - ASCII_OFFSET < 0x20) {
+				values++;
+			}
+		}
+		return (values + 1) / 2;
 	}
 	
 	/**
@@ -78,15 +212,16 @@ public class PolyLineUtils {
 	 */
 	public static CharSequence encode(List<LatLong> latLongs) {
 		StringBuilder polyLine = new StringBuilder();
+		final double factor = PRECISION_1E5;
 		int lastLat = 0;
 		int lastLong = 0;
 		for (LatLong l : latLongs) {
 			
-			int currentLat = (int) Math.round(l.getLatitude() * Math.pow(10, 5));
-			int currentLong = (int) Math.round(l.getLongitude() * Math.pow(10, 5));
+			int currentLat = (int) Math.round(l.getLatitude() * factor);
+			int currentLong = (int) Math.round(l.getLongitude() * factor);
 			
-			polyLine.append(encodeNumber(currentLat - lastLat));
-			polyLine.append(encodeNumber(currentLong - lastLong));
+			appendNumber(polyLine, currentLat - lastLat);
+			appendNumber(polyLine, currentLong - lastLong);
 			
 			lastLat = currentLat;
 			lastLong = currentLong;
@@ -94,8 +229,72 @@ public class PolyLineUtils {
 		return polyLine;
 	}
 	
+	/**
+	 * Appends the first count points of the parallel arrays to polyLine, which
+	 * may be reused between calls after {@link StringBuilder#setLength(int)}
+	 * 
+	 * @param precision to multiply the coordinates by, e.g. {@link #PRECISION_1E5}
+	 * @return polyLine
+	 */
+	public static StringBuilder encode(double [] latitudes, double [] longitudes, int count, int precision,
+			StringBuilder polyLine) {
+		checkPrecision(precision);
+		final double factor = precision;
+		polyLine.ensureCapacity(polyLine.length() + count * 8);
+		int lastLat = 0;
+		int lastLong = 0;
+		for (int i = 0 ; i < count ; i++) {
+			int currentLat = (int) Math.round(latitudes[i] * factor);
+			int currentLong = (int) Math.round(longitudes[i] * factor);
+			
+			appendNumber(polyLine, currentLat - lastLat);
+			appendNumber(polyLine, currentLong - lastLong);
+			
+			lastLat = currentLat;
+			lastLong = currentLong;
+		}
+		return polyLine;
+	}
+	
+	/**
+	 * Encodes the first count points of the parallel arrays as ASCII into out,
+	 * which should have {@link #maxEncodedLength(int)} bytes free from offset
+	 * 
+	 * @return offset of the byte after the last one written
+	 */
+	public static int encode(double [] latitudes, double [] longitudes, int count, int precision,
+			byte [] out, int offset) {
+		checkPrecision(precision);
+		final double factor = precision;
+		int lastLat = 0;
+		int lastLong = 0;
+		for (int i = 0 ; i < count ; i++) {
+			int currentLat = (int) Math.round(latitudes[i] * factor);
+			int currentLong = (int) Math.round(longitudes[i] * factor);
+			
+			offset = putNumber(out, offset, currentLat - lastLat);
+			offset = putNumber(out, offset, currentLong - lastLong);
+			
+			lastLat = currentLat;
+			lastLong = currentLong;
+		}
+		return offset;
+	}
+	
+	/**
+	 * @return an upper bound on the encoded length of count points
+	 */
+	public static int maxEncodedLength(int count) {
+		return count * 2 * MAX_CHUNKS;
+	}
 	
 	public static CharSequence encodeNumber(int number) {
+		StringBuilder encoded = new StringBuilder();
+		appendNumber(encoded, number);
+		return encoded;
+	}
+	
+	private static void appendNumber(StringBuilder encoded, int number) {
 		
 		int shifted = number << 1;
 		
@@ -103,7 +302,6 @@ public class PolyLineUtils {
 			shifted = ~shifted;
 		}
 		
-	   StringBuilder encoded = new StringBuilder();
 	    while (shifted >= 0x20)
 	    {
 	        //while another chunk follows
@@ -112,7 +310,21 @@ public class PolyLineUtils {
 	        shifted >>= CHUNK_SIZE; //shift to next chunk
 	    }
 	    encoded.append((char)(shifted + ASCII_OFFSET));
-	    return encoded;
+	}
+	
+	private static int putNumber(byte [] encoded, int offset, int number) {
+		int shifted = number << 1;
+		
+		if (number < 0) {
+			shifted = ~shifted;
+		}
+		
+		while (shifted >= 0x20) {
+			encoded[offset++] = (byte)((0x20 | (shifted & 0x1f)) + ASCII_OFFSET);
+			shifted >>= CHUNK_SIZE;
+		}
+		encoded[offset++] = (byte)(shifted + ASCII_OFFSET);
+		return offset;
 	}
 
 	/**
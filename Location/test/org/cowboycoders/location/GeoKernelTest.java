@@ -0,0 +1,116 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.location;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GeoKernelTest {
+	
+	private static final int POINTS = 1000;
+	
+	private final double [] lats = new double[POINTS];
+	private final double [] lons = new double[POINTS];
+	
+	public GeoKernelTest() {
+		Random random = new Random(0);
+		double lat = 51.0;
+		double lon = -1.0;
+		for (int i = 0 ; i < POINTS ; i++) {
+			lats[i] = lat;
+			lons[i] = lon;
+			// mostly short steps with the odd long jump
+			double step = random.nextInt(20) == 0 ? 0.5 : 0.0005;
+			lat += (random.nextDouble() - 0.5) * step;
+			lon += (random.nextDouble() - 0.5) * step;
+		}
+	}
+	
+	@Test
+	public void testDistancesMatchLocationUtils() {
+		double [] out = new double[POINTS - 1];
+		GeoKernel.distances(lats, lons, POINTS, out);
+		for (int i = 0 ; i < POINTS - 1 ; i++) {
+			double expected = LocationUtils.distance(lats[i], lons[i], lats[i + 1], lons[i + 1]);
+			assertEquals(expected, out[i], expected * 1e-12);
+		}
+	}
+	
+	@Test
+	public void testCumulativeDistance() {
+		double [] segments = new double[POINTS - 1];
+		GeoKernel.distances(lats, lons, POINTS, segments);
+		double [] out = new double[POINTS];
+		double total = GeoKernel.cumulativeDistance(lats, lons, POINTS, out);
+		double sum = 0;
+		assertEquals(0.0, out[0], 0.0);
+		for (int i = 1 ; i < POINTS ; i++) {
+			sum += segments[i - 1];
+			assertEquals(sum, out[i], 1e-6);
+		}
+		assertEquals(sum, total, 1e-6);
+		assertEquals(total, GeoKernel.cumulativeDistance(lats, lons, POINTS, null), 0.0);
+	}
+	
+	@Test
+	public void testFastPathWithinBound() {
+		double [] exact = new double[POINTS - 1];
+		double [] fast = new double[POINTS - 1];
+		GeoKernel.distances(lats, lons, POINTS, exact);
+		GeoKernel.distances(lats, lons, POINTS, fast, true);
+		int approximated = 0;
+		for (int i = 0 ; i < POINTS - 1 ; i++) {
+			assertEquals(exact[i], fast[i], exact[i] * GeoKernel.FAST_PATH_MAX_ERROR);
+			if (exact[i] > 10000) {
+				// too long for the fast path
+				assertEquals(exact[i], fast[i], 0.0);
+			} else if (exact[i] < 1000) {
+				approximated++;
+			}
+		}
+		assertTrue(approximated > POINTS / 2);
+		
+		// near the pole
+		double polar = GeoKernel.fastDistance(85.0, 0.0, Math.cos(Math.toRadians(85.0)),
+				85.0001, 0.0001, Math.cos(Math.toRadians(85.0001)));
+		assertEquals(LocationUtils.distance(85.0, 0.0, 85.0001, 0.0001), polar, 0.0);
+	}
+	
+	@Test
+	public void testBearings() {
+		double [] lat = {0.0, 1.0, 1.0, 0.0, 0.0};
+		double [] lon = {0.0, 0.0, 1.0, 1.0, 0.0};
+		double [] out = new double[4];
+		GeoKernel.bearings(lat, lon, 5, out);
+		assertEquals(0.0, out[0], 1e-9);
+		// heading east away from the equator the great circle curves south
+		assertEquals(90.0, out[1], 0.01);
+		assertEquals(180.0, out[2], 1e-9);
+		assertEquals(270.0, out[3], 1e-9);
+		
+		// Baghdad to Osaka, from movable-type.co.uk
+		GeoKernel.bearings(new double [] {35.0, 35.0}, new double [] {45.0, 135.0}, 2, out);
+		assertEquals(60.16, out[0], 0.01);
+	}
+
+}
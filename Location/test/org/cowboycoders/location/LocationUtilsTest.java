@@ -0,0 +1,152 @@
+/*
+*    Copyright (c) 2013, Will Szumski
+*    Copyright (c) 2013, Doug Szumski
+*
+*    This file is part of Cyclismo.
+*
+*    Cyclismo is free software: you can redistribute it and/or modify
+*    it under the terms of the GNU General Public License as published by
+*    the Free Software Foundation, either version 3 of the License, or
+*    (at your option) any later version.
+*
+*    Cyclismo is distributed in the hope that it will be useful,
+*    but WITHOUT ANY WARRANTY; without even the implied warranty of
+*    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+*    GNU General Public License for more details.
+*
+*    You should have received a copy of the GNU General Public License
+*    along with Cyclismo.  If not, see <http://www.gnu.org/licenses/>.
+*/
+package org.cowboycoders.location;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LocationUtilsTest {
+	
+	/**
+	 * The recursive bisection interpolateBetweenPoints used before it was
+	 * made iterative
+	 */
+	private static List<LatLongAlt> bisect(LatLongAlt point1, LatLongAlt point2, double maximumDistance) {
+		if (LocationUtils.distance(point1,point2) < maximumDistance) {
+			return Collections.<LatLongAlt>emptyList();
+		}
+		LatLongAlt midpoint = LocationUtils.midPoint(point1,point2);
+		List<LatLongAlt> rtn = new ArrayList<LatLongAlt>();
+		rtn.addAll(bisect(point1,midpoint,maximumDistance));
+		rtn.add(midpoint);
+		rtn.addAll(bisect(midpoint,point2,maximumDistance));
+		return rtn;
+	}
+	
+	private static List<LatLongAlt> reference(List<LatLongAlt> locations, double maximumDistance) {
+		List<LatLongAlt> rtn = new ArrayList<LatLongAlt>();
+		for (int i = 0 ; i< locations.size() -1 ; i++) {
+			rtn.add(locations.get(i));
+			rtn.addAll(bisect(locations.get(i),locations.get(i + 1), maximumDistance));
+		}
+		rtn.add(locations.get(locations.size() -1));
+		return rtn;
+	}
+	
+	private static List<LatLongAlt> course(long seed, int points) {
+		Random random = new Random(seed);
+		List<LatLongAlt> rtn = new ArrayList<LatLongAlt>();
+		double lat = 50.0;
+		double lon = -3.0;
+		for (int i = 0 ; i < points ; i++) {
+			rtn.add(new LatLongAlt(lat, lon, random.nextDouble() * 500));
+			// up to a few km, sometimes not moving at all
+			lat += random.nextInt(4) == 0 ? 0 : (random.nextDouble() - 0.5) * 0.05;
+			lon += (random.nextDouble() - 0.5) * 0.05;
+		}
+		return rtn;
+	}
+	
+	private static void assertSameLocations(List<LatLongAlt> expected, List<LatLongAlt> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0 ; i < expected.size() ; i++) {
+			LatLongAlt e = expected.get(i);
+			LatLongAlt a = actual.get(i);
+			assertEquals(e.getLatitude(), a.getLatitude(), 1e-9);
+			assertEquals(e.getLongitude(), a.getLongitude(), 1e-9);
+			assertEquals(e.getAltitude(), a.getAltitude(), 1e-9);
+		}
+	}
+
+	@Test
+	public void testBisectionMatchesRecursiveOutput() {
+		for (long seed = 0 ; seed < 20 ; seed++) {
+			List<LatLongAlt> course = course(seed, 50);
+			for (double maximumDistance : new double [] {1, 7.5, 100, 1000}) {
+				List<LatLongAlt> expected = reference(course, maximumDistance);
+				assertSameLocations(expected, LocationUtils.interpolatePoints(course, maximumDistance));
+				assertEquals(expected.size(),
+						LocationUtils.countInterpolatedPoints(course, maximumDistance, false));
+			}
+		}
+	}
+	
+	@Test
+	public void testBetweenPointsMatchesRecursiveOutput() {
+		LatLongAlt l1 = new LatLongAlt(50.066389,5.715, 1000);
+		LatLongAlt l2 = new LatLongAlt(58.643889,3.07, 4000);
+		assertSameLocations(bisect(l1, l2, 1000), LocationUtils.interpolateBetweenPoints(l1, l2, 1000));
+		assertTrue(LocationUtils.interpolateBetweenPoints(l1, l1, 1000).isEmpty());
+	}
+	
+	@Test
+	public void testPackedBuffer() {
+		List<LatLongAlt> course = course(1, 20);
+		List<LatLongAlt> expected = LocationUtils.interpolatePoints(course, 50);
+		int count = LocationUtils.countInterpolatedPoints(course, 50, false);
+		double [] coordinates = new double[1 + count * 3];
+		assertEquals(count, LocationUtils.interpolatePoints(course, 50, false, coordinates, 1));
+		List<LatLongAlt> actual = new ArrayList<LatLongAlt>();
+		for (int i = 1 ; i < coordinates.length ; i += 3) {
+			actual.add(new LatLongAlt(coordinates[i], coordinates[i + 1], coordinates[i + 2]));
+		}
+		assertSameLocations(expected, actual);
+	}
+	
+	@Test
+	public void testEqualDistance() {
+		List<LatLongAlt> course = course(2, 20);
+		final double maximumDistance = 30;
+		final List<LatLongAlt> points = new ArrayList<LatLongAlt>();
+		LocationUtils.interpolatePoints(course, maximumDistance, true, new LocationUtils.PointSink() {
+			@Override
+			public void point(double latitude, double longitude, double altitude) {
+				points.add(new LatLongAlt(latitude, longitude, altitude));
+			}
+		});
+		assertEquals(points.size(), LocationUtils.countInterpolatedPoints(course, maximumDistance, true));
+		assertTrue(points.size() < LocationUtils.countInterpolatedPoints(course, maximumDistance, false));
+		
+		// originals are kept, pieces of a segment are the same length
+		int i = 0;
+		for (int segment = 0 ; segment < course.size() - 1 ; segment++) {
+			assertEquals(course.get(segment).getLatitude(), points.get(i).getLatitude(), 0.0);
+			LatLongAlt end = course.get(segment + 1);
+			int pieces = (int) Math.floor(LocationUtils.distance(course.get(segment), end) / maximumDistance) + 1;
+			double length = LocationUtils.distance(course.get(segment), end) / pieces;
+			for (int j = 0 ; j < pieces ; j++, i++) {
+				assertEquals(length, LocationUtils.distance(points.get(i), points.get(i + 1)), 1e-6);
+			}
+		}
+		assertEquals(points.size() - 1, i);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testRejectsNonPositiveDistance() {
+		LocationUtils.interpolatePoints(course(3, 2), 0);
+	}
+
+}
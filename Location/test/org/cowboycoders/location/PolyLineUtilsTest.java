@@ -25,6 +25,7 @@ import static org.cowboycoders.location.PolyLineUtils.*;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
@@ -79,4 +80,103 @@ public class PolyLineUtilsTest {
 		testEncode(0.00008,0.00008);
 	}
 
+	
+	private static final String GOOGLE_EXAMPLE = "_p~iF~ps|U_ulLnnqC_mqNvxq`@";
+	
+	private static final double [] EXAMPLE_LATS = {38.5, 40.7, 43.252};
+	private static final double [] EXAMPLE_LONS = {-120.2, -120.95, -126.453};
+	
+	/**
+	 * A wiggly course with points a few metres apart
+	 */
+	private static void course(double [] lats, double [] lons) {
+		Random random = new Random(0);
+		double lat = 51.0;
+		double lon = -1.0;
+		for (int i = 0 ; i < lats.length ; i++) {
+			lats[i] = lat;
+			lons[i] = lon;
+			lat += (random.nextDouble() - 0.5) * 0.001;
+			lon += (random.nextDouble() - 0.5) * 0.001;
+		}
+	}
+	
+	@Test
+	public void testDecodeToArrays() throws DecodeException {
+		assertEquals(3, countPoints(GOOGLE_EXAMPLE));
+		double [] lats = new double[3];
+		double [] lons = new double[3];
+		assertEquals(3, decode(GOOGLE_EXAMPLE, PRECISION_1E5, lats, lons));
+		assertArrayEquals(EXAMPLE_LATS, lats, 1e-9);
+		assertArrayEquals(EXAMPLE_LONS, lons, 1e-9);
+	}
+	
+	@Test
+	public void testEncodeFromArrays() {
+		StringBuilder polyLine = new StringBuilder();
+		assertEquals(GOOGLE_EXAMPLE, encode(EXAMPLE_LATS, EXAMPLE_LONS, 3, PRECISION_1E5, polyLine).toString());
+		
+		// reused
+		polyLine.setLength(0);
+		assertEquals("_p~iF~ps|U", encode(EXAMPLE_LATS, EXAMPLE_LONS, 1, PRECISION_1E5, polyLine).toString());
+		
+		byte [] bytes = new byte[maxEncodedLength(3) + 1];
+		int end = encode(EXAMPLE_LATS, EXAMPLE_LONS, 3, PRECISION_1E5, bytes, 1);
+		assertEquals(GOOGLE_EXAMPLE, new String(bytes, 1, end - 1));
+	}
+	
+	@Test
+	public void testMatchesListCodec() throws DecodeException {
+		double [] lats = new double[5000];
+		double [] lons = new double[5000];
+		course(lats, lons);
+		List<LatLong> latLongs = new ArrayList<LatLong>();
+		for (int i = 0 ; i < lats.length ; i++) {
+			latLongs.add(new LatLong(lats[i], lons[i]));
+		}
+		
+		String polyLine = encode(latLongs).toString();
+		assertEquals(polyLine, encode(lats, lons, lats.length, PRECISION_1E5, new StringBuilder()).toString());
+		
+		List<LatLong> decoded = decode(polyLine);
+		final List<double []> streamed = new ArrayList<double []>();
+		assertEquals(lats.length, decode(polyLine, PRECISION_1E5, new PointSink() {
+			@Override
+			public void point(double latitude, double longitude) {
+				streamed.add(new double [] {latitude, longitude});
+			}
+		}));
+		assertEquals(decoded.size(), streamed.size());
+		for (int i = 0 ; i < decoded.size() ; i++) {
+			assertEquals(lats[i], streamed.get(i)[0], 0.5e-5);
+			assertEquals(lons[i], streamed.get(i)[1], 0.5e-5);
+			assertEquals(decoded.get(i).getLatitude(), streamed.get(i)[0], 1e-9);
+			assertEquals(decoded.get(i).getLongitude(), streamed.get(i)[1], 1e-9);
+		}
+	}
+	
+	@Test
+	public void testPrecision1e6() throws DecodeException {
+		double [] lats = new double[1000];
+		double [] lons = new double[1000];
+		course(lats, lons);
+		String polyLine = encode(lats, lons, lats.length, PRECISION_1E6, new StringBuilder()).toString();
+		
+		double [] decodedLats = new double[countPoints(polyLine)];
+		double [] decodedLons = new double[decodedLats.length];
+		assertEquals(lats.length, decode(polyLine, PRECISION_1E6, decodedLats, decodedLons));
+		assertArrayEquals(lats, decodedLats, 0.5e-6);
+		assertArrayEquals(lons, decodedLons, 0.5e-6);
+	}
+	
+	@Test(expected = DecodeException.class)
+	public void testTruncated() throws DecodeException {
+		decode(GOOGLE_EXAMPLE.substring(0, GOOGLE_EXAMPLE.length() - 1), PRECISION_1E5, new double[3], new double[3]);
+	}
+	
+	@Test(expected = DecodeException.class)
+	public void testArraysTooSmall() throws DecodeException {
+		decode(GOOGLE_EXAMPLE, PRECISION_1E5, new double[2], new double[2]);
+	}
+
 }
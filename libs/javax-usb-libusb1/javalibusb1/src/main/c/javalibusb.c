@@ -22,6 +22,13 @@ jmethodID libusb1UsbInterfaceConstructor = NULL;
 jclass libusb1UsbEndpointClass = NULL;
 jmethodID libusb1UsbEndpointConstructor = NULL;
 
+/* javalibusb1.Libusb1Transfer */
+jclass libusb1TransferClass = NULL;
+jmethodID libusb1TransferCompleted = NULL;
+
+/* Used to get the JNIEnv in transfer callbacks */
+JavaVM *jvm = NULL;
+
 /* javax.usb.UsbDeviceDescriptor */
 jclass usbDeviceDescriptorClass = NULL;
 
@@ -345,6 +352,17 @@ JNIEXPORT jobject JNICALL Java_javalibusb1_libusb1_create
         goto fail;
     }
 
+    if((libusb1TransferClass = findAndReferenceClass(env, "javalibusb1/Libusb1Transfer")) == NULL) {
+        goto fail;
+    }
+    if((libusb1TransferCompleted = (*env)->GetMethodID(env, libusb1TransferClass, "completed", "(II)V")) == NULL) {
+        goto fail;
+    }
+
+    if((*env)->GetJavaVM(env, &jvm)) {
+        goto fail;
+    }
+
     if((usbDeviceDescriptorClass = findAndReferenceClass(env, "javax/usb/UsbDeviceDescriptor")) == NULL) {
         goto fail;
     }
@@ -453,6 +471,7 @@ static void releaseReferences(JNIEnv *env) {
     unreferenceClass(env, &usbInterfaceClass);
     unreferenceClass(env, &usbConfigurationClass);
     unreferenceClass(env, &usbDeviceDescriptorClass);
+    unreferenceClass(env, &libusb1TransferClass);
     unreferenceClass(env, &libusb1UsbEndpointClass);
     unreferenceClass(env, &libusb1UsbInterfaceClass);
     unreferenceClass(env, &libusb1UsbConfigurationClass);
@@ -758,6 +777,113 @@ JNIEXPORT jint JNICALL Java_javalibusb1_libusb1_interrupt_1transfer
     return bulk_or_interrupt_transfer(transferTypeInterrupt, env, klass, libusb_device_handle_ptr, bEndpointAddress, bytes, offset, length, timeout);
 }
 
+/*
+ * Called by libusb from within libusb_handle_events_timeout(), which is only
+ * called by the Java event handling thread, so that thread is already attached.
+ */
+static void LIBUSB_CALL transfer_callback(struct libusb_transfer *transfer)
+{
+    JNIEnv *env;
+    jobject javaTransfer = (jobject)transfer->user_data;
+
+    if((*jvm)->GetEnv(jvm, (void **)&env, JNI_VERSION_1_4) != JNI_OK) {
+        debug_printf("transfer_callback: not attached to the JVM, dropping transfer %p\n", transfer);
+        usbw_free_transfer(transfer);
+        return;
+    }
+
+    (*env)->CallVoidMethod(env, javaTransfer, libusb1TransferCompleted, (jint)transfer->status, (jint)transfer->actual_length);
+    if((*env)->ExceptionCheck(env)) {
+        (*env)->ExceptionDescribe(env);
+        (*env)->ExceptionClear(env);
+    }
+
+    (*env)->DeleteGlobalRef(env, javaTransfer);
+    usbw_free_transfer(transfer);
+}
+
+/*
+ * The data is read from or written to the direct buffer in place, so unlike
+ * the synchronous transfers there is no copying or temporary allocation.
+ */
+JNIEXPORT jlong JNICALL Java_javalibusb1_libusb1_submit_1transfer
+  (JNIEnv *env, jclass klass, jlong libusb_device_handle_ptr, jbyte bEndpointAddress, jbyte type, jobject buffer, jint length, jlong timeout, jobject javaTransfer)
+{
+    int err;
+    struct libusb_device_handle *handle = (struct libusb_device_handle *)(POINTER_STORAGE_TYPE)libusb_device_handle_ptr;
+    struct libusb_transfer *transfer;
+    unsigned char *data;
+    jobject ref;
+
+    data = (unsigned char *)(*env)->GetDirectBufferAddress(env, buffer);
+    if(data == NULL) {
+        throwPlatformException(env, "Not a direct buffer.");
+        return 0;
+    }
+
+    if((*env)->GetDirectBufferCapacity(env, buffer) < length) {
+        throwPlatformException(env, "Buffer is smaller than the transfer length.");
+        return 0;
+    }
+
+    transfer = usbw_alloc_transfer(0);
+    if(transfer == NULL) {
+        throwPlatformException(env, "Unable to allocate transfer.");
+        return 0;
+    }
+
+    ref = (*env)->NewGlobalRef(env, javaTransfer);
+    if(ref == NULL) {
+        usbw_free_transfer(transfer);
+        return 0;
+    }
+
+    switch(type) {
+        case LIBUSB_TRANSFER_TYPE_BULK:
+            libusb_fill_bulk_transfer(transfer, handle, (unsigned char)bEndpointAddress, data, length, transfer_callback, ref, (unsigned int)timeout);
+            break;
+        case LIBUSB_TRANSFER_TYPE_INTERRUPT:
+            libusb_fill_interrupt_transfer(transfer, handle, (unsigned char)bEndpointAddress, data, length, transfer_callback, ref, (unsigned int)timeout);
+            break;
+        default:
+            (*env)->DeleteGlobalRef(env, ref);
+            usbw_free_transfer(transfer);
+            throwPlatformException(env, "Unsupported transfer type.");
+            return 0;
+    }
+
+    if((err = usbw_submit_transfer(transfer))) {
+        (*env)->DeleteGlobalRef(env, ref);
+        usbw_free_transfer(transfer);
+        throwPlatformExceptionMsgCode(env, err, "libusb_submit_transfer(): %s", usbw_error_to_string(err));
+        return 0;
+    }
+
+    return (jlong)(POINTER_STORAGE_TYPE)transfer;
+}
+
+JNIEXPORT void JNICALL Java_javalibusb1_libusb1_cancel_1transfer
+  (JNIEnv *env, jclass klass, jlong libusb_transfer_ptr)
+{
+    // LIBUSB_ERROR_NOT_FOUND just means it has already completed
+    usbw_cancel_transfer((struct libusb_transfer *)(POINTER_STORAGE_TYPE)libusb_transfer_ptr);
+}
+
+JNIEXPORT void JNICALL Java_javalibusb1_libusb1_handle_1events
+  (JNIEnv *env, jobject obj, jlong java_context, jint timeout_millis)
+{
+    int err;
+    struct libusb_context *context = (struct libusb_context *)(POINTER_STORAGE_TYPE)java_context;
+    struct timeval tv;
+
+    tv.tv_sec = timeout_millis / 1000;
+    tv.tv_usec = (timeout_millis % 1000) * 1000;
+
+    if((err = usbw_handle_events_timeout(context, &tv)) && err != LIBUSB_ERROR_INTERRUPTED) {
+        throwPlatformExceptionMsgCode(env, err, "libusb_handle_events_timeout(): %s", usbw_error_to_string(err));
+    }
+}
+
 /*****************************************************************************
  * javalibusb1_Libusb1UsbDevice
  *****************************************************************************/
@@ -0,0 +1,31 @@
+package javalibusb1;
+
+import javax.usb.*;
+import java.nio.*;
+
+/**
+ * Submits asynchronous transfers. Implemented by {@link libusb1} on top of
+ * libusb's asynchronous API, and by test doubles.
+ */
+interface AsyncTransport {
+    /**
+     * Submits a transfer. {@link Libusb1Transfer#completed(int, int)} is called exactly once when it
+     * finishes, fails or is cancelled, possibly before this method returns.
+     *
+     * @param buffer a direct buffer that is read from or written to by the transfer.
+     * @return an opaque pointer that can be passed to {@link #cancel(long)} until the transfer completes.
+     */
+    long submit(long libusb_device_handle_ptr, byte bEndpointAddress, byte type, ByteBuffer buffer, int length,
+                long timeout, Libusb1Transfer transfer) throws UsbException;
+
+    /**
+     * Asks for a transfer to be cancelled. It will complete with status
+     * {@link Libusb1Transfer#LIBUSB_TRANSFER_CANCELLED} unless it has already finished.
+     */
+    void cancel(long transfer_ptr);
+
+    /**
+     * Returns true if called from the thread that completes transfers, which must not wait for them.
+     */
+    boolean isEventThread();
+}
@@ -0,0 +1,110 @@
+package javalibusb1;
+
+import javax.usb.*;
+import java.nio.*;
+
+/**
+ * A single submitted {@link UsbIrp}. The native code keeps a reference to
+ * this object until the transfer completes.
+ */
+final class Libusb1Transfer {
+
+    // Mirrors enum libusb_transfer_status
+    static final int LIBUSB_TRANSFER_COMPLETED = 0;
+    static final int LIBUSB_TRANSFER_ERROR = 1;
+    static final int LIBUSB_TRANSFER_TIMED_OUT = 2;
+    static final int LIBUSB_TRANSFER_CANCELLED = 3;
+    static final int LIBUSB_TRANSFER_STALL = 4;
+    static final int LIBUSB_TRANSFER_NO_DEVICE = 5;
+    static final int LIBUSB_TRANSFER_OVERFLOW = 6;
+
+    final Libusb1TransferQueue queue;
+    final UsbIrp irp;
+    final ByteBuffer buffer;
+
+    /**
+     * The <code>struct libusb_transfer*</code>, only valid until the transfer completes.
+     */
+    private long transfer_ptr;
+    private boolean cancelRequested;
+    private boolean done;
+
+    Libusb1Transfer(Libusb1TransferQueue queue, UsbIrp irp, ByteBuffer buffer) {
+        this.queue = queue;
+        this.irp = irp;
+        this.buffer = buffer;
+    }
+
+    synchronized void submitted(long transfer_ptr) {
+        this.transfer_ptr = transfer_ptr;
+        if (cancelRequested && !done) {
+            queue.transport.cancel(transfer_ptr);
+        }
+    }
+
+    synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Waits for the transfer to complete.
+     *
+     * @return true if it completed within the timeout.
+     */
+    synchronized boolean awaitDone(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!done) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized void cancel() {
+        cancelRequested = true;
+        if (!done && transfer_ptr != 0) {
+            queue.transport.cancel(transfer_ptr);
+        }
+    }
+
+    /**
+     * Called by the native code, on the event handling thread.
+     */
+    void completed(int status, int actualLength) {
+        synchronized (this) {
+            done = true;
+            transfer_ptr = 0;
+            notifyAll();
+        }
+        queue.completed(this, status, actualLength);
+    }
+
+    static String statusToString(int status) {
+        switch (status) {
+            case LIBUSB_TRANSFER_COMPLETED:
+                return "LIBUSB_TRANSFER_COMPLETED";
+            case LIBUSB_TRANSFER_ERROR:
+                return "LIBUSB_TRANSFER_ERROR";
+            case LIBUSB_TRANSFER_TIMED_OUT:
+                return "LIBUSB_TRANSFER_TIMED_OUT";
+            case LIBUSB_TRANSFER_CANCELLED:
+                return "LIBUSB_TRANSFER_CANCELLED";
+            case LIBUSB_TRANSFER_STALL:
+                return "LIBUSB_TRANSFER_STALL";
+            case LIBUSB_TRANSFER_NO_DEVICE:
+                return "LIBUSB_TRANSFER_NO_DEVICE";
+            case LIBUSB_TRANSFER_OVERFLOW:
+                return "LIBUSB_TRANSFER_OVERFLOW";
+            default:
+                return "Unknown status: " + status;
+        }
+    }
+}
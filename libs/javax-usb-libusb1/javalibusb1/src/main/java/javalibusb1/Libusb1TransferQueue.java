@@ -0,0 +1,178 @@
+package javalibusb1;
+
+import static javax.usb.UsbConst.*;
+
+import javax.usb.*;
+import javax.usb.event.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The asynchronous side of a {@link Libusb1UsbPipe}. Any number of IRPs may be outstanding; they
+ * complete in the order they were submitted. Each transfer reads or writes a direct buffer so the
+ * native code can hand the memory straight to libusb, the data is copied to or from the IRP in Java.
+ * Buffers are pooled.
+ */
+class Libusb1TransferQueue {
+
+    private static final int MIN_BUFFER_SIZE = 64;
+
+    private static final int MAX_POOLED_BUFFERS = 32;
+
+    final AsyncTransport transport;
+    private final UsbPipe pipe;
+    private final byte bEndpointAddress;
+    private final byte type;
+    private final boolean in;
+
+    private final List<UsbPipeListener> listeners = new CopyOnWriteArrayList<UsbPipeListener>();
+
+    // Guarded by this
+    private final Set<Libusb1Transfer> outstanding = new LinkedHashSet<Libusb1Transfer>();
+    private final LinkedList<ByteBuffer> buffers = new LinkedList<ByteBuffer>();
+
+    Libusb1TransferQueue(UsbPipe pipe, AsyncTransport transport, byte bEndpointAddress, byte type) {
+        this.pipe = pipe;
+        this.transport = transport;
+        this.bEndpointAddress = bEndpointAddress;
+        this.type = type;
+        this.in = (bEndpointAddress & ENDPOINT_DIRECTION_MASK) == ENDPOINT_DIRECTION_IN;
+    }
+
+    public void addUsbPipeListener(UsbPipeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeUsbPipeListener(UsbPipeListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void submit(long libusb_device_handle_ptr, UsbIrp irp, long timeout) throws UsbException {
+        Libusb1UsbIrp.checkIrp(irp);
+
+        ByteBuffer buffer = takeBuffer(irp.getLength());
+        if (!in) {
+            buffer.put(irp.getData(), irp.getOffset(), irp.getLength());
+            buffer.clear();
+        }
+
+        Libusb1Transfer transfer = new Libusb1Transfer(this, irp, buffer);
+        synchronized (this) {
+            outstanding.add(transfer);
+        }
+
+        long transfer_ptr;
+        try {
+            transfer_ptr = transport.submit(libusb_device_handle_ptr, bEndpointAddress, type, buffer,
+                irp.getLength(), timeout, transfer);
+        } catch (UsbException e) {
+            synchronized (this) {
+                outstanding.remove(transfer);
+                releaseBuffer(buffer);
+                notifyAll();
+            }
+            throw e;
+        }
+        transfer.submitted(transfer_ptr);
+    }
+
+    public synchronized int getOutstandingCount() {
+        return outstanding.size();
+    }
+
+    /**
+     * Cancels all outstanding transfers and waits for them to complete, unless called from the
+     * event handling thread.
+     */
+    public void abortAllSubmissions() {
+        List<Libusb1Transfer> transfers;
+        synchronized (this) {
+            transfers = new ArrayList<Libusb1Transfer>(outstanding);
+        }
+
+        for (Libusb1Transfer transfer : transfers) {
+            transfer.cancel();
+        }
+
+        if (transport.isEventThread()) {
+            return;
+        }
+
+        synchronized (this) {
+            while (!outstanding.isEmpty()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    void completed(Libusb1Transfer transfer, int status, int actualLength) {
+        UsbIrp irp = transfer.irp;
+
+        if (status == Libusb1Transfer.LIBUSB_TRANSFER_COMPLETED) {
+            if (in) {
+                transfer.buffer.get(irp.getData(), irp.getOffset(), actualLength);
+            }
+            irp.setActualLength(actualLength);
+        } else {
+            irp.setActualLength(0);
+            irp.setUsbException(new UsbPlatformException("Transfer failed: " +
+                Libusb1Transfer.statusToString(status), status));
+        }
+
+        irp.complete();
+        fireEvent(irp);
+
+        // Last, so that abortAllSubmissions() doesn't return before the IRP is complete
+        synchronized (this) {
+            outstanding.remove(transfer);
+            releaseBuffer(transfer.buffer);
+            notifyAll();
+        }
+    }
+
+    void fireEvent(UsbIrp irp) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+
+        if (irp.isUsbException()) {
+            UsbPipeErrorEvent event = new UsbPipeErrorEvent(pipe, irp);
+            for (UsbPipeListener listener : listeners) {
+                listener.errorEventOccurred(event);
+            }
+        } else {
+            UsbPipeDataEvent event = new UsbPipeDataEvent(pipe, irp);
+            for (UsbPipeListener listener : listeners) {
+                listener.dataEventOccurred(event);
+            }
+        }
+    }
+
+    private synchronized ByteBuffer takeBuffer(int length) {
+        for (Iterator<ByteBuffer> it = buffers.iterator(); it.hasNext(); ) {
+            ByteBuffer buffer = it.next();
+            if (buffer.capacity() >= length) {
+                it.remove();
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(Math.max(length, MIN_BUFFER_SIZE));
+    }
+
+    /**
+     * Should hold this
+     */
+    private void releaseBuffer(ByteBuffer buffer) {
+        if (buffers.size() < MAX_POOLED_BUFFERS) {
+            buffer.clear();
+            buffers.add(buffer);
+        }
+    }
+}
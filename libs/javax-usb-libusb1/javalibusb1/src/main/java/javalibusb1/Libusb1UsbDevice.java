@@ -19,6 +19,11 @@ public class Libusb1UsbDevice implements UsbDevice, Closeable {
      */
     @SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"})
     final long libusb_device_ptr;
+
+    /**
+     * The context this device was found in, set by {@link libusb1#getDevices()}.
+     */
+    libusb1 libusb;
     public final byte busNumber;
     public final byte deviceAddress;
     public final Object speed;
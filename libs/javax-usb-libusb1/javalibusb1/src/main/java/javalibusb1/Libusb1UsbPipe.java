@@ -13,6 +13,7 @@ public class Libusb1UsbPipe implements UsbPipe {
 
     private final Libusb1UsbEndpoint endpoint;
     private boolean open;
+    private Libusb1TransferQueue transferQueue;
 
     public Libusb1UsbPipe(Libusb1UsbEndpoint endpoint) {
         this.endpoint = endpoint;
@@ -23,26 +24,64 @@ public class Libusb1UsbPipe implements UsbPipe {
     // -----------------------------------------------------------------------
 
     public void abortAllSubmissions() {
-        throw new RuntimeException("Not implemented");
+        Libusb1TransferQueue queue;
+        synchronized (this) {
+            queue = transferQueue;
+        }
+        if (queue != null) {
+            queue.abortAllSubmissions();
+        }
     }
 
     public void addUsbPipeListener(UsbPipeListener listener) {
-        throw new RuntimeException("Not implemented");
+        getTransferQueue().addUsbPipeListener(listener);
     }
 
-    public UsbIrp asyncSubmit(byte[] data) {
-        throw new RuntimeException("Not implemented");
+    public UsbIrp asyncSubmit(byte[] data) throws UsbException {
+        UsbIrp irp = new DefaultUsbIrp(data);
+        asyncSubmit(irp);
+        return irp;
     }
 
-    public void asyncSubmit(List list) {
-        throw new RuntimeException("Not implemented");
+    public void asyncSubmit(List list) throws UsbException {
+        for (Object o : list) {
+            if (!(o instanceof UsbIrp)) {
+                throw new IllegalArgumentException("Not an UsbIrp: " + o);
+            }
+            asyncSubmit((UsbIrp) o);
+        }
     }
 
-    public void asyncSubmit(UsbIrp irp) {
-        throw new RuntimeException("Not implemented");
+    public void asyncSubmit(UsbIrp irp) throws UsbException {
+        if (irp instanceof UsbControlIrp) {
+            // There is no asynchronous control transfer, complete it now
+            internalSyncSubmit(irp);
+            getTransferQueue().fireEvent(irp);
+            return;
+        }
+
+        if (!isOpen()) {
+            throw new UsbNotOpenException();
+        }
+
+        if (!isActive()) {
+            throw new UsbNotActiveException();
+        }
+
+        byte type = getUsbEndpoint().getType();
+        if (type != ENDPOINT_TYPE_BULK && type != ENDPOINT_TYPE_INTERRUPT) {
+            throw new RuntimeException("Transfer type not implemented");
+        }
+
+        // 0 means infinite, same as for synchronous submissions
+        getTransferQueue().submit(endpoint.usbInterface.libusb_device_handle_ptr, irp, 0);
     }
 
+    /**
+     * Aborts any outstanding submissions before closing.
+     */
     public void close() {
+        abortAllSubmissions();
         open = false;
     }
 
@@ -82,7 +121,7 @@ public class Libusb1UsbPipe implements UsbPipe {
     }
 
     public void removeUsbPipeListener(UsbPipeListener listener) {
-        throw new RuntimeException("Not implemented");
+        getTransferQueue().removeUsbPipeListener(listener);
     }
 
     public int syncSubmit(byte[] data) throws UsbException, UsbNotActiveException, UsbNotOpenException, java.lang.IllegalArgumentException {
@@ -106,6 +145,14 @@ public class Libusb1UsbPipe implements UsbPipe {
     //
     // -----------------------------------------------------------------------
 
+    private synchronized Libusb1TransferQueue getTransferQueue() {
+        if (transferQueue == null) {
+            transferQueue = new Libusb1TransferQueue(this, endpoint.usbInterface.device.libusb,
+                endpoint.getUsbEndpointDescriptor().bEndpointAddress(), endpoint.getType());
+        }
+        return transferQueue;
+    }
+
     private int internalSyncSubmit(UsbIrp irp) throws UsbException {
         // From what I can tell from the API you don't have to open a device to send control packets.
 
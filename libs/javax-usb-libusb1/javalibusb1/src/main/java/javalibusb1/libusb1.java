@@ -6,19 +6,66 @@ import static javalibusb1.Libusb1Utils.*;
 import javax.usb.*;
 import java.io.*;
 import java.net.*;
+import java.nio.*;
 import java.util.*;
+import java.util.logging.*;
 
-class libusb1 implements Closeable {
+class libusb1 implements Closeable, AsyncTransport {
+
+    /**
+     * How long the event handling thread blocks in libusb before checking if it should stop.
+     */
+    private static final int EVENT_TIMEOUT_MILLIS = 100;
+
+    /**
+     * How long the event handling thread waits after libusb fails, doubled on each consecutive failure.
+     */
+    private static final int MIN_ERROR_BACKOFF_MILLIS = 10;
+    private static final int MAX_ERROR_BACKOFF_MILLIS = 1000;
+
+    /**
+     * How long {@link #close()} waits for cancelled transfers to complete.
+     */
+    private static final int CLOSE_TIMEOUT_MILLIS = 1000;
+
+    private static final Logger logger = Logger.getLogger(libusb1.class.getName());
 
     // This field is used from the native code.
     @SuppressWarnings({"FieldCanBeLocal", "UnusedDeclaration"})
     private final long libusb_context_ptr;
 
+    private Thread eventThread;
+    private volatile boolean closing;
+    private volatile boolean stopEvents;
+
+    // Submitted transfers, completed ones are removed on the next submit. Guarded by itself.
+    private final Set<Libusb1Transfer> inFlight = new HashSet<Libusb1Transfer>();
+
     libusb1(long libusb_context_ptr) {
         this.libusb_context_ptr = libusb_context_ptr;
     }
 
+    /**
+     * Cancels the transfers still in flight and lets the event handling thread complete them before
+     * stopping it, so that nothing waiting on them is left hanging.
+     */
     public void close() {
+        Thread thread;
+        synchronized (this) {
+            closing = true;
+            thread = eventThread;
+        }
+        if (thread != null && !isEventThread()) {
+            cancelInFlight();
+        }
+        stopEvents = true;
+        if (thread != null && !isEventThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         close(libusb_context_ptr);
     }
 
@@ -27,6 +74,7 @@ class libusb1 implements Closeable {
 
         for (Libusb1UsbDevice device : get_devices(libusb_context_ptr)) {
             if (device != null) {
+                device.libusb = this;
                 devices.add(device);
             }
         }
@@ -38,6 +86,105 @@ class libusb1 implements Closeable {
         set_debug(libusb_context_ptr, level);
     }
 
+    // -----------------------------------------------------------------------
+    // AsyncTransport Implementation
+    // -----------------------------------------------------------------------
+
+    public long submit(long libusb_device_handle_ptr, byte bEndpointAddress, byte type, ByteBuffer buffer,
+                       int length, long timeout, Libusb1Transfer transfer) throws UsbException {
+        startEventThread();
+        synchronized (inFlight) {
+            for (Iterator<Libusb1Transfer> it = inFlight.iterator(); it.hasNext(); ) {
+                if (it.next().isDone()) {
+                    it.remove();
+                }
+            }
+            inFlight.add(transfer);
+        }
+        try {
+            return submit_transfer(libusb_device_handle_ptr, bEndpointAddress, type, buffer, length, timeout, transfer);
+        } catch (UsbException e) {
+            synchronized (inFlight) {
+                inFlight.remove(transfer);
+            }
+            throw e;
+        }
+    }
+
+    public void cancel(long transfer_ptr) {
+        cancel_transfer(transfer_ptr);
+    }
+
+    public boolean isEventThread() {
+        return Thread.currentThread() == eventThread;
+    }
+
+    /**
+     * Cancels the transfers in flight and waits, up to {@link #CLOSE_TIMEOUT_MILLIS}, for the event
+     * handling thread to complete them.
+     */
+    private void cancelInFlight() {
+        List<Libusb1Transfer> transfers;
+        synchronized (inFlight) {
+            transfers = new ArrayList<Libusb1Transfer>(inFlight);
+            inFlight.clear();
+        }
+        for (Libusb1Transfer transfer : transfers) {
+            transfer.cancel();
+        }
+        long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+        for (Libusb1Transfer transfer : transfers) {
+            if (!transfer.awaitDone(deadline - System.currentTimeMillis())) {
+                logger.warning("Closing with transfers that did not complete after being cancelled");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Completion callbacks are called from libusb_handle_events(), so a thread is started to call
+     * it once the first transfer is submitted. It runs until the context is closed.
+     */
+    private synchronized void startEventThread() throws UsbException {
+        if (closing) {
+            throw new UsbException("Closed");
+        }
+
+        if (eventThread != null) {
+            return;
+        }
+
+        eventThread = new Thread("libusb1 events") {
+            public void run() {
+                int backoff = 0;
+                while (!stopEvents) {
+                    try {
+                        handle_events(libusb_context_ptr, EVENT_TIMEOUT_MILLIS);
+                        if (backoff != 0) {
+                            logger.info("Event handling recovered");
+                            backoff = 0;
+                        }
+                    } catch (UsbException e) {
+                        if (backoff == 0) {
+                            logger.log(Level.WARNING, "Event handling failed, retrying", e);
+                            backoff = MIN_ERROR_BACKOFF_MILLIS;
+                        } else {
+                            logger.log(Level.FINE, "Event handling failed again", e);
+                            backoff = Math.min(backoff * 2, MAX_ERROR_BACKOFF_MILLIS);
+                        }
+                        try {
+                            Thread.sleep(backoff);
+                        } catch (InterruptedException ie) {
+                            return;
+                        }
+                    }
+                }
+            }
+        };
+        eventThread.setDaemon(true);
+        eventThread.start();
+    }
+
     /**
      * Enable tracing of calls to libusb.
      */
@@ -75,6 +222,22 @@ class libusb1 implements Closeable {
     native
     public static int interrupt_transfer(long libusb_device_handle, byte bEndpointAddress, byte[] buffer, int offest, int length, long timeout);
 
+    /**
+     * Allocates and submits a bulk or interrupt transfer that reads or writes the direct buffer. The
+     * transfer's <tt>completed</tt> method is called from {@link #handle_events(long, int)} when it is done.
+     *
+     * @return the <tt>struct libusb_transfer*</tt>, valid until the transfer completes.
+     */
+    native
+    private static long submit_transfer(long libusb_device_handle, byte bEndpointAddress, byte type, ByteBuffer buffer,
+                                        int length, long timeout, Libusb1Transfer transfer) throws UsbException;
+
+    native
+    private static void cancel_transfer(long libusb_transfer);
+
+    native
+    private void handle_events(long libusb_context, int timeout_millis) throws UsbException;
+
     static {
         String path = loadProperty(JAVAX_USB_LIBUSB_JAVALIBUSB1_PATH_PROPERTY, JAVAX_USB_LIBUSB_JAVALIBUSB1_PATH_ENV);
         String aol = getAol();
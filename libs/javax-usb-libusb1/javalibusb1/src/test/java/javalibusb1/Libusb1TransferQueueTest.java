@@ -0,0 +1,398 @@
+package javalibusb1;
+
+import static javax.usb.UsbConst.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import javax.usb.*;
+import javax.usb.event.*;
+import javax.usb.util.*;
+import java.io.*;
+import java.lang.reflect.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Runs the transfer queue against a simulated device instead of libusb. Each transfer takes a fixed
+ * latency to complete and the device can only finish one transfer per service interval, like a bus
+ * that is idle while the host turns a transfer around.
+ */
+public class Libusb1TransferQueueTest {
+
+    static final byte IN = (byte) 0x81;
+    static final byte OUT = (byte) 0x01;
+
+    static final UsbPipe pipe = (UsbPipe) Proxy.newProxyInstance(UsbPipe.class.getClassLoader(),
+        new Class<?>[]{UsbPipe.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("toString")) {
+                    return "test pipe";
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+    SimulatedDevice device;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (device != null) {
+            device.close();
+        }
+    }
+
+    @Test
+    public void testReadCompletesIrpAndFiresDataEvent() throws Exception {
+        device = new SimulatedDevice(1000000, 100000);
+        Libusb1TransferQueue queue = new Libusb1TransferQueue(pipe, device, IN, ENDPOINT_TYPE_BULK);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<UsbPipeDataEvent> events = new CopyOnWriteArrayList<UsbPipeDataEvent>();
+        queue.addUsbPipeListener(new UsbPipeListener() {
+            public void errorEventOccurred(UsbPipeErrorEvent event) {
+            }
+
+            public void dataEventOccurred(UsbPipeDataEvent event) {
+                events.add(event);
+                latch.countDown();
+            }
+        });
+
+        UsbIrp irp = new DefaultUsbIrp(new byte[64]);
+        queue.submit(0, irp, 0);
+        irp.waitUntilComplete(1000);
+
+        assertTrue(irp.isComplete());
+        assertFalse(irp.isUsbException());
+        assertEquals(64, irp.getActualLength());
+        for (int i = 0; i < 64; i++) {
+            assertEquals((byte) i, irp.getData()[i]);
+        }
+
+        assertTrue(latch.await(1, TimeUnit.SECONDS));
+        assertSame(pipe, events.get(0).getUsbPipe());
+        assertEquals(64, events.get(0).getActualLength());
+    }
+
+    @Test
+    public void testWriteCopiesData() throws Exception {
+        device = new SimulatedDevice(1000000, 100000);
+        Libusb1TransferQueue queue = new Libusb1TransferQueue(pipe, device, OUT, ENDPOINT_TYPE_BULK);
+
+        byte[] data = "0123456789".getBytes("US-ASCII");
+        UsbIrp irp = new DefaultUsbIrp(data, 2, 5, true);
+        queue.submit(0, irp, 0);
+        irp.waitUntilComplete(1000);
+
+        assertTrue(irp.isComplete());
+        assertEquals(5, irp.getActualLength());
+        assertEquals("23456", new String(device.getWritten(), "US-ASCII"));
+    }
+
+    @Test
+    public void testAbortAllSubmissionsCompletesWithError() throws Exception {
+        // Nothing completes on its own
+        device = new SimulatedDevice(TimeUnit.SECONDS.toNanos(60), 0);
+        Libusb1TransferQueue queue = new Libusb1TransferQueue(pipe, device, IN, ENDPOINT_TYPE_BULK);
+        final List<UsbPipeErrorEvent> errors = new CopyOnWriteArrayList<UsbPipeErrorEvent>();
+        queue.addUsbPipeListener(new UsbPipeListener() {
+            public void errorEventOccurred(UsbPipeErrorEvent event) {
+                errors.add(event);
+            }
+
+            public void dataEventOccurred(UsbPipeDataEvent event) {
+                fail("Unexpected data event");
+            }
+        });
+
+        List<UsbIrp> irps = new ArrayList<UsbIrp>();
+        for (int i = 0; i < 4; i++) {
+            UsbIrp irp = new DefaultUsbIrp(new byte[64]);
+            queue.submit(0, irp, 0);
+            irps.add(irp);
+        }
+        assertEquals(4, queue.getOutstandingCount());
+
+        queue.abortAllSubmissions();
+
+        assertEquals(0, queue.getOutstandingCount());
+        for (UsbIrp irp : irps) {
+            assertTrue(irp.isComplete());
+            assertTrue(irp.isUsbException());
+            assertEquals(0, irp.getActualLength());
+        }
+        assertEquals(4, errors.size());
+    }
+
+    @Test
+    public void testQueueDepthKeepsTransfersInFlight() throws Exception {
+        // 1ms to turn a transfer around, 100us per transfer on the bus
+        device = new SimulatedDevice(1000000, 100000);
+        Libusb1TransferQueue queue = new Libusb1TransferQueue(pipe, device, IN, ENDPOINT_TYPE_BULK);
+
+        read(queue, 1, 20);
+        read(queue, 4, 80);
+        read(queue, 16, 320);
+    }
+
+    /**
+     * Keeps <code>depth</code> reads outstanding, checking that all of them reach the device at
+     * once, that no more ever do and that they complete in order.
+     */
+    private void read(Libusb1TransferQueue queue, int depth, int count) throws Exception {
+        LinkedList<UsbIrp> irps = new LinkedList<UsbIrp>();
+        int submitted = 0;
+        int expected = device.getSequence();
+        device.hold();
+        for (; submitted < depth; submitted++) {
+            UsbIrp irp = new DefaultUsbIrp(new byte[64]);
+            queue.submit(0, irp, 0);
+            irps.add(irp);
+        }
+        assertEquals(depth, queue.getOutstandingCount());
+        assertEquals(depth, device.getInFlight());
+        device.release();
+
+        for (int completed = 0; completed < count; completed++) {
+            UsbIrp irp = irps.removeFirst();
+            irp.waitUntilComplete(1000);
+            assertTrue(irp.isComplete());
+            assertEquals(64, irp.getActualLength());
+            assertEquals((byte) expected, irp.getData()[0]);
+            expected += 64;
+
+            if (submitted < count) {
+                irp.setComplete(false);
+                irp.setActualLength(0);
+                queue.submit(0, irp, 0);
+                irps.add(irp);
+                submitted++;
+            }
+        }
+        assertEquals(depth, device.getMaxInFlight());
+
+        // The last IRP completes just before its transfer leaves the queue; wait for it to go
+        queue.abortAllSubmissions();
+        assertEquals(0, queue.getOutstandingCount());
+    }
+
+    static class SimulatedDevice implements AsyncTransport, Runnable {
+
+        static class Pending {
+            final long transfer_ptr;
+            final byte bEndpointAddress;
+            final ByteBuffer buffer;
+            final int length;
+            final Libusb1Transfer transfer;
+            final long due;
+            boolean cancelled;
+
+            Pending(long transfer_ptr, byte bEndpointAddress, ByteBuffer buffer, int length,
+                    Libusb1Transfer transfer, long due) {
+                this.transfer_ptr = transfer_ptr;
+                this.bEndpointAddress = bEndpointAddress;
+                this.buffer = buffer;
+                this.length = length;
+                this.transfer = transfer;
+                this.due = due;
+            }
+        }
+
+        private final long latencyNanos;
+        private final long serviceNanos;
+        private final Thread thread;
+
+        private final Lock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+
+        // Guarded by lock
+        private final LinkedList<Pending> pending = new LinkedList<Pending>();
+        private long nextPtr = 1;
+        private long lastDue;
+        private boolean closed;
+        private boolean held;
+        private int maxInFlight;
+
+        // Only used by the event thread
+        private int sequence;
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        SimulatedDevice(long latencyNanos, long serviceNanos) {
+            this.latencyNanos = latencyNanos;
+            this.serviceNanos = serviceNanos;
+            thread = new Thread(this, "simulated device");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public long submit(long libusb_device_handle_ptr, byte bEndpointAddress, byte type, ByteBuffer buffer,
+                           int length, long timeout, Libusb1Transfer transfer) throws UsbException {
+            assertTrue(buffer.isDirect());
+            assertTrue(buffer.capacity() >= length);
+            lock.lock();
+            try {
+                if (closed) {
+                    throw new UsbException("Closed");
+                }
+                long due = Math.max(System.nanoTime() + latencyNanos, lastDue + serviceNanos);
+                lastDue = due;
+                Pending p = new Pending(nextPtr++, bEndpointAddress, buffer, length, transfer, due);
+                pending.add(p);
+                maxInFlight = Math.max(maxInFlight, pending.size());
+                changed.signal();
+                return p.transfer_ptr;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void cancel(long transfer_ptr) {
+            lock.lock();
+            try {
+                for (Pending p : pending) {
+                    if (p.transfer_ptr == transfer_ptr) {
+                        p.cancelled = true;
+                        changed.signal();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public boolean isEventThread() {
+            return Thread.currentThread() == thread;
+        }
+
+        public int getSequence() throws InterruptedException {
+            lock.lock();
+            try {
+                // Only read between runs, when the event thread is idle
+                assertTrue(pending.isEmpty());
+                return sequence;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Completes nothing, other than cancellations, until released. Resets the maximum in flight.
+         */
+        public void hold() {
+            lock.lock();
+            try {
+                held = true;
+                maxInFlight = pending.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void release() {
+            lock.lock();
+            try {
+                held = false;
+                changed.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public int getInFlight() {
+            lock.lock();
+            try {
+                return pending.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the most transfers submitted and not completed at once, since the last hold.
+         */
+        public int getMaxInFlight() {
+            lock.lock();
+            try {
+                return maxInFlight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public byte[] getWritten() {
+            synchronized (written) {
+                return written.toByteArray();
+            }
+        }
+
+        public void close() throws InterruptedException {
+            lock.lock();
+            try {
+                closed = true;
+                changed.signal();
+            } finally {
+                lock.unlock();
+            }
+            thread.join(1000);
+        }
+
+        public void run() {
+            while (true) {
+                Pending p;
+                lock.lock();
+                try {
+                    p = next();
+                    if (p == null) {
+                        return;
+                    }
+                    pending.remove(p);
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    lock.unlock();
+                }
+
+                if (p.cancelled) {
+                    p.transfer.completed(Libusb1Transfer.LIBUSB_TRANSFER_CANCELLED, 0);
+                } else if ((p.bEndpointAddress & ENDPOINT_DIRECTION_MASK) == ENDPOINT_DIRECTION_IN) {
+                    for (int i = 0; i < p.length; i++) {
+                        p.buffer.put(i, (byte) sequence++);
+                    }
+                    p.transfer.completed(Libusb1Transfer.LIBUSB_TRANSFER_COMPLETED, p.length);
+                } else {
+                    synchronized (written) {
+                        for (int i = 0; i < p.length; i++) {
+                            written.write(p.buffer.get(i));
+                        }
+                    }
+                    p.transfer.completed(Libusb1Transfer.LIBUSB_TRANSFER_COMPLETED, p.length);
+                }
+            }
+        }
+
+        /**
+         * Waits for a cancelled transfer or for the oldest transfer to become due. Should hold lock.
+         */
+        private Pending next() throws InterruptedException {
+            while (!closed) {
+                for (Pending p : pending) {
+                    if (p.cancelled) {
+                        return p;
+                    }
+                }
+                if (pending.isEmpty() || held) {
+                    changed.await();
+                    continue;
+                }
+                Pending first = pending.getFirst();
+                long remaining = first.due - System.nanoTime();
+                if (remaining <= 0) {
+                    return first;
+                }
+                changed.awaitNanos(remaining);
+            }
+            return null;
+        }
+    }
+}
@@ -16,8 +16,13 @@ public class UsbPipeDataEvent extends UsbPipeEvent {
 
     public UsbPipeDataEvent(UsbPipe source, UsbIrp usbIrp) {
         super(source, usbIrp);
+        this.data = usbIrp.getData();
+        this.actualLength = usbIrp.getActualLength();
     }
 
+    /**
+     * If created from an IRP this is the IRP's whole buffer, the data starts at its offset.
+     */
     public byte[] getData() {
         return data;
     }
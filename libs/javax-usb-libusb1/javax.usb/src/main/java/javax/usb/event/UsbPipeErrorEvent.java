@@ -14,6 +14,7 @@ public class UsbPipeErrorEvent extends UsbPipeEvent {
 
     public UsbPipeErrorEvent(UsbPipe source, UsbIrp usbIrp) {
         super(source, usbIrp);
+        this.usbException = usbIrp.getUsbException();
     }
 
     public UsbException getUsbException() {
@@ -6,7 +6,7 @@ import javax.usb.UsbIrp;
 public class DefaultUsbIrp implements UsbIrp {
     protected boolean acceptShortPacket;
     protected int actualLength;
-    protected boolean complete;
+    protected volatile boolean complete;
     protected byte[] data;
     protected int length;
     protected int offset;
@@ -111,21 +111,21 @@ public class DefaultUsbIrp implements UsbIrp {
     // -----------------------------------------------------------------------
 
     public void complete() {
-        this.complete = true;
-
         synchronized (lock) {
+            this.complete = true;
             lock.notifyAll();
         }
     }
 
     public void waitUntilComplete() {
-        while(!isComplete()){
-            try {
-                synchronized (lock) {
+        // Check under the lock, or a completion from another thread between the check and wait() is missed
+        synchronized (lock) {
+            while(!isComplete()){
+                try {
                     lock.wait();
+                } catch (InterruptedException e) {
+                    // ignore
                 }
-            } catch (InterruptedException e) {
-                // ignore
             }
         }
     }
@@ -133,13 +133,15 @@ public class DefaultUsbIrp implements UsbIrp {
     public void waitUntilComplete(long timeout) {
         long start = System.currentTimeMillis();
 
-        while(!isComplete() && (System.currentTimeMillis() - start) < timeout){
-            try {
-                synchronized (lock) {
-                    lock.wait(timeout);
+        synchronized (lock) {
+            long remaining = timeout;
+            while(!isComplete() && remaining > 0){
+                try {
+                    lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    // ignore
                 }
-            } catch (InterruptedException e) {
-                // ignore
+                remaining = timeout - (System.currentTimeMillis() - start);
             }
         }
     }
@@ -0,0 +1,242 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.cowboycoders.ant.defines.AntDefine;
+import org.cowboycoders.ant.events.BurstListener;
+import org.cowboycoders.ant.messages.MessageId;
+import org.cowboycoders.ant.messages.ValidationException;
+import org.cowboycoders.ant.messages.data.BurstData;
+import org.cowboycoders.ant.utils.BurstMessageSequenceGenerator;
+
+/**
+ * Packetises outgoing bursts and reassembles incoming ones for a single channel.
+ * 
+ * Outgoing data is streamed through one reusable frame, so sending a burst does
+ * not allocate per packet. Incoming packets are appended to a buffer that is kept
+ * between bursts and only grows when a larger burst arrives. Incoming packets must
+ * be fed in the order they were received.
+ * 
+ * @author will
+ *
+ */
+class BurstEngine {
+  
+  private final static Logger LOGGER = Logger.getLogger(BurstEngine.class.getName());
+  
+  private static final int PACKET_SIZE = AntDefine.ANT_STANDARD_DATA_PAYLOAD_SIZE;
+  
+  /**
+   * size, message id, channel/sequence byte, then the data
+   */
+  private static final int FRAME_SIZE = 3 + PACKET_SIZE;
+  private static final int FRAME_DATA_OFFSET = 3;
+  
+  private static final int SEQUENCE_SHIFT = Integer.numberOfTrailingZeros(BurstData.SEQUENCE_MASK);
+  
+  private static final int INITIAL_CAPACITY = 64 * PACKET_SIZE;
+  
+  /**
+   * no burst in progress
+   */
+  private static final int IDLE = -1;
+  
+  /**
+   * ignoring the rest of a broken burst
+   */
+  private static final int DISCARDING = -2;
+  
+  /**
+   * reused for every outgoing packet : guarded by the channel's send lock
+   */
+  private final byte [] frame = new byte[FRAME_SIZE];
+  
+  private final List<BurstListener> listeners = new CopyOnWriteArrayList<BurstListener>();
+  
+  private ByteBuffer rxBuffer = ByteBuffer.allocate(INITIAL_CAPACITY);
+  private int expectedSequence = IDLE;
+  
+  private long transfersCompleted;
+  private long transfersFailed;
+  private long retries;
+  private long packetsSent;
+  private long bytesSent;
+  private long lastTransferBytes;
+  private long lastTransferNanos;
+  private long burstsReceived;
+  private long burstsDropped;
+  private long bytesReceived;
+  
+  /**
+   * @param packet index of the packet within the burst
+   * @param last true if this is the final packet
+   * @return value for the sequence bits of the packet
+   */
+  static int sequenceOf(int packet, boolean last) {
+    int sequence = BurstMessageSequenceGenerator.START;
+    if (packet > 0) {
+      sequence = (packet - 1) % BurstMessageSequenceGenerator.MAX + BurstMessageSequenceGenerator.RESET;
+    }
+    return last ? sequence | BurstMessageSequenceGenerator.FINISH_MASK : sequence;
+  }
+  
+  /**
+   * @param bytes length of the data to send
+   * @return number of packets needed, an empty burst still takes one
+   */
+  static int packetsFor(int bytes) {
+    return Math.max(1, (bytes + PACKET_SIZE - 1) / PACKET_SIZE);
+  }
+  
+  /**
+   * Sends everything between the buffer's position and limit as one burst. The
+   * final packet is padded with zeros. Caller should hold the channel's send lock.
+   * 
+   * @param node to send through
+   * @param channelNumber channel to send on
+   * @param data consumed by this call
+   * @return number of packets sent
+   */
+  int transmit(Node node, int channelNumber, ByteBuffer data) {
+    if (channelNumber > BurstData.BURST_MAX_CHANNEL_NO || channelNumber < 0) {
+      throw new ValidationException("Channel number must be between 0 and " +
+          BurstData.BURST_MAX_CHANNEL_NO);
+    }
+    int packets = packetsFor(data.remaining());
+    frame[0] = (byte) (PACKET_SIZE + 1);
+    frame[1] = MessageId.BURST_DATA.getMessageID();
+    for (int i = 0 ; i < packets ; i++) {
+      boolean last = i == packets - 1;
+      frame[2] = (byte) ((sequenceOf(i, last) << SEQUENCE_SHIFT) | channelNumber);
+      int length = Math.min(PACKET_SIZE, data.remaining());
+      data.get(frame, FRAME_DATA_OFFSET, length);
+      Arrays.fill(frame, FRAME_DATA_OFFSET + length, FRAME_SIZE, (byte) 0);
+      node.sendEncoded(frame);
+    }
+    synchronized (this) {
+      packetsSent += packets;
+      bytesSent += packets * PACKET_SIZE;
+    }
+    return packets;
+  }
+  
+  synchronized void transferCompleted(long bytes, long nanos) {
+    transfersCompleted++;
+    lastTransferBytes = bytes;
+    lastTransferNanos = nanos;
+  }
+  
+  synchronized void transferFailed() {
+    transfersFailed++;
+  }
+  
+  synchronized void transferRetried() {
+    retries++;
+  }
+  
+  void addListener(BurstListener listener) {
+    listeners.add(listener);
+  }
+  
+  /**
+   * @return true if there are no listeners left
+   */
+  boolean removeListener(BurstListener listener) {
+    listeners.remove(listener);
+    return listeners.isEmpty();
+  }
+  
+  /**
+   * Feeds the next received burst packet. Completes the burst if this packet has the
+   * last packet flag set. A packet out of sequence discards the partial burst, as
+   * does a new burst starting before the current one finished.
+   * 
+   * @param msg a received burst packet, may be read only
+   */
+  synchronized void receive(BurstData msg) {
+    int channelByte = msg.getUnsignedByte(0);
+    int sequence = (channelByte & BurstData.SEQUENCE_MASK) >>> SEQUENCE_SHIFT;
+    boolean last = (sequence & BurstMessageSequenceGenerator.FINISH_MASK) != 0;
+    sequence &= ~BurstMessageSequenceGenerator.FINISH_MASK;
+    
+    if (sequence == BurstMessageSequenceGenerator.START) {
+      if (expectedSequence >= 0) {
+        burstsDropped++;
+      }
+      rxBuffer.clear();
+    } else if (sequence != expectedSequence) {
+      if (expectedSequence != DISCARDING) {
+        burstsDropped++;
+      }
+      expectedSequence = last ? IDLE : DISCARDING;
+      return;
+    }
+    
+    append(msg);
+    
+    if (!last) {
+      expectedSequence = sequence == BurstMessageSequenceGenerator.MAX ? 
+          BurstMessageSequenceGenerator.RESET : sequence + 1;
+      return;
+    }
+    
+    expectedSequence = IDLE;
+    rxBuffer.flip();
+    int length = rxBuffer.limit();
+    burstsReceived++;
+    bytesReceived += length;
+    int channelNumber = channelByte & BurstData.CHANNEL_MASK;
+    for (BurstListener listener : listeners) {
+      rxBuffer.limit(length).position(0);
+      try {
+        listener.receiveBurst(channelNumber, rxBuffer);
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "burst listener threw", e);
+      }
+    }
+  }
+  
+  private void append(BurstData msg) {
+    int length = msg.getStandardPayloadLength();
+    if (rxBuffer.remaining() < length) {
+      ByteBuffer larger = ByteBuffer.allocate(rxBuffer.capacity() * 2);
+      rxBuffer.flip();
+      larger.put(rxBuffer);
+      rxBuffer = larger;
+    }
+    // offset 0 is the channel/sequence byte
+    for (int i = 1 ; i < length ; i++) {
+      rxBuffer.put(msg.getStandardPayloadByte(i));
+    }
+  }
+  
+  synchronized BurstStatistics getStatistics() {
+    return new BurstStatistics(transfersCompleted, transfersFailed, retries, packetsSent, 
+        bytesSent, lastTransferBytes, lastTransferNanos, burstsReceived, burstsDropped, 
+        bytesReceived);
+  }
+
+}
@@ -0,0 +1,136 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant;
+
+/**
+ * Snapshot of a channel's burst transfer counters
+ * 
+ * @author will
+ *
+ */
+public class BurstStatistics {
+  
+  private final long transfersCompleted;
+  private final long transfersFailed;
+  private final long retries;
+  private final long packetsSent;
+  private final long bytesSent;
+  private final long lastTransferBytes;
+  private final long lastTransferNanos;
+  private final long burstsReceived;
+  private final long burstsDropped;
+  private final long bytesReceived;
+  
+  BurstStatistics(long transfersCompleted, long transfersFailed, long retries,
+      long packetsSent, long bytesSent, long lastTransferBytes, long lastTransferNanos,
+      long burstsReceived, long burstsDropped, long bytesReceived) {
+    this.transfersCompleted = transfersCompleted;
+    this.transfersFailed = transfersFailed;
+    this.retries = retries;
+    this.packetsSent = packetsSent;
+    this.bytesSent = bytesSent;
+    this.lastTransferBytes = lastTransferBytes;
+    this.lastTransferNanos = lastTransferNanos;
+    this.burstsReceived = burstsReceived;
+    this.burstsDropped = burstsDropped;
+    this.bytesReceived = bytesReceived;
+  }
+
+  /**
+   * @return bursts sent and acknowledged as complete
+   */
+  public long getTransfersCompleted() {
+    return transfersCompleted;
+  }
+
+  /**
+   * @return bursts abandoned after running out of retries, or on a non retryable error
+   */
+  public long getTransfersFailed() {
+    return transfersFailed;
+  }
+
+  /**
+   * @return bursts resent after the chip reported a failed transfer
+   */
+  public long getRetries() {
+    return retries;
+  }
+
+  /**
+   * @return burst packets handed to the chip, including those of retries
+   */
+  public long getPacketsSent() {
+    return packetsSent;
+  }
+
+  /**
+   * @return payload bytes handed to the chip, including padding and retries
+   */
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  /**
+   * @return payload bytes in the most recent completed transfer
+   */
+  public long getLastTransferBytes() {
+    return lastTransferBytes;
+  }
+
+  /**
+   * @return time taken by the most recent completed transfer, including retries
+   */
+  public long getLastTransferNanos() {
+    return lastTransferNanos;
+  }
+  
+  /**
+   * @return bytes per second achieved by the most recent completed transfer, 
+   *         or zero if there hasn't been one
+   */
+  public double getLastTransferRate() {
+    if (lastTransferNanos <= 0) {
+      return 0;
+    }
+    return lastTransferBytes * 1e9 / lastTransferNanos;
+  }
+
+  /**
+   * @return complete bursts delivered to burst listeners
+   */
+  public long getBurstsReceived() {
+    return burstsReceived;
+  }
+
+  /**
+   * @return partial bursts discarded due to a missing or out of sequence packet
+   */
+  public long getBurstsDropped() {
+    return burstsDropped;
+  }
+
+  /**
+   * @return bytes delivered to burst listeners
+   */
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+}
@@ -19,25 +19,30 @@
 package org.cowboycoders.ant;
 
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.cowboycoders.ant.defines.AntDefine;
 import org.cowboycoders.ant.events.BroadcastListener;
+import org.cowboycoders.ant.events.BurstListener;
 import org.cowboycoders.ant.events.EventMachine;
-import org.cowboycoders.ant.events.FixedSizeBuffer;
 import org.cowboycoders.ant.events.MessageCondition;
 import org.cowboycoders.ant.events.MessageConditionFactory;
+import org.cowboycoders.ant.events.RingBuffer;
 import org.cowboycoders.ant.messages.ChannelMessage;
 import org.cowboycoders.ant.messages.ChannelType;
 import org.cowboycoders.ant.messages.MessageId;
@@ -52,11 +57,9 @@ import org.cowboycoders.ant.messages.config.ChannelPeriodMessage;
 import org.cowboycoders.ant.messages.config.ChannelSearchTimeoutMessage;
 import org.cowboycoders.ant.messages.config.ChannelUnassignMessage;
 import org.cowboycoders.ant.messages.config.ChannelAssignMessage.ExtendedAssignment;
-import org.cowboycoders.ant.messages.data.BurstDataMessage;
+import org.cowboycoders.ant.messages.data.BurstData;
 import org.cowboycoders.ant.messages.responses.ChannelResponse;
 import org.cowboycoders.ant.messages.responses.ResponseCode;
-import org.cowboycoders.ant.utils.BurstMessageSequenceGenerator;
-import org.cowboycoders.ant.utils.MiscUtils;
 
 
 public class Channel extends BufferedNodeComponent {
@@ -86,6 +89,13 @@ public class Channel extends BufferedNodeComponent {
   }
 
   private int number = 0;
+  
+  private final BurstEngine burstEngine = new BurstEngine();
+  
+  /**
+   * feeds the burst engine, registered whilst there are burst listeners
+   */
+  private BroadcastListener<BurstData> burstPacketListener;
 
   /**
    * @param parent the parent to set
@@ -332,14 +342,7 @@ public class Channel extends BufferedNodeComponent {
   public void setId(int deviceNumber, int deviceType,
       int transmissionType, boolean setPairingFlag) {
     ChannelIdMessage id = new ChannelIdMessage(0, deviceNumber, deviceType, transmissionType, setPairingFlag);
-    MessageCondition condition = MessageConditionFactory.newResponseCondition(id.getId(), ResponseCode.RESPONSE_NO_ERROR);
-    try {
-      sendAndWaitForAck(id, condition, 1L, TimeUnit.SECONDS, null,null);
-    } catch (InterruptedException e) {
-      handleTimeOutException(e);
-    } catch (TimeoutException e) {
-      handleTimeOutException(e);
-    }
+    sendPipelined(1L, TimeUnit.SECONDS, id);
   }
   
   /**
@@ -348,14 +351,7 @@ public class Channel extends BufferedNodeComponent {
    */
   public void setFrequency(int channelFrequency) {
     ChannelFrequencyMessage freq = new ChannelFrequencyMessage(0,channelFrequency);
-    MessageCondition condition = MessageConditionFactory.newResponseCondition(freq.getId(), ResponseCode.RESPONSE_NO_ERROR);
-    try {
-      sendAndWaitForAck(freq, condition, 1L, TimeUnit.SECONDS, null,null);
-    } catch (InterruptedException e) {
-      handleTimeOutException(e);
-    } catch (TimeoutException e) {
-      handleTimeOutException(e);
-    }
+    sendPipelined(1L, TimeUnit.SECONDS, freq);
   }
   /**
    * @see org.cowboycoders.ant.messages.ChannelPeriodMessage
@@ -363,14 +359,7 @@ public class Channel extends BufferedNodeComponent {
    */
   public void setPeriod(int period) {
     ChannelPeriodMessage periodMsg = new ChannelPeriodMessage(0,period);
-    MessageCondition condition = MessageConditionFactory.newResponseCondition(periodMsg.getId(), ResponseCode.RESPONSE_NO_ERROR);
-    try {
-      sendAndWaitForAck(periodMsg, condition, 1L, TimeUnit.SECONDS, null,null);
-    } catch (InterruptedException e) {
-      handleTimeOutException(e);
-    } catch (TimeoutException e) {
-      handleTimeOutException(e);
-    }
+    sendPipelined(1L, TimeUnit.SECONDS, periodMsg);
   }
   
   /**
@@ -382,14 +371,7 @@ public class Channel extends BufferedNodeComponent {
    */
   public void setSearchTimeout(int timeout) {
     ChannelSearchTimeoutMessage msg = new ChannelSearchTimeoutMessage(0,timeout);
-    MessageCondition condition = MessageConditionFactory.newResponseCondition(msg.getId(), ResponseCode.RESPONSE_NO_ERROR);
-    try {
-      sendAndWaitForAck(msg, condition, 1L, TimeUnit.SECONDS, null,null);
-    } catch (InterruptedException e) {
-      handleTimeOutException(e);
-    } catch (TimeoutException e) {
-      handleTimeOutException(e);
-    }
+    sendPipelined(1L, TimeUnit.SECONDS, msg);
   }
   
   
@@ -473,14 +455,7 @@ public class Channel extends BufferedNodeComponent {
   
   public synchronized void unassign() {
     ChannelMessage msg = new ChannelUnassignMessage(getNumber());
-    MessageCondition condition = MessageConditionFactory.newResponseCondition(msg.getId(), ResponseCode.RESPONSE_NO_ERROR);
-    try {
-      sendAndWaitForAck(msg, condition, 1L, TimeUnit.SECONDS, null,null);
-    } catch (InterruptedException e) {
-      handleTimeOutException(e);
-    } catch (TimeoutException e) {
-      handleTimeOutException(e);
-    }
+    sendPipelined(1L, TimeUnit.SECONDS, msg);
   }
   
   public synchronized void assign(NetworkKey key, ChannelAssignMessage assignMessage) {
@@ -493,22 +468,100 @@ public class Channel extends BufferedNodeComponent {
     
     assignMessage.setNetworkNumber(networkNumber);
     
-    MessageCondition condition = MessageConditionFactory.newResponseCondition(assignMessage.getId(), ResponseCode.RESPONSE_NO_ERROR);
     try {
-      sendAndWaitForAck(assignMessage, condition, 1L, TimeUnit.SECONDS, null,null);
+      sendPipelined(1L, TimeUnit.SECONDS, assignMessage);
+    } catch (ChannelError e) {
+      logBuffers();
+      throw e;
+    }
+    
+  }
+  
+  /**
+   * Assigns the channel, sends each configuration command and opens it, with all of the 
+   * commands in flight at once rather than waiting for each response in turn.
+   * 
+   * @param netKeyName name of network key to assign channel to
+   * @param assignMessage @see org.cowboycoders.ant.messages.config.ChannelAssignMessage
+   * @param config commands sent between assigning and opening the channel, for example 
+   *        a {@link ChannelIdMessage} and a {@link ChannelPeriodMessage}
+   */
+  public synchronized void assignAndOpen(String netKeyName, ChannelAssignMessage assignMessage, 
+      ChannelMessage ... config) {
+    NetworkKey key = parent.getNetworkKey(netKeyName);
+    if (key != null) {
+      assignMessage.setNetworkNumber(key.getNumber());
+    } else {
+      LOGGER.warning("network key not found: default to network 0");
+      assignMessage.setNetworkNumber(0);
+    }
+    ChannelMessage [] commands = new ChannelMessage[config.length + 2];
+    commands[0] = assignMessage;
+    System.arraycopy(config, 0, commands, 1, config.length);
+    commands[commands.length - 1] = new ChannelOpenMessage(0);
+    sendPipelined(1L, TimeUnit.SECONDS, commands);
+  }
+  
+  /**
+   * Sends each command straight after the last, without waiting for the responses
+   * in between, then waits for all of them. The chip handles commands in the order
+   * they are sent.
+   * 
+   * @param timeout for all of the responses
+   * @param timeoutUnit unit of timeout
+   * @param commands to send
+   * @return responses, in the same order as the commands
+   * @throws ChannelError if a command is rejected or a response doesn't arrive in time
+   */
+  public List<MessageMetaWrapper<ChannelResponse>> sendPipelined(Long timeout, TimeUnit timeoutUnit,
+      ChannelMessage ... commands) {
+    List<Future<MessageMetaWrapper<ChannelResponse>>> pending = 
+        new ArrayList<Future<MessageMetaWrapper<ChannelResponse>>>(commands.length);
+    List<MessageMetaWrapper<ChannelResponse>> rtn = 
+        new ArrayList<MessageMetaWrapper<ChannelResponse>>(commands.length);
+    try {
+      try {
+        sendLock.lock();
+        for (ChannelMessage msg : commands) {
+          prepareChannelMessageForSend(msg);
+          pending.add(parent.sendCommand(msg, channelSender));
+        }
+      } finally {
+        sendLock.unlock();
+      }
+      
+      long deadline = System.nanoTime() + timeoutUnit.toNanos(timeout);
+      for (int i = 0 ; i < commands.length ; i++) {
+        long remaining = Math.max(0, deadline - System.nanoTime());
+        MessageMetaWrapper<ChannelResponse> response = pending.get(i).get(remaining, TimeUnit.NANOSECONDS);
+        ResponseCode code = response.unwrap().getResponseCode();
+        if (code == null || code.getCode() != ResponseCode.RESPONSE_NO_ERROR.getCode()) {
+          throw new ChannelError(commands[i].getId() + " rejected: " + code);
+        }
+        rtn.add(response);
+      }
     } catch (InterruptedException e) {
       handleTimeOutException(e);
     } catch (TimeoutException e) {
-      logBuffers();
       handleTimeOutException(e);
+    } catch (ExecutionException e) {
+      throw new ChannelError(e.getCause());
+    } finally {
+      // frees the slots of anything we gave up on
+      for (Future<MessageMetaWrapper<ChannelResponse>> response : pending) {
+        response.cancel(false);
+      }
     }
-    
+    return rtn;
   }
   
   
   private void logBuffers() {
-    FixedSizeBuffer<MessageMetaWrapper<StandardMessage>> msgBuffer = this.getMsgBuffer().getMsgBuffer();
-    FixedSizeBuffer<MessageMetaWrapper<ChannelResponse>> ackBuffer = this.getAckBuffer().getMsgBuffer();
+    if (!LOGGER.isLoggable(Level.FINER)) {
+      return;
+    }
+    RingBuffer<MessageMetaWrapper<StandardMessage>> msgBuffer = this.getMsgBuffer().getMsgBuffer();
+    RingBuffer<MessageMetaWrapper<ChannelResponse>> ackBuffer = this.getAckBuffer().getMsgBuffer();
     LOGGER.finer("Log buffers: start");
     int count =0 ;
     for (MessageMetaWrapper<StandardMessage> wrapper : msgBuffer) {
@@ -529,24 +582,18 @@ public class Channel extends BufferedNodeComponent {
 
   public synchronized void open() {
     ChannelMessage msg = new ChannelOpenMessage(0);
-    MessageCondition condition = MessageConditionFactory.newResponseCondition(msg.getId(), ResponseCode.RESPONSE_NO_ERROR);
-    try {
-      sendAndWaitForAck(msg, condition, 1L, TimeUnit.SECONDS, null, null);
-    } catch (InterruptedException e) {
-      handleTimeOutException(e);
-    } catch (TimeoutException e) {
-      handleTimeOutException(e);
-    }
+    sendPipelined(1L, TimeUnit.SECONDS, msg);
   }
   
   public synchronized void close() {
     ChannelMessage msg = new ChannelCloseMessage(0);
-    MessageCondition condition = MessageConditionFactory.newResponseCondition(msg.getId(), ResponseCode.RESPONSE_NO_ERROR);
-    Receipt receipt = new Receipt();
+    // received messages may be dispatched out of order, so the event can
+    // overtake the response: accept anything after the command was sent
+    final long sent = MessageMetaWrapper.getCurrentTimestamp();
     try {
-      sendAndWaitForAck(msg, condition, 1L, TimeUnit.SECONDS, null, receipt);
-      condition = MessageConditionFactory.newResponseCondition(MessageId.EVENT, ResponseCode.EVENT_CHANNEL_CLOSED);
-      parent.getEvm().waitForAcknowledgement(this, condition, 1L, TimeUnit.SECONDS, null, receipt.getRxTimestamp());  
+      sendPipelined(1L, TimeUnit.SECONDS, msg);
+      MessageCondition condition = MessageConditionFactory.newResponseCondition(MessageId.EVENT, ResponseCode.EVENT_CHANNEL_CLOSED);
+      parent.getEvm().waitForAcknowledgement(this, condition, 1L, TimeUnit.SECONDS, null, sent);  
     } catch (InterruptedException e) {
       handleTimeOutException(e);
     } catch (TimeoutException e) {
@@ -557,13 +604,33 @@ public class Channel extends BufferedNodeComponent {
   
   public void sendBurst(byte[] data, Long timeout, TimeUnit timeoutUnit) 
       throws InterruptedException, TimeoutException, TransferException {
-    final List<byte[]> list = MiscUtils.splitByteArray(data, AntDefine.ANT_STANDARD_DATA_PAYLOAD_SIZE);
-    final BurstMessageSequenceGenerator generator = new BurstMessageSequenceGenerator();
+    sendBurst(ByteBuffer.wrap(data), timeout, timeoutUnit, 0);
+  }
+  
+  /**
+   * Sends the bytes between the buffer's position and limit as a single burst, 
+   * padding the last packet with zeros. Packets are written straight to the chip
+   * from the buffer, without creating a message per packet. 
+   * 
+   * If the chip reports {@link ResponseCode#EVENT_TRANSFER_TX_FAILED} the whole
+   * burst is resent, up to maxRetries times. Any other failure is thrown straight 
+   * away.
+   * 
+   * @param data consumed by this call
+   * @param timeout for each attempt
+   * @param timeoutUnit unit of timeout
+   * @param maxRetries number of times to resend a failed burst, 0 for none
+   * @throws TransferException if the transfer failed and we ran out of retries
+   */
+  public void sendBurst(final ByteBuffer data, Long timeout, TimeUnit timeoutUnit, int maxRetries) 
+      throws InterruptedException, TimeoutException, TransferException {
+    final int start = data.position();
+    final int bytes = BurstEngine.packetsFor(data.remaining()) * AntDefine.ANT_STANDARD_DATA_PAYLOAD_SIZE;
+    boolean completed = false;
     try {
       sendLock.lock();
       
-
-      final MessageCondition completed = MessageConditionFactory.newResponseCondition(MessageId.EVENT, ResponseCode.EVENT_TRANSFER_TX_COMPLETED);
+      final MessageCondition transferCompleted = MessageConditionFactory.newResponseCondition(MessageId.EVENT, ResponseCode.EVENT_TRANSFER_TX_COMPLETED);
       final MessageCondition failed = MessageConditionFactory.newResponseCondition(MessageId.EVENT, ResponseCode.EVENT_TRANSFER_TX_FAILED);
       final MessageCondition inProgress = MessageConditionFactory.newResponseCondition(MessageId.EVENT, ResponseCode.TRANSFER_IN_PROGRESS);
       final MessageCondition sequenceError = MessageConditionFactory.newResponseCondition(MessageId.EVENT, ResponseCode.TRANSFER_SEQUENCE_NUMBER_ERROR);
@@ -572,7 +639,7 @@ public class Channel extends BufferedNodeComponent {
 
         @Override
         public boolean test(StandardMessage msg) {
-          if (completed.test(msg)) return true;
+          if (transferCompleted.test(msg)) return true;
           ChannelResponse r = null;
           if (msg instanceof ChannelResponse) {
             r = (ChannelResponse) msg;
@@ -594,53 +661,97 @@ public class Channel extends BufferedNodeComponent {
         
       };
       
-      MessageSender massSender = new MessageSender() {
+      final int channelNumber = getNumber();
+      MessageSender burstSender = new MessageSender() {
 
         @Override
         public MessageMetaWrapper<StandardMessage> send(StandardMessage msgIn) {
-          MessageMetaWrapper<StandardMessage> rtn = null;
-          for (int i = 0; i < list.size() -1 ; i++) {
-            BurstDataMessage msg = new BurstDataMessage();
-            msg.setData(list.get(i));
-            msg.setSequenceNumber(generator.next());
-            if (rtn == null) {
-            rtn = Channel.this.send(msg);
-            } else {
-              Channel.this.send(msg);
-            }
-          }
-          
-          BurstDataMessage msg = new BurstDataMessage();
-          msg.setData(list.get(list.size() -1));
-          msg.setSequenceNumber(generator.finish());
-          Channel.this.send(msg);
-          
-          return rtn;
-
+          data.position(start);
+          burstEngine.transmit(parent, channelNumber, data);
+          return null;
         }
         
       };
       
-      try {
-      
-      parent.sendAndWaitForAck(null, condition, timeout, timeoutUnit, null, this, massSender, null);
-      
-      } catch (RuntimeException e) {
-        //two levels deep
-        Throwable cause = e.getCause().getCause();
-        if (cause != null && cause instanceof TransferException) {
-          throw (TransferException) cause;
-        } else {
-          throw e;
+      long began = System.nanoTime();
+      for (int attempt = 0 ; ; attempt++) {
+        try {
+          sendBurstAttempt(condition, burstSender, timeout, timeoutUnit);
+          break;
+        } catch (TransferException e) {
+          if (attempt >= maxRetries || e.getResponseCode() != ResponseCode.EVENT_TRANSFER_TX_FAILED) {
+            throw e;
+          }
+          burstEngine.transferRetried();
+          LOGGER.fine("sendBurst: tx failed, retrying");
         }
       }
+      burstEngine.transferCompleted(bytes, System.nanoTime() - began);
+      completed = true;
       
     } finally {
+      if (!completed) {
+        burstEngine.transferFailed();
+      }
       sendLock.unlock();
     }
-
     
   }
+  
+  private void sendBurstAttempt(MessageCondition condition, MessageSender burstSender, 
+      Long timeout, TimeUnit timeoutUnit) 
+      throws InterruptedException, TimeoutException, TransferException {
+    try {
+      parent.sendAndWaitForAck(null, condition, timeout, timeoutUnit, null, this, burstSender, null);
+    } catch (RuntimeException e) {
+      //two levels deep
+      Throwable cause = e.getCause() == null ? null : e.getCause().getCause();
+      if (cause != null && cause instanceof TransferException) {
+        throw (TransferException) cause;
+      } else {
+        throw e;
+      }
+    }
+  }
+  
+  /**
+   * Registers a listener for complete bursts received on this channel. Packets are
+   * reassembled in the order they are dispatched, so the node should use ordered
+   * dispatch (or flyweight decoding) for reliable reassembly.
+   * 
+   * @param listener to add
+   */
+  public synchronized void registerBurstListener(BurstListener listener) {
+    if (burstPacketListener == null) {
+      if (!parent.getEvm().isOrdered() && !parent.getEvm().isFlyweightDecoding()) {
+        LOGGER.warning("registerBurstListener: dispatch is unordered, bursts may be dropped");
+      }
+      burstPacketListener = new BroadcastListener<BurstData>() {
+
+        @Override
+        public void receiveMessage(BurstData message) {
+          burstEngine.receive(message);
+        }
+        
+      };
+      registerRxListener(burstPacketListener, BurstData.class);
+    }
+    burstEngine.addListener(listener);
+  }
+  
+  public synchronized void removeBurstListener(BurstListener listener) {
+    if (burstEngine.removeListener(listener) && burstPacketListener != null) {
+      removeRxListener(burstPacketListener);
+      burstPacketListener = null;
+    }
+  }
+  
+  /**
+   * @return counters for bursts sent and received on this channel
+   */
+  public BurstStatistics getBurstStatistics() {
+    return burstEngine.getStatistics();
+  }
 
   
   
@@ -33,6 +33,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.cowboycoders.ant.AntLogger.Direction;
@@ -40,14 +41,18 @@ import org.cowboycoders.ant.AntLogger.LogDataContainer;
 import org.cowboycoders.ant.events.BroadcastListener;
 import org.cowboycoders.ant.events.BroadcastMessenger;
 import org.cowboycoders.ant.events.EventMachine;
-import org.cowboycoders.ant.events.FixedSizeBuffer;
 import org.cowboycoders.ant.events.LockExchangeContainer;
 import org.cowboycoders.ant.events.LockExchanger;
 import org.cowboycoders.ant.events.MessageCondition;
 import org.cowboycoders.ant.events.MessageConditionFactory;
+import org.cowboycoders.ant.events.OverflowPolicy;
+import org.cowboycoders.ant.events.PipelineMetrics;
 import org.cowboycoders.ant.interfaces.AntChipInterface;
 import org.cowboycoders.ant.interfaces.AntStatus;
 import org.cowboycoders.ant.interfaces.AntStatusUpdate;
+import org.cowboycoders.ant.messages.AntMessageFactory;
+import org.cowboycoders.ant.messages.ChannelMessage;
+import org.cowboycoders.ant.messages.MessageException;
 import org.cowboycoders.ant.messages.MessageMetaWrapper;
 import org.cowboycoders.ant.messages.StandardMessage;
 import org.cowboycoders.ant.messages.commands.ChannelRequestMessage;
@@ -86,6 +91,11 @@ public class Node extends BufferedNodeComponent {
   private boolean running = false;
   private EventMachine evm;
   
+  /**
+   * completes the futures returned by {@link #sendCommand(ChannelMessage, MessageSender)}
+   */
+  private final ResponseCorrelator responseCorrelator = new ResponseCorrelator();
+  
   /**
    * @return the evm
    */
@@ -142,8 +152,25 @@ public class Node extends BufferedNodeComponent {
   private boolean weReset;
   
   public Node(AntChipInterface antchip) {
+    this(antchip, new EventMachine(antchip));
+  }
+  
+  /**
+   * Received messages are delivered to each listener in order, through a bounded
+   * mailbox, rather than on a new pool thread per message.
+   * @see org.cowboycoders.ant.events.BroadcastMessenger#BroadcastMessenger(int, OverflowPolicy)
+   * @param antchip to communicate with
+   * @param mailboxCapacity maximum messages queued per listener
+   * @param overflowPolicy what to do when a listener falls behind
+   */
+  public Node(AntChipInterface antchip, int mailboxCapacity, OverflowPolicy overflowPolicy) {
+    this(antchip, new EventMachine(antchip, mailboxCapacity, overflowPolicy));
+  }
+  
+  private Node(AntChipInterface antchip, EventMachine evm) {
     antChipInterface = antchip;
-    evm = new EventMachine(antchip);
+    this.evm = evm;
+    evm.registerInlineRxListener(responseCorrelator);
     mStatusMessenger.addBroadcastListener(new StatusListener());
   }
   
@@ -155,6 +182,33 @@ public class Node extends BufferedNodeComponent {
   public AntChipInterface getAntChip() {
     return antChipInterface;
   }
+
+  /**
+   * Reuse decoded data messages rather than allocating one per packet. Rx
+   * listeners then receive read only messages which must be copied to be kept.
+   * @see EventMachine#setFlyweightDecoding(boolean)
+   * @param flag true to enable
+   */
+  public void setFlyweightDecoding(boolean flag) {
+    getEvm().setFlyweightDecoding(flag);
+  }
+
+  public boolean isFlyweightDecoding() {
+    return getEvm().isFlyweightDecoding();
+  }
+  
+  /**
+   * Records counts and timings for received packets.
+   * @see EventMachine#setMetrics(PipelineMetrics)
+   * @param metrics to record with, or null to disable
+   */
+  public void setMetrics(PipelineMetrics metrics) {
+    getEvm().setMetrics(metrics);
+  }
+  
+  public PipelineMetrics getMetrics() {
+    return getEvm().getMetrics();
+  }
   
   /**
    * Listener for status updates from the ant chip
@@ -276,7 +330,10 @@ public class Node extends BufferedNodeComponent {
   public synchronized Channel getFreeChannel() {
     
     for (Channel c : channels) {
-      if (c.isFree()) return c;
+      if (c.isFree()) {
+        c.setFree(false);
+        return c;
+      }
     }
     
     return null;
@@ -494,6 +551,28 @@ public class Node extends BufferedNodeComponent {
 
   }
   
+  /**
+   * Sends a command without waiting for its response. The response is matched to
+   * the command, by channel number and message id, on the receiving thread, so 
+   * several commands can be in flight at once and waiting doesn't take a pool 
+   * thread.
+   * 
+   * @param msg command with its channel number set
+   * @param sender used to send msg, null to send it directly
+   * @return completed with the chip's response to msg
+   */
+  public Future<MessageMetaWrapper<ChannelResponse>> sendCommand(ChannelMessage msg, 
+      MessageSender sender) {
+    Future<MessageMetaWrapper<ChannelResponse>> rtn = responseCorrelator.register(msg);
+    try {
+      (sender == null ? nodeSender : sender).send(msg);
+    } catch (RuntimeException e) {
+      rtn.cancel(false);
+      throw e;
+    }
+    return rtn;
+  }
+  
   public StandardMessage sendAndWaitForAck(
       final StandardMessage msg, 
       final MessageCondition condition,
@@ -505,7 +584,9 @@ public class Node extends BufferedNodeComponent {
           throws InterruptedException, TimeoutException {
     final LockExchangeContainer lockContainer = new LockExchangeContainer();
     final BufferedNodeComponent component = componentIn == null ? Node.this : componentIn;
-    LOGGER.finer(component.toString());
+    if (LOGGER.isLoggable(Level.FINER)) {
+      LOGGER.finer(component.toString());
+    }
     WaitAdapter responseAdapter = new WaitAdapter() {
 
       @Override
@@ -559,12 +640,35 @@ public class Node extends BufferedNodeComponent {
   }
   
   public synchronized MessageMetaWrapper<StandardMessage> send(StandardMessage msg) {
-    LOGGER.finer("sent: " + msg.toString() + " to chip" );
+    if (LOGGER.isLoggable(Level.FINER)) {
+      LOGGER.finer("sent: " + msg.toString() + " to chip" );
+    }
     antChipInterface.send(msg.encode());
     // now that we have sent, inform the loggers
     logMessage(Direction.SENT,msg);
     return new MessageMetaWrapper<StandardMessage>(msg);
   }
+  
+  /**
+   * Sends an already encoded message straight to the chip. The array is not
+   * retained, so callers may reuse it as soon as this returns. A message object
+   * is only decoded if there are loggers to inform.
+   * 
+   * @param encoded message as returned by {@link StandardMessage#encode()}
+   */
+  public synchronized void sendEncoded(byte [] encoded) {
+    antChipInterface.send(encoded);
+    synchronized (antLoggers) {
+      if (antLoggers.isEmpty()) {
+        return;
+      }
+    }
+    try {
+      logMessage(Direction.SENT, AntMessageFactory.createMessage(encoded));
+    } catch (MessageException e) {
+      LOGGER.warning("sendEncoded: unable to decode message for loggers");
+    }
+  }
 
   public synchronized void stop() {
     if (!running) return; //throw new AntError("already stopped");
@@ -0,0 +1,204 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.cowboycoders.ant.events.BroadcastListener;
+import org.cowboycoders.ant.messages.ChannelMessage;
+import org.cowboycoders.ant.messages.MessageId;
+import org.cowboycoders.ant.messages.MessageMetaWrapper;
+import org.cowboycoders.ant.messages.StandardMessage;
+import org.cowboycoders.ant.messages.responses.ChannelResponse;
+
+/**
+ * Matches channel responses to the commands that caused them. A slot keyed by
+ * channel number and message id is registered before a command is sent, and is 
+ * completed on the receiving thread when the response arrives, so nothing needs
+ * a thread of its own to wait for it.
+ * 
+ * Commands with the same key are answered in the order they were registered.
+ * 
+ * @author will
+ *
+ */
+public class ResponseCorrelator implements BroadcastListener<StandardMessage> {
+  
+  /**
+   * Response to a single command. {@link #cancel(boolean)} gives up the slot.
+   */
+  public class PendingResponse implements Future<MessageMetaWrapper<ChannelResponse>> {
+    
+    private final int key;
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile MessageMetaWrapper<ChannelResponse> response;
+    private volatile boolean cancelled;
+    
+    private PendingResponse(int key) {
+      this.key = key;
+    }
+    
+    private void complete(MessageMetaWrapper<ChannelResponse> response) {
+      this.response = response;
+      latch.countDown();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      if (!remove(this)) {
+        return false;
+      }
+      cancelled = true;
+      latch.countDown();
+      return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+      return latch.getCount() == 0;
+    }
+
+    @Override
+    public MessageMetaWrapper<ChannelResponse> get() throws InterruptedException, ExecutionException {
+      latch.await();
+      return getResponse();
+    }
+
+    /**
+     * Waits on the calling thread. The slot is given up if the response doesn't arrive 
+     * in time.
+     */
+    @Override
+    public MessageMetaWrapper<ChannelResponse> get(long timeout, TimeUnit unit) 
+        throws InterruptedException, ExecutionException, TimeoutException {
+      try {
+        if (!latch.await(timeout, unit) && cancel(false)) {
+          throw new TimeoutException("timeout waiting for response");
+        }
+      } catch (InterruptedException e) {
+        cancel(false);
+        throw e;
+      }
+      return getResponse();
+    }
+    
+    private MessageMetaWrapper<ChannelResponse> getResponse() throws ExecutionException {
+      if (cancelled) {
+        throw new ExecutionException(new ChannelError("response cancelled"));
+      }
+      return response;
+    }
+    
+  }
+  
+  /**
+   * channel number and message id packed into an int : see {@link #keyOf(int, byte)}
+   */
+  private final Map<Integer, LinkedList<PendingResponse>> pending = 
+      new HashMap<Integer, LinkedList<PendingResponse>>();
+  
+  private static int keyOf(int channelNumber, byte messageId) {
+    return (channelNumber << 8) | (messageId & 0xff);
+  }
+  
+  /**
+   * Registers interest in the response to a command. Must be called before the 
+   * command is sent.
+   * 
+   * @param msg command about to be sent, with its channel number set
+   * @return completed when the response to msg arrives
+   */
+  public synchronized PendingResponse register(ChannelMessage msg) {
+    int key = keyOf(msg.getChannelNumber(), msg.getId().getMessageID());
+    LinkedList<PendingResponse> slots = pending.get(key);
+    if (slots == null) {
+      slots = new LinkedList<PendingResponse>();
+      pending.put(key, slots);
+    }
+    PendingResponse rtn = new PendingResponse(key);
+    slots.add(rtn);
+    return rtn;
+  }
+  
+  private synchronized boolean remove(PendingResponse response) {
+    LinkedList<PendingResponse> slots = pending.get(response.key);
+    if (slots == null || !slots.remove(response)) {
+      return false;
+    }
+    if (slots.isEmpty()) {
+      pending.remove(response.key);
+    }
+    return true;
+  }
+  
+  /**
+   * @return number of commands still waiting for a response
+   */
+  public synchronized int getPendingCount() {
+    int count = 0;
+    for (LinkedList<PendingResponse> slots : pending.values()) {
+      count += slots.size();
+    }
+    return count;
+  }
+
+  /**
+   * Completes the oldest slot matching a response. Channel events are ignored.
+   */
+  @Override
+  public void receiveMessage(StandardMessage message) {
+    if (!(message instanceof ChannelResponse)) {
+      return;
+    }
+    ChannelResponse response = (ChannelResponse) message;
+    MessageId id = response.getMessageId();
+    if (id == null || id == MessageId.EVENT) {
+      return;
+    }
+    PendingResponse slot;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      int key = keyOf(response.getChannelNumber(), id.getMessageID());
+      LinkedList<PendingResponse> slots = pending.get(key);
+      if (slots == null) {
+        return;
+      }
+      slot = slots.removeFirst();
+      if (slots.isEmpty()) {
+        pending.remove(key);
+      }
+    }
+    slot.complete(new MessageMetaWrapper<ChannelResponse>(response));
+  }
+
+}
@@ -24,9 +24,20 @@ import org.cowboycoders.ant.utils.Containable;
 import org.cowboycoders.ant.utils.SharedBuffer;
 
 public class SharedMetaBuffer<V extends Containable<? extends StandardMessage>> extends SharedBuffer<V> {
+  
+  private MessageCondition condition;
 
   public SharedMetaBuffer(int length, MessageCondition condition) {
-    super(new ContainedMessageBuffer<V>(length, condition));
+    super(length);
+    this.condition = condition;
+  }
+
+  /* (non-Javadoc)
+   * @see org.cowboycoders.ant.utils.SharedBuffer#accept(java.lang.Object)
+   */
+  @Override
+  protected boolean accept(V e) {
+    return condition == null || condition.test(e.unwrap());
   }
   
   
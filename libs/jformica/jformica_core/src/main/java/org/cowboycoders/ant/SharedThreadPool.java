@@ -22,8 +22,10 @@ import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SharedThreadPool {
   
@@ -32,6 +34,11 @@ public class SharedThreadPool {
    */
   private static ExecutorService dispatchPool;
   
+  /**
+   * Drains listener mailboxes for ordered {@link org.cowboycoders.ant.events.BroadcastMessenger}s
+   */
+  private static ExecutorService orderedDispatchPool;
+  
   /**
    * @return the dispatchPool
    */
@@ -46,6 +53,37 @@ public class SharedThreadPool {
     SharedThreadPool.dispatchPool = dispatchPool;
   }
 
+  /**
+   * A fixed size pool, so unlike {@link #getThreadPool()} the number of threads
+   * stays bounded under load. Created on first use.
+   * @return the orderedDispatchPool
+   */
+  public synchronized static ExecutorService getOrderedDispatchPool() {
+    if (orderedDispatchPool == null) {
+      int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+      orderedDispatchPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+        
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "ant-ordered-dispatch-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+        
+      });
+    }
+    return orderedDispatchPool;
+  }
+
+  /**
+   * @param orderedDispatchPool the orderedDispatchPool to set
+   */
+  public synchronized static void setOrderedDispatchPool(ExecutorService orderedDispatchPool) {
+    SharedThreadPool.orderedDispatchPool = orderedDispatchPool;
+  }
+
   static {
     //initPool(1,Integer.MAX_VALUE,60,TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(5));
     // can't have a non unary length queue as we rely on each call to execute in a new thread
@@ -21,7 +21,10 @@
  */
 package org.cowboycoders.ant.events;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
@@ -55,6 +58,24 @@ public class BroadcastMessenger<V> {
    */
   ReentrantReadWriteLock listenerLock = new ReentrantReadWriteLock();
   
+  /**
+   * Null unless in ordered mode
+   */
+  private OverflowPolicy overflowPolicy;
+  
+  private int mailboxCapacity;
+  
+  /**
+   * One mailbox per listener in ordered mode. Replaced, rather than modified,
+   * whilst holding the write lock so {@code sendMessage} can iterate it without locking.
+   */
+  private volatile List<ListenerMailbox<V>> mailboxes = Collections.emptyList();
+  
+  /**
+   * @see #setDispatchObserver(DispatchObserver)
+   */
+  private volatile DispatchObserver<V> observer;
+  
   /**
    * Backed by an unbounded {@see java.util.concurrent.ThreadPoolExecutor}
    */
@@ -83,6 +104,50 @@ public class BroadcastMessenger<V> {
         backingQueue);
   }
 
+  /**
+   * Ordered mode: each listener gets its own bounded mailbox, drained serially
+   * by the shared ordered dispatch pool. Listeners see messages in the order they
+   * were sent and a busy listener can't hold up the others.
+   * 
+   * Listeners should not block waiting for other messages from the same messenger, as
+   * they occupy one of a fixed number of dispatch threads. For the same reason a
+   * message sent from a dispatch thread to a full {@link OverflowPolicy#BLOCK} mailbox
+   * drained by the same pool is dropped rather than waiting.
+   * 
+   * @param mailboxCapacity maximum messages queued per listener
+   * @param overflowPolicy what to do when a mailbox is full
+   */
+  public BroadcastMessenger(int mailboxCapacity, OverflowPolicy overflowPolicy) {
+    this(SharedThreadPool.getOrderedDispatchPool(), mailboxCapacity, overflowPolicy);
+  }
+  
+  /**
+   * Ordered mode with a custom pool to drain the mailboxes.
+   * @see #BroadcastMessenger(int, OverflowPolicy)
+   * @param drainPool executes mailbox drain tasks
+   * @param mailboxCapacity maximum messages queued per listener
+   * @param overflowPolicy what to do when a mailbox is full
+   */
+  public BroadcastMessenger(ExecutorService drainPool, int mailboxCapacity, 
+      OverflowPolicy overflowPolicy) {
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("overflowPolicy cannot be null");
+    }
+    if (mailboxCapacity < 1) {
+      throw new IllegalArgumentException("mailboxCapacity must be positive");
+    }
+    dispatchPool = drainPool;
+    this.mailboxCapacity = mailboxCapacity;
+    this.overflowPolicy = overflowPolicy;
+  }
+  
+  /**
+   * @return true if each listener has its own ordered mailbox
+   */
+  public boolean isOrdered() {
+    return overflowPolicy != null;
+  }
+
   /**
    * Adds a listener
    * @param listener
@@ -90,7 +155,14 @@ public class BroadcastMessenger<V> {
   public void addBroadcastListener(BroadcastListener<V> listener) {
     try {
       listenerLock.writeLock().lock();
-      listeners.add(listener);
+      if (listeners.add(listener) && isOrdered()) {
+        List<ListenerMailbox<V>> updated = new ArrayList<ListenerMailbox<V>>(mailboxes);
+        ListenerMailbox<V> mailbox = new ListenerMailbox<V>(listener, dispatchPool, 
+            mailboxCapacity, overflowPolicy);
+        mailbox.setObserver(observer);
+        updated.add(mailbox);
+        mailboxes = updated;
+      }
     } finally {
       listenerLock.writeLock().unlock();
     }
@@ -103,7 +175,32 @@ public class BroadcastMessenger<V> {
   public void removeBroadcastListener(BroadcastListener<V> listener) {
     try {
       listenerLock.writeLock().lock();
-      listeners.remove(listener);
+      if (listeners.remove(listener) && isOrdered()) {
+        List<ListenerMailbox<V>> updated = new ArrayList<ListenerMailbox<V>>(mailboxes.size());
+        for (ListenerMailbox<V> mailbox : mailboxes) {
+          if (mailbox.getListener() != listener) {
+            updated.add(mailbox);
+          }
+        }
+        mailboxes = updated;
+      }
+    } finally {
+      listenerLock.writeLock().unlock();
+    }
+  }
+  
+  /**
+   * Times delivery to every listener. Costs a couple of {@code System.nanoTime()}
+   * calls per message and listener, so leave unset unless it is being used.
+   * @param observer to notify, or null to stop timing
+   */
+  void setDispatchObserver(DispatchObserver<V> observer) {
+    try {
+      listenerLock.writeLock().lock();
+      this.observer = observer;
+      for (ListenerMailbox<V> mailbox : mailboxes) {
+        mailbox.setObserver(observer);
+      }
     } finally {
       listenerLock.writeLock().unlock();
     }
@@ -114,13 +211,31 @@ public class BroadcastMessenger<V> {
    * @param message
    */
   public void sendMessage(final V message) {
+    if (isOrdered()) {
+      List<ListenerMailbox<V>> mailboxes = this.mailboxes;
+      for (int i = 0 ; i < mailboxes.size() ; i++) {
+        mailboxes.get(i).offer(message);
+      }
+      return;
+    }
+    final DispatchObserver<V> observer = this.observer;
+    final long queuedAt = observer != null ? System.nanoTime() : 0;
     try {
       listenerLock.readLock().lock();
       for (final BroadcastListener<V> listener : listeners) {;
         dispatchPool.execute(new Runnable() {
           @Override
           public void run() {
-            listener.receiveMessage(message);
+            if (observer == null) {
+              listener.receiveMessage(message);
+              return;
+            }
+            long start = System.nanoTime();
+            try {
+              listener.receiveMessage(message);
+            } finally {
+              observer.dispatched(message, start - queuedAt, System.nanoTime() - start);
+            }
           }
         });
       }
@@ -131,4 +246,37 @@ public class BroadcastMessenger<V> {
 
   }
 
-}
\ No newline at end of file
+  /**
+   * Sends each message in {@code batch} in turn. In ordered mode each mailbox
+   * is locked, and its drain task submitted, once per batch rather than once
+   * per message. The list isn't kept, so may be reused by the caller.
+   * @param batch messages in the order they arrived
+   */
+  public void sendMessages(List<V> batch) {
+    if (!isOrdered()) {
+      for (int i = 0 ; i < batch.size() ; i++) {
+        sendMessage(batch.get(i));
+      }
+      return;
+    }
+    List<ListenerMailbox<V>> mailboxes = this.mailboxes;
+    for (int i = 0 ; i < mailboxes.size() ; i++) {
+      mailboxes.get(i).offerAll(batch);
+    }
+  }
+
+  /**
+   * Queue depth and dispatch latency for each listener. Only available in
+   * ordered mode.
+   * @return a snapshot per listener, empty if not ordered
+   */
+  public List<DispatchStatistics> getDispatchStatistics() {
+    List<ListenerMailbox<V>> mailboxes = this.mailboxes;
+    List<DispatchStatistics> rtn = new ArrayList<DispatchStatistics>(mailboxes.size());
+    for (ListenerMailbox<V> mailbox : mailboxes) {
+      rtn.add(mailbox.getStatistics());
+    }
+    return rtn;
+  }
+
+}
@@ -0,0 +1,41 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.events;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives complete bursts, reassembled from individual burst packets.
+ * 
+ * @author will
+ *
+ */
+public interface BurstListener {
+  
+  /**
+   * Called once per complete burst, in the order bursts arrive. The buffer
+   * holds the burst between its position and limit. It is reused for the next
+   * burst on the channel, so copy out anything needed after returning.
+   * 
+   * @param channelNumber channel the burst was received on
+   * @param data the reassembled burst, including any padding in the last packet
+   */
+  void receiveBurst(int channelNumber, ByteBuffer data);
+
+}
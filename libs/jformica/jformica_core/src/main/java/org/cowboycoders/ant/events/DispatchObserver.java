@@ -16,33 +16,27 @@
  *     You should have received a copy of the GNU General Public License
  *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
  */
-package org.cowboycoders.ant;
+package org.cowboycoders.ant.events;
 
-import org.cowboycoders.ant.events.FixedSizeBuffer;
-import org.cowboycoders.ant.events.MessageCondition;
-import org.cowboycoders.ant.messages.StandardMessage;
-import org.cowboycoders.ant.utils.Containable;
-
-public class ContainedMessageBuffer<T extends Containable<? extends StandardMessage>> extends FixedSizeBuffer<T> {
-
-  private MessageCondition condition;
-
-  public ContainedMessageBuffer(int maxSize, MessageCondition condition) {
-    super(maxSize);
-    this.condition = condition;
-  }
-
-  /* (non-Javadoc)
-   * @see org.cowboycoders.ant.events.FixedSizeBuffer#offer(java.lang.Object)
-   */
-  @Override
-  public boolean offer(T e) {
-    if (condition != null && !condition.test(e.unwrap()) ) {
-      return false;
-    }
-    return super.offer(e);
-  }
+/**
+ * Notified as a listener's messages are delivered or discarded.
+ * 
+ * @author will
+ *
+ * @param <V> message type
+ */
+interface DispatchObserver<V> {
   
+  /**
+   * @param message that was delivered
+   * @param queueNanos time between being sent and the listener being called
+   * @param listenerNanos time spent in the listener
+   */
+  void dispatched(V message, long queueNanos, long listenerNanos);
   
+  /**
+   * @param message that was discarded without being delivered
+   */
+  void dropped(V message);
 
 }
@@ -0,0 +1,108 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.events;
+
+/**
+ * Snapshot of a single listener's mailbox in an ordered {@link BroadcastMessenger}
+ * 
+ * @author will
+ *
+ */
+public class DispatchStatistics {
+  
+  private final Object listener;
+  private final int queueDepth;
+  private final int maxQueueDepth;
+  private final long dispatched;
+  private final long dropped;
+  private final long totalLatencyNanos;
+  private final long maxLatencyNanos;
+  
+  DispatchStatistics(Object listener, int queueDepth, int maxQueueDepth, 
+      long dispatched, long dropped, long totalLatencyNanos, long maxLatencyNanos) {
+    this.listener = listener;
+    this.queueDepth = queueDepth;
+    this.maxQueueDepth = maxQueueDepth;
+    this.dispatched = dispatched;
+    this.dropped = dropped;
+    this.totalLatencyNanos = totalLatencyNanos;
+    this.maxLatencyNanos = maxLatencyNanos;
+  }
+
+  /**
+   * @return the listener these statistics belong to
+   */
+  public Object getListener() {
+    return listener;
+  }
+
+  /**
+   * @return messages waiting to be delivered
+   */
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * @return the high water mark of the queue
+   */
+  public int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  /**
+   * @return messages delivered to the listener
+   */
+  public long getDispatched() {
+    return dispatched;
+  }
+
+  /**
+   * @return messages discarded or coalesced by the overflow policy
+   */
+  public long getDropped() {
+    return dropped;
+  }
+
+  /**
+   * @return mean time between a message being queued and delivered
+   */
+  public long getMeanLatencyNanos() {
+    return dispatched == 0 ? 0 : totalLatencyNanos / dispatched;
+  }
+
+  /**
+   * @return longest time between a message being queued and delivered
+   */
+  public long getMaxLatencyNanos() {
+    return maxLatencyNanos;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "DispatchStatistics [listener=" + listener + ", queueDepth="
+        + queueDepth + ", maxQueueDepth=" + maxQueueDepth + ", dispatched="
+        + dispatched + ", dropped=" + dropped + ", meanLatencyNanos="
+        + getMeanLatencyNanos() + ", maxLatencyNanos=" + maxLatencyNanos + "]";
+  }
+
+}
@@ -23,17 +23,23 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.cowboycoders.ant.BufferedNodeComponent;
 import org.cowboycoders.ant.interfaces.AntChipInterface;
 import org.cowboycoders.ant.messages.AntMessageFactory;
+import org.cowboycoders.ant.messages.ChannelMessage;
 import org.cowboycoders.ant.messages.MessageException;
 import org.cowboycoders.ant.messages.MessageMetaWrapper;
 import org.cowboycoders.ant.messages.StandardMessage;
@@ -63,6 +69,12 @@ public class EventMachine  {
   
   private BroadcastMessenger<StandardMessage> convertedMessenger;
   
+  /**
+   * True if the ack and message buffers are updated on the receive path rather
+   * than by listeners on {@code convertedMessenger}
+   */
+  private final boolean inlineBuffers;
+  
   
   private Set<SharedBuffer<MessageMetaWrapper<ChannelResponse>>> ackBuffers = 
       Collections.newSetFromMap(new WeakHashMap<SharedBuffer<MessageMetaWrapper<ChannelResponse>>,Boolean>());
@@ -71,7 +83,18 @@ public class EventMachine  {
       Collections.newSetFromMap(new WeakHashMap<SharedBuffer<MessageMetaWrapper<StandardMessage>>,Boolean>());
   
   /**
-   * Shred lock for all buffers
+   * Copies of {@code ackBuffers} and {@code msgBuffers} that are iterated on
+   * the receive path. Replaced, rather than modified, on (un)registration so
+   * incoming messages never need to take {@code bufferLock}.
+   */
+  private volatile List<SharedBuffer<MessageMetaWrapper<ChannelResponse>>> ackBufferSnapshot = 
+      Collections.emptyList();
+  
+  private volatile List<SharedBuffer<MessageMetaWrapper<StandardMessage>>> msgBufferSnapshot = 
+      Collections.emptyList();
+  
+  /**
+   * Guards registration of buffers
    */
   private Lock bufferLock = new ReentrantLock();
   
@@ -81,7 +104,7 @@ public class EventMachine  {
       bufferLock.lock();
       ackBuffers.add(component.getAckBuffer());
       msgBuffers.add(component.getMsgBuffer());
-      
+      updateSnapshots();
     } finally {
       bufferLock.unlock();
     }
@@ -93,60 +116,198 @@ public class EventMachine  {
       bufferLock.lock();
       ackBuffers.remove(component.getAckBuffer());
       msgBuffers.remove(component.getMsgBuffer());
-      
+      updateSnapshots();
     } finally {
       bufferLock.unlock();
     }
     
   }
   
+  /**
+   * Should hold bufferLock
+   */
+  private void updateSnapshots() {
+    ackBufferSnapshot = new ArrayList<SharedBuffer<MessageMetaWrapper<ChannelResponse>>>(ackBuffers);
+    msgBufferSnapshot = new ArrayList<SharedBuffer<MessageMetaWrapper<StandardMessage>>>(msgBuffers);
+  }
+  
   private boolean running = false;
   
+  /**
+   * @see #setFlyweightDecoding(boolean)
+   */
+  private volatile boolean flyweightDecoding = false;
+  
+  /**
+   * Mirrors the listeners registered with {@code convertedMessenger}, for
+   * inline delivery of flyweight messages
+   */
+  private final List<BroadcastListener<StandardMessage>> rxListeners = 
+      new CopyOnWriteArrayList<BroadcastListener<StandardMessage>>();
+  
+  /**
+   * @see #registerInlineRxListener(BroadcastListener)
+   */
+  private final List<BroadcastListener<StandardMessage>> inlineListeners = 
+      new CopyOnWriteArrayList<BroadcastListener<StandardMessage>>();
+  
+  /**
+   * @see #setMetrics(PipelineMetrics)
+   */
+  private volatile PipelineMetrics metrics = PipelineMetrics.DISABLED;
+  
+  /**
+   * Installed on {@code convertedMessenger} whilst metrics are enabled
+   */
+  private final DispatchObserver<StandardMessage> metricsObserver = 
+      new DispatchObserver<StandardMessage>() {
 
+    @Override
+    public void dispatched(StandardMessage message, long queueNanos, long listenerNanos) {
+      PipelineMetrics metrics = EventMachine.this.metrics;
+      int channel = channelOf(message);
+      metrics.queueWait(channel, queueNanos);
+      metrics.listenerExecuted(channel, listenerNanos);
+    }
+
+    @Override
+    public void dropped(StandardMessage message) {
+      metrics.packetDropped(message.getId().getMessageID() & 0xff);
+    }
+    
+  };
+  
+  private static int channelOf(StandardMessage msg) {
+    if (msg instanceof ChannelMessage) {
+      return ((ChannelMessage) msg).getChannelNumber();
+    }
+    return PipelineMetrics.NO_CHANNEL;
+  }
   
   private class EventPump implements BroadcastListener<byte []> {
 
     @Override
     public void receiveMessage(byte[] message) {
+      PipelineMetrics metrics = EventMachine.this.metrics;
+      boolean timed = metrics.isEnabled();
+      int id = message.length > 1 ? message[1] & 0xff : 0;
+      long start = 0;
+      if (timed) {
+        metrics.packetReceived(id);
+        start = System.nanoTime();
+      }
+      
+      boolean flyweight = flyweightDecoding;
       StandardMessage msg = null;
       try {
-       msg = AntMessageFactory.createMessage(message);
-     } catch (MessageException e) {
-       LOGGER.warning("Error converting raw data to type StandardMessage");
-     }
-     
-      if(msg != null) {
-        LOGGER.finer("received :" + msg.getClass());
-        convertedMessenger.sendMessage(msg);
-      } else {
+        msg = flyweight ? AntMessageFactory.createFlyweightMessage(message) 
+            : AntMessageFactory.createMessage(message);
+      } catch (MessageException e) {
+        LOGGER.warning("Error converting raw data to type StandardMessage");
+      }
+      
+      if (msg == null) {
+        if (timed) {
+          metrics.packetDropped(id);
+        }
         LOGGER.warning("Ignoring data packet");
+        return;
+      }
+      if (timed) {
+        metrics.packetDecoded(id, channelOf(msg), System.nanoTime() - start);
       }
+      
+      if (flyweight) {
+        receiveFlyweight(msg, timed ? metrics : null);
+        return;
+      }
+      if (LOGGER.isLoggable(Level.FINER)) {
+        LOGGER.finer("received :" + msg.getClass());
+      }
+      notifyInlineListeners(msg);
+      dispatch(msg);
     }
     
   }
   
-  private interface BufferUpdater<V extends StandardMessage> {
-    public abstract void updateBuffer(V msg, SharedBuffer<MessageMetaWrapper<V>> buffer );
-    
+  /**
+   * Passes a converted message to the buffers, if they are updated inline, and
+   * then the rx listeners
+   */
+  private void dispatch(StandardMessage msg) {
+    if (inlineBuffers) {
+      if (msg instanceof ChannelResponse) {
+        updateAllBuffers((ChannelResponse) msg, ackBufferSnapshot);
+      }
+      updateAllBuffers(msg, msgBufferSnapshot);
+    }
+    convertedMessenger.sendMessage(msg);
   }
   
-
-  private <V extends StandardMessage> void updateAllBuffers(V msg, Set<SharedBuffer<MessageMetaWrapper<V>>> buffers, 
-      BufferUpdater<V> updater) {
-    try{
-      bufferLock.lock();
-      
-      for (SharedBuffer<MessageMetaWrapper<V>> buffer : buffers) {
-        LOGGER.finer("updating buffer :" + buffer.toString());
-        updater.updateBuffer(msg, buffer);
+  /**
+   * Data messages are decoded into a reused, read only instance and passed to
+   * the listeners on this thread. Message buffers only get a copy whilst
+   * something is waiting on them.
+   * @param metrics to record listener times with, or null
+   */
+  private void receiveFlyweight(StandardMessage msg, PipelineMetrics metrics) {
+    notifyInlineListeners(msg);
+    
+    if (!msg.isReadOnly()) {
+      // not a data message so not reused
+      dispatch(msg);
+      return;
+    }
+    
+    List<SharedBuffer<MessageMetaWrapper<StandardMessage>>> buffers = msgBufferSnapshot;
+    MessageMetaWrapper<StandardMessage> retained = null;
+    for (int i = 0 ; i < buffers.size() ; i++) {
+      SharedBuffer<MessageMetaWrapper<StandardMessage>> buffer = buffers.get(i);
+      if (!buffer.hasReaders()) {
+        continue;
       }
-      
-      
-    } finally {
-      bufferLock.unlock();
+      if (retained == null) {
+        retained = new MessageMetaWrapper<StandardMessage>(msg.copy());
+      }
+      buffer.offer(retained);
     }
     
-
+    int channel = metrics != null ? channelOf(msg) : PipelineMetrics.NO_CHANNEL;
+    for (BroadcastListener<StandardMessage> listener : rxListeners) {
+      long start = metrics != null ? System.nanoTime() : 0;
+      try {
+        listener.receiveMessage(msg);
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "listener threw whilst handling flyweight message", e);
+      }
+      if (metrics != null) {
+        metrics.listenerExecuted(channel, System.nanoTime() - start);
+      }
+    }
+  }
+  
+  private void notifyInlineListeners(StandardMessage msg) {
+    for (BroadcastListener<StandardMessage> listener : inlineListeners) {
+      try {
+        listener.receiveMessage(msg);
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "inline listener threw", e);
+      }
+    }
+  }
+  
+  /**
+   * Publishes a single wrapper, shared by all buffers, to each buffer in {@code buffers}
+   */
+  private <V extends StandardMessage> void updateAllBuffers(V msg, List<SharedBuffer<MessageMetaWrapper<V>>> buffers) {
+    MessageMetaWrapper<V> wrappedMessage = new MessageMetaWrapper<V>(msg);
+    for (int i = 0 ; i < buffers.size() ; i++) {
+      SharedBuffer<MessageMetaWrapper<V>> buffer = buffers.get(i);
+      if (LOGGER.isLoggable(Level.FINEST)) {
+        LOGGER.finest("updating buffer :" + buffer.toString());
+      }
+      buffer.offer(wrappedMessage);
+    }
   }
   
   
@@ -155,32 +316,7 @@ public class EventMachine  {
     @Override
     public void receiveMessage(StandardMessage message) {
       if (message instanceof ChannelResponse) {
-        
-        updateAllBuffers((ChannelResponse)message, ackBuffers, new BufferUpdater<ChannelResponse>() {
-
-          @Override
-          public void updateBuffer(ChannelResponse msg, SharedBuffer<MessageMetaWrapper<ChannelResponse>> buffer) {
-            Lock lock = buffer.getLock();
-            Condition contentsChanged = buffer.getContentsChanged();
-            FixedSizeBuffer<MessageMetaWrapper<ChannelResponse>> fixedBuffer = 
-                buffer.getMsgBuffer();
-            try {
-              lock.lock();
-              MessageMetaWrapper<ChannelResponse> wrappedMessage =
-                   new MessageMetaWrapper<ChannelResponse>(msg);
-              fixedBuffer.offer(wrappedMessage);
-              //LOGGER.finer(fixedBuffer.toString());
-              contentsChanged.signalAll();
-              
-            } finally {
-              lock.unlock();
-            }
-            
-          }
-          
-        });
-        
-
+        updateAllBuffers((ChannelResponse)message, ackBufferSnapshot);
       }
       
     }
@@ -191,51 +327,149 @@ public class EventMachine  {
 
     @Override
     public void receiveMessage(StandardMessage message) {
-      
-      updateAllBuffers(message, msgBuffers, new BufferUpdater<StandardMessage>() {
-
-        @Override
-        public void updateBuffer(StandardMessage msg, SharedBuffer<MessageMetaWrapper<StandardMessage>> buffer) {
-          Lock lock = buffer.getLock();
-          Condition contentsChanged = buffer.getContentsChanged();
-          FixedSizeBuffer<MessageMetaWrapper<StandardMessage>> fixedBuffer = 
-              buffer.getMsgBuffer();
-          try {
-            lock.lock();
-            MessageMetaWrapper<StandardMessage> wrappedMessage =
-                 new MessageMetaWrapper<StandardMessage>(msg);
-            fixedBuffer.offer(wrappedMessage);
-            LOGGER.finer(fixedBuffer.toString());
-            contentsChanged.signalAll();
-            
-          } finally {
-            lock.unlock();
-          }
-          
-        }
-        
-      });
-      
+      updateAllBuffers(message, msgBufferSnapshot);
     }
     
   }
 
   public EventMachine(AntChipInterface chipInterface) {
+    this(chipInterface, new BroadcastMessenger<byte []>(), 
+        new BroadcastMessenger<StandardMessage>());
+  }
+  
+  /**
+   * Dispatches received messages in order, with a bounded mailbox per listener.
+   * 
+   * Raw packets are converted on a thread of their own, queueing with
+   * {@link OverflowPolicy#BLOCK} so none are lost, and it is there that the
+   * ack and message buffers are updated. Waiting for a response therefore
+   * never depends on a free dispatch thread, and responses aren't dropped
+   * or coalesced by {@code overflowPolicy}, which only applies to the rx listeners.
+   * 
+   * @see BroadcastMessenger#BroadcastMessenger(int, OverflowPolicy)
+   * @param chipInterface to receive from
+   * @param mailboxCapacity maximum messages queued per listener
+   * @param overflowPolicy what to do when a listener falls behind
+   */
+  public EventMachine(AntChipInterface chipInterface, int mailboxCapacity, OverflowPolicy overflowPolicy) {
+    this(chipInterface, 
+        new BroadcastMessenger<byte []>(newConversionExecutor(), mailboxCapacity, OverflowPolicy.BLOCK),
+        new BroadcastMessenger<StandardMessage>(mailboxCapacity, overflowPolicy));
+  }
+  
+  private EventMachine(AntChipInterface chipInterface, BroadcastMessenger<byte []> rawMessenger,
+      BroadcastMessenger<StandardMessage> convertedMessenger) {
     this.chipInterface = chipInterface;
-    this.rawMessenger = new BroadcastMessenger<byte []>();
-    this.convertedMessenger = new BroadcastMessenger<StandardMessage>();
-    this.convertedMessenger.addBroadcastListener(new AckListener());
-    this.convertedMessenger.addBroadcastListener(new MessageListener());
+    this.rawMessenger = rawMessenger;
+    this.convertedMessenger = convertedMessenger;
+    this.inlineBuffers = convertedMessenger.isOrdered();
+    if (!inlineBuffers) {
+      this.convertedMessenger.addBroadcastListener(new AckListener());
+      this.convertedMessenger.addBroadcastListener(new MessageListener());
+    }
     chipInterface.registerRxMesenger(rawMessenger);
     rawMessenger.addBroadcastListener(new EventPump());
   }
   
+  /**
+   * A single thread, let go when idle, to drain the raw messenger's one mailbox
+   */
+  private static ExecutorService newConversionExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, 
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ant-receive-conversion");
+            thread.setDaemon(true);
+            return thread;
+          }
+          
+        });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+  
   public void registerRxListener(BroadcastListener<StandardMessage> listener) {
     convertedMessenger.addBroadcastListener(listener);
+    rxListeners.add(listener);
   }
   
   public void removeRxListener(BroadcastListener<StandardMessage> listener) {
     convertedMessenger.removeBroadcastListener(listener);
+    rxListeners.remove(listener);
+  }
+  
+  /**
+   * Adds a listener that is called on the receiving thread, before the message is
+   * dispatched to anything else. It must be quick and must not block. With 
+   * flyweight decoding enabled it is passed read only data messages, 
+   * see {@link #setFlyweightDecoding(boolean)}.
+   * 
+   * @param listener to add
+   */
+  public void registerInlineRxListener(BroadcastListener<StandardMessage> listener) {
+    inlineListeners.add(listener);
+  }
+  
+  public void removeInlineRxListener(BroadcastListener<StandardMessage> listener) {
+    inlineListeners.remove(listener);
+  }
+  
+  /**
+   * When enabled, received data messages are decoded into reused, read only
+   * instances (see {@link AntMessageFactory#createFlyweightMessage(byte[])})
+   * which are passed to the rx listeners on the receiving thread. Listeners
+   * must not block and must {@link StandardMessage#copy()} any message they
+   * keep beyond {@code receiveMessage}. Buffered waits
+   * ({@link #waitForMessage}) still see stable copies, but only of messages
+   * received after the wait started.
+   * 
+   * Other messages are delivered as normal.
+   * 
+   * @param flag true to enable
+   */
+  public void setFlyweightDecoding(boolean flag) {
+    this.flyweightDecoding = flag;
+  }
+  
+  public boolean isFlyweightDecoding() {
+    return flyweightDecoding;
+  }
+  
+  /**
+   * Records packet counts and decode, queue and listener times. Nothing is
+   * timed whilst {@link PipelineMetrics#isEnabled()} is false, which is the
+   * default. Takes effect for packets received after the call.
+   * @see RecordingPipelineMetrics
+   * @param metrics to record with, or null to disable
+   */
+  public void setMetrics(PipelineMetrics metrics) {
+    if (metrics == null) {
+      metrics = PipelineMetrics.DISABLED;
+    }
+    this.metrics = metrics;
+    convertedMessenger.setDispatchObserver(metrics.isEnabled() ? metricsObserver : null);
+  }
+  
+  public PipelineMetrics getMetrics() {
+    return metrics;
+  }
+  
+  /**
+   * @return true if every listener receives messages in the order they arrived
+   */
+  public boolean isOrdered() {
+    return rawMessenger.isOrdered() && convertedMessenger.isOrdered();
+  }
+  
+  /**
+   * @return per listener queue depth and latency, empty unless dispatch is ordered
+   */
+  public List<DispatchStatistics> getDispatchStatistics() {
+    List<DispatchStatistics> rtn = new ArrayList<DispatchStatistics>(rawMessenger.getDispatchStatistics());
+    rtn.addAll(convertedMessenger.getDispatchStatistics());
+    return rtn;
   }
   
   public static Logger getLogger() {
@@ -264,80 +498,80 @@ public class EventMachine  {
       MessageCondition msgCondition, Long timeout, TimeUnit timeoutUnit,
       LockExchangeContainer lockExchanger, Long cutOffTimestamp) 
           throws InterruptedException, TimeoutException {
+    // register before taking any timestamps so nothing after them is missed
+    sharedBuffer.beginRead();
+    try {
+      return searchBuffer(sharedBuffer, msgCondition, timeout, timeoutUnit, lockExchanger, cutOffTimestamp);
+    } finally {
+      sharedBuffer.endRead();
+    }
+  }
+  
+  private <V extends StandardMessage> MessageMetaWrapper<V> searchBuffer( 
+      SharedBuffer<MessageMetaWrapper<V>> sharedBuffer,
+      MessageCondition msgCondition, Long timeout, TimeUnit timeoutUnit,
+      LockExchangeContainer lockExchanger, Long cutOffTimestamp) 
+          throws InterruptedException, TimeoutException {
     
-    
-    //tim = clearBuffer == null ? true : false;
-    
-    MessageMetaWrapper<V> message = null;
-    FixedSizeBuffer<MessageMetaWrapper<V>> buffer = sharedBuffer.getMsgBuffer();
-    Condition bufferChanged = sharedBuffer.getContentsChanged();
-    Lock msgLock = sharedBuffer.getLock();
-    
+    RingBuffer<MessageMetaWrapper<V>> buffer = sharedBuffer.getMsgBuffer();
     
     final long timeoutNano = timeout != null ? TimeUnit.NANOSECONDS.convert(timeout, timeoutUnit) : 0L;
     final long initialTimeStamp = MessageMetaWrapper.getCurrentTimestamp();
     cutOffTimestamp = cutOffTimestamp == null ? initialTimeStamp : cutOffTimestamp;
+    
+    // everything published from here on is seen, so the sender is free to go
+    long next = buffer.getOldestSequence();
        
-    try {
-      msgLock.lock();
-      
-      
-      if(lockExchanger != null) {
-        try {
-          lockExchanger.lock.lock();
-          lockExchanger.returnLock = msgLock;
-          lockExchanger.lockAvailable.signalAll();
-        } finally {
-          lockExchanger.lock.unlock();
-        }
+    if(lockExchanger != null) {
+      try {
+        lockExchanger.lock.lock();
+        lockExchanger.returnLock = buffer.getLock();
+        lockExchanger.lockAvailable.signalAll();
+      } finally {
+        lockExchanger.lock.unlock();
       }
+    }
+    
+    while(true) {
       
-
+      // skip anything that has been overwritten
+      next = Math.max(next, buffer.getOldestSequence());
+      final long cursor = buffer.getCursor();
       
-      while(message == null) {
-        
-
-        for (MessageMetaWrapper<V> meta : buffer) {
-          // what if we want to wait for multiple messages - one might come in
-          // before we are waiting
-          //if (!ignoreTimeStamps && meta.getTimestamp() < initialTimeStamp ) {
-          //  continue;
-          //}
-          if (cutOffTimestamp != null && meta.getTimestamp() < cutOffTimestamp) {
-            continue;
-          }
-          StandardMessage msg = meta.unwrap();
-          if (msgCondition.test(msg)) {
-            message = meta;
-            break;
-          }
+      for (; next <= cursor ; next++) {
+        MessageMetaWrapper<V> meta = buffer.get(next);
+        if (meta == null) {
+          continue;
         }
-        
-        //buffer.clear();
-        
-        if (message != null) {
-          //buffer.remove(message);
-          //buffer.clear();
-          break;
+        // what if we want to wait for multiple messages - one might come in
+        // before we are waiting
+        if (meta.getTimestamp() < cutOffTimestamp) {
+          continue;
         }
-        
-        if (timeout != null) {
-          long timeoutRemaining = timeoutNano - (MessageMetaWrapper.getCurrentTimestamp() - initialTimeStamp);
-          if(!bufferChanged.await(timeoutRemaining, TimeUnit.NANOSECONDS)) {
-            throw new TimeoutException("timeout waiting for message");
-          }
-        } else {
-          bufferChanged.await();
+        StandardMessage msg = meta.unwrap();
+        if (msgCondition.test(msg)) {
+          return meta;
         }
-        
-        LOGGER.finest("waitForMessage :woken up");
-        
       }
       
-      return message;
+      Long timeoutRemaining = null;
+      if (timeout != null) {
+        timeoutRemaining = timeoutNano - (MessageMetaWrapper.getCurrentTimestamp() - initialTimeStamp);
+        if (timeoutRemaining <= 0) {
+          throw new TimeoutException("timeout waiting for message");
+        }
+      }
+      
+      try {
+        buffer.waitFor(next, timeoutRemaining, TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        throw new TimeoutException("timeout waiting for message");
+      }
+      
+      if (LOGGER.isLoggable(Level.FINEST)) {
+        LOGGER.finest("waitForMessage :woken up");
+      }
       
-    } finally {
-      msgLock.unlock();
     }
   }
   
@@ -0,0 +1,124 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.events;
+
+/**
+ * Snapshot of a latency distribution. Samples are counted in power of two
+ * buckets, so percentiles are accurate to within a factor of two.
+ * 
+ * @author will
+ *
+ */
+public class LatencyHistogram {
+  
+  static final int BUCKETS = 64;
+  
+  private final long [] buckets;
+  private final long count;
+  private final long totalNanos;
+  private final long maxNanos;
+  
+  LatencyHistogram(long [] buckets, long totalNanos, long maxNanos) {
+    this.buckets = buckets;
+    long count = 0;
+    for (long bucket : buckets) {
+      count += bucket;
+    }
+    this.count = count;
+    this.totalNanos = totalNanos;
+    this.maxNanos = maxNanos;
+  }
+  
+  /**
+   * @return index of the bucket that counts {@code nanos}
+   */
+  static int bucketOf(long nanos) {
+    if (nanos <= 0) {
+      return 0;
+    }
+    return 64 - Long.numberOfLeadingZeros(nanos);
+  }
+  
+  /**
+   * @return largest value counted by {@code bucket}
+   */
+  static long upperBoundOf(int bucket) {
+    if (bucket == 0) {
+      return 0;
+    }
+    if (bucket == BUCKETS - 1) {
+      return Long.MAX_VALUE;
+    }
+    return (1L << bucket) - 1;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+  
+  public long getMeanNanos() {
+    return count == 0 ? 0 : totalNanos / count;
+  }
+  
+  /**
+   * @param percentile between 0 and 100
+   * @return upper bound of the bucket containing the percentile, or 0 if empty
+   */
+  public long getPercentileNanos(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile must be between 0 and 100");
+    }
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(count * percentile / 100);
+    if (rank < 1) {
+      rank = 1;
+    }
+    long seen = 0;
+    for (int i = 0 ; i < buckets.length ; i++) {
+      seen += buckets[i];
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), maxNanos);
+      }
+    }
+    return maxNanos;
+  }
+  
+  private static String micros(long nanos) {
+    return String.format("%.1fus", nanos / 1000.0);
+  }
+
+  @Override
+  public String toString() {
+    return "n=" + count + " mean=" + micros(getMeanNanos()) 
+        + " p50=" + micros(getPercentileNanos(50)) 
+        + " p99=" + micros(getPercentileNanos(99)) 
+        + " max=" + micros(maxNanos);
+  }
+
+}
@@ -0,0 +1,309 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.events;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Bounded, serial queue of messages for a single listener. At most one
+ * drain task per mailbox is ever submitted to the executor, so the listener
+ * sees messages one at a time and in the order they were sent.
+ * 
+ * @author will
+ *
+ * @param <V> message type
+ */
+class ListenerMailbox<V> implements Runnable {
+  
+  public final static Logger LOGGER = Logger.getLogger(EventMachine.class .getName()); 
+  
+  /**
+   * Maximum messages delivered before giving other mailboxes a turn
+   */
+  private static final int DRAIN_BATCH = 32;
+  
+  /**
+   * Executor of the drain task running on the current thread, if any
+   */
+  private static final ThreadLocal<Executor> DRAINING = new ThreadLocal<Executor>();
+  
+  private final BroadcastListener<V> listener;
+  
+  private final Executor executor;
+  
+  private final OverflowPolicy policy;
+  
+  private final Object [] messages;
+  
+  /**
+   * when each entry in {@code messages} was queued
+   */
+  private final long [] queuedAt;
+  
+  private int head = 0;
+  
+  private int count = 0;
+  
+  /**
+   * true whilst a drain task is submitted or running
+   */
+  private boolean scheduled = false;
+  
+  private final Lock lock = new ReentrantLock();
+  
+  private final Condition notFull = lock.newCondition();
+  
+  private int maxQueueDepth = 0;
+  private long dispatched = 0;
+  private long dropped = 0;
+  private long totalLatency = 0;
+  private long maxLatency = 0;
+  
+  /**
+   * queue latency of the message last returned by {@link #poll()}. Only
+   * touched by the drain task.
+   */
+  private long lastLatency = 0;
+  
+  private volatile DispatchObserver<V> observer;
+  
+  ListenerMailbox(BroadcastListener<V> listener, Executor executor, 
+      int capacity, OverflowPolicy policy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.listener = listener;
+    this.executor = executor;
+    this.policy = policy;
+    this.messages = new Object[capacity];
+    this.queuedAt = new long[capacity];
+  }
+  
+  /**
+   * @return the listener
+   */
+  BroadcastListener<V> getListener() {
+    return listener;
+  }
+  
+  /**
+   * @param observer to notify of deliveries and drops, or null for none
+   */
+  void setObserver(DispatchObserver<V> observer) {
+    this.observer = observer;
+  }
+  
+  /**
+   * Should hold lock
+   */
+  @SuppressWarnings("unchecked")
+  private void notifyDropped(Object message) {
+    DispatchObserver<V> observer = this.observer;
+    if (observer != null) {
+      observer.dropped((V) message);
+    }
+  }
+  
+  void offer(V message) {
+    boolean schedule;
+    try {
+      lock.lock();
+      schedule = enqueue(message);
+    } finally {
+      lock.unlock();
+    }
+    
+    if (schedule) {
+      executor.execute(this);
+    }
+  }
+  
+  /**
+   * Queues each message in turn, taking the lock and submitting the drain task
+   * at most once for the whole batch. 
+   * @param batch messages in the order they should be delivered
+   */
+  void offerAll(List<V> batch) {
+    boolean schedule = false;
+    try {
+      lock.lock();
+      for (int i = 0 ; i < batch.size() ; i++) {
+        if (schedule && count == messages.length && policy == OverflowPolicy.BLOCK) {
+          // nothing makes room until the drain task is running
+          executor.execute(this);
+          schedule = false;
+        }
+        schedule |= enqueue(batch.get(i));
+      }
+    } finally {
+      lock.unlock();
+    }
+    
+    if (schedule) {
+      executor.execute(this);
+    }
+  }
+  
+  /**
+   * Should hold lock
+   * @return true if the caller must submit the drain task
+   */
+  private boolean enqueue(V message) {
+    if (count == messages.length) {
+      switch (policy) {
+        case DROP_OLDEST:
+          notifyDropped(messages[head]);
+          messages[head] = null;
+          head = (head + 1) % messages.length;
+          count--;
+          dropped++;
+          break;
+        case COALESCE:
+          // keep the original timestamp: latency is measured from the oldest pending value
+          int last = (head + count - 1) % messages.length;
+          notifyDropped(messages[last]);
+          messages[last] = message;
+          dropped++;
+          return false;
+        case BLOCK:
+          if (DRAINING.get() == executor) {
+            // sent by a listener: waiting would hold a thread that may be needed to make room
+            LOGGER.warning("mailbox full, rejecting message sent from its own dispatch pool");
+            notifyDropped(message);
+            dropped++;
+            return false;
+          }
+          while (count == messages.length) {
+            try {
+              notFull.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              notifyDropped(message);
+              dropped++;
+              return false;
+            }
+          }
+          break;
+      }
+    }
+    int tail = (head + count) % messages.length;
+    messages[tail] = message;
+    queuedAt[tail] = System.nanoTime();
+    count++;
+    if (count > maxQueueDepth) {
+      maxQueueDepth = count;
+    }
+    if (!scheduled) {
+      scheduled = true;
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public void run() {
+    Executor outer = DRAINING.get();
+    DRAINING.set(executor);
+    try {
+      drain();
+    } finally {
+      if (outer == null) {
+        DRAINING.remove();
+      } else {
+        DRAINING.set(outer);
+      }
+    }
+  }
+  
+  private void drain() {
+    for (int i = 0 ; i < DRAIN_BATCH ; i++) {
+      V message = poll();
+      if (message == null) {
+        return;
+      }
+      DispatchObserver<V> observer = this.observer;
+      long start = observer != null ? System.nanoTime() : 0;
+      try {
+        listener.receiveMessage(message);
+      } catch (RuntimeException e) {
+        // keep draining: one bad message shouldn't stall the listener
+        LOGGER.warning("listener threw exception: " + e);
+      }
+      if (observer != null) {
+        observer.dispatched(message, lastLatency, System.nanoTime() - start);
+      }
+    }
+    
+    try {
+      lock.lock();
+      if (count == 0) {
+        scheduled = false;
+        return;
+      }
+    } finally {
+      lock.unlock();
+    }
+    executor.execute(this);
+  }
+  
+  /**
+   * @return next message, or null (and marks the mailbox idle) if empty
+   */
+  @SuppressWarnings("unchecked")
+  private V poll() {
+    try {
+      lock.lock();
+      if (count == 0) {
+        scheduled = false;
+        return null;
+      }
+      V message = (V) messages[head];
+      long latency = System.nanoTime() - queuedAt[head];
+      messages[head] = null;
+      head = (head + 1) % messages.length;
+      count--;
+      dispatched++;
+      lastLatency = latency;
+      totalLatency += latency;
+      if (latency > maxLatency) {
+        maxLatency = latency;
+      }
+      notFull.signal();
+      return message;
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  DispatchStatistics getStatistics() {
+    try {
+      lock.lock();
+      return new DispatchStatistics(listener, count, maxQueueDepth, dispatched, 
+          dropped, totalLatency, maxLatency);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
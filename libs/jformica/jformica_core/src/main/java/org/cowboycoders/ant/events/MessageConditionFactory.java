@@ -18,6 +18,7 @@
  */
 package org.cowboycoders.ant.events;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.cowboycoders.ant.messages.ChannelMessage;
@@ -46,8 +47,10 @@ public class MessageConditionFactory {
     MessageCondition condition = new MessageCondition () {
       @Override
       public boolean test(StandardMessage msg) {
-        LOGGER.finer(msg.getClass().toString());
-        LOGGER.finer(clazz.toString());
+        if (LOGGER.isLoggable(Level.FINER)) {
+          LOGGER.finer(msg.getClass().toString());
+          LOGGER.finer(clazz.toString());
+        }
         if (msg.getClass().equals(clazz)) return true;
         return false;
       }
@@ -68,8 +71,10 @@ public class MessageConditionFactory {
     MessageCondition condition = new MessageCondition () {
       @Override
       public boolean test(StandardMessage msg) {
-        LOGGER.finer(msg.getClass().toString());
-        LOGGER.finer(clazz.toString());
+        if (LOGGER.isLoggable(Level.FINER)) {
+          LOGGER.finer(msg.getClass().toString());
+          LOGGER.finer(clazz.toString());
+        }
         if (clazz.isInstance(msg)) return true;
         return false;
       }
@@ -0,0 +1,159 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.cowboycoders.ant.messages.MessageId;
+
+/**
+ * Counts and timings from a {@link RecordingPipelineMetrics}. Taken whilst
+ * messages are still arriving, so the figures may be out by the messages
+ * in flight.
+ * 
+ * @author will
+ *
+ */
+public class MetricsSnapshot {
+  
+  private final long [] received;
+  private final long [] decoded;
+  private final long [] dropped;
+  
+  /**
+   * indexed by channel + 1, so {@link PipelineMetrics#NO_CHANNEL} is first
+   */
+  private final LatencyHistogram [] decodeTime;
+  private final LatencyHistogram [] queueWait;
+  private final LatencyHistogram [] listenerTime;
+  
+  MetricsSnapshot(long [] received, long [] decoded, long [] dropped,
+      LatencyHistogram [] decodeTime, LatencyHistogram [] queueWait,
+      LatencyHistogram [] listenerTime) {
+    this.received = received;
+    this.decoded = decoded;
+    this.dropped = dropped;
+    this.decodeTime = decodeTime;
+    this.queueWait = queueWait;
+    this.listenerTime = listenerTime;
+  }
+  
+  private static int index(MessageId id) {
+    return id.getMessageID() & 0xff;
+  }
+  
+  private static LatencyHistogram forChannel(LatencyHistogram [] histograms, int channel) {
+    if (channel < PipelineMetrics.NO_CHANNEL || channel + 1 >= histograms.length) {
+      throw new IllegalArgumentException("no such channel: " + channel);
+    }
+    return histograms[channel + 1];
+  }
+  
+  public long getReceived(MessageId id) {
+    return received[index(id)];
+  }
+  
+  public long getDecoded(MessageId id) {
+    return decoded[index(id)];
+  }
+  
+  public long getDropped(MessageId id) {
+    return dropped[index(id)];
+  }
+  
+  public long getTotalReceived() {
+    return sum(received);
+  }
+  
+  public long getTotalDecoded() {
+    return sum(decoded);
+  }
+  
+  public long getTotalDropped() {
+    return sum(dropped);
+  }
+  
+  private static long sum(long [] values) {
+    long rtn = 0;
+    for (long value : values) {
+      rtn += value;
+    }
+    return rtn;
+  }
+  
+  /**
+   * @param channel channel number or {@link PipelineMetrics#NO_CHANNEL}
+   */
+  public LatencyHistogram getDecodeTime(int channel) {
+    return forChannel(decodeTime, channel);
+  }
+  
+  /**
+   * @param channel channel number or {@link PipelineMetrics#NO_CHANNEL}
+   */
+  public LatencyHistogram getQueueWait(int channel) {
+    return forChannel(queueWait, channel);
+  }
+  
+  /**
+   * @param channel channel number or {@link PipelineMetrics#NO_CHANNEL}
+   */
+  public LatencyHistogram getListenerTime(int channel) {
+    return forChannel(listenerTime, channel);
+  }
+  
+  /**
+   * @return channels with any recorded timings, {@link PipelineMetrics#NO_CHANNEL} first
+   */
+  public List<Integer> getChannels() {
+    List<Integer> rtn = new ArrayList<Integer>();
+    for (int i = 0 ; i < decodeTime.length ; i++) {
+      if (decodeTime[i].getCount() > 0 || queueWait[i].getCount() > 0 
+          || listenerTime[i].getCount() > 0) {
+        rtn.add(i - 1);
+      }
+    }
+    return Collections.unmodifiableList(rtn);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder rtn = new StringBuilder();
+    for (int i = 0 ; i < received.length ; i++) {
+      if (received[i] == 0 && decoded[i] == 0 && dropped[i] == 0) {
+        continue;
+      }
+      MessageId id = MessageId.lookUp((byte) i);
+      String name = id == null ? String.format("0x%02x", i) : id.toString();
+      rtn.append(String.format("%-26s received=%d decoded=%d dropped=%d%n", 
+          name, received[i], decoded[i], dropped[i]));
+    }
+    for (int channel : getChannels()) {
+      String name = channel == PipelineMetrics.NO_CHANNEL ? "none" : Integer.toString(channel);
+      rtn.append("channel ").append(name).append(String.format("%n"));
+      rtn.append("  decode:   ").append(getDecodeTime(channel)).append(String.format("%n"));
+      rtn.append("  queue:    ").append(getQueueWait(channel)).append(String.format("%n"));
+      rtn.append("  listener: ").append(getListenerTime(channel)).append(String.format("%n"));
+    }
+    return rtn.toString();
+  }
+
+}
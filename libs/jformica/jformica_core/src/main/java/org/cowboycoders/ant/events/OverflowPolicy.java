@@ -0,0 +1,48 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.events;
+
+/**
+ * What a {@link BroadcastMessenger} in ordered mode should do when a
+ * listener's mailbox is full
+ * 
+ * @author will
+ *
+ */
+public enum OverflowPolicy {
+  
+  /**
+   * Discard the oldest queued message to make room
+   */
+  DROP_OLDEST,
+  
+  /**
+   * Block the sender until the listener has caught up. A sender that is itself
+   * one of the threads draining the mailbox is refused instead, see
+   * {@link BroadcastMessenger#BroadcastMessenger(int, OverflowPolicy)}
+   */
+  BLOCK,
+  
+  /**
+   * Replace the most recently queued message with the new one, so a slow
+   * listener only sees the latest value
+   */
+  COALESCE
+
+}
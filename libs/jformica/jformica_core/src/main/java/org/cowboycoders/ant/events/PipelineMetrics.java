@@ -0,0 +1,98 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.events;
+
+/**
+ * Receives timings and counts from the receive pipeline. Called on the
+ * receiving and dispatch threads, so implementations must be thread safe,
+ * quick and should not allocate.
+ * 
+ * Message ids are the unsigned id byte of the frame. Channel numbers are
+ * {@link #NO_CHANNEL} for messages that don't belong to a channel.
+ * 
+ * @author will
+ *
+ */
+public interface PipelineMetrics {
+  
+  public static final int NO_CHANNEL = -1;
+  
+  /**
+   * Records nothing. Nothing is timed whilst this is installed.
+   */
+  public static final PipelineMetrics DISABLED = new PipelineMetrics() {
+
+    @Override
+    public boolean isEnabled() {
+      return false;
+    }
+
+    @Override
+    public void packetReceived(int messageId) {
+    }
+
+    @Override
+    public void packetDecoded(int messageId, int channel, long decodeNanos) {
+    }
+
+    @Override
+    public void packetDropped(int messageId) {
+    }
+
+    @Override
+    public void queueWait(int channel, long nanos) {
+    }
+
+    @Override
+    public void listenerExecuted(int channel, long nanos) {
+    }
+    
+  };
+  
+  /**
+   * @return false if calls to this instance can be skipped
+   */
+  boolean isEnabled();
+  
+  /**
+   * A raw frame arrived from the chip
+   */
+  void packetReceived(int messageId);
+  
+  /**
+   * A raw frame was successfully decoded
+   */
+  void packetDecoded(int messageId, int channel, long decodeNanos);
+  
+  /**
+   * A frame couldn't be decoded, or a listener's mailbox discarded it
+   */
+  void packetDropped(int messageId);
+  
+  /**
+   * Time a decoded message waited before being passed to a listener
+   */
+  void queueWait(int channel, long nanos);
+  
+  /**
+   * Time a listener spent handling a decoded message
+   */
+  void listenerExecuted(int channel, long nanos);
+
+}
@@ -0,0 +1,161 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.events;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps counts per message id and latency histograms per channel in
+ * preallocated arrays, so recording never allocates or takes a lock.
+ * 
+ * @author will
+ *
+ */
+public class RecordingPipelineMetrics implements PipelineMetrics {
+  
+  private static final int MESSAGE_IDS = 256;
+  
+  /**
+   * Channels numbered from 0 up to, but not including, this have their own
+   * histograms. Anything else is recorded against {@link #NO_CHANNEL}.
+   */
+  public static final int MAX_CHANNELS = 32;
+  
+  private final AtomicLongArray received = new AtomicLongArray(MESSAGE_IDS);
+  private final AtomicLongArray decoded = new AtomicLongArray(MESSAGE_IDS);
+  private final AtomicLongArray dropped = new AtomicLongArray(MESSAGE_IDS);
+  
+  private final Recorder decodeTime = new Recorder();
+  private final Recorder queueWait = new Recorder();
+  private final Recorder listenerTime = new Recorder();
+  
+  /**
+   * One histogram for each channel, plus one for {@link #NO_CHANNEL}
+   */
+  private static class Recorder {
+    
+    private static final int SLOTS = MAX_CHANNELS + 1;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(SLOTS * LatencyHistogram.BUCKETS);
+    private final AtomicLongArray total = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray max = new AtomicLongArray(SLOTS);
+    
+    private static int slotOf(int channel) {
+      if (channel < 0 || channel >= MAX_CHANNELS) {
+        return 0;
+      }
+      return channel + 1;
+    }
+    
+    void record(int channel, long nanos) {
+      int slot = slotOf(channel);
+      buckets.incrementAndGet(slot * LatencyHistogram.BUCKETS + LatencyHistogram.bucketOf(nanos));
+      total.addAndGet(slot, nanos);
+      long current = max.get(slot);
+      while (nanos > current && !max.compareAndSet(slot, current, nanos)) {
+        current = max.get(slot);
+      }
+    }
+    
+    LatencyHistogram [] snapshot() {
+      LatencyHistogram [] rtn = new LatencyHistogram[SLOTS];
+      for (int slot = 0 ; slot < SLOTS ; slot++) {
+        long [] counts = new long[LatencyHistogram.BUCKETS];
+        for (int i = 0 ; i < counts.length ; i++) {
+          counts[i] = buckets.get(slot * LatencyHistogram.BUCKETS + i);
+        }
+        rtn[slot] = new LatencyHistogram(counts, total.get(slot), max.get(slot));
+      }
+      return rtn;
+    }
+    
+    void reset() {
+      clear(buckets);
+      clear(total);
+      clear(max);
+    }
+    
+  }
+  
+  private static void clear(AtomicLongArray array) {
+    for (int i = 0 ; i < array.length() ; i++) {
+      array.set(i, 0);
+    }
+  }
+  
+  private static long [] copy(AtomicLongArray array) {
+    long [] rtn = new long[array.length()];
+    for (int i = 0 ; i < rtn.length ; i++) {
+      rtn[i] = array.get(i);
+    }
+    return rtn;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return true;
+  }
+
+  @Override
+  public void packetReceived(int messageId) {
+    received.incrementAndGet(messageId & 0xff);
+  }
+
+  @Override
+  public void packetDecoded(int messageId, int channel, long decodeNanos) {
+    decoded.incrementAndGet(messageId & 0xff);
+    decodeTime.record(channel, decodeNanos);
+  }
+
+  @Override
+  public void packetDropped(int messageId) {
+    dropped.incrementAndGet(messageId & 0xff);
+  }
+
+  @Override
+  public void queueWait(int channel, long nanos) {
+    queueWait.record(channel, nanos);
+  }
+
+  @Override
+  public void listenerExecuted(int channel, long nanos) {
+    listenerTime.record(channel, nanos);
+  }
+  
+  /**
+   * @return copy of everything recorded so far
+   */
+  public MetricsSnapshot snapshot() {
+    return new MetricsSnapshot(copy(received), copy(decoded), copy(dropped),
+        decodeTime.snapshot(), queueWait.snapshot(), listenerTime.snapshot());
+  }
+  
+  /**
+   * Clears all counts. Anything recorded concurrently may be partially kept.
+   */
+  public void reset() {
+    clear(received);
+    clear(decoded);
+    clear(dropped);
+    decodeTime.reset();
+    queueWait.reset();
+    listenerTime.reset();
+  }
+
+}
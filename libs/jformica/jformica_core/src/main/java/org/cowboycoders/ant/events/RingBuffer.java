@@ -0,0 +1,308 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.events;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Preallocated, sequence numbered ring buffer. Every published element is
+ * given a monotonically increasing sequence number; consumers remember
+ * the last sequence they looked at and only inspect newer entries, rather
+ * than rescanning the whole buffer under a lock.
+ * 
+ * Publishing never takes a lock unless a consumer is parked in
+ * {@link #waitFor(long, Long, TimeUnit)}. Old entries are silently overwritten
+ * once the buffer wraps, in the same way that {@link FixedSizeBuffer} drops its
+ * oldest element.
+ * 
+ * @author will
+ *
+ * @param <V> element type
+ */
+public class RingBuffer<V> implements Iterable<V> {
+  
+  /**
+   * Used for a sequence that has not been written
+   */
+  private static final long UNPUBLISHED = -1L;
+  
+  private static final class Slot<V> {
+    
+    /**
+     * sequence of {@code value}, or {@code UNPUBLISHED} whilst being written
+     */
+    volatile long sequence = UNPUBLISHED;
+    
+    volatile V value;
+  }
+  
+  private final Slot<V> [] slots;
+  
+  private final int mask;
+  
+  /**
+   * Next sequence to be claimed by a producer
+   */
+  private final AtomicLong claimed = new AtomicLong(0);
+  
+  /**
+   * Highest sequence visible to consumers
+   */
+  private final AtomicLong cursor = new AtomicLong(UNPUBLISHED);
+  
+  /**
+   * Sequences lower than this were discarded by {@link #clear()}
+   */
+  private volatile long floor = 0;
+  
+  /**
+   * Number of consumers blocked in waitFor
+   */
+  private final AtomicInteger waiters = new AtomicInteger(0);
+  
+  private final Lock lock = new ReentrantLock();
+  
+  private final Condition published = lock.newCondition();
+  
+  /**
+   * Number of times a consumer rechecks the cursor before parking
+   */
+  private static final int SPIN_TRIES = 64;
+  
+  /**
+   * @param minCapacity rounded up to the next power of two
+   */
+  @SuppressWarnings("unchecked")
+  public RingBuffer(int minCapacity) {
+    if (minCapacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    int capacity = Integer.highestOneBit(minCapacity);
+    if (capacity < minCapacity) {
+      capacity <<= 1;
+    }
+    slots = (Slot<V>[]) new Slot<?>[capacity];
+    for (int i = 0 ; i < capacity ; i++) {
+      slots[i] = new Slot<V>();
+    }
+    mask = capacity - 1;
+  }
+  
+  /**
+   * @return the number of elements retained before wrapping
+   */
+  public int getCapacity() {
+    return slots.length;
+  }
+  
+  /**
+   * Appends an element, overwriting the oldest if full
+   * @param value to publish
+   * @return the sequence number assigned to {@code value}
+   */
+  public long publish(V value) {
+    final long sequence = claimed.getAndIncrement();
+    final Slot<V> slot = slots[(int) sequence & mask];
+    slot.sequence = UNPUBLISHED;
+    slot.value = value;
+    slot.sequence = sequence;
+    
+    // keeps the cursor gap free if listeners are dispatched on several threads:
+    // in the single writer case this never spins
+    while (cursor.get() != sequence - 1) {
+      Thread.yield();
+    }
+    cursor.set(sequence);
+    
+    if (waiters.get() > 0) {
+      try {
+        lock.lock();
+        published.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+    return sequence;
+  }
+  
+  /**
+   * @return sequence of the last published element, or -1 if empty
+   */
+  public long getCursor() {
+    return cursor.get();
+  }
+  
+  /**
+   * @return the lowest sequence that has not yet been overwritten or cleared
+   */
+  public long getOldestSequence() {
+    long oldest = cursor.get() - slots.length + 1;
+    return Math.max(oldest, floor);
+  }
+  
+  /**
+   * @param sequence as returned by {@link #publish(Object)}
+   * @return the element or null if it has not been published, has been 
+   *         overwritten or has been cleared
+   */
+  public V get(long sequence) {
+    if (sequence < floor || sequence > cursor.get()) {
+      return null;
+    }
+    final Slot<V> slot = slots[(int) sequence & mask];
+    if (slot.sequence != sequence) {
+      return null;
+    }
+    V value = slot.value;
+    // check it wasn't overwritten whilst reading
+    if (slot.sequence != sequence) {
+      return null;
+    }
+    return value;
+  }
+  
+  /**
+   * Blocks until {@code sequence} has been published. Spins briefly before
+   * parking, as the next message is often only microseconds away.
+   * 
+   * @param sequence to wait for
+   * @param timeout null to wait indefinitely
+   * @param timeoutUnit unit of {@code timeout}
+   * @return the cursor, which will be greater than or equal to {@code sequence}
+   * @throws InterruptedException if interrupted whilst waiting
+   * @throws TimeoutException if {@code timeout} elapses first
+   */
+  public long waitFor(long sequence, Long timeout, TimeUnit timeoutUnit)
+      throws InterruptedException, TimeoutException {
+    long available;
+    for (int i = 0 ; i < SPIN_TRIES ; i++) {
+      if ((available = cursor.get()) >= sequence) {
+        return available;
+      }
+      Thread.yield();
+    }
+    long remaining = timeout != null ? TimeUnit.NANOSECONDS.convert(timeout, timeoutUnit) : 0L;
+    try {
+      lock.lock();
+      waiters.incrementAndGet();
+      while ((available = cursor.get()) < sequence) {
+        if (timeout == null) {
+          published.await();
+          continue;
+        }
+        if (remaining <= 0) {
+          throw new TimeoutException("timeout waiting for sequence " + sequence);
+        }
+        remaining = published.awaitNanos(remaining);
+      }
+      return available;
+    } finally {
+      waiters.decrementAndGet();
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * Hides all currently published elements from consumers. Sequence numbers 
+   * are not reused.
+   */
+  public void clear() {
+    floor = cursor.get() + 1;
+  }
+  
+  /**
+   * @return number of elements currently retrievable
+   */
+  public int size() {
+    return (int) (cursor.get() - getOldestSequence() + 1);
+  }
+  
+  /**
+   * Lock used to park consumers. Publishers only acquire it when there are
+   * consumers waiting.
+   * @return the lock
+   */
+  public Lock getLock() {
+    return lock;
+  }
+
+  /**
+   * Iterates, oldest first, over a snapshot of the sequences published
+   * when this method was called. Elements overwritten during iteration are
+   * skipped.
+   */
+  @Override
+  public Iterator<V> iterator() {
+    final long end = cursor.get();
+    return new Iterator<V>() {
+      
+      private long next = getOldestSequence();
+      
+      private V value = advance();
+      
+      private V advance() {
+        while (next <= end) {
+          V rtn = get(next++);
+          if (rtn != null) {
+            return rtn;
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return value != null;
+      }
+
+      @Override
+      public V next() {
+        if (value == null) {
+          throw new NoSuchElementException();
+        }
+        V rtn = value;
+        value = advance();
+        return rtn;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+      
+    };
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "RingBuffer [cursor=" + cursor.get() + ", capacity=" + slots.length + "]";
+  }
+
+}
@@ -19,6 +19,7 @@
 package org.cowboycoders.ant.interfaces;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.WeakHashMap;
 import java.util.concurrent.locks.Lock;
@@ -148,6 +149,29 @@ public abstract class AbstractAntTransceiver implements AntChipInterface  {
     } 
    }
   
+  /**
+   * Passes on several received messages at once, in order
+   * @see BroadcastMessenger#sendMessages(List)
+   * @param ANTRxMessages raw messages, not kept after returning
+   */
+  protected void broadcastRxMessages(List<byte []> ANTRxMessages) {
+    try {
+      getMessengerLock().lock();
+      Set<BroadcastMessenger<byte[]>> mRxMessengers = getRxMessengers();
+      if (mRxMessengers == null) {
+        return;
+      }
+      for (BroadcastMessenger<byte[]> rxMessenger : mRxMessengers) {
+        if (rxMessenger == null) {
+          continue;
+        }
+        rxMessenger.sendMessages(ANTRxMessages);
+      }
+    } finally {
+     getMessengerLock().unlock();
+    } 
+  }
+  
   /* (non-Javadoc)
    * @see org.cowboycoders.ant.interfaces.AntChipInterface#getStatus()
    */
@@ -0,0 +1,116 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.interfaces.simulated;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tacx Bushido brake, as seen by a head unit. Alternates between the speed/power/cadence 
+ * and distance/heart rate pages.
+ * 
+ * @author will
+ *
+ */
+public class BushidoDevice extends SimulatedDevice {
+  
+  public static final int DEVICE_TYPE = 0x52;
+  public static final int CHANNEL_PERIOD = 4096;
+  
+  private static final int DATA_PAGE = 0xdd;
+  private static final int SPEED_POWER_CADENCE = 0x01;
+  private static final int DISTANCE_HEART_RATE = 0x02;
+  
+  private volatile double speed = 25;
+  private volatile int power = 200;
+  private volatile int cadence = 90;
+  private volatile int heartRate;
+  
+  /**
+   * in metres
+   */
+  private double distance;
+  private long lastPageNanos;
+  private boolean started;
+  private int pages;
+
+  public BushidoDevice(int deviceNumber) {
+    super(deviceNumber, DEVICE_TYPE, 1, CHANNEL_PERIOD);
+  }
+  
+  /**
+   * @param speed in km/h
+   */
+  public void setSpeed(double speed) {
+    this.speed = speed;
+  }
+  
+  /**
+   * @param power in watts
+   */
+  public void setPower(int power) {
+    this.power = power;
+  }
+  
+  /**
+   * @param cadence in rpm
+   */
+  public void setCadence(int cadence) {
+    this.cadence = cadence;
+  }
+  
+  /**
+   * @param heartRate in beats per minute
+   */
+  public void setHeartRate(int heartRate) {
+    this.heartRate = heartRate;
+  }
+
+  @Override
+  protected void nextPage(byte[] page, long nanos) {
+    double kmh = speed;
+    if (started) {
+      distance += kmh / 3.6 * (nanos - lastPageNanos) / TimeUnit.SECONDS.toNanos(1);
+    }
+    started = true;
+    lastPageNanos = nanos;
+    
+    page[0] = (byte) DATA_PAGE;
+    if (pages++ % 2 == 0) {
+      int tenths = (int) Math.round(kmh * 10);
+      int watts = power;
+      page[1] = SPEED_POWER_CADENCE;
+      page[2] = (byte) (tenths >> 8);
+      page[3] = (byte) tenths;
+      page[4] = (byte) (watts >> 8);
+      page[5] = (byte) watts;
+      page[6] = (byte) cadence;
+      page[7] = 0;
+    } else {
+      long metres = (long) distance;
+      page[1] = DISTANCE_HEART_RATE;
+      page[2] = (byte) (metres >> 24);
+      page[3] = (byte) (metres >> 16);
+      page[4] = (byte) (metres >> 8);
+      page[5] = (byte) metres;
+      page[6] = (byte) heartRate;
+      page[7] = 0;
+    }
+  }
+
+}
@@ -0,0 +1,175 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.interfaces.simulated;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ANT+ FE-C trainer, alternating between the general fitness equipment page (0x10)
+ * and the specific trainer data page (0x19). Records the track resistance pages
+ * (0x33) sent to it.
+ * 
+ * @author will
+ *
+ */
+public class FitnessEquipmentDevice extends SimulatedDevice {
+  
+  public static final int DEVICE_TYPE = 0x11;
+  public static final int CHANNEL_PERIOD = 8192;
+  
+  private static final int GENERAL_PAGE = 0x10;
+  private static final int TRAINER_PAGE = 0x19;
+  private static final int TRACK_RESISTANCE_PAGE = 0x33;
+  
+  private static final int EQUIPMENT_TYPE_TRAINER = 25;
+  
+  /**
+   * distance traveled enabled, in the capabilities nibble of the general page
+   */
+  private static final int DISTANCE_ENABLED = 0x04;
+  
+  /**
+   * ready, in the fe state nibble of the general page
+   */
+  private static final int STATE_READY = 2;
+  
+  private static final int INVALID = 0xff;
+  
+  private volatile double speed = 25;
+  private volatile int power = 200;
+  private volatile int cadence = 90;
+  private volatile int heartRate = INVALID;
+  
+  /**
+   * in metres
+   */
+  private double distance;
+  private long elapsedNanos;
+  private long lastPageNanos;
+  private boolean started;
+  private int pages;
+  private int eventCount;
+  private int accumulatedPower;
+  
+  // written with the transceiver's lock held
+  private volatile double grade;
+  private volatile long gradeNanos;
+  private volatile int trackResistancePages;
+
+  public FitnessEquipmentDevice(int deviceNumber) {
+    super(deviceNumber, DEVICE_TYPE, 5, CHANNEL_PERIOD);
+  }
+  
+  /**
+   * @param speed in km/h
+   */
+  public void setSpeed(double speed) {
+    this.speed = speed;
+  }
+  
+  /**
+   * @param power in watts
+   */
+  public void setPower(int power) {
+    this.power = power;
+  }
+  
+  /**
+   * @param cadence in rpm
+   */
+  public void setCadence(int cadence) {
+    this.cadence = cadence;
+  }
+  
+  /**
+   * @param heartRate in beats per minute, 0xff if not known
+   */
+  public void setHeartRate(int heartRate) {
+    this.heartRate = heartRate;
+  }
+  
+  /**
+   * @return grade from the last track resistance page, in percent
+   */
+  public double getGrade() {
+    return grade;
+  }
+  
+  /**
+   * @return when the last track resistance page arrived, on the {@link System#nanoTime()} 
+   *          clock
+   */
+  public long getGradeNanos() {
+    return gradeNanos;
+  }
+  
+  /**
+   * @return number of track resistance pages received, including any whose 
+   *          acknowledgement was lost
+   */
+  public int getTrackResistancePages() {
+    return trackResistancePages;
+  }
+
+  @Override
+  protected void nextPage(byte[] page, long nanos) {
+    double kmh = speed;
+    if (started) {
+      elapsedNanos += nanos - lastPageNanos;
+      distance += kmh / 3.6 * (nanos - lastPageNanos) / TimeUnit.SECONDS.toNanos(1);
+    }
+    started = true;
+    lastPageNanos = nanos;
+    
+    if (pages++ % 2 == 0) {
+      int quarters = (int) (elapsedNanos / TimeUnit.MILLISECONDS.toNanos(250));
+      int millimetresPerSecond = (int) Math.round(kmh / 3.6 * 1000);
+      page[0] = (byte) GENERAL_PAGE;
+      page[1] = (byte) EQUIPMENT_TYPE_TRAINER;
+      page[2] = (byte) quarters;
+      page[3] = (byte) (long) distance;
+      putUint16LE(page, 4, millimetresPerSecond);
+      page[6] = (byte) heartRate;
+      page[7] = (byte) (DISTANCE_ENABLED | STATE_READY << 4);
+    } else {
+      int watts = power;
+      eventCount++;
+      accumulatedPower += watts;
+      page[0] = (byte) TRAINER_PAGE;
+      page[1] = (byte) eventCount;
+      page[2] = (byte) cadence;
+      putUint16LE(page, 3, accumulatedPower);
+      page[5] = (byte) watts;
+      page[6] = (byte) ((watts >> 8) & 0x0f);
+      page[7] = (byte) (STATE_READY << 4);
+    }
+  }
+  
+  @Override
+  protected void receive(byte[] data) {
+    if ((data[0] & 0xff) != TRACK_RESISTANCE_PAGE) {
+      return;
+    }
+    int raw = (data[5] & 0xff) | (data[6] & 0xff) << 8;
+    grade = raw * 0.01 - 200;
+    gradeNanos = System.nanoTime();
+    trackResistancePages++;
+  }
+
+}
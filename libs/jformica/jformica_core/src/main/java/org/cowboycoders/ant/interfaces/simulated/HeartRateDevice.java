@@ -0,0 +1,67 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.interfaces.simulated;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ANT+ heart rate monitor, sending data page 0
+ * 
+ * @author will
+ *
+ */
+public class HeartRateDevice extends SimulatedDevice {
+  
+  public static final int DEVICE_TYPE = 0x78;
+  public static final int CHANNEL_PERIOD = 8070;
+  
+  /**
+   * toggles every four pages
+   */
+  private static final int PAGE_TOGGLE = 0x80;
+  
+  private final EventCounter beats = new EventCounter();
+  private volatile int heartRate = 120;
+  private int pages;
+
+  public HeartRateDevice(int deviceNumber) {
+    super(deviceNumber, DEVICE_TYPE, 1, CHANNEL_PERIOD);
+  }
+  
+  /**
+   * @param heartRate in beats per minute, zero to stop beating
+   */
+  public void setHeartRate(int heartRate) {
+    this.heartRate = heartRate;
+  }
+
+  @Override
+  protected void nextPage(byte[] page, long nanos) {
+    int rate = heartRate;
+    beats.advance(nanos, rate > 0 ? TimeUnit.MINUTES.toNanos(1) / rate : 0);
+    page[0] = (byte) ((pages++ / 4) % 2 == 0 ? 0 : PAGE_TOGGLE);
+    page[1] = (byte) 0xff;
+    page[2] = (byte) 0xff;
+    page[3] = (byte) 0xff;
+    putUint16LE(page, 4, beats.getEventTime());
+    page[6] = (byte) beats.getCount();
+    page[7] = (byte) rate;
+  }
+
+}
@@ -0,0 +1,75 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.interfaces.simulated;
+
+/**
+ * ANT+ bicycle power meter, sending the standard power only page (0x10)
+ * 
+ * @author will
+ *
+ */
+public class PowerDevice extends SimulatedDevice {
+  
+  public static final int DEVICE_TYPE = 0x0b;
+  public static final int CHANNEL_PERIOD = 8182;
+  
+  private static final int STANDARD_POWER_PAGE = 0x10;
+  
+  /**
+   * pedal power not used
+   */
+  private static final int NO_PEDAL_POWER = 0xff;
+  
+  private volatile int power = 200;
+  private volatile int cadence = 90;
+  private int eventCount;
+  private int accumulatedPower;
+
+  public PowerDevice(int deviceNumber) {
+    super(deviceNumber, DEVICE_TYPE, 5, CHANNEL_PERIOD);
+  }
+  
+  /**
+   * @param power in watts
+   */
+  public void setPower(int power) {
+    this.power = power;
+  }
+  
+  /**
+   * @param cadence in rpm
+   */
+  public void setCadence(int cadence) {
+    this.cadence = cadence;
+  }
+
+  @Override
+  protected void nextPage(byte[] page, long nanos) {
+    int watts = power;
+    eventCount++;
+    accumulatedPower += watts;
+    page[0] = (byte) STANDARD_POWER_PAGE;
+    page[1] = (byte) eventCount;
+    page[2] = (byte) NO_PEDAL_POWER;
+    page[3] = (byte) cadence;
+    putUint16LE(page, 4, accumulatedPower);
+    putUint16LE(page, 6, watts);
+  }
+
+}
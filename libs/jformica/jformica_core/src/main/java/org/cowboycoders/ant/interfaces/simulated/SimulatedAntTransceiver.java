@@ -0,0 +1,679 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.interfaces.simulated;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.cowboycoders.ant.interfaces.AbstractAntTransceiver;
+import org.cowboycoders.ant.interfaces.AntCommunicationException;
+import org.cowboycoders.ant.interfaces.AntStatus;
+import org.cowboycoders.ant.messages.MessageId;
+import org.cowboycoders.ant.messages.responses.ResponseCode;
+
+/**
+ * An in process ANT chip, for driving the stack without a usb stick. It answers 
+ * reset, request (capabilities, version, channel id and status), network key and
+ * channel configuration commands, and pairs open slave channels with
+ * {@link SimulatedDevice}s, which then broadcast pages at their own rate.
+ * 
+ * Loss, jitter and bursts (pages held back and delivered together, as a busy usb
+ * link would) can be injected. All messages are delivered from a single emitter
+ * thread.
+ * 
+ * @author will
+ *
+ */
+public class SimulatedAntTransceiver extends AbstractAntTransceiver {
+  
+  private final static Logger LOGGER = Logger.getLogger(SimulatedAntTransceiver.class.getName());
+  
+  public static final int DEFAULT_MAX_CHANNELS = 8;
+  public static final int DEFAULT_MAX_NETWORKS = 8;
+  
+  private static final int MASTER_CHANNEL = 0x10;
+  private static final int PAIRING_FLAG = 0x80;
+  private static final int BURST_CHANNEL_MASK = 0x1f;
+  private static final int BURST_LAST_PACKET = 0x80;
+  
+  /**
+   * startup reason : reset command
+   */
+  private static final int COMMAND_RESET = 0x20;
+  
+  private static final byte [] VERSION = "AP2SIM1.00\0".getBytes();
+  
+  private static final int STATUS_UNASSIGNED = 0;
+  private static final int STATUS_ASSIGNED = 1;
+  private static final int STATUS_SEARCHING = 2;
+  private static final int STATUS_TRACKING = 3;
+  
+  private class ChannelState {
+    
+    final int number;
+    boolean assigned;
+    boolean open;
+    int type;
+    int deviceNumber;
+    int deviceType;
+    int transmissionType;
+    SimulatedDevice device;
+    
+    /**
+     * bumped whenever the channel closes, so that stale emissions are dropped
+     */
+    int generation;
+    
+    ChannelState(int number) {
+      this.number = number;
+    }
+    
+    int getStatus() {
+      if (!assigned) {
+        return STATUS_UNASSIGNED;
+      }
+      if (!open) {
+        return STATUS_ASSIGNED;
+      }
+      return device == null ? STATUS_SEARCHING : STATUS_TRACKING;
+    }
+    
+  }
+  
+  /**
+   * Either frames to deliver once, or the next page of a paired channel
+   */
+  private static class Emission implements Comparable<Emission> {
+    
+    final long sequence;
+    final byte [][] frames;
+    final ChannelState channel;
+    final int generation;
+    long nominal;
+    long due;
+    
+    Emission(long sequence, long due, byte [] ... frames) {
+      this.sequence = sequence;
+      this.due = due;
+      this.frames = frames;
+      this.channel = null;
+      this.generation = 0;
+    }
+    
+    Emission(long sequence, long due, ChannelState channel) {
+      this.sequence = sequence;
+      this.due = due;
+      this.nominal = due;
+      this.frames = null;
+      this.channel = channel;
+      this.generation = channel.generation;
+    }
+
+    @Override
+    public int compareTo(Emission other) {
+      if (due != other.due) {
+        return due < other.due ? -1 : 1;
+      }
+      // keep responses in the order they were queued
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+    
+  }
+  
+  private final Lock lock = new ReentrantLock();
+  private final Condition queueChanged = lock.newCondition();
+  
+  /**
+   * guarded by lock
+   */
+  private final PriorityQueue<Emission> queue = new PriorityQueue<Emission>();
+  private final List<SimulatedDevice> devices = new ArrayList<SimulatedDevice>();
+  private final ChannelState [] channels;
+  private final int maxNetworks;
+  private final Random random;
+  private long sequence;
+  
+  private volatile boolean running;
+  private Thread emitter;
+  
+  private volatile double lossProbability;
+  private volatile long jitterNanos;
+  private volatile double burstProbability;
+  private volatile int burstLength = 1;
+  private volatile long responseLatencyNanos;
+  
+  private volatile long pagesSent;
+  private volatile long pagesLost;
+  private volatile long commandsReceived;
+  
+  public SimulatedAntTransceiver() {
+    this(DEFAULT_MAX_CHANNELS, DEFAULT_MAX_NETWORKS, new Random());
+  }
+  
+  /**
+   * @param maxChannels reported in the capabilities response
+   * @param maxNetworks reported in the capabilities response
+   * @param random source of loss, jitter and bursts : seed it for a repeatable run
+   */
+  public SimulatedAntTransceiver(int maxChannels, int maxNetworks, Random random) {
+    if (maxChannels <= 0 || maxChannels > BURST_CHANNEL_MASK + 1) {
+      throw new IllegalArgumentException("maxChannels must be between 1 and 32");
+    }
+    channels = new ChannelState[maxChannels];
+    for (int i = 0 ; i < maxChannels ; i++) {
+      channels[i] = new ChannelState(i);
+    }
+    this.maxNetworks = maxNetworks;
+    this.random = random;
+  }
+  
+  /**
+   * Makes a device available for slave channels to pair with. Each open channel
+   * pairs with the first unpaired device that matches its channel id.
+   * 
+   * @param device to add
+   */
+  public void addDevice(SimulatedDevice device) {
+    try {
+      lock.lock();
+      devices.add(device);
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  /**
+   * @param probability that a broadcast page is lost, or that an acknowledged or
+   *        burst transfer fails
+   */
+  public void setLossProbability(double probability) {
+    this.lossProbability = probability;
+  }
+  
+  /**
+   * @param jitter maximum amount each page is early or late by
+   * @param unit of jitter
+   */
+  public void setJitter(long jitter, TimeUnit unit) {
+    this.jitterNanos = unit.toNanos(jitter);
+  }
+  
+  /**
+   * @param probability that a page starts a burst
+   * @param length number of consecutive pages which are held back and delivered together
+   */
+  public void setBursts(double probability, int length) {
+    if (length < 1) {
+      throw new IllegalArgumentException("length must be at least 1");
+    }
+    this.burstProbability = probability;
+    this.burstLength = length;
+  }
+  
+  /**
+   * @param latency delay before a command's response is received
+   * @param unit of latency
+   */
+  public void setResponseLatency(long latency, TimeUnit unit) {
+    this.responseLatencyNanos = unit.toNanos(latency);
+  }
+  
+  /**
+   * @return broadcast pages delivered to the host
+   */
+  public long getPagesSent() {
+    return pagesSent;
+  }
+  
+  /**
+   * @return broadcast pages dropped by loss injection
+   */
+  public long getPagesLost() {
+    return pagesLost;
+  }
+  
+  /**
+   * @return messages received from the host
+   */
+  public long getCommandsReceived() {
+    return commandsReceived;
+  }
+
+  @Override
+  public synchronized boolean start() {
+    if (running) {
+      return true;
+    }
+    running = true;
+    emitter = new Thread(new Runnable() {
+
+      @Override
+      public void run() {
+        emitLoop();
+      }
+      
+    }, "SimulatedAntTransceiver");
+    emitter.setDaemon(true);
+    emitter.start();
+    broadcastStatus(AntStatus.ENABLED);
+    return true;
+  }
+
+  @Override
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    try {
+      lock.lock();
+      running = false;
+      resetChannels();
+      queue.clear();
+      queueChanged.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    emitter = null;
+    broadcastStatus(AntStatus.DISABLED);
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public void send(byte[] message) throws AntCommunicationException {
+    if (!running) {
+      throw new AntCommunicationException("simulated chip not started");
+    }
+    if (message == null || message.length < 2 || message.length < message[0] + 2) {
+      throw new AntCommunicationException("malformed message");
+    }
+    try {
+      lock.lock();
+      commandsReceived++;
+      handle(message);
+    } finally {
+      lock.unlock();
+    }
+  }
+  
+  private void emitLoop() {
+    List<byte []> frames = new ArrayList<byte []>();
+    while (running) {
+      frames.clear();
+      try {
+        lock.lock();
+        Emission next = queue.peek();
+        if (next == null) {
+          queueChanged.await();
+          continue;
+        }
+        long wait = next.due - System.nanoTime();
+        if (wait > 0) {
+          queueChanged.awaitNanos(wait);
+          continue;
+        }
+        queue.poll();
+        if (next.channel == null) {
+          for (byte [] frame : next.frames) {
+            frames.add(frame);
+          }
+        } else {
+          emitPages(next, frames);
+        }
+      } catch (InterruptedException e) {
+        return;
+      } finally {
+        lock.unlock();
+      }
+      
+      for (int i = 0 ; i < frames.size() ; i++) {
+        try {
+          broadcastRxMessage(frames.get(i));
+        } catch (RuntimeException e) {
+          LOGGER.log(Level.WARNING, "rx messenger threw", e);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Should hold lock
+   */
+  private void emitPages(Emission emission, List<byte []> frames) {
+    ChannelState channel = emission.channel;
+    if (channel.generation != emission.generation || channel.device == null) {
+      return;
+    }
+    SimulatedDevice device = channel.device;
+    long period = device.getPeriodNanos();
+    int pages = 1;
+    List<byte []> out = frames;
+    if (burstLength > 1 && random.nextDouble() < burstProbability) {
+      // hold this and the following pages back, then deliver them together
+      pages = burstLength;
+      out = new ArrayList<byte []>(pages);
+    }
+    for (int i = 0 ; i < pages ; i++) {
+      byte [] page = new byte[8];
+      device.nextPage(page, emission.nominal + i * period);
+      if (lossProbability > 0 && random.nextDouble() < lossProbability) {
+        pagesLost++;
+        continue;
+      }
+      byte [] frame = newFrame(MessageId.BROADCAST_DATA, 9);
+      frame[2] = (byte) channel.number;
+      System.arraycopy(page, 0, frame, 3, page.length);
+      out.add(frame);
+      pagesSent++;
+    }
+    if (out != frames && !out.isEmpty()) {
+      queue.add(new Emission(sequence++, emission.nominal + (pages - 1) * period, 
+          out.toArray(new byte[out.size()][])));
+    }
+    
+    emission.nominal += pages * period;
+    emission.due = emission.nominal;
+    if (jitterNanos > 0) {
+      emission.due += (long) ((random.nextDouble() * 2 - 1) * jitterNanos);
+    }
+    queue.add(emission);
+  }
+  
+  private static byte [] newFrame(MessageId id, int length) {
+    byte [] frame = new byte[length + 2];
+    frame[0] = (byte) length;
+    frame[1] = id.getMessageID();
+    return frame;
+  }
+  
+  /**
+   * Should hold lock
+   */
+  private void queueFrames(long delayNanos, byte [] ... frames) {
+    queue.add(new Emission(sequence++, System.nanoTime() + delayNanos, frames));
+    queueChanged.signalAll();
+  }
+  
+  /**
+   * Should hold lock
+   */
+  private void respond(int channel, byte messageId, ResponseCode code) {
+    byte [] frame = newFrame(MessageId.RESPONSE_EVENT, 3);
+    frame[2] = (byte) channel;
+    frame[3] = messageId;
+    frame[4] = code.getCode();
+    queueFrames(responseLatencyNanos, frame);
+  }
+  
+  /**
+   * Should hold lock
+   */
+  private void event(int channel, ResponseCode code) {
+    respond(channel, MessageId.EVENT.getMessageID(), code);
+  }
+  
+  private ChannelState getChannel(byte [] message) {
+    int number = message[2] & 0xff;
+    if (number >= channels.length) {
+      return null;
+    }
+    return channels[number];
+  }
+  
+  /**
+   * Should hold lock
+   */
+  private void handle(byte [] message) {
+    byte id = message[1];
+    MessageId messageId = MessageId.lookUp(id);
+    int length = message[0];
+    if (messageId == null) {
+      respond(length > 0 ? message[2] : 0, id, ResponseCode.INVALID_MESSAGE);
+      return;
+    }
+    switch (messageId) {
+      case SYSTEM_RESET:
+        resetChannels();
+        queue.clear();
+        queueFrames(responseLatencyNanos, new byte [] {1, MessageId.STARTUP.getMessageID(), COMMAND_RESET});
+        broadcastStatus(AntStatus.RESET);
+        return;
+      case REQUEST:
+        handleRequest(message);
+        return;
+      case NETWORK_KEY:
+        respond(message[2], id, (message[2] & 0xff) < maxNetworks ? 
+            ResponseCode.RESPONSE_NO_ERROR : ResponseCode.INVALID_NETWORK_NUMBER);
+        return;
+      case BROADCAST_DATA:
+      case ACKNOWLEDGED_DATA:
+      case BURST_DATA:
+        handleData(messageId, message);
+        return;
+      default:
+        break;
+    }
+    
+    ChannelState channel = getChannel(message);
+    if (channel == null) {
+      respond(message[2], id, ResponseCode.INVALID_MESSAGE);
+      return;
+    }
+    
+    switch (messageId) {
+      case ASSIGN_CHANNEL:
+        if (channel.assigned) {
+          respond(channel.number, id, ResponseCode.CHANNEL_IN_WRONG_STATE);
+          return;
+        }
+        if ((message[4] & 0xff) >= maxNetworks) {
+          respond(channel.number, id, ResponseCode.INVALID_NETWORK_NUMBER);
+          return;
+        }
+        channel.assigned = true;
+        channel.type = message[3] & 0xff;
+        channel.deviceNumber = 0;
+        channel.deviceType = 0;
+        channel.transmissionType = 0;
+        break;
+      case UNASSIGN_CHANNEL:
+        if (!channel.assigned || channel.open) {
+          respond(channel.number, id, ResponseCode.CHANNEL_IN_WRONG_STATE);
+          return;
+        }
+        channel.assigned = false;
+        break;
+      case CHANNEL:
+        if (!channel.assigned) {
+          respond(channel.number, id, ResponseCode.CHANNEL_IN_WRONG_STATE);
+          return;
+        }
+        channel.deviceNumber = (message[3] & 0xff) | (message[4] & 0xff) << 8;
+        channel.deviceType = message[5] & ~PAIRING_FLAG & 0xff;
+        channel.transmissionType = message[6] & 0xff;
+        break;
+      case CHANNEL_PERIOD:
+      case CHANNEL_RADIO_FREQ:
+      case CHANNEL_SEARCH_TIMEOUT:
+      case CHANNEL_RADIO_TX_POWER:
+      case SET_LP_SEARCH_TIMEOUT:
+        if (!channel.assigned) {
+          respond(channel.number, id, ResponseCode.CHANNEL_IN_WRONG_STATE);
+          return;
+        }
+        break;
+      case OPEN_CHANNEL:
+        if (!channel.assigned || channel.open) {
+          respond(channel.number, id, ResponseCode.CHANNEL_IN_WRONG_STATE);
+          return;
+        }
+        respond(channel.number, id, ResponseCode.RESPONSE_NO_ERROR);
+        open(channel);
+        return;
+      case CLOSE_CHANNEL:
+        if (!channel.open) {
+          respond(channel.number, id, ResponseCode.CHANNEL_IN_WRONG_STATE);
+          return;
+        }
+        respond(channel.number, id, ResponseCode.RESPONSE_NO_ERROR);
+        close(channel);
+        event(channel.number, ResponseCode.EVENT_CHANNEL_CLOSED);
+        return;
+      default:
+        respond(channel.number, id, ResponseCode.INVALID_MESSAGE);
+        return;
+    }
+    respond(channel.number, id, ResponseCode.RESPONSE_NO_ERROR);
+  }
+  
+  /**
+   * Should hold lock
+   */
+  private void handleRequest(byte [] message) {
+    ChannelState channel = getChannel(message);
+    MessageId requested = message[0] < 2 ? null : MessageId.lookUp(message[3]);
+    if (channel == null || requested == null) {
+      respond(message[2], MessageId.REQUEST.getMessageID(), ResponseCode.INVALID_MESSAGE);
+      return;
+    }
+    byte [] frame;
+    switch (requested) {
+      case CAPABILITIES:
+        frame = newFrame(MessageId.CAPABILITIES, 6);
+        frame[2] = (byte) channels.length;
+        frame[3] = (byte) maxNetworks;
+        break;
+      case VERSION:
+        frame = newFrame(MessageId.VERSION, VERSION.length);
+        System.arraycopy(VERSION, 0, frame, 2, VERSION.length);
+        break;
+      case CHANNEL:
+        frame = newFrame(MessageId.CHANNEL, 5);
+        SimulatedDevice device = channel.device;
+        frame[2] = (byte) channel.number;
+        frame[3] = (byte) (device != null ? device.getDeviceNumber() : channel.deviceNumber);
+        frame[4] = (byte) ((device != null ? device.getDeviceNumber() : channel.deviceNumber) >> 8);
+        frame[5] = (byte) (device != null ? device.getDeviceType() : channel.deviceType);
+        frame[6] = (byte) (device != null ? device.getTransmissionType() : channel.transmissionType);
+        break;
+      case CHANNEL_STATUS:
+        frame = newFrame(MessageId.CHANNEL_STATUS, 2);
+        frame[2] = (byte) channel.number;
+        frame[3] = (byte) (channel.getStatus() | (channel.type & 0xf0));
+        break;
+      default:
+        respond(channel.number, MessageId.REQUEST.getMessageID(), ResponseCode.INVALID_MESSAGE);
+        return;
+    }
+    queueFrames(responseLatencyNanos, frame);
+  }
+  
+  /**
+   * Should hold lock
+   */
+  private void handleData(MessageId messageId, byte [] message) {
+    boolean burst = messageId == MessageId.BURST_DATA;
+    int number = burst ? message[2] & BURST_CHANNEL_MASK : message[2] & 0xff;
+    ChannelState channel = number < channels.length ? channels[number] : null;
+    if (channel == null || !channel.open) {
+      respond(number, message[1], ResponseCode.CHANNEL_NOT_OPENED);
+      return;
+    }
+    if (!burst && channel.device != null) {
+      byte [] data = new byte[8];
+      System.arraycopy(message, 3, data, 0, Math.min(data.length, message.length - 3));
+      channel.device.receive(data);
+    }
+    boolean complete = messageId == MessageId.ACKNOWLEDGED_DATA 
+        || (burst && (message[2] & BURST_LAST_PACKET) != 0);
+    if (!complete) {
+      return;
+    }
+    boolean failed = channel.device == null && (channel.type & MASTER_CHANNEL) == 0;
+    if (!failed && lossProbability > 0) {
+      failed = random.nextDouble() < lossProbability;
+    }
+    event(channel.number, failed ? ResponseCode.EVENT_TRANSFER_TX_FAILED 
+        : ResponseCode.EVENT_TRANSFER_TX_COMPLETED);
+  }
+  
+  /**
+   * Should hold lock
+   */
+  private void open(ChannelState channel) {
+    channel.open = true;
+    if ((channel.type & MASTER_CHANNEL) != 0) {
+      return;
+    }
+    for (SimulatedDevice device : devices) {
+      if (isPaired(device) || !device.matches(channel.deviceNumber, channel.deviceType, 
+          channel.transmissionType)) {
+        continue;
+      }
+      channel.device = device;
+      long first = System.nanoTime() + responseLatencyNanos + device.getPeriodNanos();
+      queue.add(new Emission(sequence++, first, channel));
+      queueChanged.signalAll();
+      return;
+    }
+    if (LOGGER.isLoggable(Level.FINE)) {
+      LOGGER.fine("no device for channel " + channel.number + ", searching");
+    }
+  }
+  
+  private boolean isPaired(SimulatedDevice device) {
+    for (ChannelState channel : channels) {
+      if (channel.device == device) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  /**
+   * Should hold lock
+   */
+  private void close(ChannelState channel) {
+    channel.open = false;
+    channel.device = null;
+    channel.generation++;
+  }
+  
+  /**
+   * Should hold lock
+   */
+  private void resetChannels() {
+    for (ChannelState channel : channels) {
+      close(channel);
+      channel.assigned = false;
+    }
+  }
+
+}
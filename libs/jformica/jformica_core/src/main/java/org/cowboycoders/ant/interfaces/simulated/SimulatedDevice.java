@@ -0,0 +1,181 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.interfaces.simulated;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A virtual ANT master, such as a heart rate strap, that a
+ * {@link SimulatedAntTransceiver} pairs with slave channels.
+ * 
+ * @author will
+ *
+ */
+public abstract class SimulatedDevice {
+  
+  /**
+   * channel period units per second
+   */
+  private static final double PERIOD_UNITS = 32768.0;
+  
+  private final int deviceNumber;
+  private final int deviceType;
+  private final int transmissionType;
+  
+  private volatile long periodNanos;
+  
+  /**
+   * @param deviceNumber 1 - 65535
+   * @param deviceType 1 - 127
+   * @param transmissionType 1 - 255
+   * @param channelPeriod messaging period, in 1/32768 s, used until {@link #setRate(double)} 
+   *        is called
+   */
+  protected SimulatedDevice(int deviceNumber, int deviceType, int transmissionType, int channelPeriod) {
+    if (deviceNumber <= 0 || deviceNumber > 0xffff) {
+      throw new IllegalArgumentException("deviceNumber must be between 1 and 65535");
+    }
+    if (deviceType <= 0 || deviceType > 0x7f) {
+      throw new IllegalArgumentException("deviceType must be between 1 and 127");
+    }
+    this.deviceNumber = deviceNumber;
+    this.deviceType = deviceType;
+    this.transmissionType = transmissionType & 0xff;
+    this.periodNanos = (long) (channelPeriod / PERIOD_UNITS * TimeUnit.SECONDS.toNanos(1));
+  }
+
+  public int getDeviceNumber() {
+    return deviceNumber;
+  }
+
+  public int getDeviceType() {
+    return deviceType;
+  }
+
+  public int getTransmissionType() {
+    return transmissionType;
+  }
+  
+  /**
+   * Overrides the profile's messaging period, to drive the stack harder (or softer) 
+   * than a real device would.
+   * 
+   * @param hz broadcast pages per second
+   */
+  public void setRate(double hz) {
+    if (hz <= 0) {
+      throw new IllegalArgumentException("rate must be positive");
+    }
+    periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / hz);
+  }
+  
+  /**
+   * @return time between broadcast pages
+   */
+  public long getPeriodNanos() {
+    return periodNanos;
+  }
+  
+  /**
+   * Checks a slave channel's id against this device. Zero matches anything.
+   * 
+   * @param deviceNumber from the channel id
+   * @param deviceType from the channel id, without the pairing flag
+   * @param transmissionType from the channel id
+   * @return true if a channel with this id would pair with us
+   */
+  boolean matches(int deviceNumber, int deviceType, int transmissionType) {
+    return (deviceNumber == 0 || deviceNumber == this.deviceNumber)
+        && (deviceType == 0 || deviceType == this.deviceType)
+        && (transmissionType == 0 || transmissionType == this.transmissionType);
+  }
+  
+  /**
+   * Fills in the next broadcast page. Called from the transceiver's emitter thread.
+   * 
+   * @param page the 8 data bytes to fill in
+   * @param nanos when the page is sent, on the {@link System#nanoTime()} clock
+   */
+  protected abstract void nextPage(byte [] page, long nanos);
+  
+  /**
+   * Data sent to us by the host, through a broadcast or acknowledged message. Called
+   * with the transceiver's lock held, so it must not block. Ignored by default.
+   * 
+   * @param data the 8 data bytes
+   */
+  protected void receive(byte [] data) {
+  }
+  
+  /**
+   * Counts events, such as wheel revolutions or heart beats, that happen at a 
+   * steady but adjustable interval.
+   */
+  static class EventCounter {
+    
+    private boolean started;
+    private long origin;
+    
+    /**
+     * relative to origin
+     */
+    private long lastEventNanos;
+    private int count;
+    
+    /**
+     * @param now current time
+     * @param intervalNanos time between events, zero or less for none
+     */
+    void advance(long now, long intervalNanos) {
+      if (!started) {
+        started = true;
+        origin = now;
+      }
+      long elapsed = now - origin - lastEventNanos;
+      if (intervalNanos <= 0) {
+        // stopped, so the next event is an interval after we start again
+        lastEventNanos += elapsed;
+        return;
+      }
+      if (elapsed >= intervalNanos) {
+        long events = elapsed / intervalNanos;
+        count += events;
+        lastEventNanos += events * intervalNanos;
+      }
+    }
+    
+    int getCount() {
+      return count;
+    }
+    
+    /**
+     * @return time of the last event in 1/1024 s, as sent by most ANT+ profiles 
+     */
+    int getEventTime() {
+      return (int) (lastEventNanos * 1024 / TimeUnit.SECONDS.toNanos(1));
+    }
+    
+  }
+  
+  static void putUint16LE(byte [] page, int offset, int value) {
+    page[offset] = (byte) value;
+    page[offset + 1] = (byte) (value >> 8);
+  }
+
+}
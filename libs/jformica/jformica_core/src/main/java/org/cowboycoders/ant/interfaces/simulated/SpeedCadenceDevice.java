@@ -0,0 +1,86 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.interfaces.simulated;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ANT+ combined bike speed and cadence sensor
+ * 
+ * @author will
+ *
+ */
+public class SpeedCadenceDevice extends SimulatedDevice {
+  
+  public static final int DEVICE_TYPE = 0x79;
+  public static final int CHANNEL_PERIOD = 8086;
+  
+  /**
+   * in metres
+   */
+  public static final double DEFAULT_WHEEL_CIRCUMFERENCE = 2.096;
+  
+  private final EventCounter wheel = new EventCounter();
+  private final EventCounter crank = new EventCounter();
+  private final double wheelCircumference;
+  private volatile double speed = 25;
+  private volatile int cadence = 90;
+
+  public SpeedCadenceDevice(int deviceNumber) {
+    this(deviceNumber, DEFAULT_WHEEL_CIRCUMFERENCE);
+  }
+  
+  /**
+   * @param deviceNumber of the sensor
+   * @param wheelCircumference in metres
+   */
+  public SpeedCadenceDevice(int deviceNumber, double wheelCircumference) {
+    super(deviceNumber, DEVICE_TYPE, 1, CHANNEL_PERIOD);
+    this.wheelCircumference = wheelCircumference;
+  }
+  
+  /**
+   * @param speed in km/h
+   */
+  public void setSpeed(double speed) {
+    this.speed = speed;
+  }
+  
+  /**
+   * @param cadence in rpm
+   */
+  public void setCadence(int cadence) {
+    this.cadence = cadence;
+  }
+
+  @Override
+  protected void nextPage(byte[] page, long nanos) {
+    double metresPerSecond = speed / 3.6;
+    long wheelInterval = metresPerSecond > 0 ? 
+        (long) (wheelCircumference / metresPerSecond * TimeUnit.SECONDS.toNanos(1)) : 0;
+    int rpm = cadence;
+    wheel.advance(nanos, wheelInterval);
+    crank.advance(nanos, rpm > 0 ? TimeUnit.MINUTES.toNanos(1) / rpm : 0);
+    putUint16LE(page, 0, crank.getEventTime());
+    putUint16LE(page, 2, crank.getCount());
+    putUint16LE(page, 4, wheel.getEventTime());
+    putUint16LE(page, 6, wheel.getCount());
+  }
+
+}
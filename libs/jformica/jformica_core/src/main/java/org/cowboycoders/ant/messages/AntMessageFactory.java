@@ -47,6 +47,20 @@ public class AntMessageFactory {
   
   private static final int STANDARD_PACKET_SIZE = 11;
   
+  /**
+   * One reusable instance per data message type, per thread. Indexed by
+   * {@link #getFlyweightIndex(MessageId, int)}
+   */
+  private static final ThreadLocal<StandardMessage []> FLYWEIGHTS = 
+      new ThreadLocal<StandardMessage []>() {
+    @Override
+    protected StandardMessage[] initialValue() {
+      return new StandardMessage[FLYWEIGHT_TYPES];
+    }
+  };
+  
+  private static final int FLYWEIGHT_TYPES = 9;
+  
   /**
    * Finds the correct message handler
    * @param data raw data from ant api
@@ -57,12 +71,99 @@ public class AntMessageFactory {
     
     
     MessageId id = MessageId.lookUp(data[AntMesg.MESG_ID_OFFSET]);
+    StandardMessage msg = newMessage(id, data.length);
+    
+    if (msg == null) {
+      return null;
+    }
+    
+     msg.decode(data);
+
+    
+    
+    
+    return msg;
+    
+  }
+  
+  /**
+   * As {@link #createMessage(byte[])}, but data messages (broadcast, acknowledged
+   * and burst, in all their extended forms) are decoded into a read only instance
+   * that is reused for the next message of the same type received on this thread.
+   * Such a message is only valid until the caller is finished with it and must be
+   * {@link StandardMessage#copy() copied} to be kept. Other message types are
+   * created as normal.
+   * 
+   * @param data raw data from ant api
+   * @return the appropriate handler
+   * @throws MessageException on decoding error
+   */
+  public static StandardMessage createFlyweightMessage(byte[] data) throws MessageException {
+    MessageId id = MessageId.lookUp(data[AntMesg.MESG_ID_OFFSET]);
+    int index = getFlyweightIndex(id, data.length);
+    if (index < 0) {
+      return createMessage(data);
+    }
+    
+    StandardMessage [] flyweights = FLYWEIGHTS.get();
+    StandardMessage msg = flyweights[index];
+    if (msg == null) {
+      msg = newMessage(id, data.length);
+      flyweights[index] = msg;
+    }
+    
+    msg.setReadOnly(false);
+    try {
+      msg.decode(data, false);
+    } finally {
+      msg.setReadOnly(true);
+    }
+    return msg;
+  }
+  
+  /**
+   * @return index into {@code FLYWEIGHTS}, or -1 if not a data message
+   */
+  private static int getFlyweightIndex(MessageId id, int length) {
+    if (id == null) {
+      return -1;
+    }
+    int extended = length > STANDARD_PACKET_SIZE ? 1 : 0;
+    switch(id) {
+      case BROADCAST_DATA:
+        return extended;
+      case ACKNOWLEDGED_DATA:
+        return 2 + extended;
+      case BURST_DATA:
+        return 4 + extended;
+      case EXT_BROADCAST_DATA:
+        return 6;
+      case EXT_ACKNOWLEDGED_DATA:
+        return 7;
+      case EXT_BURST_DATA:
+        return 8;
+      default:
+        return -1;
+    }
+  }
+  
+  /**
+   * @param id of received message
+   * @param length of the raw data
+   * @return a new, empty, message of the right type or null if unknown
+   */
+  private static StandardMessage newMessage(MessageId id, int length) {
+    
+    if (id == null) {
+      return null;
+    }
+    
     StandardMessage msg = null;
     
     switch(id) {
       
       case BROADCAST_DATA: 
-        if (data.length > STANDARD_PACKET_SIZE) {
+        if (length > STANDARD_PACKET_SIZE) {
           msg = new ExtendedBroadcastDataMessage();
           break;
         } 
@@ -70,7 +171,7 @@ public class AntMessageFactory {
         break;
         
       case ACKNOWLEDGED_DATA:
-        if (data.length > STANDARD_PACKET_SIZE) {
+        if (length > STANDARD_PACKET_SIZE) {
           msg = new ExtendedAcknowledgedDataMessage();
           break;
         } 
@@ -78,7 +179,7 @@ public class AntMessageFactory {
         break;
         
       case BURST_DATA:
-        if (data.length > STANDARD_PACKET_SIZE) {
+        if (length > STANDARD_PACKET_SIZE) {
           msg = new ExtendedBurstDataMessage();
           break;
         } 
@@ -131,17 +232,7 @@ public class AntMessageFactory {
       
     }
     
-    if (msg == null) {
-      return null;
-    }
-    
-     msg.decode(data);
-
-    
-    
-    
     return msg;
-    
   }
   
   
@@ -141,16 +141,15 @@ public class ExtendedMessage extends Message
    * verifies message is in extended format
    * @throws MessageException if not in expected format
    */
-  private static void checkExtendedFormat(ArrayList<Byte> payload) 
+  private static void checkExtendedFormat(byte [] payload) 
       throws MessageException {
     byte extendedFlag;
-    int payloadLength = payload.size();
+    int payloadLength = payload.length;
     
-    try {
-      extendedFlag = payload.get(EXTENDED_FLAG_OFFSET);
-    } catch (IndexOutOfBoundsException e) {
-      throw new MessageException("Payload not long enough to be an extended message",e);
+    if (payloadLength <= EXTENDED_FLAG_OFFSET) {
+      throw new MessageException("Payload not long enough to be an extended message");
     }
+    extendedFlag = payload[EXTENDED_FLAG_OFFSET];
     
     byte expectedLength = MIN_LENGTH;
     for ( ExtendedFlag flag : ExtendedFlag.values() ) {
@@ -171,7 +170,7 @@ public class ExtendedMessage extends Message
   public void decode(byte[] buffer, boolean noChecks) throws MessageException {
     super.decode(buffer,noChecks);
     if (!noChecks) {
-      checkExtendedFormat(getPayload());
+      checkExtendedFormat(getPayloadBytes());
     }
   }
 
@@ -179,41 +178,30 @@ public class ExtendedMessage extends Message
    * {@inheritDoc} 
    */
   @Override
-  public List<Byte> getPayloadToSend() {
+  public byte [] getPayloadToSendBytes() {
     // strip off extended data
-    List<Byte> standardDataPacket = getStandardPayload();
-    return standardDataPacket;
+    return getStandardPayloadBytes();
   }
   
   /**
    * {@inheritDoc} 
    * @throws ValidationException if payload malformed
    */
-  public void setStandardPayload(ArrayList<Byte> payload) throws ValidationException {
-    try {
-      ArrayList<Byte> extendedPayload = getPayload();
-      for (int i = 0 ; i < AntMesg.MESG_DATA_SIZE ; i++) {
-        if(extendedPayload.size() <= i) {
-          extendedPayload.add(Byte.valueOf((byte) 0));
-        }
-        extendedPayload.set(i, payload.get(i));
-      }
-      setPayload(extendedPayload);
-    } catch (IndexOutOfBoundsException e) {
-      throw new ValidationException("Malformed payload", e);
+  @Override
+  public void setStandardPayloadBytes(byte [] payload) throws ValidationException {
+    if (payload.length < AntMesg.MESG_DATA_SIZE) {
+      throw new ValidationException("Malformed payload");
     }
+    ensurePayloadLength(AntMesg.MESG_DATA_SIZE);
+    System.arraycopy(payload, 0, getPayloadBytes(), 0, AntMesg.MESG_DATA_SIZE);
   }
-    
   
   /**
    * {@inheritDoc} 
    */
   @Override
-  public ArrayList<Byte> getStandardPayload() {
-    ArrayList<Byte> extendedPayload = super.getStandardPayload();
-    ArrayList<Byte> rtn = new ArrayList<Byte>();
-    rtn.addAll(extendedPayload.subList(0, AntMesg.MESG_DATA_SIZE));
-    return rtn;
+  public int getStandardPayloadLength() {
+    return Math.min(getPayloadSize() & 0xff, AntMesg.MESG_DATA_SIZE);
   }
 
   /**
@@ -239,11 +227,11 @@ public class ExtendedMessage extends Message
     
     ExtendedFlag flag = ExtendedFlag.DISABLE;
     List<DataElements> extendedElements = new ArrayList<DataElements>();
-    ArrayList<Byte> payload = getPayload();
-    if (payload.size() <= EXTENDED_FLAG_OFFSET) {
+    byte [] payload = getPayloadBytes();
+    if (payload.length <= EXTENDED_FLAG_OFFSET) {
       return null;
     }
-    byte flagValue = payload.get(EXTENDED_FLAG_OFFSET);
+    byte flagValue = payload[EXTENDED_FLAG_OFFSET];
     Integer rtn = null;
     
     for (ExtendedFlag i : ExtendedFlag.values()) {
@@ -263,7 +251,8 @@ public class ExtendedMessage extends Message
     int index = EXTENDED_FLAG_OFFSET + 1;
     for (DataElements e : extendedElements) {
       if (e == element) {
-        rtn = ByteMerger.lsbMerge(payload.subList(index, index += e.getLength()));
+        rtn = ByteMerger.lsbMerge(payload, index, e.getLength());
+        break;
       }
       index += e.getLength();
     }
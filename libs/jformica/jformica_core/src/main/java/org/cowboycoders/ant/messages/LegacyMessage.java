@@ -20,9 +20,7 @@ package org.cowboycoders.ant.messages;
 
 
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 import org.cowboycoders.ant.defines.AntMesg;
 import org.cowboycoders.ant.messages.Constants.DataElements;
@@ -63,28 +61,14 @@ public class LegacyMessage extends Message
 
  
   private void addExtendedElementsToPayload() {
-    ArrayList<Byte> payload = getPayload();
-    
-    // reserve space for channel id
-    if (payload.size() == 0) {
-      payload.add(Byte.valueOf((byte)0));
-      setPayload(payload);
-    }
-    // don't have to worry about if elements are
-    // there or not as this is only called by constructor
-    // and reset
+    // reserve space for channel id and the zeroed extended elements;
+    // don't have to worry about if elements are there or not as this
+    // is only called by constructor and reset
+    int length = EXTENDED_OFFSET;
     for(DataElements element : extendedElements) {
-      payload = getPayload();
-      for (int i =0 ; i < element.getLength() ; i++) {
-        payload.add(Byte.valueOf((byte)0));
-      }
-      setPayload(payload);
-      try {
-        setDataElement(element,0);
-      } catch (ValidationException e) {
-          throw new FatalMessageException("Error initialising extended data",e);
-      }
+      length += element.getLength();
     }
+    setPayloadBytes(new byte[length]);
   }
 
 
@@ -98,59 +82,46 @@ public class LegacyMessage extends Message
    * {@inheritDoc} 
    */
   @Override
-  public ArrayList<Byte> getStandardPayload() {
-    ArrayList<Byte> extendedPayload = super.getStandardPayload();
-    if (extendedPayload.size() == 0) {
-      return extendedPayload;
+  public int getStandardPayloadLength() {
+    int length = getPayloadSize() & 0xff;
+    if (length <= DATA_OFFSET) {
+      return length;
     }
-    
-    ArrayList<Byte> standardPayload = new ArrayList<Byte>();
-    standardPayload.add(extendedPayload.get(0));
-    if (extendedPayload.size() <= DATA_OFFSET) {
-      return extendedPayload;
+    return 1 + Math.min(length - DATA_OFFSET, AntMesg.MESG_DATA_SIZE -1);
+  }
+  
+  /**
+   * {@inheritDoc} 
+   */
+  @Override
+  protected int toPayloadIndex(int index) {
+    if (index == 0 || (getPayloadSize() & 0xff) <= DATA_OFFSET) {
+      return index;
     }
-    List<Byte> subList = extendedPayload.subList(DATA_OFFSET, extendedPayload.size());
-    subList = subList.subList(0, AntMesg.MESG_DATA_SIZE -1);
-    standardPayload.addAll(subList);
-    return standardPayload;
+    return index + DATA_OFFSET - 1;
   }
   
   /**
    * {@inheritDoc} 
    * @throws ValidationException if payload malformed 
    */
-  public void setStandardPayload(ArrayList<Byte> payload) throws ValidationException {
-    if (payload.size() == 0) {
-      setPayload(new ArrayList<Byte>());
+  @Override
+  public void setStandardPayloadBytes(byte [] payload) throws ValidationException {
+    if (payload.length == 0) {
+      setPayloadBytes(null);
       return;
     }
     
-    try {
-      ArrayList<Byte> extendedPayload = getPayload();
-      if (extendedPayload.size() == 0) {
-        extendedPayload.add(payload.get(0));
-      } else {
-        extendedPayload.set(0, payload.get(0));
-      }
-      
-      if (payload.size() == 1) {
-        setPayload(extendedPayload);
-        return;
-      }
-      
-      for (int i = 1 ; i < payload.size() + DATA_OFFSET 
-          && i - DATA_OFFSET < AntMesg.MESG_DATA_SIZE -1 ; i++) {
-        if (extendedPayload.size() == i) {
-          extendedPayload.add((byte) 0);
-        }
-        if (i >= DATA_OFFSET) {
-          Byte value = payload.get(i - DATA_OFFSET);
-          extendedPayload.set(i, value);
-        }
-      }
-      setPayload(extendedPayload);
-    } catch (IndexOutOfBoundsException e) {
-      throw new ValidationException("Payload malformed", e);
+    int dataLength = Math.min(payload.length, AntMesg.MESG_DATA_SIZE);
+    if (dataLength > 1) {
+      ensurePayloadLength(dataLength + DATA_OFFSET - 1);
+    } else {
+      ensurePayloadLength(1);
+    }
+    byte [] extendedPayload = getPayloadBytes();
+    extendedPayload[0] = payload[0];
+    if (dataLength > 1) {
+      System.arraycopy(payload, 1, extendedPayload, DATA_OFFSET, dataLength - 1);
     }
   }
   
@@ -160,8 +131,7 @@ public class LegacyMessage extends Message
   */
  private static void checkExtendedFormat(Message message) 
      throws MessageException {
-   ArrayList<Byte> payload = message.getPayload();
-   int payloadLength = payload.size();
+   int payloadLength = message.getPayloadBytes().length;
    int expectedLength = PAYLOAD_LENGTH;
    MessageId id = message.getId();
    
@@ -206,14 +176,12 @@ public class LegacyMessage extends Message
   @Override
   public Integer getExtendedData(DataElements element) {
     Integer rtn = null;
-    ArrayList<Byte> payload = getPayload();
-    //DataElements [] extendedElements = {DataElements.DEVICE_NUMBER,
-        //DataElements.DEVICE_TYPE, DataElements.TRANSMISSION_TYPE};
+    byte [] payload = getPayloadBytes();
     
     int index = EXTENDED_OFFSET;
     for (DataElements e : extendedElements) {
       if (e == element) {
-        rtn = ByteMerger.lsbMerge(payload.subList(index, index += e.getLength()));
+        rtn = ByteMerger.lsbMerge(payload, index, e.getLength());
         break;
       }
       index += e.getLength();
@@ -247,32 +215,22 @@ public class LegacyMessage extends Message
   /**
    * inserts extended element bytes into the payload
    * @param element corresponding {@code DataElements}
-   * @param bytesToInsert a {@code List} of Bytes to insert
+   * @param value the value to split into the element's bytes
    * @return true on success, else false
    */
-  private boolean insertExtendedBytes(DataElements element, List<Byte> bytesToInsert) {
-    assert bytesToInsert.size() == element.getLength() : 
-      "Number of bytes to insert doesn't match expected element length";
-    
-    boolean completed = false;
-    ArrayList<Byte> payload = getPayload();
+  private boolean insertExtendedBytes(DataElements element, int value) {
+    byte [] payload = getPayloadBytes();
     
     int index = EXTENDED_OFFSET;
     for (DataElements e : extendedElements) {
       if (e == element) {
-        for (byte b : bytesToInsert) {
-          payload.set(index, b);
-          index++;
-        }
-        completed = true;
-        break;
+        ByteMerger.lsbSplit(value, payload, index, e.getLength());
+        return true;
       }
       index += e.getLength();
     }
     
-    setPayload(payload);
-    
-    return completed;
+    return false;
   }
   
   /**
@@ -287,13 +245,9 @@ public class LegacyMessage extends Message
       throw new FatalMessageException("Arg, element, not in expected list");
     }
     
-    boolean completed = false;
     validateExtendedData(element, value);
-    List<Byte> insertionBytes = ByteMerger.lsbSplit(value, element.getLength());
-    
-    completed = insertExtendedBytes(element, insertionBytes);
     
-    if (!completed) {
+    if (!insertExtendedBytes(element, value)) {
       throw new FatalMessageException("Byte insertion failed");
     }
     
@@ -32,11 +32,18 @@ import org.cowboycoders.ant.defines.AntMesg;
  * Encapsulation of an ANT message. Contains common functionality
  * for standard and extended messages.
  * 
+ * The payload is held as a primitive array. The standard payload is a view
+ * onto it: {@link #toPayloadIndex(int)} maps an index in the standard
+ * payload to the index in the full payload, so subclasses with a different
+ * layout need only override that and {@link #getStandardPayloadLength()}.
+ * 
  * @author will
  *
  */
 public class Message implements Messageable {
   
+  private static final byte [] EMPTY_PAYLOAD = new byte[0];
+  
   /** Holds the ant message type **/
   private MessageId id;
   
@@ -44,18 +51,18 @@ public class Message implements Messageable {
    * The variable component of an Ant message with a given message ID. 
    * Excludes: the sync byte, length, message ID and checksum
    */
-  private ArrayList<Byte> payload;
+  private byte [] payload;
   
   public Message() {
     this(MessageId.INVALID,null);
   }
    
-  private Message(MessageId id, ArrayList<Byte> payload){
+  private Message(MessageId id, byte [] payload){
     if (id == null) {
       id = MessageId.INVALID;
     }
     if ( payload  == null ) {
-      payload = new ArrayList<Byte>();
+      payload = EMPTY_PAYLOAD;
     }
     this.payload = payload;
     this.id = id;
@@ -72,33 +79,61 @@ public class Message implements Messageable {
     this(id,null);
   }
   
-  /*
-  public Message(Byte id, ArrayList<Byte> payload){
-    this(MessageId.lookUp(id),payload);
-  }
-  
-  public Message(Message message) {
-    this(message.getId(),message.getPayload());
-  }
-  */
-  
   /**
    * Gets a copy of the current {@code Message.payload}
    * @return {@code payload} as {@code Arraylist<Byte>}
+   * @deprecated boxes every byte, use {@link #getPayloadBytes()}
    */
-  @SuppressWarnings("unchecked")
+  @Deprecated
   protected ArrayList<Byte> getPayload() {
-    return (ArrayList<Byte>)payload.clone();
+    ArrayList<Byte> rtn = new ArrayList<Byte>(payload.length);
+    for (byte b : payload) {
+      rtn.add(b);
+    }
+    return rtn;
   }
 
   /**
    * Sets the {@code Message.payload}
    * @param payload replaces the current <code>payload</code> with
    *            a copy of the <code>ArrayList<code> passed in
+   * @deprecated use {@link #setPayloadBytes(byte[])}
    */
-  @SuppressWarnings("unchecked")
+  @Deprecated
   protected void setPayload(ArrayList<Byte> payload) {
-    this.payload = (ArrayList<Byte>)payload.clone();
+    byte [] bytes = new byte[payload.size()];
+    for (int i = 0 ; i < bytes.length ; i++) {
+      bytes[i] = payload.get(i);
+    }
+    this.payload = bytes;
+  }
+  
+  /**
+   * The payload itself, not a copy. Callers may modify bytes in place
+   * but must use {@link #setPayloadBytes(byte[])} to change its length.
+   * @return the payload
+   */
+  protected byte [] getPayloadBytes() {
+    return payload;
+  }
+  
+  /**
+   * Replaces the payload. The array is not copied and should not be modified
+   * by the caller afterwards.
+   * @param payload the new payload
+   */
+  protected void setPayloadBytes(byte [] payload) {
+    this.payload = payload == null ? EMPTY_PAYLOAD : payload;
+  }
+  
+  /**
+   * Extends the payload with zeros if shorter than {@code length}
+   * @param length minimum length
+   */
+  protected void ensurePayloadLength(int length) {
+    if (payload.length < length) {
+      payload = Arrays.copyOf(payload, length);
+    }
   }
 
   /* (non-Javadoc)
@@ -122,7 +157,7 @@ public class Message implements Messageable {
    * id to {@code MessageId.Invalid}
    */
   public void reset() {
-    setPayload(new ArrayList<Byte>());
+    setPayloadBytes(EMPTY_PAYLOAD);
     setId(MessageId.INVALID);
   }
   
@@ -131,7 +166,7 @@ public class Message implements Messageable {
    */
   @Override
   public byte getPayloadSize() {
-    return (byte) payload.size();
+    return (byte) payload.length;
   }
   
   /* (non-Javadoc)
@@ -139,35 +174,107 @@ public class Message implements Messageable {
    */
   @Override
   public byte [] encode() {
-    List<Byte >payload = getPayloadToSend();
-    return getArrayFromPayload(payload);
+    return getArrayFromPayload(getPayloadToSendBytes());
   }
 
-/* (non-Javadoc)
- * @see org.cowboycoders.ant.messages.MessageInterface#getPayloadToSend()
- */
-@Override
-public List<Byte> getPayloadToSend() {
-    return getPayload();
+  /**
+   * @deprecated boxes every byte, use {@link #getPayloadToSendBytes()}
+   */
+  @Deprecated
+  @Override
+  public List<Byte> getPayloadToSend() {
+    return toList(getPayloadToSendBytes());
   }
-
-/* (non-Javadoc)
- * @see org.cowboycoders.ant.messages.MessageInterface#getStandardPayload()
- */
-@Override
-public ArrayList<Byte> getStandardPayload() {
-  return getPayload();
   
-}
+  /* (non-Javadoc)
+   * @see org.cowboycoders.ant.messages.Messageable#getPayloadToSendBytes()
+   */
+  @Override
+  public byte [] getPayloadToSendBytes() {
+    return payload.clone();
+  }
 
-/* (non-Javadoc)
- * @see org.cowboycoders.ant.messages.MessageInterface#setStandardPayload(java.util.ArrayList)
- */
-@Override
-public void setStandardPayload(ArrayList<Byte> payload) throws ValidationException {
-  setPayload(payload);
+  /**
+   * @deprecated boxes every byte, use {@link #getStandardPayloadBytes()}
+   */
+  @Deprecated
+  @Override
+  public ArrayList<Byte> getStandardPayload() {
+    return toList(getStandardPayloadBytes());
+  }
+
+  /**
+   * @deprecated use {@link #setStandardPayloadBytes(byte[])}
+   */
+  @Deprecated
+  @Override
+  public void setStandardPayload(ArrayList<Byte> payload) throws ValidationException {
+    byte [] bytes = new byte[payload.size()];
+    for (int i = 0 ; i < bytes.length ; i++) {
+      bytes[i] = payload.get(i);
+    }
+    setStandardPayloadBytes(bytes);
+  }
   
-}
+  /* (non-Javadoc)
+   * @see org.cowboycoders.ant.messages.Messageable#getStandardPayloadBytes()
+   */
+  @Override
+  public byte [] getStandardPayloadBytes() {
+    byte [] rtn = new byte[getStandardPayloadLength()];
+    for (int i = 0 ; i < rtn.length ; i++) {
+      rtn[i] = payload[toPayloadIndex(i)];
+    }
+    return rtn;
+  }
+  
+  /* (non-Javadoc)
+   * @see org.cowboycoders.ant.messages.Messageable#setStandardPayloadBytes(byte[])
+   */
+  @Override
+  public void setStandardPayloadBytes(byte [] payload) throws ValidationException {
+    setPayloadBytes(payload.clone());
+  }
+  
+  /**
+   * @return the length of the standard (non extended) payload
+   */
+  public int getStandardPayloadLength() {
+    return payload.length;
+  }
+  
+  /**
+   * Maps an index in the standard payload to an index in the full payload
+   * @param index in the standard payload
+   * @return index in the full payload
+   */
+  protected int toPayloadIndex(int index) {
+    return index;
+  }
+  
+  /**
+   * @param index in the standard payload
+   * @return the byte at {@code index}
+   * @throws IndexOutOfBoundsException if beyond the standard payload
+   */
+  public byte getStandardPayloadByte(int index) {
+    if (index < 0 || index >= getStandardPayloadLength()) {
+      throw new IndexOutOfBoundsException("Index: " + index);
+    }
+    return payload[toPayloadIndex(index)];
+  }
+  
+  /**
+   * @param index in the standard payload
+   * @param value to set
+   * @throws IndexOutOfBoundsException if beyond the standard payload
+   */
+  public void setStandardPayloadByte(int index, byte value) {
+    if (index < 0 || index >= getStandardPayloadLength()) {
+      throw new IndexOutOfBoundsException("Index: " + index);
+    }
+    payload[toPayloadIndex(index)] = value;
+  }
 
 /**
  * @{inheritDoc}
@@ -179,14 +286,13 @@ public void setStandardPayload(ArrayList<Byte> payload) throws ValidationExcepti
     }
     
     id = MessageId.lookUp(buffer[AntMesg.MESG_ID_OFFSET]);
-    byte[] payload = Arrays.copyOfRange(buffer, AntMesg.MESG_DATA_OFFSET, buffer.length);
-    
-    ArrayList<Byte> payLoadList = new ArrayList<Byte>();
-    for (Byte b : payload) {
-      payLoadList.add(b);
+    int length = buffer.length - AntMesg.MESG_DATA_OFFSET;
+    if (payload.length == length) {
+      // payload is never handed out, so it can be refilled in place
+      System.arraycopy(buffer, AntMesg.MESG_DATA_OFFSET, payload, 0, length);
+    } else {
+      setPayloadBytes(Arrays.copyOfRange(buffer, AntMesg.MESG_DATA_OFFSET, buffer.length));
     }
-    
-    setPayload(payLoadList);
   }
   
 /**
@@ -221,21 +327,26 @@ public void setStandardPayload(ArrayList<Byte> payload) throws ValidationExcepti
     return msg;   
   }
   
+  private static ArrayList<Byte> toList(byte [] bytes) {
+    ArrayList<Byte> rtn = new ArrayList<Byte>(bytes.length);
+    for (byte b : bytes) {
+      rtn.add(b);
+    }
+    return rtn;
+  }
   
   /**
    * Helper for encode / toArray
    * @param payload to convert to array
    * @return payload as array
    */
-  private byte [] getArrayFromPayload(List<Byte> payload) {
-    byte payloadSize = (byte) payload.size();
+  private byte [] getArrayFromPayload(byte [] payload) {
+    byte payloadSize = (byte) payload.length;
     byte [] rtn = new byte[payloadSize + AntMesg.MESG_HEADER_SIZE];
     
     rtn[AntMesg.MESG_SIZE_OFFSET] = payloadSize;
     rtn[AntMesg.MESG_ID_OFFSET] = id.getMessageID();
-    for (byte i = AntMesg.MESG_DATA_OFFSET ; i < rtn.length ; i++) {
-      rtn[i] = payload.get(i - AntMesg.MESG_DATA_OFFSET);
-    }
+    System.arraycopy(payload, 0, rtn, AntMesg.MESG_DATA_OFFSET, payload.length);
     
     return rtn;
   }
@@ -244,11 +355,9 @@ public void setStandardPayload(ArrayList<Byte> payload) throws ValidationExcepti
    * {@inheritDoc}
    */
   public byte [] toArray() {
-    List<Byte >payload = getPayload();
     return getArrayFromPayload(payload);
   }
   
   
 
 }
-
@@ -47,22 +47,48 @@ public interface Messageable {
    *  Returns the payload actually sent to the ant chip. Override
    *  if sent message is in different format to that received.
    * @return the payload to send to the ant chip
+   * @deprecated boxes every byte, use {@link #getPayloadToSendBytes()}
    */
+  @Deprecated
   public abstract List<Byte> getPayloadToSend();
+  
+  /**
+   *  Returns a copy of the payload actually sent to the ant chip.
+   * @return the payload to send to the ant chip
+   */
+  public abstract byte [] getPayloadToSendBytes();
 
   /**
    * Returns the payload in the standard (non extended) form.
    * @return the payload in standard form
+   * @deprecated boxes every byte, use {@link #getStandardPayloadBytes()}
    */
+  @Deprecated
   public abstract ArrayList<Byte> getStandardPayload();
+  
+  /**
+   * Returns a copy of the payload in the standard (non extended) form.
+   * @return the payload in standard form
+   */
+  public abstract byte [] getStandardPayloadBytes();
 
   /**
    * Sets the payload in the standard (non extended) form.
    * @param the payload in standard form 
    * @throws ValidationException if payload is malformed
+   * @deprecated use {@link #setStandardPayloadBytes(byte[])}
    */
+  @Deprecated
   public abstract void setStandardPayload(ArrayList<Byte> payload)
       throws ValidationException;
+  
+  /**
+   * Sets the payload in the standard (non extended) form.
+   * @param the payload in standard form, copied by the callee
+   * @throws ValidationException if payload is malformed
+   */
+  public abstract void setStandardPayloadBytes(byte [] payload)
+      throws ValidationException;
 
   /**
    * see @{code Message.decode(byte[], boolean)}
@@ -27,7 +27,6 @@ import java.util.List;
 
 import org.cowboycoders.ant.messages.Constants.DataElements;
 import org.cowboycoders.ant.utils.BitUtils;
-import org.cowboycoders.ant.utils.DataElementUtils;
 import org.cowboycoders.ant.utils.ValidationUtils;
 
 /**
@@ -56,6 +55,11 @@ public abstract class StandardMessage
    */
   private boolean allElementsMustBePresent = false;
   
+  /**
+   * Set on instances reused by {@link AntMessageFactory#createFlyweightMessage(byte[])}
+   */
+  private boolean readOnly = false;
+  
   /**
    * holds the total length (in bytes) of all elements in {@code messageElements} 
    */
@@ -105,8 +109,6 @@ public abstract class StandardMessage
     
     this.id = id;
     
-    ArrayList<Byte> payload = new ArrayList<Byte>();
-
     if (message == null) {
       message = new Message();
     }
@@ -121,15 +123,11 @@ public abstract class StandardMessage
     this.messageElements = messageElements;
     
     for (DataElements element : messageElements) {
-      int elementLength = element.getLength();
-      totalElementLength += elementLength;
-      for (int i= 0 ; i < elementLength ; i++) {
-        payload.add((byte) 0);
-      }
+      totalElementLength += element.getLength();
     }
     
     try {
-      this.message.setStandardPayload(payload);
+      this.message.setStandardPayloadBytes(new byte[totalElementLength]);
     } catch (ValidationException e) {
       throw new FatalMessageException("Error setting payload", e);
     }
@@ -149,6 +147,7 @@ public abstract class StandardMessage
    */
   protected
   final void setId(MessageId id) {
+    checkWritable();
     message.setId(id);
   }
   
@@ -170,12 +169,22 @@ public abstract class StandardMessage
   
   /**
    * {@inheritDoc} 
+   * @deprecated boxes every byte, use {@link #getPayloadToSendBytes()}
    */
+  @Deprecated
   @Override
   public final List<Byte> getPayloadToSend() {
     return message.getPayloadToSend();
   }
   
+  /**
+   * {@inheritDoc} 
+   */
+  @Override
+  public final byte [] getPayloadToSendBytes() {
+    return message.getPayloadToSendBytes();
+  }
+  
   /**
    * {@inheritDoc} 
    */
@@ -188,7 +197,7 @@ public abstract class StandardMessage
         throw new MessageException("Mesage Id does not match that expected for" +
         		" " + this.getClass());
       }
-      if (this.allElementsMustBePresent && getStandardPayload().size() < totalElementLength) {
+      if (this.allElementsMustBePresent && getStandardPayloadLength() < totalElementLength) {
         throw new MessageException("Insuffucient data for" +
             " " + this.getClass());
       }
@@ -202,6 +211,7 @@ public abstract class StandardMessage
   @Override
   public
   final void decode(byte[] buffer) throws MessageException {
+    checkWritable();
     decode(buffer,false);
   }
   
@@ -231,18 +241,113 @@ public abstract class StandardMessage
     return message;
   }
 
+  /**
+   * @deprecated boxes every byte, use {@link #getStandardPayloadBytes()}
+   * or the single byte accessors
+   */
+  @Deprecated
   @Override
   public final ArrayList<Byte> getStandardPayload() {
     return message.getStandardPayload();
   }
 
+  /**
+   * @deprecated use {@link #setStandardPayloadBytes(byte[])}
+   */
+  @Deprecated
   @Override
   public final void setStandardPayload(ArrayList<Byte> payload)
       throws ValidationException {
+    checkWritable();
     message.setStandardPayload(payload);
     
   }
   
+  @Override
+  public final byte [] getStandardPayloadBytes() {
+    return message.getStandardPayloadBytes();
+  }
+  
+  @Override
+  public final void setStandardPayloadBytes(byte [] payload)
+      throws ValidationException {
+    checkWritable();
+    message.setStandardPayloadBytes(payload);
+  }
+  
+  /**
+   * @return the length of the standard payload
+   */
+  public final int getStandardPayloadLength() {
+    return message.getStandardPayloadLength();
+  }
+  
+  /**
+   * @param offset into the standard payload
+   * @return the byte at {@code offset}
+   * @throws IndexOutOfBoundsException if beyond the standard payload
+   */
+  public final byte getStandardPayloadByte(int offset) {
+    return message.getStandardPayloadByte(offset);
+  }
+  
+  /**
+   * @param offset into the standard payload
+   * @return the byte at {@code offset} as an unsigned value
+   * @throws IndexOutOfBoundsException if beyond the standard payload
+   */
+  public final int getUnsignedByte(int offset) {
+    return getStandardPayloadByte(offset) & 0xff;
+  }
+  
+  /**
+   * @param offset into the standard payload of the least significant byte
+   * @return the unsigned little endian 16 bit value at {@code offset}
+   * @throws IndexOutOfBoundsException if beyond the standard payload
+   */
+  public final int getUint16LE(int offset) {
+    return getUnsignedByte(offset) | (getUnsignedByte(offset + 1) << 8);
+  }
+  
+  /**
+   * @param offset into the standard payload
+   * @param mask bits to keep
+   * @return the byte at {@code offset}, masked and shifted so that the
+   *        lowest bit of the mask is bit 0
+   * @throws IndexOutOfBoundsException if beyond the standard payload
+   */
+  public final int getBits(int offset, int mask) {
+    int value = getUnsignedByte(offset) & mask;
+    return mask == 0 ? 0 : value >>> Integer.numberOfTrailingZeros(mask);
+  }
+  
+  /**
+   * Finds where an element starts in the standard payload
+   * @param element to look for
+   * @param skip the number of identical elements to skip
+   * @return the offset or -1 if there are fewer than skip + 1 matching elements
+   * @throws FatalMessageException if element is not part of this message
+   */
+  private int getElementOffset(DataElements element, int skip) {
+    boolean present = false;
+    int elementCount = 0;
+    int index = 0;
+    for (DataElements e : messageElements) {
+      if (e == element) {
+        present = true;
+        if (elementCount == skip) {
+          return index;
+        }
+        elementCount++;
+      }
+      index += e.getLength();
+    }
+    if (!present) {
+      throw new FatalMessageException("Arg, element, not in expected list");
+    }
+    return -1;
+  }
+  
   /**
    * Sets the value of a DataElement in a given payload
    * @param element to set
@@ -251,18 +356,16 @@ public abstract class StandardMessage
    * @return true on success, else false
    */
   protected boolean setDataElement(DataElements element, Integer value, int skip) {
-    ArrayList<Byte> payload = getStandardPayload();
-    boolean completed = false;
-    completed = DataElementUtils.setDataElement(payload,messageElements,element,value,0,skip);
-    if (completed) {
-      try {
-        setStandardPayload(payload);
-      } catch (ValidationException e) {
-        throw new FatalMessageException("Cannot set payload");
-      }
-      
+    checkWritable();
+    int index = getElementOffset(element, skip);
+    if (index < 0) {
+      throw new FatalMessageException("Byte insertion failed");
+    }
+    int bits = value;
+    for (int i = 0 ; i < element.getLength() ; i++) {
+      message.setStandardPayloadByte(index + i, (byte) (bits >>> (i * 8)));
     }
-    return completed;
+    return true;
   }
   
   protected boolean setDataElement(DataElements element, Integer value) {
@@ -270,16 +373,22 @@ public abstract class StandardMessage
   }
   
   /**
-   * Gets the value of a DataElement in a given payload
+   * Gets the value of a DataElement in a given payload. As with
+   * {@link org.cowboycoders.ant.utils.ByteMerger#lsbMerge(List)}, the
+   * bytes are sign extended before merging.
    * @param element to get data for
    * @param skip the number of identical elements to skip before returning
    * @return the data associated with the element
    */
   protected Integer getDataElement(DataElements element,int skip) {
-    Integer rtn = null;
-    ArrayList<Byte> payload = getStandardPayload();
-    int offset = 0; 
-    rtn = DataElementUtils.getDataElement(payload, messageElements, element, offset,skip);
+    int index = getElementOffset(element, skip);
+    if (index < 0) {
+      return null;
+    }
+    int rtn = 0;
+    for (int i = 0 ; i < element.getLength() ; i++) {
+      rtn |= message.getStandardPayloadByte(index + i) << (i * 8);
+    }
     return rtn;
   }
   
@@ -296,17 +405,16 @@ public abstract class StandardMessage
    * @param element the element to append
    */
   protected void addOptionalDataElement(DataElements element) {
+    checkWritable();
     messageElements = getMessageElements();
     DataElements[] newElements = Arrays.copyOf(messageElements, 
         messageElements.length + 1);
     newElements[messageElements.length] = element;
     setMessageElements(newElements);
-    ArrayList<Byte> payload = getStandardPayload();
-    for (int i= 0 ; i < element.getLength() ; i++) {
-      payload.add((byte) 0);
-    }
+    byte [] payload = Arrays.copyOf(getStandardPayloadBytes(),
+        getStandardPayloadLength() + element.getLength());
     try {
-      this.message.setStandardPayload(payload);
+      this.message.setStandardPayloadBytes(payload);
     } catch (ValidationException e) {
       throw new FatalMessageException("Error setting payload", e);
     }
@@ -385,6 +493,49 @@ public abstract class StandardMessage
   protected void setAllElementsMustBePresent(boolean flag) {
     this.allElementsMustBePresent = flag;
   }
+  
+  /**
+   * A read only message is a view that is refilled with the next received
+   * message of the same type, so it is only valid until the listener it was
+   * passed to returns. Use {@link #copy()} to keep it.
+   * @return true if this message cannot be modified
+   */
+  public final boolean isReadOnly() {
+    return readOnly;
+  }
+  
+  final void setReadOnly(boolean flag) {
+    this.readOnly = flag;
+  }
+  
+  /**
+   * @throws UnsupportedOperationException if {@link #isReadOnly()}
+   */
+  private void checkWritable() {
+    if (readOnly) {
+      throw new UnsupportedOperationException("read only view of a received message, copy() it first");
+    }
+  }
+  
+  /**
+   * Returns an independent, writable copy of a received message
+   * @return the copy
+   * @throws UnsupportedOperationException if this is not a type of message
+   *          {@link AntMessageFactory} can decode
+   */
+  public StandardMessage copy() {
+    StandardMessage rtn;
+    try {
+      rtn = AntMessageFactory.createMessage(toArray());
+    } catch (MessageException e) {
+      // toArray / decode is by design reversible
+      throw new FatalMessageException("Error copying message", e);
+    }
+    if (rtn == null) {
+      throw new UnsupportedOperationException("cannot copy " + getClass());
+    }
+    return rtn;
+  }
 
   
 
@@ -18,8 +18,6 @@
  */
 package org.cowboycoders.ant.messages.data;
 
-import java.util.ArrayList;
-import java.util.List;
 
 import org.cowboycoders.ant.messages.ChannelMessage;
 import org.cowboycoders.ant.messages.FatalMessageException;
@@ -27,7 +25,6 @@ import org.cowboycoders.ant.messages.Message;
 import org.cowboycoders.ant.messages.ValidationException;
 import org.cowboycoders.ant.messages.MessageId;
 import org.cowboycoders.ant.messages.Constants.DataElements;
-import org.cowboycoders.ant.utils.ArrayUtils;
 
 /**
  * Common functionality for all data messages
@@ -55,60 +52,60 @@ public abstract class DataMessage extends ChannelMessage {
     super(backend,id, channelNo,additionalElements);
   }
 
-  /**
-   * {@see setData(Byte[])}
-   * @param data
-   */
-  public void setData(byte[] data) {
-    Byte [] boxed = new Byte[data.length];
-    for(int i =0 ; i < data.length ; i++) {
-      boxed[i] = data[i];
-    }
-    setData(boxed);
-  }
-  
   /**
    * 
    * @param data to set as 'data' section in payload (must be exactly 8 bytes)
    * @throws FatalMessageException on error setting payload
    */
-  public void setData(Byte[] data) {
+  public void setData(byte[] data) {
     if (data.length != DATA_LENGTH) {
       throw new FatalMessageException("data array incorrect length");
     }
-    ArrayList <Byte> payload = new ArrayList<Byte>();
-    payload.add((byte)getChannelNumber());
-    for(int i =0 ; i < data.length ; i++) {
-      payload.add(data[i]);
-    }
+    byte [] payload = new byte[data.length + 1];
+    payload[0] = (byte)getChannelNumber();
+    System.arraycopy(data, 0, payload, 1, data.length);
     try {
-      setStandardPayload(payload);
+      setStandardPayloadBytes(payload);
     } catch (ValidationException e) {
         throw new FatalMessageException("Error setting data",e);
     }
   }
+  
+  /**
+   * {@see setData(byte[])}
+   * @param data
+   */
+  public void setData(Byte[] data) {
+    byte [] unboxed = new byte[data.length];
+    for(int i =0 ; i < data.length ; i++) {
+      unboxed[i] = data[i];
+    }
+    setData(unboxed);
+  }
    
   
   /**
-   * {@see getData()}
+   * returns 'data' section of payload
+   * @return data contained in payload (8 bytes)
    */
   public byte [] getPrimitiveData() {
-    Byte [] boxedData = getData();
-    byte [] rtn = new byte[boxedData.length];
-    for(int i =0 ; i < boxedData.length ; i++) {
-      rtn[i] = boxedData[i];
+    byte [] rtn = new byte[getStandardPayloadLength() - 1];
+    for(int i =0 ; i < rtn.length ; i++) {
+      rtn[i] = getStandardPayloadByte(i + 1);
     }
     return rtn;
   }
   
   /**
-   * returns 'data' section of payload
-   * @return data contained in payload (8 bytes)
+   * {@see getPrimitiveData()}
    */
   public Byte [] getData() {
-    List <Byte> payload = getStandardPayload();
-    payload = payload.subList(1, payload.size());
-    return payload.toArray(new Byte[0]);
+    byte [] data = getPrimitiveData();
+    Byte [] rtn = new Byte[data.length];
+    for(int i =0 ; i < data.length ; i++) {
+      rtn[i] = data[i];
+    }
+    return rtn;
   }
   
   /**
@@ -118,7 +115,11 @@ public abstract class DataMessage extends ChannelMessage {
    * @return the payload as an int []
    */
   public int[] getUnsignedData() {
-    return ArrayUtils.unsignedBytesToInts(getData());
+    int [] rtn = new int[getStandardPayloadLength() - 1];
+    for(int i =0 ; i < rtn.length ; i++) {
+      rtn[i] = getUnsignedByte(i + 1);
+    }
+    return rtn;
   }
   
 
@@ -18,7 +18,7 @@
  */
 package org.cowboycoders.ant.messages.notifications;
 
-import java.util.List;
+import java.util.Arrays;
 
 import org.cowboycoders.ant.messages.MessageException;
 import org.cowboycoders.ant.messages.MessageId;
@@ -48,7 +48,7 @@ public class SerialErrorMessage extends StandardMessage {
 
   @Override
   public void validate() throws MessageException {
-    if ( getStandardPayload().size() < 1) {
+    if ( getStandardPayloadLength() < 1) {
       throw new MessageException("insufficent data");
     }
   }
@@ -58,7 +58,7 @@ public class SerialErrorMessage extends StandardMessage {
    * @return Error byte (unadulterated)
    */
   public byte getErrorNumber() {
-    return getStandardPayload().get(0);
+    return getStandardPayloadByte(0);
   }
   
   /**
@@ -90,14 +90,9 @@ public class SerialErrorMessage extends StandardMessage {
    * @return original message as raw bytes
    */
   public byte [] getOriginalMessage() {
-    List<Byte> payload = getStandardPayload();
+    byte [] payload = getStandardPayloadBytes();
     //strip off error code
-    payload = payload.subList(1, payload.size());
-   byte [] rtn = new byte[payload.size()];
-   for (int i = 0 ; i< payload.size() ; i++) {
-     rtn[i] = payload.get(i);
-   }
-   return rtn;
+    return Arrays.copyOfRange(payload, 1, payload.length);
   }
 
 }
@@ -48,7 +48,7 @@ public class StartupMessage extends StandardMessage {
 
   @Override
   public void validate() throws MessageException {
-    if ( getStandardPayload().size() < 1) {
+    if ( getStandardPayloadLength() < 1) {
       throw new MessageException("insufficent data");
     }
   }
@@ -57,7 +57,7 @@ public class StartupMessage extends StandardMessage {
    * @return true, if caused by power on
    */
   public boolean wasPowerOnReset() {
-    if (getStandardPayload().get(0) == 0) return true;
+    if (getStandardPayloadByte(0) == 0) return true;
     return false;
   }
   
@@ -66,7 +66,7 @@ public class StartupMessage extends StandardMessage {
    * @return true if hardware line was reset
    */
   public boolean wasHardwareLineReset() {
-    if ((getStandardPayload().get(0) & (1 << 0)) != 0) return true;
+    if ((getStandardPayloadByte(0) & (1 << 0)) != 0) return true;
     return false;
   }
   
@@ -74,7 +74,7 @@ public class StartupMessage extends StandardMessage {
    * @return true if reset by watchdog timer
    */
   public boolean wasWatchDogReset() {
-    if ((getStandardPayload().get(0) & (1 << 1)) != 0) return true;
+    if ((getStandardPayloadByte(0) & (1 << 1)) != 0) return true;
     return false;
   }
   
@@ -83,7 +83,7 @@ public class StartupMessage extends StandardMessage {
    * {@code org.cowboycoders.org.ant.messages.control.ResetMessage}
    */
   public boolean wasCommandReset() {
-    if ((getStandardPayload().get(0) & (1 << 5)) != 0) return true;
+    if ((getStandardPayloadByte(0) & (1 << 5)) != 0) return true;
     return false;
   }
   
@@ -91,7 +91,7 @@ public class StartupMessage extends StandardMessage {
    * @return true if synchronous
    */
   public boolean wasSynchronousReset() {
-    if ((getStandardPayload().get(0) & (1 << 6)) != 0) return true;
+    if ((getStandardPayloadByte(0) & (1 << 6)) != 0) return true;
     return false;
   }
   
@@ -99,7 +99,7 @@ public class StartupMessage extends StandardMessage {
    * @return true if result of powersaving
    */
   public boolean wasSuspendReset() {
-    if ((getStandardPayload().get(0) & (1 << 7)) != 0) return true;
+    if ((getStandardPayloadByte(0) & (1 << 7)) != 0) return true;
     return false;
   }
   
@@ -23,6 +23,7 @@ package org.cowboycoders.ant.messages.responses;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.cowboycoders.ant.messages.Constants.DataElements;
@@ -88,11 +89,16 @@ public class CapabilityResponse extends StandardMessage {
         break;       
     }
     
-    LOGGER.finer("capabilityByte :" + String.format("%x", capabilityByte));
+    boolean finer = LOGGER.isLoggable(Level.FINER);
+    if (finer) {
+      LOGGER.finer("capabilityByte :" + String.format("%x", capabilityByte));
+    }
     
     for (Capability c : Capability.getCapabilitiesInCategory(category)) {
       byte mask = c.getCode();
-      LOGGER.finer("mask :" + String.format("%x", mask));
+      if (finer) {
+        LOGGER.finer("mask :" + String.format("%x", mask));
+      }
       if ((capabilityByte & mask) != 0) {
         rtn.add(c);
       }
@@ -60,7 +60,7 @@ public class ChannelResponse extends ChannelMessage{
   @Override
   public void validate() throws MessageException {
     super.validate();
-    if(getStandardPayload().size() < 3) {
+    if(getStandardPayloadLength() < 3) {
       throw new MessageException("insufficent data");
     }
   }
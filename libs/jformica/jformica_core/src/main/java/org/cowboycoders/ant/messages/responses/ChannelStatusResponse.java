@@ -93,7 +93,7 @@ public class ChannelStatusResponse extends ChannelMessage {
   @Override
   public void validate() throws MessageException {
     super.validate();
-    if(getStandardPayload().size() < 2) {
+    if(getStandardPayloadLength() < 2) {
       throw new MessageException("insufficent data");
     }
   }
@@ -64,6 +64,35 @@ public class ByteMerger {
     return rtn;
   }
   
+  /**
+   * Least significant byte first. Matches {@link #lsbMerge(List)}, including
+   * its sign extension of each byte, without boxing.
+   * @param data array holding the bytes to merge
+   * @param offset index of the least significant byte
+   * @param length number of bytes to merge
+   * @return the merger of the bytes
+   */
+  public static int lsbMerge(byte [] data, int offset, int length) {
+    int rtn = 0;
+    for (int i = 0 ; i < length ; i++) {
+      rtn |= data[offset + i] << (i * 8);
+    }
+    return rtn;
+  }
+  
+  /**
+   * Splits an integer into {@code data}, least significant byte first
+   * @param in integer to split
+   * @param data destination array
+   * @param offset index to write the least significant byte to
+   * @param length number of bytes to produce
+   */
+  public static void lsbSplit(int in, byte [] data, int offset, int length) {
+    for (int i = 0 ; i < length ; i++) {
+      data[offset + i] = (byte) (in >>> (i * 8));
+    }
+  }
+  
   /**
    * Splits a list of bytes ordered with least significant byte first
    * @param in integer to split
@@ -18,24 +18,24 @@
  */
 package org.cowboycoders.ant.utils;
 
-import java.util.concurrent.locks.Condition;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
-import org.cowboycoders.ant.events.FixedSizeBuffer;
+import org.cowboycoders.ant.events.RingBuffer;
 
 public class SharedBuffer<V> {
   
   private int length;
-  
-  private Lock lock = new ReentrantLock();
-
-  private Condition contentsChanged = lock.newCondition();
 
-  private FixedSizeBuffer<V> msgBuffer = null;
+  private RingBuffer<V> msgBuffer = null;
   
   private boolean clearable = true;
   
+  /**
+   * Number of threads currently searching the buffer
+   */
+  private final AtomicInteger readers = new AtomicInteger();
+  
   public synchronized void setClearable(boolean flag) {
     this.clearable = flag;
   }
@@ -53,6 +53,47 @@ public class SharedBuffer<V> {
     msgBuffer.clear();
     return true;
   }
+  
+  /**
+   * Publishes to the backing buffer if {@link #accept(Object)} allows it
+   * @param e element to add
+   * @return false if rejected
+   */
+  public boolean offer(V e) {
+    if (!accept(e)) {
+      return false;
+    }
+    msgBuffer.publish(e);
+    return true;
+  }
+  
+  /**
+   * Marks the start of a search of the buffer. Must be paired with
+   * {@link #endRead()}
+   */
+  public void beginRead() {
+    readers.incrementAndGet();
+  }
+  
+  public void endRead() {
+    readers.decrementAndGet();
+  }
+  
+  /**
+   * @return true if a thread is between {@link #beginRead()} and {@link #endRead()}
+   */
+  public boolean hasReaders() {
+    return readers.get() > 0;
+  }
+  
+  /**
+   * Override to filter elements before they are buffered
+   * @param e candidate element
+   * @return true to buffer
+   */
+  protected boolean accept(V e) {
+    return true;
+  }
       
   /**
    * @return the length
@@ -65,32 +106,19 @@ public class SharedBuffer<V> {
    * @return the lock
    */
   public Lock getLock() {
-    return lock;
-  }
-
-  /**
-   * @return the contentsChanged
-   */
-  public Condition getContentsChanged() {
-    return contentsChanged;
+    return msgBuffer.getLock();
   }
 
   /**
    * @return the msgBuffer
    */
-  public FixedSizeBuffer<V> getMsgBuffer() {
+  public RingBuffer<V> getMsgBuffer() {
     return msgBuffer;
   }
 
   public SharedBuffer(int length) {
     this.length = length;
-    msgBuffer = new FixedSizeBuffer<V>(length);
-    
-  }
-  
-  public SharedBuffer(FixedSizeBuffer<V> buffer) {
-    this.length = buffer.size();
-    msgBuffer = buffer;
+    msgBuffer = new RingBuffer<V>(length);
     
   }
   
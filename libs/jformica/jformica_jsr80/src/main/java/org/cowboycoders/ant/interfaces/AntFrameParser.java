@@ -0,0 +1,160 @@
+/**
+ *     Copyright (c) 2012, Will Szumski
+ *
+ *     This file is part of formicidae.
+ *
+ *     formicidae is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     formicidae is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with formicidae.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.cowboycoders.ant.interfaces;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits the byte stream read from an ant stick into messages. A single
+ * transfer may hold several messages, and a message may be split across
+ * transfers. Messages are found in place in the transfer buffer; only the
+ * returned message, and the odd partial message, is copied.
+ * 
+ * Each message is returned as the length, id and payload, without the sync
+ * byte and checksum. Anything that doesn't checksum is discarded.
+ * 
+ * @author will
+ *
+ */
+class AntFrameParser {
+  
+  static final byte SYNC = (byte) 0xA4;
+  
+  /**
+   * sync, length, id and checksum
+   */
+  static final int FRAME_OVERHEAD = 4;
+  
+  /**
+   * Longest payload we expect from the chip, anything longer is treated as noise
+   */
+  static final int MAX_PAYLOAD_LENGTH = 41;
+  
+  /**
+   * Start of a message that was cut off at the end of the last transfer
+   */
+  private final byte [] partial = new byte[MAX_PAYLOAD_LENGTH + FRAME_OVERHEAD];
+  
+  private int partialLength = 0;
+  
+  private long discarded = 0;
+  
+  /**
+   * @param data transfer buffer
+   * @param offset of the first byte read
+   * @param length number of bytes read
+   * @param frames messages found are added to this
+   * @return number of messages added
+   */
+  int parse(byte [] data, int offset, int length, List<byte []> frames) {
+    int before = frames.size();
+    int end = offset + length;
+    int pos = offset;
+    if (partialLength > 0) {
+      pos = completePartial(data, pos, end, frames);
+    }
+    while (pos < end) {
+      if (data[pos] != SYNC) {
+        pos++;
+        continue;
+      }
+      if (end - pos < 2) {
+        keepPartial(data, pos, end);
+        break;
+      }
+      int payloadLength = data[pos + 1] & 0xff;
+      if (payloadLength > MAX_PAYLOAD_LENGTH) {
+        discarded++;
+        pos++;
+        continue;
+      }
+      int frameLength = payloadLength + FRAME_OVERHEAD;
+      if (end - pos < frameLength) {
+        keepPartial(data, pos, end);
+        break;
+      }
+      if (checksum(data, pos, frameLength - 1) != data[pos + frameLength - 1]) {
+        // may have been payload that looked like a sync byte
+        discarded++;
+        pos++;
+        continue;
+      }
+      frames.add(Arrays.copyOfRange(data, pos + 1, pos + frameLength - 1));
+      pos += frameLength;
+    }
+    return frames.size() - before;
+  }
+  
+  /**
+   * Appends to {@code partial} until it holds a whole message
+   * @return position in {@code data} after the bytes used
+   */
+  private int completePartial(byte [] data, int pos, int end, List<byte []> frames) {
+    while (pos < end) {
+      partial[partialLength++] = data[pos++];
+      if (partialLength == 2 && (partial[1] & 0xff) > MAX_PAYLOAD_LENGTH) {
+        discarded++;
+        partialLength = 0;
+        return pos;
+      }
+      if (partialLength >= 2 && partialLength == (partial[1] & 0xff) + FRAME_OVERHEAD) {
+        if (checksum(partial, 0, partialLength - 1) == partial[partialLength - 1]) {
+          frames.add(Arrays.copyOfRange(partial, 1, partialLength - 1));
+        } else {
+          discarded++;
+        }
+        partialLength = 0;
+        return pos;
+      }
+    }
+    return pos;
+  }
+  
+  private void keepPartial(byte [] data, int pos, int end) {
+    System.arraycopy(data, pos, partial, 0, end - pos);
+    partialLength = end - pos;
+  }
+  
+  /**
+   * @return xor of {@code length} bytes from {@code offset}
+   */
+  static byte checksum(byte [] data, int offset, int length) {
+    byte rtn = 0;
+    for (int i = offset ; i < offset + length ; i++) {
+      rtn ^= data[i];
+    }
+    return rtn;
+  }
+  
+  /**
+   * Forgets any partial message
+   */
+  void reset() {
+    partialLength = 0;
+  }
+  
+  /**
+   * @return number of candidate messages thrown away
+   */
+  long getDiscarded() {
+    return discarded;
+  }
+
+}
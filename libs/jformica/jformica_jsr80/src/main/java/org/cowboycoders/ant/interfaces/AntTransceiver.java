@@ -19,7 +19,11 @@
 package org.cowboycoders.ant.interfaces;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -35,6 +39,7 @@ import javax.usb.UsbException;
 import javax.usb.UsbHostManager;
 import javax.usb.UsbHub;
 import javax.usb.UsbInterface;
+import javax.usb.UsbIrp;
 import javax.usb.UsbNotActiveException;
 import javax.usb.UsbNotOpenException;
 import javax.usb.UsbPipe;
@@ -74,7 +79,23 @@ public class AntTransceiver extends AbstractAntTransceiver {
   
   //private static final int MESSAGE_OFFSET_SYNC = 0;
   
-  private static final int MESSAGE_OFFSET_MSG_LENGTH = 1;
+  /**
+   * Number of reads kept submitted at once, so the stick always has somewhere
+   * to put the next transfer whilst we handle the last
+   */
+  private static final int READ_QUEUE_DEPTH = 4;
+  
+  private static final int READ_BUFFER_SIZE = 64;
+  
+  /**
+   * Queued messages are combined into writes of up to this many bytes
+   */
+  private static final int MAX_WRITE_SIZE = 64;
+  
+  /**
+   * Queued to stop the writer
+   */
+  private static final byte [] STOP_WRITER = new byte[0];
   
   /**
    * Usb Interface
@@ -97,7 +118,7 @@ public class AntTransceiver extends AbstractAntTransceiver {
    */
   private ReentrantLock interfaceLock = new ReentrantLock();
   
-  private boolean readEndpoint = true;
+  private volatile boolean readEndpoint = true;
 
   private UsbEndpoint endpointIn;
 
@@ -107,8 +128,22 @@ public class AntTransceiver extends AbstractAntTransceiver {
   
   
   UsbPipe inPipe = null;
+  
+  UsbPipe outPipe = null;
 
   private UsbReader usbReader;
+  
+  private UsbWriter usbWriter;
+  
+  /**
+   * encoded messages waiting for the writer
+   */
+  private final BlockingQueue<byte []> writeQueue = new LinkedBlockingQueue<byte []>();
+  
+  /**
+   * first write failure not yet reported by {@link #send(byte[])}
+   */
+  private final AtomicReference<Exception> writeFailure = new AtomicReference<Exception>();
 
   //private int deviceNumber;
   
@@ -161,10 +196,14 @@ public class AntTransceiver extends AbstractAntTransceiver {
     this.device = device;
   }
   
-  private void logData(Level level, byte [] data, String tag) {
+  private void logData(Level level, byte [] data, int length, String tag) {
+    if (!LOGGER.isLoggable(level)) {
+      return;
+    }
     StringBuffer logBuffer = new StringBuffer();
     
-    for (Byte b : data) {
+    for (int i = 0 ; i < length ; i++) {
+      byte b = data[i];
       logBuffer.append(String.format("%x ",b));
     }
     
@@ -175,70 +214,190 @@ public class AntTransceiver extends AbstractAntTransceiver {
   }
   
   
+  /**
+   * Keeps {@link #READ_QUEUE_DEPTH} reads submitted, handling them in the order
+   * they complete. Messages from transfers that complete back to back are passed
+   * on together. Falls back to one blocking read at a time if the usb 
+   * implementation can't submit asynchronously.
+   */
   public class UsbReader extends Thread {
+    
+    private final AntFrameParser parser = new AntFrameParser();
+    
+    private final List<byte []> frames = new ArrayList<byte []>();
+    
+    public UsbReader() {
+      super("AntTransceiver reader");
+    }
+    
+    /**
+     * Hands over everything parsed so far
+     */
+    private void flush() {
+      if (frames.isEmpty()) {
+        return;
+      }
+      AntTransceiver.this.broadcastRxMessages(frames);
+      frames.clear();
+    }
+    
+    private void handle(UsbIrp irp) throws UsbException {
+      if (irp.isUsbException()) {
+        throw irp.getUsbException();
+      }
+      logData(Level.FINER, irp.getData(), irp.getActualLength(), "read");
+      parser.parse(irp.getData(), irp.getOffset(), irp.getActualLength(), frames);
+    }
+    
+    private void resubmit(UsbIrp irp) throws UsbException {
+      irp.setActualLength(0);
+      irp.setUsbException(null);
+      irp.setComplete(false);
+      inPipe.asyncSubmit(irp);
+    }
+    
+    /**
+     * @return false if the pipe doesn't support asynchronous submission
+     */
+    private boolean readAsync() throws UsbException {
+      UsbIrp [] irps = new UsbIrp[READ_QUEUE_DEPTH];
+      for (int i = 0 ; i < irps.length ; i++) {
+        irps[i] = inPipe.createUsbIrp();
+        irps[i].setData(new byte[READ_BUFFER_SIZE]);
+        try {
+          inPipe.asyncSubmit(irps[i]);
+        } catch (RuntimeException e) {
+          if (i > 0) {
+            throw e;
+          }
+          LOGGER.log(Level.INFO, "asynchronous reads not supported, reading synchronously", e);
+          return false;
+        }
+      }
+      
+      int next = 0;
+      while (readEndpoint) {
+        UsbIrp irp = irps[next];
+        irp.waitUntilComplete();
+        if (!readEndpoint) {
+          break;
+        }
+        handle(irp);
+        resubmit(irp);
+        next = (next + 1) % irps.length;
+        if (!irps[next].isComplete()) {
+          flush();
+        }
+      }
+      return true;
+    }
+    
+    private void readSync() throws UsbException {
+      UsbIrp irp = inPipe.createUsbIrp();
+      irp.setData(new byte[READ_BUFFER_SIZE]);
+      while (readEndpoint) {
+        irp.setActualLength(0);
+        irp.setComplete(false);
+        inPipe.syncSubmit(irp);
+        handle(irp);
+        flush();
+      }
+    }
 
     @Override
     public void run() {
       
       try {
-        while (readEndpoint) {
-          
-          try {
-           // interfaceLock.lock();
-            //byte [] data = new byte[MAX_MSG_LENGTH];
-            byte [] data = new byte[64];
-            try {
-              //inPipe.open();
-              LOGGER.finest("pre read");
-              inPipe.syncSubmit(data);
-            } finally  {
-              //inPipe.close();
-            }
-            
-            logData(Level.FINER,data,"read");
-       
-            int msgLength = data[MESSAGE_OFFSET_MSG_LENGTH];
-            
-            byte [] cleanData = new byte[ msgLength + 2];
-            
-            for (int i = 0 ; i < msgLength + 2 ; i++) {
-              cleanData[i] = data[i + 1];
-            }
-            
-            AntTransceiver.this.broadcastRxMessage(cleanData);
-            
-            
-            
-          } finally {
-            //interfaceLock.unlock();
-          }
-
-  
+        if (!readAsync()) {
+          readSync();
         }
-        
-        
       } catch (UsbNotActiveException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+        LOGGER.log(Level.SEVERE, "read failed", e);
       } catch (UsbNotOpenException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+        LOGGER.log(Level.SEVERE, "read failed", e);
       } catch (IllegalArgumentException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+        LOGGER.log(Level.SEVERE, "read failed", e);
       } catch (UsbDisconnectedException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+        LOGGER.log(Level.SEVERE, "read failed", e);
       } catch (UsbException e) {
-        // TODO Auto-generated catch block
-        e.printStackTrace();
+        LOGGER.log(Level.SEVERE, "read failed", e);
       } 
       
+      if (parser.getDiscarded() > 0) {
+        LOGGER.warning("discarded " + parser.getDiscarded() + " corrupt messages");
+      }
       LOGGER.finest(this.getClass().toString() + " killed");
     }
     
   }
   
+  /**
+   * Writes queued messages, combining any that are waiting into a single transfer.
+   */
+  public class UsbWriter extends Thread {
+    
+    private final List<byte []> batch = new ArrayList<byte []>();
+    
+    public UsbWriter() {
+      super("AntTransceiver writer");
+    }
+    
+    private byte [] coalesce(byte [] first) {
+      batch.add(first);
+      int length = first.length;
+      byte [] next;
+      // we are the only consumer, so what we peek is what we poll
+      while ((next = writeQueue.peek()) != null && next != STOP_WRITER 
+          && length + next.length <= MAX_WRITE_SIZE) {
+        writeQueue.poll();
+        batch.add(next);
+        length += next.length;
+      }
+      if (batch.size() == 1) {
+        batch.clear();
+        return first;
+      }
+      byte [] rtn = new byte[length];
+      int offset = 0;
+      for (int i = 0 ; i < batch.size() ; i++) {
+        byte [] msg = batch.get(i);
+        System.arraycopy(msg, 0, rtn, offset, msg.length);
+        offset += msg.length;
+      }
+      batch.clear();
+      return rtn;
+    }
+    
+    @Override
+    public void run() {
+      while (true) {
+        byte [] data;
+        try {
+          data = writeQueue.take();
+        } catch (InterruptedException e) {
+          LOGGER.severe("writer interrupted");
+          return;
+        }
+        if (data == STOP_WRITER) {
+          return;
+        }
+        try {
+          write(coalesce(data));
+        } catch (UsbException e) {
+          writeFailed(e);
+        } catch (RuntimeException e) {
+          writeFailed(e);
+        }
+      }
+    }
+    
+  }
+  
+  private void writeFailed(Exception e) {
+    LOGGER.log(Level.WARNING, "write failed", e);
+    writeFailure.compareAndSet(null, e);
+  }
+  
   /**
    * 
    * @param _interface interface to claim / release
@@ -305,6 +464,14 @@ public class AntTransceiver extends AbstractAntTransceiver {
         throw new AntCommunicationException("Endpoints not found");
       }
       
+      // kept open until stopped rather than opened for every write
+      outPipe = endpointOut.getUsbPipe();
+      try {
+        if (!outPipe.isOpen()) outPipe.open();
+      } catch (UsbException e) {
+        throw new AntCommunicationException("Error opening outPipe");
+      }
+      
       
       //FIXME: without these two // don't seem to receive replies to first few messages
       //StandardMessage msg = new ResetMessage();
@@ -334,6 +501,11 @@ public class AntTransceiver extends AbstractAntTransceiver {
       
       this.usbReader.start();            
       
+      writeQueue.clear();
+      writeFailure.set(null);
+      this.usbWriter = new UsbWriter();
+      this.usbWriter.start();
+      
       running = true;
 
       
@@ -469,6 +641,22 @@ public class AntTransceiver extends AbstractAntTransceiver {
     } catch (InterruptedException e) {
       LOGGER.severe("interrupted waiting to shutdown device");
     }
+    
+    try {
+      // the reader stops as soon as one read completes, so others may be outstanding
+      inPipe.abortAllSubmissions();
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.FINE, "couldn't abort reads", e);
+    }
+  }
+  
+  private void killUsbWriter() {
+    writeQueue.offer(STOP_WRITER);
+    try {
+      usbWriter.join();
+    } catch (InterruptedException e) {
+      LOGGER.severe("interrupted waiting for writer to finish");
+    }
   }
       
 
@@ -484,6 +672,8 @@ public class AntTransceiver extends AbstractAntTransceiver {
       
       killUsbReader();
       
+      killUsbWriter();
+      
 
       //try {
         //interfaceLock.lock();
@@ -506,8 +696,9 @@ public class AntTransceiver extends AbstractAntTransceiver {
         try {
           //inPipe.abortAllSubmissions();
           inPipe.close();
+          outPipe.close();
         } catch (UsbException e) {
-          throw new AntCommunicationException("Error closing inPipe",e);
+          throw new AntCommunicationException("Error closing pipes",e);
         }
         
         _interface.release();
@@ -537,44 +728,28 @@ public class AntTransceiver extends AbstractAntTransceiver {
 
   }
   
+  /**
+   * Only called from start, before the writer is running, and the writer
+   */
   private void write(byte [] data) throws UsbNotActiveException, UsbNotOpenException, IllegalArgumentException, UsbDisconnectedException, UsbException {
-    UsbPipe pipe = null;
-    
-    try {
-      lock.lock();
-      pipe = endpointOut.getUsbPipe();
-      if(!pipe.isOpen()) pipe.open();
-      LOGGER.finest("pre submit");
-      pipe.syncSubmit(data);
-      logData(Level.FINER,data,"wrote");
-    }
-    finally {
-      if (pipe != null) {
-        pipe.close();
-      }
-      lock.unlock();
-    }
-     
+    outPipe.syncSubmit(data);
+    logData(Level.FINER,data,data.length,"wrote");
   }
 
+  /**
+   * Queues the message for the writer. A write fails after the send that
+   * queued it has returned, so the failure is thrown by the next call instead,
+   * which doesn't queue its message.
+   * @throws AntCommunicationException if not running or an earlier write failed
+   */
   @Override
   public void send(byte[] message) throws AntCommunicationException {
-    try {
-      if (!running) throw new AntCommunicationException("AntTransceiver not running. Use start()");
-      write(addExtras(message));
-    
-    } catch (UsbNotActiveException e) {
-      throw new AntCommunicationException(e);
-    } catch (UsbNotOpenException e) {
-      throw new AntCommunicationException(e);
-    } catch (IllegalArgumentException e) {
-      throw new AntCommunicationException(e);
-    } catch (UsbDisconnectedException e) {
-      throw new AntCommunicationException(e);
-    } catch (UsbException e) {
-      throw new AntCommunicationException(e);
-    } finally {
+    if (!running) throw new AntCommunicationException("AntTransceiver not running. Use start()");
+    Exception failure = writeFailure.getAndSet(null);
+    if (failure != null) {
+      throw new AntCommunicationException("an earlier write failed", failure);
     }
+    writeQueue.offer(addExtras(message));
   }
   
   public byte getChecksum(byte[] nocheck) {